@@ -0,0 +1,52 @@
+package io.github.mike10004.harreplay;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Value class that represents progress in loading the HAR entries of a replay session.
+ */
+public final class LoadProgress {
+
+    /**
+     * Value of a count that is not known.
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * Number of entries loaded so far, or {@link #UNKNOWN}.
+     */
+    public final int entriesLoaded;
+
+    /**
+     * Total number of entries, or {@link #UNKNOWN} if not yet known.
+     */
+    public final int entriesTotal;
+
+    /**
+     * Flag that indicates loading has ended, successfully or not.
+     */
+    public final boolean complete;
+
+    public LoadProgress(int entriesLoaded, int entriesTotal, boolean complete) {
+        this.entriesLoaded = entriesLoaded;
+        this.entriesTotal = entriesTotal;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns an instance that represents completed loading of an unknown number of entries.
+     * @return a progress instance
+     */
+    public static LoadProgress completeWithUnknownCount() {
+        return new LoadProgress(UNKNOWN, UNKNOWN, true);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("entriesLoaded", entriesLoaded)
+                .add("entriesTotal", entriesTotal)
+                .add("complete", complete)
+                .toString();
+    }
+}
@@ -68,6 +68,21 @@ public class ReplayServerConfig {
     @JsonAdapter(ImmutableListTypeAdapterFactory.class)
     public final ImmutableList<ResponseHeaderTransform> responseHeaderTransforms;
 
+    /**
+     * Flag that specifies whether conditional requests are honored. If true, responses
+     * carry an {@code ETag} header, and requests with {@code If-None-Match} or
+     * {@code If-Modified-Since} preconditions that are met are answered with
+     * 304 Not Modified. False by default, so that responses are replayed exactly as recorded.
+     */
+    public final boolean conditionalRequestsEnabled;
+
+    /**
+     * Rules for rewriting recorded and incoming requests into a canonical form
+     * before they are compared. Null means requests are compared as they are.
+     */
+    @Nullable
+    public final RequestCanonicalization requestCanonicalization;
+
     private ReplayServerConfig() {
         this(1, ImmutableList.of(), ImmutableList.of(), ImmutableList.of());
     }
@@ -83,6 +98,17 @@ public class ReplayServerConfig {
         this.mappings = ImmutableList.copyOf(mappings);
         this.replacements = ImmutableList.copyOf(replacements);
         this.responseHeaderTransforms = ImmutableList.copyOf(responseHeaderTransforms);
+        this.conditionalRequestsEnabled = false;
+        this.requestCanonicalization = null;
+    }
+
+    private ReplayServerConfig(Builder builder) {
+        this.version = builder.version;
+        this.mappings = ImmutableList.copyOf(builder.mappings);
+        this.replacements = ImmutableList.copyOf(builder.replacements);
+        this.responseHeaderTransforms = ImmutableList.copyOf(builder.responseHeaderTransforms);
+        this.conditionalRequestsEnabled = builder.conditionalRequestsEnabled;
+        this.requestCanonicalization = builder.requestCanonicalization;
     }
 
     /**
@@ -446,6 +472,87 @@ public class ReplayServerConfig {
         }
     }
 
+    /**
+     * Class that represents rules for rewriting requests into a canonical form.
+     * Listed names are matched case-insensitively. Removing volatile query parameters
+     * (for example, cache-busting timestamps) and headers (for example, cookies or
+     * request IDs) lets repeated requests match recorded entries without heuristic
+     * penalties for values that never repeat.
+     */
+    public static final class RequestCanonicalization {
+
+        /**
+         * Names of query parameters to remove.
+         */
+        @JsonAdapter(ImmutableListTypeAdapterFactory.class)
+        public final ImmutableList<String> removeQueryParameters;
+
+        /**
+         * Names of query parameters whose values are to be removed.
+         */
+        @JsonAdapter(ImmutableListTypeAdapterFactory.class)
+        public final ImmutableList<String> normalizeQueryParameters;
+
+        /**
+         * Names of headers to remove.
+         */
+        @JsonAdapter(ImmutableListTypeAdapterFactory.class)
+        public final ImmutableList<String> removeHeaders;
+
+        /**
+         * Names of headers whose values are to be replaced by the empty string.
+         */
+        @JsonAdapter(ImmutableListTypeAdapterFactory.class)
+        public final ImmutableList<String> normalizeHeaders;
+
+        /**
+         * Flag that specifies whether query parameters are to be sorted by name.
+         */
+        public final boolean sortQueryParameters;
+
+        @SuppressWarnings("unused") // used by deserializer
+        private RequestCanonicalization() {
+            this(ImmutableList.of(), ImmutableList.of(), ImmutableList.of(), ImmutableList.of(), false);
+        }
+
+        public RequestCanonicalization(Iterable<String> removeQueryParameters, Iterable<String> normalizeQueryParameters,
+                                       Iterable<String> removeHeaders, Iterable<String> normalizeHeaders, boolean sortQueryParameters) {
+            this.removeQueryParameters = ImmutableList.copyOf(removeQueryParameters);
+            this.normalizeQueryParameters = ImmutableList.copyOf(normalizeQueryParameters);
+            this.removeHeaders = ImmutableList.copyOf(removeHeaders);
+            this.normalizeHeaders = ImmutableList.copyOf(normalizeHeaders);
+            this.sortQueryParameters = sortQueryParameters;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RequestCanonicalization that = (RequestCanonicalization) o;
+            return sortQueryParameters == that.sortQueryParameters &&
+                    Objects.equals(removeQueryParameters, that.removeQueryParameters) &&
+                    Objects.equals(normalizeQueryParameters, that.normalizeQueryParameters) &&
+                    Objects.equals(removeHeaders, that.removeHeaders) &&
+                    Objects.equals(normalizeHeaders, that.normalizeHeaders);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(removeQueryParameters, normalizeQueryParameters, removeHeaders, normalizeHeaders, sortQueryParameters);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("removeQueryParameters", removeQueryParameters)
+                    .add("normalizeQueryParameters", normalizeQueryParameters)
+                    .add("removeHeaders", removeHeaders)
+                    .add("normalizeHeaders", normalizeHeaders)
+                    .add("sortQueryParameters", sortQueryParameters)
+                    .toString();
+        }
+    }
+
     /**
      * Class that represents a string value for a field of a {@link Mapping} or {@link Replacement} instance.
      */
@@ -1030,6 +1137,8 @@ public class ReplayServerConfig {
         private final List<Mapping> mappings = new ArrayList<>();
         private final List<Replacement> replacements = new ArrayList<>();
         private final List<ResponseHeaderTransform> responseHeaderTransforms = new ArrayList<>();
+        private boolean conditionalRequestsEnabled;
+        private RequestCanonicalization requestCanonicalization;
 
         private Builder() {
         }
@@ -1064,12 +1173,33 @@ public class ReplayServerConfig {
             return this;
         }
 
+        /**
+         * Sets whether conditional requests are honored.
+         * @param val true to honor conditional requests
+         * @return this builder instance
+         * @see ReplayServerConfig#conditionalRequestsEnabled
+         */
+        public Builder conditionalRequests(boolean val) {
+            conditionalRequestsEnabled = val;
+            return this;
+        }
+
+        /**
+         * Sets the request canonicalization rules.
+         * @param val the rules, or null to compare requests as they are
+         * @return this builder instance
+         */
+        public Builder canonicalizeRequests(@Nullable RequestCanonicalization val) {
+            requestCanonicalization = val;
+            return this;
+        }
+
         /**
          * Builds the config instance.
          * @return the immutable config instance
          */
         public ReplayServerConfig build() {
-            return new ReplayServerConfig(version, mappings, replacements, responseHeaderTransforms);
+            return new ReplayServerConfig(this);
         }
     }
 
@@ -1081,12 +1211,14 @@ public class ReplayServerConfig {
         return version == that.version &&
                 Objects.equals(mappings, that.mappings) &&
                 Objects.equals(replacements, that.replacements) &&
-                Objects.equals(responseHeaderTransforms, that.responseHeaderTransforms);
+                Objects.equals(responseHeaderTransforms, that.responseHeaderTransforms) &&
+                conditionalRequestsEnabled == that.conditionalRequestsEnabled &&
+                Objects.equals(requestCanonicalization, that.requestCanonicalization);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(version, mappings, replacements, responseHeaderTransforms);
+        return Objects.hash(version, mappings, replacements, responseHeaderTransforms, conditionalRequestsEnabled, requestCanonicalization);
     }
 
     /**
@@ -3,6 +3,8 @@ package io.github.mike10004.harreplay;
 import com.google.common.net.HostAndPort;
 
 import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface that defines methods to interrogate and control a replay server session.
@@ -23,12 +25,40 @@ public interface ReplaySessionControl extends java.io.Closeable {
         return HostAndPort.fromParts("localhost", getListeningPort());
     }
 
+    /**
+     * Gets the socket address on which the server answers HTTPS requests sent
+     * directly to it, if it does so.
+     * @return the socket address, or empty if the server serves no HTTPS port
+     */
+    default Optional<HostAndPort> getHttpsSocketAddress() {
+        return Optional.empty();
+    }
+
     /**
      * Checks whether the server is still alive.
      * @return true iff the server is still alive
      */
     boolean isAlive();
 
+    /**
+     * Gets a future that completes when all HAR entries have been loaded and the
+     * server answers every request without waiting. If the session was started
+     * synchronously, the future is already complete. The future completes
+     * exceptionally if loading fails.
+     * @return the readiness future
+     */
+    default CompletableFuture<Void> getReadiness() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Gets the progress of loading HAR entries.
+     * @return the load progress
+     */
+    default LoadProgress getLoadProgress() {
+        return LoadProgress.completeWithUnknownCount();
+    }
+
     /**
      * Ends the session by stopping the proxy server.
      */
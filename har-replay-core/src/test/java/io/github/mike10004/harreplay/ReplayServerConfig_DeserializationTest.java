@@ -3,11 +3,16 @@ package io.github.mike10004.harreplay;
 import com.google.gson.Gson;
 import io.github.mike10004.harreplay.ReplayServerConfig.Mapping;
 import io.github.mike10004.harreplay.ReplayServerConfig.Replacement;
+import io.github.mike10004.harreplay.ReplayServerConfig.RequestCanonicalization;
 import io.github.mike10004.harreplay.ReplayServerConfig.ResponseHeaderTransform;
 import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class ReplayServerConfig_DeserializationTest {
 
@@ -36,6 +41,29 @@ public class ReplayServerConfig_DeserializationTest {
         confirmDeserializationIdentity(original);
     }
 
+    @Test
+    public void conditionalRequests() {
+        ReplayServerConfig original = ReplayServerConfig.builder()
+                .conditionalRequests(true)
+                .build();
+        confirmDeserializationIdentity(original);
+    }
+
+    @Test
+    public void requestCanonicalization() {
+        ReplayServerConfig original = ReplayServerConfig.builder()
+                .canonicalizeRequests(new RequestCanonicalization(Arrays.asList("_", "cb"), Collections.singletonList("v"),
+                        Collections.singletonList("x-request-id"), Collections.singletonList("cookie"), true))
+                .build();
+        confirmDeserializationIdentity(original);
+    }
+
+    @Test
+    public void conditionalRequests_absentMeansDisabled() {
+        ReplayServerConfig deserialized = serialist().fromJson("{\"version\": 1}", ReplayServerConfig.class);
+        assertFalse(deserialized.conditionalRequestsEnabled);
+    }
+
     private void confirmDeserializationIdentity(ReplayServerConfig original) {
         String json = serialist().toJson(original);
         ReplayServerConfig deserialized = serialist().fromJson(json, ReplayServerConfig.class);
@@ -23,8 +23,19 @@ import io.github.mike10004.harreplay.exec.HarInfoDumper.SummaryDumper;
 import io.github.mike10004.harreplay.exec.HarInfoDumper.TerseDumper;
 import io.github.mike10004.harreplay.exec.HarInfoDumper.VerboseDumper;
 import io.github.mike10004.harreplay.vhsimpl.HarReaderFactory;
+import io.github.mike10004.harreplay.vhsimpl.ServerEngine;
 import io.github.mike10004.harreplay.vhsimpl.VhsReplayManager;
 import io.github.mike10004.harreplay.vhsimpl.VhsReplayManagerConfig;
+import io.github.mike10004.vhs.bmp.AsyncManufacturingConfig;
+import io.github.mike10004.vhs.bmp.CachingKeystoreGenerator;
+import io.github.mike10004.vhs.bmp.ConnectionExecutorFactory;
+import io.github.mike10004.vhs.bmp.DirectOriginConfig;
+import io.github.mike10004.vhs.bmp.KeystoreType;
+import io.github.mike10004.vhs.bmp.LeafKeyType;
+import io.github.mike10004.vhs.bmp.NanohttpdTlsEndpointFactory;
+import io.github.mike10004.vhs.bmp.ServedResponseLogConfig;
+import io.github.mike10004.vhs.bmp.TlsInterceptionMode;
+import io.github.mike10004.vhs.index.HarIndex;
 import joptsimple.NonOptionArgumentSpec;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -75,6 +86,30 @@ public class HarReplayMain {
     static final String OPT_HELP = "help";
     static final String OPT_ONLY_PRINT = "only-print";
     static final String OPT_PRINT_WITH_CONTENT = "content-dir";
+    static final String OPT_COMPILE = "compile";
+    static final String OPT_COMPRESS_BODIES = "compress-bodies";
+    static final String OPT_INDEX = "index";
+    static final String OPT_VERIFY_INDEX = "verify-index";
+    static final String OPT_ASYNC_START = "async-start";
+    static final String OPT_COLLAPSE_DUPLICATES = "collapse-duplicates";
+    static final String OPT_DEDUPLICATE_BODIES = "deduplicate-bodies";
+    static final String OPT_MANUFACTURING_THREADS = "manufacturing-threads";
+    static final String OPT_SERVED_LOG = "served-log";
+    static final String OPT_TLS_INTERCEPTION = "tls-interception";
+    static final String OPT_TLS_ENDPOINT_THREADS = "tls-endpoint-threads";
+    static final String OPT_KEYSTORE_CACHE = "keystore-cache";
+    static final String OPT_LEAF_KEY_TYPE = "leaf-key-type";
+    static final String OPT_PREGENERATE_CERTIFICATES = "pregenerate-certificates";
+    static final String OPT_ENGINE = "engine";
+    static final String OPT_HTTP2 = "http2";
+    static final String OPT_DIRECT_ORIGIN = "direct-origin";
+    static final String OPT_HTTPS_PORT = "https-port";
+    /**
+     * Minimum number of threads with which the TLS endpoint may be bounded. A browser
+     * opens several connections to each host, and the proxy keeps its connections to
+     * the endpoint open, so fewer threads would leave requests waiting on idle connections.
+     */
+    static final int MIN_TLS_ENDPOINT_THREADS = 8;
     static final Charset NOTIFY_FILE_CHARSET = StandardCharsets.US_ASCII;
 
     private final OptionParser parser;
@@ -88,6 +123,16 @@ public class HarReplayMain {
     private final OptionSpec<File> replayConfigSpec;
     private final OptionSpec<HarReaderBehavior> harReaderBehaviorSpec;
     private final OptionSpec<HarReaderMode> harReaderModeSpec;
+    private final OptionSpec<File> compileSpec;
+    private final OptionSpec<File> indexSpec;
+    private final OptionSpec<Integer> manufacturingThreadsSpec;
+    private final OptionSpec<File> servedLogSpec;
+    private final OptionSpec<TlsInterceptionMode> tlsInterceptionSpec;
+    private final OptionSpec<Integer> tlsEndpointThreadsSpec;
+    private final OptionSpec<File> keystoreCacheSpec;
+    private final OptionSpec<LeafKeyType> leafKeyTypeSpec;
+    private final OptionSpec<ServerEngine> engineSpec;
+    private final OptionSpec<Integer> httpsPortSpec;
 
     public HarReplayMain() {
         this(new OptionParser());
@@ -128,18 +173,92 @@ public class HarReplayMain {
                 .withRequiredArg().ofType(HarReaderBehavior.class).defaultsTo(HarReaderBehavior.DEFAULT);
         harReaderModeSpec = parser.accepts(OPT_HAR_READER_MODE, "set har reader mode (STRICT or LAX)")
                 .withRequiredArg().ofType(HarReaderMode.class).defaultsTo(HarReaderMode.STRICT);
+        compileSpec = parser.accepts(OPT_COMPILE, "compile har file into binary index FILE and exit")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+        parser.accepts(OPT_COMPRESS_BODIES, "with --compile, store response bodies compressed");
+        indexSpec = parser.accepts(OPT_INDEX, "serve from binary index FILE if it was compiled from the har file")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+        parser.accepts(OPT_VERIFY_INDEX, "with --index, compare the checksum of the har file instead of its size and modification time");
+        parser.accepts(OPT_ASYNC_START, "start listening before har entries are loaded; requires --" + OPT_MANUFACTURING_THREADS);
+        parser.accepts(OPT_COLLAPSE_DUPLICATES, "collapse consecutive har entries that have identical requests and responses");
+        parser.accepts(OPT_DEDUPLICATE_BODIES, "share identical response bodies among har entries to save memory");
+        manufacturingThreadsSpec = parser.accepts(OPT_MANUFACTURING_THREADS, "produce responses on a pool of N worker threads instead of on I/O threads")
+                .withRequiredArg().ofType(Integer.class).describedAs("N");
+        servedLogSpec = parser.accepts(OPT_SERVED_LOG, "record served responses (without bodies) as json lines in FILE")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+        tlsInterceptionSpec = parser.accepts(OPT_TLS_INTERCEPTION, "intercept TLS by handshaking with an UPSTREAM_ENDPOINT or by terminating it in the proxy (LOCAL)")
+                .withRequiredArg().ofType(TlsInterceptionMode.class).defaultsTo(TlsInterceptionMode.UPSTREAM_ENDPOINT);
+        tlsEndpointThreadsSpec = parser.accepts(OPT_TLS_ENDPOINT_THREADS, "serve at most N (at least " + MIN_TLS_ENDPOINT_THREADS + ") connections at once on the TLS endpoint, queueing up to N more; "
+                + "connections are kept open between requests, so a queued connection waits until one closes or has been idle for " + NanohttpdTlsEndpointFactory.DEFAULT_IDLE_TIMEOUT.getSeconds() + " seconds")
+                .withRequiredArg().ofType(Integer.class).describedAs("N");
+        keystoreCacheSpec = parser.accepts(OPT_KEYSTORE_CACHE, "store generated keystores and certificates in DIR and reuse them in later runs")
+                .withRequiredArg().ofType(File.class).describedAs("DIR");
+        leafKeyTypeSpec = parser.accepts(OPT_LEAF_KEY_TYPE, "generate RSA or EC keys for certificates that impersonate hosts")
+                .withRequiredArg().ofType(LeafKeyType.class).defaultsTo(LeafKeyType.RSA);
+        parser.accepts(OPT_PREGENERATE_CERTIFICATES, "with --tls-interception=LOCAL, generate certificates for hosts in the har file at startup");
+        engineSpec = parser.accepts(OPT_ENGINE, "serve with the BROWSERUP proxy or with the NETTY server, which terminates TLS itself")
+                .withRequiredArg().ofType(ServerEngine.class).defaultsTo(ServerEngine.BROWSERUP);
+        parser.accepts(OPT_HTTP2, "with --engine=NETTY, offer HTTP/2 to clients on tunneled connections");
+        parser.accepts(OPT_DIRECT_ORIGIN, "with --engine=NETTY, answer requests sent directly to the server, routed by Host header, instead of acting as a proxy");
+        httpsPortSpec = parser.accepts(OPT_HTTPS_PORT, "with --direct-origin, also serve https on port N (0 for any free port)")
+                .withRequiredArg().ofType(Integer.class).describedAs("N");
     }
 
-    private ReplayManager createReplayManager(OptionSet optionSet) {
+    private VhsReplayManager createReplayManager(OptionSet optionSet) {
         HarReaderBehavior behavior = (HarReaderBehavior) optionSet.valueOf(OPT_HAR_READER_BEHAVIOR);
         HarReaderMode mode = (HarReaderMode) optionSet.valueOf(OPT_HAR_READER_MODE);
         VhsReplayManagerConfig.Builder b = VhsReplayManagerConfig.builder()
                 .harReaderFactory(behavior.getFactory())
-                .harReaderMode(mode);
-        VhsReplayManagerConfig vhsConfig = b.build();
+                .harReaderMode(mode)
+                .harIndexFile(optionSet.valueOf(indexSpec))
+                .verifyHarIndexChecksum(optionSet.has(OPT_VERIFY_INDEX))
+                .asynchronousStart(optionSet.has(OPT_ASYNC_START))
+                .collapseDuplicateEntries(optionSet.has(OPT_COLLAPSE_DUPLICATES))
+                .deduplicateBodies(optionSet.has(OPT_DEDUPLICATE_BODIES))
+                .tlsInterceptionMode(optionSet.valueOf(tlsInterceptionSpec))
+                .leafKeyType(optionSet.valueOf(leafKeyTypeSpec))
+                .pregenerateLeafCertificates(optionSet.has(OPT_PREGENERATE_CERTIFICATES))
+                .engine(optionSet.valueOf(engineSpec))
+                .http2(optionSet.has(OPT_HTTP2));
+        @Nullable Integer manufacturingThreads = optionSet.valueOf(manufacturingThreadsSpec);
+        if (manufacturingThreads != null) {
+            b.asyncManufacturing(AsyncManufacturingConfig.builder().workerThreads(manufacturingThreads).build());
+        }
+        @Nullable Integer tlsEndpointThreads = optionSet.valueOf(tlsEndpointThreadsSpec);
+        if (tlsEndpointThreads != null) {
+            if (tlsEndpointThreads < MIN_TLS_ENDPOINT_THREADS) {
+                throw new UsageException("--" + OPT_TLS_ENDPOINT_THREADS + " must be at least " + MIN_TLS_ENDPOINT_THREADS);
+            }
+            b.tlsEndpointExecutorFactory(ConnectionExecutorFactory.bounded(tlsEndpointThreads, tlsEndpointThreads));
+        }
+        @Nullable File keystoreCacheDir = optionSet.valueOf(keystoreCacheSpec);
+        if (keystoreCacheDir != null) {
+            b.keystoreGenerator(CachingKeystoreGenerator.createJreGenerator(KeystoreType.PKCS12, keystoreCacheDir.toPath()));
+            b.leafCertificateStoreDir(keystoreCacheDir.toPath().resolve("leaf-certificates"));
+        }
+        @Nullable File servedLogFile = optionSet.valueOf(servedLogSpec);
+        if (servedLogFile != null) {
+            b.servedResponseLog(ServedResponseLogConfig.toFile(servedLogFile));
+        }
+        @Nullable Integer httpsPort = optionSet.valueOf(httpsPortSpec);
+        if (optionSet.has(OPT_DIRECT_ORIGIN) || httpsPort != null) {
+            b.directOrigin(DirectOriginConfig.builder().httpsPort(httpsPort).build());
+        }
+        VhsReplayManagerConfig vhsConfig;
+        try {
+            vhsConfig = b.build();
+        } catch (IllegalArgumentException e) {
+            throw new UsageException(e.getMessage(), e);
+        }
         return new VhsReplayManager(vhsConfig);
     }
 
+    protected void compile(OptionSet optionSet, File harFile, File indexFile) throws IOException {
+        VhsReplayManager manager = createReplayManager(optionSet);
+        manager.compileHarIndex(harFile, indexFile, optionSet.has(OPT_COMPRESS_BODIES));
+        System.out.format("har-replay: compiled %s into %s%n", harFile, indexFile);
+    }
+
     protected Har readHarFile(OptionSet options, File harFile) throws IOException, HarReaderException {
         HarReaderBehavior harReaderBehavior = harReaderBehaviorSpec.value(options);
         HarReaderMode harReaderMode = harReaderModeSpec.value(options);
@@ -175,9 +294,10 @@ public class HarReplayMain {
     protected void runServer(OptionSet optionSet, ReplaySessionConfig sessionConfig) throws IOException {
         HostAndPort replayServerAddress = HostAndPort.fromParts("localhost", sessionConfig.port);
         ReplayManager manager = createReplayManager(optionSet);
-        try (ReplaySessionControl ignore = manager.start(sessionConfig);
+        try (ReplaySessionControl ctrl = manager.start(sessionConfig);
              ScopedProcessTracker processTracker = new ProcessTrackerWithShutdownHook(Runtime.getRuntime())) {
             maybeNotify(sessionConfig, optionSet.valueOf(notifySpec));
+            ctrl.getHttpsSocketAddress().ifPresent(address -> System.out.format("har-replay: serving https on %s%n", address));
             Browser browser = optionSet.valueOf(browserSpec);
             if (browser != null) {
                 Iterable<String> browserArgs = tokenize(optionSet.valueOf(browserArgsSpec));
@@ -193,11 +313,18 @@ public class HarReplayMain {
     protected void operate(OptionSet optionSet) throws IOException {
         try (CloseableWrapper<ReplaySessionConfig> sessionConfigWrapper = createReplaySessionConfig(optionSet)) {
             ReplaySessionConfig sessionConfig = sessionConfigWrapper.getWrapped();
-            HarPrintStyle harDumpStyle = optionSet.valueOf(harDumpStyleSpec);
-            try {
-                harDumpStyle.getDumper(optionSet).dump(readHarEntries(optionSet, sessionConfig.harFile), System.out);
-            } catch (HarReaderException e) {
-                System.err.format("har-replay: failed to read from har file: %s%n", e.getMessage());
+            @Nullable File indexFile = optionSet.valueOf(compileSpec);
+            if (indexFile != null) {
+                compile(optionSet, sessionConfig.harFile, indexFile);
+                return;
+            }
+            if (!HarIndex.isIndexFile(sessionConfig.harFile)) {
+                HarPrintStyle harDumpStyle = optionSet.valueOf(harDumpStyleSpec);
+                try {
+                    harDumpStyle.getDumper(optionSet).dump(readHarEntries(optionSet, sessionConfig.harFile), System.out);
+                } catch (HarReaderException e) {
+                    System.err.format("har-replay: failed to read from har file: %s%n", e.getMessage());
+                }
             }
             if (optionSet.has(OPT_ONLY_PRINT)) {
                 return;
@@ -4,6 +4,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import io.github.mike10004.harreplay.exec.HarReplayMain.HarReaderBehavior;
 import io.github.mike10004.harreplay.tests.Fixtures;
+import io.github.mike10004.vhs.index.HarIndex;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -57,6 +58,40 @@ public class HarReplayMainTest {
         }
     }
 
+    @Test
+    public void compileAndServeIndex() throws Exception {
+        File harFile = getBrowsermobGeneratedHarFile();
+        File indexFile = new File(temporaryFolder.getRoot(), "compiled.idx");
+        HarReplayMain main = new NonSleepingHarReplayMain();
+        int exitCode = main.main0(new String[]{harFile.getAbsolutePath(), "--compile", indexFile.getAbsolutePath(), "--compress-bodies"});
+        assertEquals("exit code", 0, exitCode);
+        assertTrue("index file written", HarIndex.isIndexFile(indexFile));
+        assertTrue("compiled from har", HarIndex.open(indexFile).isCompiledFrom(harFile));
+        exitCode = new NonSleepingHarReplayMain().main0(new String[]{indexFile.getAbsolutePath()});
+        assertEquals("exit code when serving index", 0, exitCode);
+    }
+
+    @Test
+    public void http2() throws Exception {
+        File harFile = getBrowsermobGeneratedHarFile();
+        assertEquals("exit code with default engine", 1, new NonSleepingHarReplayMain().main0(new String[]{harFile.getAbsolutePath(), "--http2"}));
+        assertEquals("exit code with netty engine", 0, new NonSleepingHarReplayMain().main0(new String[]{harFile.getAbsolutePath(), "--engine", "NETTY", "--http2"}));
+    }
+
+    @Test
+    public void directOrigin() throws Exception {
+        File harFile = getBrowsermobGeneratedHarFile();
+        assertEquals("exit code with default engine", 1, new NonSleepingHarReplayMain().main0(new String[]{harFile.getAbsolutePath(), "--direct-origin"}));
+        assertEquals("exit code with netty engine", 0, new NonSleepingHarReplayMain().main0(new String[]{harFile.getAbsolutePath(), "--engine", "NETTY", "--direct-origin"}));
+    }
+
+    @Test
+    public void tlsEndpointThreads() throws Exception {
+        File harFile = getBrowsermobGeneratedHarFile();
+        assertEquals("exit code below minimum", 1, new NonSleepingHarReplayMain().main0(new String[]{harFile.getAbsolutePath(), "--tls-endpoint-threads", "1"}));
+        assertEquals("exit code at minimum", 0, new NonSleepingHarReplayMain().main0(new String[]{harFile.getAbsolutePath(), "--tls-endpoint-threads", String.valueOf(HarReplayMain.MIN_TLS_ENDPOINT_THREADS)}));
+    }
+
     private File getBrowsermobGeneratedHarFile() throws IOException {
         return Fixtures.copyBrowsermobGeneratedHarFile(temporaryFolder.getRoot().toPath());
     }
@@ -27,4 +27,16 @@ public class CompositeEntryMatcher<S> implements EntryMatcher<S> {
         return null;
     }
 
+    @Nullable
+    @Override
+    public HttpRespondable findTopEntryMetadata(S state, ParsedRequest request) {
+        for (EntryMatcher<? super S> component : components) {
+            HttpRespondable respondable = component.findTopEntryMetadata(state, request);
+            if (respondable != null) {
+                return respondable;
+            }
+        }
+        return null;
+    }
+
 }
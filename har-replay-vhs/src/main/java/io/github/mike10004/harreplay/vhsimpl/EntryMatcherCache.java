@@ -0,0 +1,171 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.google.common.base.Throwables;
+import io.github.mike10004.vhs.EntryMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reference-counted cache of HAR entry matchers. Replay sessions that serve
+ * the same HAR with the same configuration share one matcher, which is
+ * constructed by the first session to acquire it and released when the last
+ * session holding it stops. Only matchers that keep no per-session state may
+ * be cached; per-session state is passed to the matcher on each request.
+ * If several sessions acquire a matcher concurrently, one of them constructs
+ * it and the others wait.
+ */
+public final class EntryMatcherCache {
+
+    private static final Logger log = LoggerFactory.getLogger(EntryMatcherCache.class);
+
+    private static final EntryMatcherCache SHARED = new EntryMatcherCache();
+
+    private final Object lock = new Object();
+    private final Map<Object, CacheEntry> entries; // guarded by lock
+
+    public EntryMatcherCache() {
+        entries = new HashMap<>();
+    }
+
+    /**
+     * Gets the cache shared by all replay managers in this JVM.
+     * @return the shared cache
+     */
+    public static EntryMatcherCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Interface of a service that constructs an entry matcher.
+     */
+    public interface Loader {
+        EntryMatcher<?> load() throws IOException;
+    }
+
+    private static class CacheEntry {
+
+        public final CompletableFuture<EntryMatcher<?>> matcher;
+        public int references; // guarded by cache lock
+
+        public CacheEntry() {
+            matcher = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Acquires the matcher for a key, constructing it if no session holds it.
+     * The lease must be closed when the session stops.
+     * @param key the key; must have value equality
+     * @param loader the loader that constructs the matcher
+     * @return a lease on the matcher
+     * @throws IOException if the matcher could not be constructed
+     */
+    public Lease acquire(Object key, Loader loader) throws IOException {
+        requireNonNull(key, "key");
+        CacheEntry entry;
+        boolean created = false;
+        synchronized (lock) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new CacheEntry();
+                entries.put(key, entry);
+                created = true;
+            }
+            entry.references++;
+        }
+        if (created) {
+            try {
+                entry.matcher.complete(loader.load());
+            } catch (IOException | RuntimeException e) {
+                synchronized (lock) {
+                    entries.remove(key, entry);
+                }
+                entry.matcher.completeExceptionally(e);
+            }
+        } else {
+            log.debug("sharing cached entry matcher for {}", key);
+        }
+        try {
+            return new Lease(key, entry, awaitMatcher(entry));
+        } catch (IOException | RuntimeException e) {
+            release(key, entry);
+            throw e;
+        }
+    }
+
+    private static EntryMatcher<?> awaitMatcher(CacheEntry entry) throws IOException {
+        try {
+            return entry.matcher.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for shared entry matcher");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.throwIfInstanceOf(cause, IOException.class);
+            Throwables.throwIfUnchecked(cause);
+            throw new IOException(cause);
+        }
+    }
+
+    private void release(Object key, CacheEntry entry) {
+        synchronized (lock) {
+            entry.references--;
+            if (entry.references == 0 && entries.remove(key, entry)) {
+                log.debug("released cached entry matcher for {}", key);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of matchers currently cached.
+     * @return the number of matchers
+     */
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Class that represents one session's hold on a cached matcher.
+     * Closing a lease more than once has no additional effect.
+     */
+    public final class Lease implements Closeable {
+
+        private final Object key;
+        private final CacheEntry entry;
+        private final EntryMatcher<?> matcher;
+        private boolean closed; // guarded by cache lock
+
+        private Lease(Object key, CacheEntry entry, EntryMatcher<?> matcher) {
+            this.key = key;
+            this.entry = entry;
+            this.matcher = matcher;
+        }
+
+        public EntryMatcher<?> getMatcher() {
+            return matcher;
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(key, entry);
+        }
+    }
+}
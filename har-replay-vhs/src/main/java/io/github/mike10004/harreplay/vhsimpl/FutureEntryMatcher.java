@@ -0,0 +1,54 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import io.github.mike10004.vhs.EntryMatcher;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Entry matcher that delegates to a matcher that is still under construction.
+ * Requests wait until construction completes. If construction fails, no entry
+ * is found for any request.
+ */
+class FutureEntryMatcher<S> implements EntryMatcher<S> {
+
+    private static final Logger log = LoggerFactory.getLogger(FutureEntryMatcher.class);
+
+    private final CompletableFuture<? extends EntryMatcher<? super S>> delegate;
+
+    public FutureEntryMatcher(CompletableFuture<? extends EntryMatcher<? super S>> delegate) {
+        this.delegate = requireNonNull(delegate);
+    }
+
+    @Nullable
+    @Override
+    public HttpRespondable findTopEntry(S state, ParsedRequest request) {
+        @Nullable EntryMatcher<? super S> matcher = join(request);
+        return matcher == null ? null : matcher.findTopEntry(state, request);
+    }
+
+    @Nullable
+    @Override
+    public HttpRespondable findTopEntryMetadata(S state, ParsedRequest request) {
+        @Nullable EntryMatcher<? super S> matcher = join(request);
+        return matcher == null ? null : matcher.findTopEntryMetadata(state, request);
+    }
+
+    @Nullable
+    private EntryMatcher<? super S> join(ParsedRequest request) {
+        try {
+            return delegate.join();
+        } catch (CompletionException | CancellationException e) {
+            log.debug("entry matcher construction failed; no entry found for {} {}", request.method, request.url);
+            return null;
+        }
+    }
+}
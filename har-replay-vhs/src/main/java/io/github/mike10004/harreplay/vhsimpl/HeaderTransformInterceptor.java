@@ -37,6 +37,11 @@ public class HeaderTransformInterceptor implements ResponseInterceptor {
         return httpRespondable;
     }
 
+    @Override
+    public boolean isBodyRewriting() {
+        return false;
+    }
+
     protected boolean isAnyTransformRequired(Map.Entry<String, String> header) {
         return headerTransform.getNameMatch().isMatchingHeaderName(header.getKey())
                 && headerTransform.getValueMatch().isMatchingHeaderValue(header.getKey(), header.getValue());
@@ -1,5 +1,6 @@
 package io.github.mike10004.harreplay.vhsimpl;
 
+import com.google.common.io.ByteSource;
 import com.google.common.net.MediaType;
 import io.github.mike10004.vhs.HttpRespondable;
 
@@ -39,4 +40,16 @@ public class HttpRespondableWrapper implements HttpRespondable {
     public MediaType previewContentType() {
         return delegate.previewContentType();
     }
+
+    @Override
+    @Nullable
+    public ByteSource getBodySource() {
+        return delegate.getBodySource();
+    }
+
+    @Override
+    @Nullable
+    public String getEntityTag() {
+        return delegate.getEntityTag();
+    }
 }
@@ -3,6 +3,7 @@ package io.github.mike10004.harreplay.vhsimpl;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteSource;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 import io.github.mike10004.harreplay.ReplayServerConfig.Mapping;
@@ -16,6 +17,10 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,10 +32,23 @@ public class MappingEntryMatcher<S> implements EntryMatcher<S> {
 
     private final ImmutableList<Mapping> mappings;
     private final Path fileResolutionRoot;
+    private final boolean conditionalRequestsEnabled;
 
     public MappingEntryMatcher(Iterable<Mapping> mappings, Path fileResolutionRoot) {
+        this(mappings, fileResolutionRoot, false);
+    }
+
+    /**
+     * Constructs an instance.
+     * @param mappings the mappings
+     * @param fileResolutionRoot the directory relative to which mapped paths are resolved
+     * @param conditionalRequestsEnabled true if responses should carry the {@code ETag}
+     * and {@code Last-Modified} validators used to answer conditional requests
+     */
+    public MappingEntryMatcher(Iterable<Mapping> mappings, Path fileResolutionRoot, boolean conditionalRequestsEnabled) {
         this.mappings = ImmutableList.copyOf(mappings);
         this.fileResolutionRoot = requireNonNull(fileResolutionRoot);
+        this.conditionalRequestsEnabled = conditionalRequestsEnabled;
     }
 
     @Nullable
@@ -54,16 +72,17 @@ public class MappingEntryMatcher<S> implements EntryMatcher<S> {
     protected HttpRespondable buildRespondable(Mapping mapping, ParsedRequest request) throws IOException {
         int status = SC_OK;
         File file = mapping.path.resolveFile(fileResolutionRoot, mapping.match, request.url.toString());
-        byte body[];
+        ByteSource body;
         MediaType contentType;
         if (!file.isFile()) {
             status = SC_NOT_FOUND;
-            body = new byte[0];
+            body = ByteSource.empty();
             contentType = MediaType.PLAIN_TEXT_UTF_8;
             log.info("not found: {}", file);
         } else {
             contentType = divineContentType(file);
-            body = java.nio.file.Files.readAllBytes(file.toPath());
+            // file-backed source is read when the response is written, and slices seek instead of reading the whole file
+            body = com.google.common.io.Files.asByteSource(file);
         }
         Multimap<String, String> headers = constructHeaders(file, contentType);
         return HttpRespondable.inMemory(status, headers, contentType, body);
@@ -78,15 +97,22 @@ public class MappingEntryMatcher<S> implements EntryMatcher<S> {
 
     private Map<String, String> readFileAttributes(File file) {
         Map<String, String> attrMap = new HashMap<>();
-        // TODO use java.nio.file.Files.readAttributes to be more precise when populating attributes map
-//        if (file.isFile()) {
-//            try {
-//                PosixFileAttributes attr = java.nio.file.Files.readAttributes(file.toPath(), PosixFileAttributes.class);
-//                attr.size()
-//            } catch (IOException e) {
-//                log.info("failed to read file attributes", e);
-//            }
-//        }
+        if (file.isFile()) {
+            try {
+                BasicFileAttributes attr = java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                long size = attr.size();
+                long lastModifiedMillis = attr.lastModifiedTime().toMillis();
+                attrMap.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(size));
+                if (conditionalRequestsEnabled) {
+                    attrMap.put(HttpHeaders.LAST_MODIFIED, DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModifiedMillis).atZone(ZoneOffset.UTC)));
+                    // validator changes whenever the file is modified, without hashing the content
+                    attrMap.put(HttpHeaders.ETAG, String.format("\"%x-%x\"", lastModifiedMillis, size));
+                }
+                return attrMap;
+            } catch (IOException e) {
+                log.info("failed to read file attributes", e);
+            }
+        }
         long len = file.length();
         if (len >= 0) {
             attrMap.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(len));
@@ -10,7 +10,6 @@ import io.github.mike10004.harreplay.ReplayServerConfig;
 import io.github.mike10004.harreplay.ReplayServerConfig.RegexHolder;
 import io.github.mike10004.harreplay.ReplayServerConfig.Replacement;
 import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
-import io.github.mike10004.harreplay.VariableDictionary;
 import io.github.mike10004.harreplay.vhsimpl.NameValuePairList.StringMapEntryList;
 import io.github.mike10004.vhs.HttpRespondable;
 import io.github.mike10004.vhs.ImmutableHttpRespondable;
@@ -42,12 +41,28 @@ public class ReplacingInterceptor implements ResponseInterceptor {
     @SuppressWarnings({"FieldCanBeLocal", "unused"}) // future: allow some configuration of replacement actions, such as ignoring content type
     private final VhsReplayManagerConfig config;
     private final Replacement replacement;
+    @Nullable
+    private final Pattern pattern;
+    private final RequestInterpolator interpolator;
 
     public ReplacingInterceptor(VhsReplayManagerConfig config, Replacement replacement) {
         this.config = requireNonNull(config, "config");
         this.replacement = requireNonNull(replacement, "replacement");
         requireNonNull(replacement.match, "replacement.match");
         requireNonNull(replacement.replace, "replacement.replace");
+        pattern = compileMatch(replacement);
+        interpolator = RequestInterpolator.compile(replacement.replace);
+    }
+
+    @Nullable
+    private static Pattern compileMatch(Replacement replacement) {
+        if (replacement.match instanceof StringLiteral) {
+            return Pattern.compile(Pattern.quote(((StringLiteral)replacement.match).value));
+        } else if (replacement.match instanceof ReplayServerConfig.RegexHolder){
+            return Pattern.compile(((RegexHolder)replacement.match).regex);
+        } else {
+            return null;
+        }
     }
 
     @Override
@@ -83,17 +98,11 @@ public class ReplacingInterceptor implements ResponseInterceptor {
         if (source.isEmpty()) {
             return source;
         }
-        Pattern pattern;
-        if (replacement.match instanceof StringLiteral) {
-            pattern = Pattern.compile(Pattern.quote(((StringLiteral)replacement.match).value));
-        } else if (replacement.match instanceof ReplayServerConfig.RegexHolder){
-            pattern = Pattern.compile(((RegexHolder)replacement.match).regex);
-        } else {
+        if (pattern == null) {
             throw new IllegalArgumentException("not sure how to handle replacment match of this type: " + replacement.match);
         }
         Matcher m = pattern.matcher(source);
-        VariableDictionary dictionary = new ReplacingInterceptorVariableDictionary(request);
-        String replacementText = replacement.replace.interpolate(dictionary);
+        String replacementText = interpolator.interpolate(request);
         String textWithReplacements = m.replaceAll(replacementText);
         if (!source.equals(textWithReplacements)) {
             // TODO actually count the replacements
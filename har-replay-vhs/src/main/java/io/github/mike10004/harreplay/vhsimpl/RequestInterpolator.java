@@ -0,0 +1,30 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import io.github.mike10004.harreplay.ReplayServerConfig.ReplacementReplace;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+/**
+ * Interface for services that produce replacement text from a request.
+ * Instances are produced by {@link #compile(ReplacementReplace)}, which resolves
+ * the variable name once, so that interpolation reads exactly the referenced
+ * field of the request. The results are the same as interpolating with a
+ * {@link ReplacingInterceptorVariableDictionary}.
+ */
+public interface RequestInterpolator {
+
+    /**
+     * Produces the replacement text for a request.
+     * @param request the request
+     * @return the replacement text
+     */
+    String interpolate(ParsedRequest request);
+
+    /**
+     * Compiles a replacement template.
+     * @param replace the template
+     * @return the interpolator
+     */
+    static RequestInterpolator compile(ReplacementReplace replace) {
+        return RequestInterpolators.compile(replace);
+    }
+}
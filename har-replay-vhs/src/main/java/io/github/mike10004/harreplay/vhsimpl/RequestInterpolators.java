@@ -0,0 +1,89 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import io.github.mike10004.harreplay.ReplayServerConfig.ReplacementReplace;
+import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
+import io.github.mike10004.harreplay.ReplayServerConfig.VariableHolder;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import static io.github.mike10004.harreplay.vhsimpl.ReplacingInterceptorVariableDictionary.KEY_REQUEST_METHOD;
+import static io.github.mike10004.harreplay.vhsimpl.ReplacingInterceptorVariableDictionary.KEY_REQUEST_URL;
+import static io.github.mike10004.harreplay.vhsimpl.ReplacingInterceptorVariableDictionary.PREFIX_KEY_REQUEST_HEADER;
+import static io.github.mike10004.harreplay.vhsimpl.ReplacingInterceptorVariableDictionary.PREFIX_KEY_REQUEST_QUERY;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Static methods that compile replacement templates into request interpolators.
+ */
+class RequestInterpolators {
+
+    private RequestInterpolators() {}
+
+    public static RequestInterpolator compile(ReplacementReplace replace) {
+        requireNonNull(replace, "replace");
+        if (replace instanceof StringLiteral) {
+            String value = ((StringLiteral) replace).value;
+            return request -> value;
+        }
+        if (replace instanceof VariableHolder) {
+            return compileVariable(((VariableHolder) replace).var);
+        }
+        return request -> replace.interpolate(new ReplacingInterceptorVariableDictionary(request));
+    }
+
+    /**
+     * Compiles a variable reference. Undefined values and unknown variable names
+     * produce the empty string, as {@link VariableHolder#interpolate} does.
+     * @param variableName the variable name
+     * @return the interpolator
+     */
+    public static RequestInterpolator compileVariable(String variableName) {
+        requireNonNull(variableName, "variableName");
+        switch (variableName) {
+            case KEY_REQUEST_URL:
+                return request -> request.url.toString();
+            case KEY_REQUEST_METHOD:
+                return request -> request.method.name();
+        }
+        if (variableName.startsWith(PREFIX_KEY_REQUEST_HEADER)) {
+            String headerName = StringUtils.removeStart(variableName, PREFIX_KEY_REQUEST_HEADER);
+            String indexedHeaderName = headerName.toLowerCase();
+            return request -> StringUtils.defaultString(getFirstHeaderValue(request, indexedHeaderName, headerName));
+        }
+        if (variableName.startsWith(PREFIX_KEY_REQUEST_QUERY)) {
+            String paramName = StringUtils.removeStart(variableName, PREFIX_KEY_REQUEST_QUERY);
+            return request -> StringUtils.defaultString(getFirstQueryValue(request, paramName));
+        }
+        return request -> "";
+    }
+
+    @Nullable
+    static String getFirstHeaderValue(ParsedRequest request, String indexedHeaderName, String headerName) {
+        Collection<String> values = request.indexedHeaders.get(indexedHeaderName);
+        if (!values.isEmpty()) {
+            return values.iterator().next();
+        }
+        // headers are not guaranteed to be indexed by lowercase name
+        for (Entry<String, String> header : request.indexedHeaders.entries()) {
+            if (headerName.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    static String getFirstQueryValue(ParsedRequest request, String paramName) {
+        if (request.query == null) {
+            return null;
+        }
+        Iterator<Optional<String>> values = request.query.get(paramName).iterator();
+        return values.hasNext() ? values.next().orElse(null) : null;
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+/**
+ * Enumeration of the implementations of the virtual HAR server that serve replay sessions.
+ */
+public enum ServerEngine {
+
+    /**
+     * {@link io.github.mike10004.vhs.bmp.BrowsermobVirtualHarServer}, which is built on the
+     * BrowserUp proxy. It intercepts TLS as configured by the
+     * {@link io.github.mike10004.vhs.bmp.TlsInterceptionMode TLS interception mode} and
+     * can pass requests through to remote hosts. It serves HTTP/1.1 only.
+     */
+    BROWSERUP,
+
+    /**
+     * {@link io.github.mike10004.vhs.bmp.NettyVirtualHarServer}, which is built directly
+     * on Netty. It always terminates TLS itself, so the TLS interception mode is not used.
+     * It can serve HTTP/2 on tunneled connections and can serve as an origin server.
+     */
+    NETTY
+}
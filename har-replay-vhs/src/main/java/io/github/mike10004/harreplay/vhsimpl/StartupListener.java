@@ -0,0 +1,71 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
+
+import java.time.Duration;
+
+/**
+ * Callback interface that defines a method invoked as each phase of
+ * replay session startup completes. Phases may run concurrently, so the
+ * method may be invoked from different threads.
+ * @see VhsReplayManagerConfig#startupListener
+ */
+public interface StartupListener {
+
+    /**
+     * Enumeration of startup phases.
+     */
+    enum Phase {
+
+        /**
+         * Generation of the keystore used by the TLS endpoint.
+         */
+        KEYSTORE_GENERATION,
+
+        /**
+         * Reading of HAR entries and construction of the entry matcher. If the session
+         * is started asynchronously, this phase completes after the session has started.
+         */
+        HAR_LOADING,
+
+        /**
+         * Parsing of HAR entry requests. This is part of the {@link #HAR_LOADING HAR_LOADING}
+         * phase and is not reported if a compiled index is served.
+         */
+        ENTRY_PARSING,
+
+        /**
+         * Collapsing of runs of duplicate HAR entries. This is part of the
+         * {@link #HAR_LOADING HAR_LOADING} phase and is reported only if duplicate
+         * entries are collapsed.
+         * @see VhsReplayManagerConfig#collapseDuplicateEntries
+         */
+        DUPLICATE_COLLAPSING,
+
+        /**
+         * Computation of response entity tags. This is part of the {@link #HAR_LOADING HAR_LOADING}
+         * phase and is reported only if conditional requests are enabled.
+         */
+        ENTITY_TAGGING,
+
+        /**
+         * Start of the TLS endpoint and the proxy.
+         */
+        SERVER_START
+    }
+
+    void phaseCompleted(Phase phase, Duration elapsed);
+
+    /**
+     * Reports the sharing of identical response bodies among HAR entries. This is
+     * invoked during the {@link Phase#HAR_LOADING HAR_LOADING} phase if a compiled
+     * index is served or if body deduplication is enabled.
+     * @param stats the deduplication statistics
+     */
+    default void bodiesDeduplicated(DeduplicationStats stats) {
+    }
+
+    static StartupListener inactive() {
+        return (phase, elapsed) -> {};
+    }
+}
@@ -1,23 +1,33 @@
 package io.github.mike10004.harreplay.vhsimpl;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.net.HostAndPort;
 import com.browserup.harreader.HarReader;
 import com.browserup.harreader.HarReaderException;
 import com.browserup.harreader.model.HarEntry;
+import io.github.mike10004.harreplay.LoadProgress;
 import io.github.mike10004.harreplay.ReplayManager;
 import io.github.mike10004.harreplay.ReplayServerConfig;
 import io.github.mike10004.harreplay.ReplayServerConfig.Replacement;
+import io.github.mike10004.harreplay.ReplayServerConfig.RequestCanonicalization;
 import io.github.mike10004.harreplay.ReplayServerConfig.ResponseHeaderTransform;
 import io.github.mike10004.harreplay.ReplaySessionConfig;
 import io.github.mike10004.harreplay.ReplaySessionControl;
 import io.github.mike10004.vhs.BasicHeuristic;
+import io.github.mike10004.vhs.CanonicalizingEntryParser;
 import io.github.mike10004.vhs.EntryMatcher;
 import io.github.mike10004.vhs.EntryMatcherFactory;
 import io.github.mike10004.vhs.EntryParser;
 import io.github.mike10004.vhs.HarBridgeEntryParser;
 import io.github.mike10004.vhs.HarResponseEncoderFactory;
 import io.github.mike10004.vhs.HeuristicEntryMatcher;
+import io.github.mike10004.vhs.ProgressiveEntryMatcher;
+import io.github.mike10004.vhs.RequestCanonicalizer;
 import io.github.mike10004.vhs.ResponseInterceptor;
+import io.github.mike10004.vhs.RuleBasedRequestCanonicalizer;
 import io.github.mike10004.vhs.VirtualHarServer;
 import io.github.mike10004.vhs.VirtualHarServerControl;
 import io.github.mike10004.vhs.bmp.BmpResponseListener;
@@ -26,95 +36,619 @@ import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig;
 import io.github.mike10004.vhs.bmp.BrowsermobVirtualHarServer;
 import io.github.mike10004.vhs.bmp.HarReplayManufacturer;
 import io.github.mike10004.vhs.bmp.KeystoreData;
+import io.github.mike10004.vhs.bmp.LazyCertificateAndKeySource;
+import io.github.mike10004.vhs.bmp.LeafCertificateConfig;
+import io.github.mike10004.vhs.bmp.ManufacturingExecutor;
 import io.github.mike10004.vhs.bmp.NanohttpdTlsEndpointFactory;
+import io.github.mike10004.vhs.bmp.NettyVirtualHarServer;
 import io.github.mike10004.vhs.bmp.ScratchDirProvider;
+import io.github.mike10004.vhs.bmp.TlsInterceptionMode;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
+import io.github.mike10004.vhs.harbridge.HarInterner;
 import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import io.github.mike10004.vhs.harbridge.streaming.StreamedHarEntry;
+import io.github.mike10004.vhs.harbridge.streaming.StreamingHarBridge;
+import io.github.mike10004.vhs.harbridge.streaming.StreamingHarLoader;
+import io.github.mike10004.vhs.index.HarIndex;
+import io.github.mike10004.vhs.index.HarIndexSource;
+import io.github.mike10004.vhs.index.HarIndexWriter;
+import io.github.mike10004.vhs.index.IndexedEntry;
+import io.github.mike10004.vhs.index.IndexedEntryParser;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 
 public class VhsReplayManager implements ReplayManager {
 
+    private static final Logger log = LoggerFactory.getLogger(VhsReplayManager.class);
+
+    /**
+     * Key that identifies the default entry matcher factory in entry matcher cache keys.
+     * Default factories differ only in parsing parallelism, which does not affect the
+     * matcher, and in whether duplicate entries are collapsed, which is added to the key.
+     */
+    private static final Object DEFAULT_ENTRY_MATCHER_FACTORY_KEY = BasicHeuristic.class;
+
     private VhsReplayManagerConfig config;
     private final EntryMatcherFactory entryMatcherFactory;
+    private final EntryMatcherFactory taggingEntryMatcherFactory;
+    private final EntryMatcherFactory bucketEntryMatcherFactory;
+    private final Object entryMatcherFactoryKey;
 
     public VhsReplayManager() {
         this(VhsReplayManagerConfig.getDefault());
     }
 
     public VhsReplayManager(VhsReplayManagerConfig config) {
-        this(config, HeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE));
+        this(config, HeuristicEntryMatcher.newParsingExecutor(config.entryParsingParallelism));
+    }
+
+    /**
+     * Constructs an instance whose default entry matcher factories share an executor.
+     */
+    private VhsReplayManager(VhsReplayManagerConfig config, Executor parsingExecutor) {
+        this(config,
+                createDefaultEntryMatcherFactory(config, false, parsingExecutor),
+                createDefaultEntryMatcherFactory(config, true, parsingExecutor),
+                HeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE),
+                Arrays.asList(DEFAULT_ENTRY_MATCHER_FACTORY_KEY, config.collapseDuplicateEntries));
     }
 
     protected VhsReplayManager(VhsReplayManagerConfig config, EntryMatcherFactory entryMatcherFactory) {
+        this(config, entryMatcherFactory, entryMatcherFactory, entryMatcherFactory, entryMatcherFactory);
+    }
+
+    /**
+     * Constructs an instance.
+     * @param config the configuration
+     * @param entryMatcherFactory factory of the matcher that answers requests
+     * @param taggingEntryMatcherFactory factory of the matcher that answers requests
+     *                                   if conditional requests are enabled
+     * @param bucketEntryMatcherFactory factory of the matchers that answer requests while
+     *                                  entries are loaded in the background; these are
+     *                                  constructed for each request, so the factory should
+     *                                  not collapse duplicates
+     * @param entryMatcherFactoryKey value that identifies the factory in cache keys
+     */
+    private VhsReplayManager(VhsReplayManagerConfig config, EntryMatcherFactory entryMatcherFactory, EntryMatcherFactory taggingEntryMatcherFactory, EntryMatcherFactory bucketEntryMatcherFactory, Object entryMatcherFactoryKey) {
         this.config = requireNonNull(config, "config");
         this.entryMatcherFactory = requireNonNull(entryMatcherFactory, "entryMatcherFactory");
+        this.taggingEntryMatcherFactory = requireNonNull(taggingEntryMatcherFactory, "taggingEntryMatcherFactory");
+        this.bucketEntryMatcherFactory = requireNonNull(bucketEntryMatcherFactory, "bucketEntryMatcherFactory");
+        this.entryMatcherFactoryKey = requireNonNull(entryMatcherFactoryKey);
+    }
+
+    private static EntryMatcherFactory<?> createDefaultEntryMatcherFactory(VhsReplayManagerConfig config, boolean entityTagging, Executor parsingExecutor) {
+        return HeuristicEntryMatcher.factoryBuilder(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE)
+                .parallelism(config.entryParsingParallelism)
+                .collapseDuplicates(config.collapseDuplicateEntries)
+                .entityTagging(entityTagging)
+                .parsingExecutor(parsingExecutor)
+                .constructionListener((step, elapsed) -> config.startupListener.phaseCompleted(toPhase(step), elapsed))
+                .build();
+    }
+
+    private static StartupListener.Phase toPhase(HeuristicEntryMatcher.ConstructionListener.Step step) {
+        switch (step) {
+            case PARSING:
+                return StartupListener.Phase.ENTRY_PARSING;
+            case COLLAPSING:
+                return StartupListener.Phase.DUPLICATE_COLLAPSING;
+            case ENTITY_TAGGING:
+                return StartupListener.Phase.ENTITY_TAGGING;
+            default:
+                throw new IllegalArgumentException("unknown step: " + step);
+        }
+    }
+
+    /**
+     * Selects the factory of the matcher that answers requests in a session. Responses
+     * carry precomputed entity tags only if conditional requests are enabled.
+     */
+    private EntryMatcherFactory selectEntryMatcherFactory(ReplayServerConfig serverConfig) {
+        return serverConfig.conditionalRequestsEnabled ? taggingEntryMatcherFactory : entryMatcherFactory;
     }
 
-    protected EntryParser<HarEntry> createHarEntryParser() {
+    /**
+     * Creates a parser of HAR entries.
+     * @param interner the interner through which the entries were read
+     * @return a new parser
+     */
+    protected EntryParser<HarEntry> createHarEntryParser(HarInterner interner) {
         HarResponseEncoderFactory<HarEntry> responseEncoderFactory = HarResponseEncoderFactory.alwaysIdentityEncoding();
-        return new HarBridgeEntryParser<>(new SstoehrHarBridge(), responseEncoderFactory);
+        return new HarBridgeEntryParser<>(new SstoehrHarBridge(), responseEncoderFactory, interner);
+    }
+
+    protected EntryParser<StreamedHarEntry> createStreamedHarEntryParser() {
+        HarResponseEncoderFactory<StreamedHarEntry> responseEncoderFactory = HarResponseEncoderFactory.alwaysIdentityEncoding();
+        return new HarBridgeEntryParser<>(new StreamingHarBridge(), responseEncoderFactory);
     }
 
     protected EntryMatcher buildHarEntryMatcher(ReplaySessionConfig sessionConfig) throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        @Nullable HarIndex harIndex = openHarIndex(sessionConfig.harFile);
+        if (harIndex != null) {
+            log.debug("opened {} in {} ms", harIndex, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            reportDeduplication(harIndex.getDeduplicationStats());
+            return buildHarEntryMatcher(harIndex.getEntries(), new IndexedEntryParser(), sessionConfig.replayServerConfig);
+        }
+        if (config.streamingHarLoader) {
+            List<StreamedHarEntry> entries = new StreamingHarLoader().load(sessionConfig.harFile);
+            log.debug("read {} entries from {} in {} ms", entries.size(), sessionConfig.harFile, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            if (config.deduplicateBodies) {
+                reportDeduplication(StreamingHarLoader.deduplicateContent(entries));
+            }
+            return buildHarEntryMatcher(entries, createStreamedHarEntryParser(), sessionConfig.replayServerConfig);
+        }
+        HarInterner interner = HarInterner.create();
+        List<HarEntry> entries = readHarEntries(sessionConfig.harFile, interner);
+        log.debug("read {} entries from {} in {} ms", entries.size(), sessionConfig.harFile, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        if (config.deduplicateBodies) {
+            reportDeduplication(SstoehrHarBridge.deduplicateContent(entries));
+        }
+        return buildHarEntryMatcher(entries, createHarEntryParser(interner), sessionConfig.replayServerConfig);
+    }
+
+    /**
+     * Reads the entries of a HAR file. Strings of the entries are interned, so the
+     * same interner should be given to the parser of the entries.
+     */
+    private List<HarEntry> readHarEntries(File harFile, HarInterner interner) throws IOException {
         HarReader harReader = config.harReaderFactory.createReader();
-        List<HarEntry> entries;
         try {
-            entries = harReader.readFromFile(sessionConfig.harFile).getLog().getEntries();
+            List<HarEntry> entries = harReader.readFromFile(harFile).getLog().getEntries();
+            SstoehrHarBridge.internStrings(entries, interner);
+            return entries;
         } catch (HarReaderException e) {
             throw new IOException(e);
         }
-        EntryParser<HarEntry> parser = createHarEntryParser();
-        EntryMatcher harEntryMatcher = entryMatcherFactory.createEntryMatcher(entries, parser);
-        return harEntryMatcher;
     }
 
+    private void reportDeduplication(DeduplicationStats stats) {
+        log.debug("{} of {} response bodies are distinct; sharing identical bodies saves {} bytes", stats.getUniqueBodyCount(), stats.getBodyCount(), stats.getBytesSaved());
+        config.startupListener.bodiesDeduplicated(stats);
+    }
+
+    /**
+     * Opens a compiled index for a HAR file. If the file is itself an index, it is opened.
+     * Otherwise, the index file specified by the configuration is opened if it was
+     * compiled from the HAR file. The header of the index file is checked before
+     * the index is opened, so an index that does not match is never mapped.
+     * @param harFile the HAR file or index file
+     * @return the index, or null if no usable index is available
+     * @throws IOException on I/O error
+     */
+    @Nullable
+    protected HarIndex openHarIndex(File harFile) throws IOException {
+        if (HarIndex.isIndexFile(harFile)) {
+            return HarIndex.open(harFile);
+        }
+        @Nullable File indexFile = config.harIndexFile;
+        if (indexFile != null && indexFile.isFile()) {
+            if (HarIndexSource.read(indexFile).matches(harFile, config.verifyHarIndexChecksum)) {
+                return HarIndex.open(indexFile);
+            }
+            log.warn("{} was not compiled from {}; reading HAR file instead", indexFile, harFile);
+        }
+        return null;
+    }
+
+    /**
+     * Compiles a HAR file into an index file that can be served without parsing the HAR.
+     * @param harFile the HAR file
+     * @param indexFile the index file to write
+     * @param compressBodies true to store response bodies compressed
+     * @throws IOException on I/O error
+     */
+    public void compileHarIndex(File harFile, File indexFile, boolean compressBodies) throws IOException {
+        HarIndexWriter writer = HarIndexWriter.builder()
+                .compressBodies(compressBodies)
+                .build();
+        if (config.streamingHarLoader) {
+            writer.write(harFile, new StreamingHarLoader().load(harFile), createStreamedHarEntryParser(), indexFile);
+        } else {
+            HarInterner interner = HarInterner.create();
+            writer.write(harFile, readHarEntries(harFile, interner), createHarEntryParser(interner), indexFile);
+        }
+    }
+
+    private <E> EntryMatcher buildHarEntryMatcher(List<E> entries, EntryParser<E> parser, ReplayServerConfig serverConfig) throws IOException {
+        if (serverConfig.requestCanonicalization != null) {
+            parser = new CanonicalizingEntryParser<>(parser, buildRequestCanonicalizer(serverConfig.requestCanonicalization));
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        EntryMatcher entryMatcher = selectEntryMatcherFactory(serverConfig).createEntryMatcher(entries, parser);
+        log.debug("constructed entry matcher from {} entries in {} ms", entries.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        return entryMatcher;
+    }
+
+    /**
+     * Acquires the HAR entry matcher for a session, from the configured cache if any.
+     * @param sessionConfig the session configuration
+     * @return a lease on the matcher, to be closed when the session stops
+     * @throws IOException if the matcher cannot be constructed
+     */
+    protected EntryMatcherCache.Lease acquireHarEntryMatcher(ReplaySessionConfig sessionConfig) throws IOException {
+        @Nullable EntryMatcherCache cache = config.entryMatcherCache;
+        if (cache == null) {
+            cache = new EntryMatcherCache();
+        }
+        return cache.acquire(createEntryMatcherCacheKey(sessionConfig), () -> buildHarEntryMatcher(sessionConfig));
+    }
+
+    /**
+     * Creates the key of the matcher for a session. The key identifies the HAR file
+     * and index file contents by path, size, and modification time, and includes
+     * all configuration that affects how the matcher is constructed.
+     */
+    private Object createEntryMatcherCacheKey(ReplaySessionConfig sessionConfig) throws IOException {
+        List<Object> key = new ArrayList<>();
+        addFileIdentity(sessionConfig.harFile, key);
+        @Nullable File indexFile = config.harIndexFile;
+        if (indexFile != null) {
+            addFileIdentity(indexFile, key);
+            key.add(config.verifyHarIndexChecksum);
+        }
+        key.add(config.streamingHarLoader);
+        key.add(config.harReaderFactory.getClass());
+        key.add(config.harReaderMode);
+        key.add(config.deduplicateBodies);
+        key.add(sessionConfig.replayServerConfig.requestCanonicalization);
+        key.add(sessionConfig.replayServerConfig.conditionalRequestsEnabled);
+        key.add(entryMatcherFactoryKey);
+        return key;
+    }
+
+    private static void addFileIdentity(File file, List<Object> key) throws IOException {
+        key.add(file.getCanonicalPath());
+        key.add(file.length());
+        key.add(file.lastModified());
+    }
+
+    /**
+     * Starts a replay session. Keystore generation and HAR loading run concurrently,
+     * and the server is started as soon as the keystore is available. If any phase
+     * fails, the other phases are abandoned and anything already started is stopped.
+     * @param sessionConfig the session configuration
+     * @return the session control
+     * @throws IOException if any startup phase fails
+     */
     @Override
     public ReplaySessionControl start(ReplaySessionConfig sessionConfig) throws IOException {
-        EntryMatcher harEntryMatcher = buildHarEntryMatcher(sessionConfig);
-        EntryMatcher compositeEntryMatcher = enhanceEntryMatcherFromConfig(harEntryMatcher, sessionConfig.replayServerConfig);
-        List<ResponseInterceptor> interceptors = new ArrayList<>();
-        interceptors.addAll(buildInterceptorsForReplacements(sessionConfig.replayServerConfig.replacements));
-        interceptors.addAll(buildInterceptorsForTransforms(sessionConfig.replayServerConfig.responseHeaderTransforms));
-        int port = sessionConfig.port;
-        VirtualHarServer vhs = createVirtualHarServer(port, sessionConfig.scratchDir, compositeEntryMatcher, interceptors, config.bmpResponseListener);
-        VirtualHarServerControl ctrl = vhs.start();
-        Runnable stopListener = () -> {
-            sessionConfig.serverTerminationCallbacks.forEach(c -> {
-                c.terminated(null);
-            });
-        };
-        return new VhsReplaySessionControl(ctrl, true, stopListener);
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("replay-startup-%d")
+                .build());
+        @Nullable ProgressiveEntryMatcher<?, ?> progressiveMatcher = null;
+        @Nullable VirtualHarServerControl ctrl = null;
+        @Nullable CompletableFuture<EntryMatcherCache.Lease> leaseFuture = null;
+        try {
+            CompletableFuture<KeystoreData> keystoreFuture;
+            if (isLocallyIntercepting()) {
+                keystoreFuture = CompletableFuture.completedFuture(null);
+            } else {
+                keystoreFuture = startPhase(StartupListener.Phase.KEYSTORE_GENERATION, () -> config.keystoreGenerator.generate("localhost"), executor);
+            }
+            CompletableFuture<EntryMatcher> harEntryMatcherFuture;
+            CompletableFuture<? extends EntryMatcher> loadedMatcherFuture;
+            if (config.asynchronousStart) {
+                progressiveMatcher = startLoadingHarEntries(sessionConfig);
+                harEntryMatcherFuture = CompletableFuture.completedFuture(progressiveMatcher);
+                loadedMatcherFuture = progressiveMatcher.getCompleteMatcher();
+            } else {
+                leaseFuture = startPhase(StartupListener.Phase.HAR_LOADING, () -> acquireHarEntryMatcher(sessionConfig), executor);
+                harEntryMatcherFuture = leaseFuture.thenApply(EntryMatcherCache.Lease::getMatcher);
+                harEntryMatcherFuture.whenComplete((matcher, e) -> {
+                    if (e != null) {
+                        keystoreFuture.completeExceptionally(e);
+                    }
+                });
+                loadedMatcherFuture = harEntryMatcherFuture;
+            }
+            CompletableFuture<Set<String>> hostsFuture;
+            if (isLocallyIntercepting() && config.pregenerateLeafCertificates) {
+                hostsFuture = loadedMatcherFuture.thenApply(this::collectHttpsHosts);
+            } else {
+                hostsFuture = CompletableFuture.completedFuture(ImmutableSet.of());
+            }
+            @SuppressWarnings("unchecked")
+            EntryMatcher compositeEntryMatcher = enhanceEntryMatcherFromConfig(new FutureEntryMatcher(harEntryMatcherFuture), sessionConfig.replayServerConfig);
+            List<ResponseInterceptor> interceptors = new ArrayList<>();
+            interceptors.addAll(buildInterceptorsForReplacements(sessionConfig.replayServerConfig.replacements));
+            interceptors.addAll(buildInterceptorsForTransforms(sessionConfig.replayServerConfig.responseHeaderTransforms));
+            int port = sessionConfig.port;
+            BmpResponseManufacturer responseManufacturer = createResponseManufacturer(compositeEntryMatcher, interceptors, sessionConfig.replayServerConfig);
+            KeystoreData keystoreData = awaitPhase(keystoreFuture);
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            BrowsermobVhsConfig serverConfig = createServerConfigBuilder(port, sessionConfig.scratchDir, responseManufacturer, config.bmpResponseListener, keystoreData)
+                    .leafCertificates(createLeafCertificateConfig(hostsFuture))
+                    .build();
+            VirtualHarServer vhs = createVirtualHarServer(serverConfig);
+            ctrl = vhs.start();
+            config.startupListener.phaseCompleted(StartupListener.Phase.SERVER_START, stopwatch.elapsed());
+            awaitPhase(harEntryMatcherFuture);
+            @Nullable ProgressiveEntryMatcher<?, ?> loadingMatcher = progressiveMatcher;
+            @Nullable EntryMatcherCache.Lease lease = leaseFuture == null ? null : leaseFuture.join();
+            Runnable stopListener = () -> {
+                if (loadingMatcher != null) {
+                    loadingMatcher.fail(new CancellationException("session stopped"));
+                }
+                if (lease != null) {
+                    lease.close();
+                }
+                sessionConfig.serverTerminationCallbacks.forEach(c -> {
+                    c.terminated(null);
+                });
+            };
+            return new VhsReplaySessionControl(ctrl, true, stopListener, progressiveMatcher);
+        } catch (IOException | RuntimeException e) {
+            executor.shutdownNow();
+            if (leaseFuture != null) {
+                leaseFuture.thenAccept(EntryMatcherCache.Lease::close);
+            }
+            if (progressiveMatcher != null) {
+                progressiveMatcher.fail(new CancellationException("session failed to start"));
+            }
+            if (ctrl != null) {
+                try {
+                    ctrl.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
     }
 
-    protected BmpResponseManufacturer createResponseManufacturer(EntryMatcher entryMatcher, Iterable<ResponseInterceptor> responseInterceptors) {
-        return new HarReplayManufacturer(entryMatcher, responseInterceptors);
+    /**
+     * Collects the hosts of HTTPS requests in the entries of a loaded matcher, so that
+     * hosts are collected the same way whether entries were read from a HAR file or
+     * from an index. Hosts cannot be collected from matchers of other types, in which
+     * case certificates are generated on demand.
+     * @param entryMatcher the matcher of HAR entries
+     * @return the hosts
+     */
+    protected Set<String> collectHttpsHosts(EntryMatcher<?> entryMatcher) {
+        if (!(entryMatcher instanceof HeuristicEntryMatcher)) {
+            log.debug("cannot collect hosts from {}; certificates will be generated on demand", entryMatcher);
+            return ImmutableSet.of();
+        }
+        Set<String> hosts = ((HeuristicEntryMatcher<?>) entryMatcher).streamRequests()
+                .map(request -> request.url)
+                .filter(url -> "https".equalsIgnoreCase(url.getScheme()) && url.getHost() != null)
+                .map(URI::getHost)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        log.debug("collected {} https hosts", hosts.size());
+        return hosts;
+    }
+
+    private interface StartupTask<T> {
+        T call() throws IOException, GeneralSecurityException;
+    }
+
+    private <T> CompletableFuture<T> startPhase(StartupListener.Phase phase, StartupTask<T> task, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+                T result = task.call();
+                config.startupListener.phaseCompleted(phase, stopwatch.elapsed());
+                future.complete(result);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
     }
 
-    protected VirtualHarServer createVirtualHarServer(int port, Path scratchParentDir, EntryMatcher entryMatcher, Iterable<ResponseInterceptor> responseInterceptors, BmpResponseListener bmpResponseListener) throws IOException {
+    private static <T> T awaitPhase(Future<T> future) throws IOException {
         try {
-            KeystoreData keystoreData = config.keystoreGenerator.generate("localhost");
-            BmpResponseManufacturer responseManufacturer = createResponseManufacturer(entryMatcher, responseInterceptors);
-            BrowsermobVhsConfig.Builder configBuilder = BrowsermobVhsConfig.builder(responseManufacturer)
-                    .port(port)
-                    .responseListener(bmpResponseListener)
-                    .tlsEndpointFactory(NanohttpdTlsEndpointFactory.create(keystoreData, null))
-                    .scratchDirProvider(ScratchDirProvider.under(scratchParentDir));
-            BrowsermobVhsConfig config = configBuilder.build();
-            return new BrowsermobVirtualHarServer(config);
-        } catch (GeneralSecurityException e) {
-            throw new IOException(e);
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while starting session");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.throwIfInstanceOf(cause, IOException.class);
+            Throwables.throwIfUnchecked(cause);
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Starts loading HAR entries on a background thread.
+     * @param sessionConfig the session configuration
+     * @return a matcher that answers requests as entries are loaded
+     * @throws IOException if a compiled index cannot be opened
+     */
+    protected ProgressiveEntryMatcher<?, ?> startLoadingHarEntries(ReplaySessionConfig sessionConfig) throws IOException {
+        File harFile = sessionConfig.harFile;
+        @Nullable HarIndex harIndex = openHarIndex(harFile);
+        if (harIndex != null) {
+            List<IndexedEntry> entries = harIndex.getEntries();
+            return startLoadingHarEntries(new IndexedEntryParser(), sessionConfig.replayServerConfig, matcher -> {
+                reportDeduplication(harIndex.getDeduplicationStats());
+                matcher.setEntriesTotal(entries.size());
+                for (IndexedEntry entry : entries) {
+                    matcher.add(entry);
+                }
+            });
+        }
+        if (config.streamingHarLoader) {
+            return startLoadingHarEntries(createStreamedHarEntryParser(), sessionConfig.replayServerConfig, matcher -> {
+                @Nullable StreamingHarLoader.ContentDeduplicator deduplicator = config.deduplicateBodies ? StreamingHarLoader.createContentDeduplicator() : null;
+                new StreamingHarLoader().load(harFile, entry -> {
+                    if (deduplicator != null) {
+                        deduplicator.deduplicate(entry);
+                    }
+                    matcher.add(entry);
+                });
+                if (deduplicator != null) {
+                    reportDeduplication(deduplicator.getStats());
+                }
+            });
+        }
+        HarInterner interner = HarInterner.create();
+        return startLoadingHarEntries(createHarEntryParser(interner), sessionConfig.replayServerConfig, matcher -> {
+            List<HarEntry> entries = readHarEntries(harFile, interner);
+            if (config.deduplicateBodies) {
+                reportDeduplication(SstoehrHarBridge.deduplicateContent(entries));
+            }
+            matcher.setEntriesTotal(entries.size());
+            for (HarEntry entry : entries) {
+                matcher.add(entry);
+            }
+        });
+    }
+
+    private interface EntryLoader<E> {
+        void load(ProgressiveEntryMatcher<?, E> matcher) throws IOException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E> ProgressiveEntryMatcher<?, E> startLoadingHarEntries(EntryParser<E> parser, ReplayServerConfig serverConfig, EntryLoader<E> loader) {
+        if (serverConfig.requestCanonicalization != null) {
+            parser = new CanonicalizingEntryParser<>(parser, buildRequestCanonicalizer(serverConfig.requestCanonicalization));
+        }
+        ProgressiveEntryMatcher<?, E> matcher = new ProgressiveEntryMatcher<Object, E>(selectEntryMatcherFactory(serverConfig), bucketEntryMatcherFactory, parser, config.maxLoadingWait.toMillis(), TimeUnit.MILLISECONDS, ManufacturingExecutor::isWorkerThread);
+        Thread thread = new Thread(() -> {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+                loader.load(matcher);
+                matcher.finish();
+                config.startupListener.phaseCompleted(StartupListener.Phase.HAR_LOADING, stopwatch.elapsed());
+                log.debug("loaded {} entries in background in {} ms", matcher.getEntriesLoaded(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            } catch (CancellationException e) {
+                log.debug("loading cancelled after {} entries: {}", matcher.getEntriesLoaded(), e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                log.error("failed to load HAR entries", e);
+                matcher.fail(e);
+            }
+        }, "har-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return matcher;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected BmpResponseManufacturer createResponseManufacturer(EntryMatcher entryMatcher, Iterable<ResponseInterceptor> responseInterceptors, ReplayServerConfig serverConfig) {
+        HarReplayManufacturer.Builder builder = HarReplayManufacturer.builder(entryMatcher)
+                .responseInterceptors(responseInterceptors)
+                .conditionalRequests(serverConfig.conditionalRequestsEnabled);
+        if (serverConfig.requestCanonicalization != null) {
+            builder.requestCanonicalizer(buildRequestCanonicalizer(serverConfig.requestCanonicalization));
         }
+        return builder.build();
+    }
+
+    protected RequestCanonicalizer buildRequestCanonicalizer(RequestCanonicalization canonicalization) {
+        return RuleBasedRequestCanonicalizer.builder()
+                .removeQueryParameters(canonicalization.removeQueryParameters)
+                .normalizeQueryParameters(canonicalization.normalizeQueryParameters)
+                .removeHeaders(canonicalization.removeHeaders)
+                .normalizeHeaders(canonicalization.normalizeHeaders)
+                .sortQueryParameters(canonicalization.sortQueryParameters)
+                .build();
+    }
+
+    /**
+     * Creates a builder of server configuration with the options of this manager.
+     * Options specific to a session may be set on the builder before it is built.
+     * @param port the port
+     * @param scratchParentDir parent of the server's scratch directory
+     * @param responseManufacturer the response manufacturer
+     * @param bmpResponseListener the response listener
+     * @param keystoreData keystore for the TLS endpoint; null if TLS is intercepted locally
+     * @return a new builder
+     * @throws IOException if the TLS endpoint cannot be configured
+     */
+    protected BrowsermobVhsConfig.Builder createServerConfigBuilder(int port, Path scratchParentDir, BmpResponseManufacturer responseManufacturer, BmpResponseListener bmpResponseListener, @Nullable KeystoreData keystoreData) throws IOException {
+        BrowsermobVhsConfig.Builder configBuilder = BrowsermobVhsConfig.builder(responseManufacturer)
+                .port(port)
+                .responseListener(bmpResponseListener)
+                .tlsInterceptionMode(config.tlsInterceptionMode)
+                .certificateAndKeySourceFactory((vhsConfig, scratchDir) -> new LazyCertificateAndKeySource(config.keystoreGenerator, null))
+                .scratchDirProvider(ScratchDirProvider.under(scratchParentDir))
+                .asyncManufacturing(config.asyncManufacturing)
+                .servedResponseLog(config.servedResponseLog)
+                .leafCertificates(createLeafCertificateConfig(CompletableFuture.completedFuture(ImmutableSet.of())))
+                .tlsSessions(config.tlsSessions)
+                .http2(config.http2)
+                .directOrigin(config.directOrigin);
+        if (keystoreData != null) {
+            try {
+                configBuilder.tlsEndpointFactory(NanohttpdTlsEndpointFactory.create(keystoreData, null, config.tlsEndpointExecutorFactory));
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        return configBuilder;
+    }
+
+    /**
+     * Creates the configuration of certificates that impersonate hosts.
+     * @param pregeneratedHosts hosts whose certificates are generated in the background once they are available
+     * @return the configuration
+     */
+    protected LeafCertificateConfig createLeafCertificateConfig(CompletionStage<? extends Collection<String>> pregeneratedHosts) {
+        return LeafCertificateConfig.builder()
+                .keyType(config.leafKeyType)
+                .storeDir(config.leafCertificateStoreDir)
+                .pregeneratedHosts(pregeneratedHosts)
+                .build();
+    }
+
+    /**
+     * Creates a virtual HAR server with the configured engine.
+     * @param serverConfig the server configuration
+     * @return a new server
+     */
+    protected VirtualHarServer createVirtualHarServer(BrowsermobVhsConfig serverConfig) {
+        switch (config.engine) {
+            case NETTY:
+                return new NettyVirtualHarServer(serverConfig);
+            case BROWSERUP:
+                return new BrowsermobVirtualHarServer(serverConfig);
+            default:
+                throw new IllegalStateException("unsupported engine: " + config.engine);
+        }
+    }
+
+    /**
+     * Determines whether certificates that impersonate hosts are generated by the
+     * server itself, in which case no keystore is needed for a TLS endpoint.
+     */
+    private boolean isLocallyIntercepting() {
+        return config.engine == ServerEngine.NETTY || config.tlsInterceptionMode == TlsInterceptionMode.LOCAL;
     }
 
     protected List<ResponseInterceptor> buildInterceptorsForReplacements(Collection<Replacement> replacements) {
@@ -126,7 +660,7 @@ public class VhsReplayManager implements ReplayManager {
     }
 
     protected EntryMatcher enhanceEntryMatcherFromConfig(EntryMatcher harEntryMatcher, ReplayServerConfig serverConfig) {
-        MappingEntryMatcher mappingEntryMatcher = new MappingEntryMatcher(serverConfig.mappings, config.mappedFileResolutionRoot);
+        MappingEntryMatcher mappingEntryMatcher = new MappingEntryMatcher(serverConfig.mappings, config.mappedFileResolutionRoot, serverConfig.conditionalRequestsEnabled);
         return new CompositeEntryMatcher(Arrays.asList(mappingEntryMatcher, harEntryMatcher));
     }
 
@@ -135,11 +669,30 @@ public class VhsReplayManager implements ReplayManager {
         private final VirtualHarServerControl ctrl;
         private volatile boolean alive;
         private final Runnable stopListener;
+        @Nullable
+        private final ProgressiveEntryMatcher<?, ?> progressiveMatcher;
 
-        private VhsReplaySessionControl(VirtualHarServerControl ctrl, boolean alive, Runnable stopListener) {
+        private VhsReplaySessionControl(VirtualHarServerControl ctrl, boolean alive, Runnable stopListener, @Nullable ProgressiveEntryMatcher<?, ?> progressiveMatcher) {
             this.ctrl = ctrl;
             this.alive = alive;
             this.stopListener = stopListener;
+            this.progressiveMatcher = progressiveMatcher;
+        }
+
+        @Override
+        public CompletableFuture<Void> getReadiness() {
+            if (progressiveMatcher == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return progressiveMatcher.getReadiness();
+        }
+
+        @Override
+        public LoadProgress getLoadProgress() {
+            if (progressiveMatcher == null) {
+                return LoadProgress.completeWithUnknownCount();
+            }
+            return new LoadProgress(progressiveMatcher.getEntriesLoaded(), progressiveMatcher.getEntriesTotal(), progressiveMatcher.isComplete());
         }
 
         @Override
@@ -147,6 +700,11 @@ public class VhsReplayManager implements ReplayManager {
             return ctrl.getSocketAddress();
         }
 
+        @Override
+        public Optional<HostAndPort> getHttpsSocketAddress() {
+            return ctrl.getHttpsSocketAddress();
+        }
+
         @Override
         public int getListeningPort() {
             return ctrl.getSocketAddress().getPort();
@@ -1,13 +1,23 @@
 package io.github.mike10004.harreplay.vhsimpl;
 
 import com.browserup.harreader.HarReaderMode;
+import io.github.mike10004.vhs.bmp.AsyncManufacturingConfig;
+import io.github.mike10004.vhs.bmp.ConnectionExecutorFactory;
+import io.github.mike10004.vhs.bmp.DirectOriginConfig;
+import io.github.mike10004.vhs.bmp.ServedResponseLogConfig;
+import io.github.mike10004.vhs.bmp.TlsInterceptionMode;
 import io.github.mike10004.vhs.bmp.BmpResponseListener;
 import io.github.mike10004.vhs.bmp.KeystoreGenerator;
 import io.github.mike10004.vhs.bmp.KeystoreType;
+import io.github.mike10004.vhs.bmp.LeafKeyType;
+import io.github.mike10004.vhs.bmp.TlsSessionConfig;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.nio.file.Path;
+import java.time.Duration;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 public class VhsReplayManagerConfig {
@@ -15,17 +25,193 @@ public class VhsReplayManagerConfig {
     private static final VhsReplayManagerConfig DEFAULT = builder().build();
 
     public final Path mappedFileResolutionRoot;
+
+    /**
+     * Generator of the keystore of the TLS endpoint and of the certificate authority
+     * with which the proxy signs certificates. Use a {@link io.github.mike10004.vhs.bmp.CachingKeystoreGenerator}
+     * to reuse keystores across sessions.
+     */
     public final KeystoreGenerator keystoreGenerator;
     public final BmpResponseListener bmpResponseListener;
     public final HarReaderFactory harReaderFactory;
     public final HarReaderMode harReaderMode;
 
+    /**
+     * Flag that specifies whether HAR files are loaded with a streaming parser that
+     * retains only the fields needed for replay and reads response content on demand.
+     * If true, {@link #harReaderFactory} and {@link #harReaderMode} are not used.
+     */
+    public final boolean streamingHarLoader;
+
+    /**
+     * Compiled index to serve instead of parsing the HAR file. The index is used
+     * only if it was compiled from the session HAR file. May be null.
+     */
+    @Nullable
+    public final File harIndexFile;
+
+    /**
+     * Whether the checksum of the HAR file is compared with the one recorded in the
+     * {@link #harIndexFile index} to check that the index was compiled from it. This
+     * reads the whole HAR file. By default, only the size and modification time of
+     * the HAR file are compared.
+     */
+    public final boolean verifyHarIndexChecksum;
+
+    /**
+     * Maximum number of threads used to parse HAR entries when a session starts.
+     */
+    public final int entryParsingParallelism;
+
+    /**
+     * Flag that specifies whether consecutive HAR entries with identical requests and
+     * responses are collapsed into one entry when the entry matcher is constructed.
+     * This makes matching faster for HARs that contain many repeated polling requests,
+     * at the cost of producing each entry's response once at startup.
+     */
+    public final boolean collapseDuplicateEntries;
+
+    /**
+     * Flag that specifies whether HAR entries with identical response bodies are made
+     * to share one body when the HAR file is loaded. This saves memory for HARs of
+     * multi-page sessions, at the cost of hashing every body at startup. Unless the
+     * streaming loader is used, bodies are also decoded once at startup rather than
+     * on every request. Bodies in a
+     * compiled index are always shared.
+     */
+    public final boolean deduplicateBodies;
+
+    /**
+     * Flag that specifies whether the proxy is started before HAR entries are loaded.
+     * If true, entries are loaded in the background and requests are answered as soon
+     * as matching entries have been loaded. Requires {@link #asyncManufacturing}, because
+     * requests wait for entries on manufacturing worker threads and never on I/O threads;
+     * a request that arrives on an I/O thread before its entries are loaded is answered
+     * as if no entry matched.
+     * @see io.github.mike10004.harreplay.ReplaySessionControl#getReadiness()
+     */
+    public final boolean asynchronousStart;
+
+    /**
+     * Maximum time a request waits for entries with the same method and URL to be loaded,
+     * if the session was started asynchronously. A request that is not matched within
+     * this time waits for loading to finish and is matched among all entries.
+     */
+    public final Duration maxLoadingWait;
+
+    /**
+     * Listener notified of the time taken by each phase of session startup.
+     */
+    public final StartupListener startupListener;
+
+    /**
+     * Cache of entry matchers shared among sessions that serve the same HAR file
+     * with the same configuration. If null, which is the default, each session constructs
+     * its own matcher. Callers opt in by setting a cache, such as {@link EntryMatcherCache#shared()}.
+     * Not used if {@link #asynchronousStart} is true.
+     */
+    @Nullable
+    public final EntryMatcherCache entryMatcherCache;
+
+    /**
+     * Configuration of asynchronous response manufacturing. If null, responses are
+     * manufactured synchronously on the proxy's I/O threads.
+     */
+    @Nullable
+    public final AsyncManufacturingConfig asyncManufacturing;
+
+    /**
+     * Configuration of the log of served responses. If null, served responses are
+     * not recorded.
+     */
+    @Nullable
+    public final ServedResponseLogConfig servedResponseLog;
+
+    /**
+     * Implementation of the virtual HAR server that serves sessions.
+     */
+    public final ServerEngine engine;
+
+    /**
+     * Whether HTTP/2 is offered by ALPN to clients on tunneled connections.
+     * Requires the {@link ServerEngine#NETTY NETTY} engine.
+     */
+    public final boolean http2;
+
+    /**
+     * Way in which the proxy intercepts TLS connections. Used only by the
+     * {@link ServerEngine#BROWSERUP BROWSERUP} engine. In
+     * {@link TlsInterceptionMode#LOCAL LOCAL} mode, no keystore is generated for a TLS endpoint.
+     */
+    public final TlsInterceptionMode tlsInterceptionMode;
+
+    /**
+     * Factory of the executor that serves connections accepted by the TLS endpoint.
+     * Not used in {@link TlsInterceptionMode#LOCAL LOCAL} mode.
+     */
+    public final ConnectionExecutorFactory tlsEndpointExecutorFactory;
+
+    /**
+     * Type of key pair generated for certificates that impersonate hosts.
+     */
+    public final LeafKeyType leafKeyType;
+
+    /**
+     * Directory in which certificates that impersonate hosts are stored for reuse
+     * in later runs. If null, certificates are not stored. Used only in
+     * {@link TlsInterceptionMode#LOCAL LOCAL} mode.
+     */
+    @Nullable
+    public final Path leafCertificateStoreDir;
+
+    /**
+     * Whether certificates for the hosts of HTTPS requests in the HAR are generated
+     * in the background when a session starts. Used only in
+     * {@link TlsInterceptionMode#LOCAL LOCAL} mode.
+     */
+    public final boolean pregenerateLeafCertificates;
+
+    /**
+     * Configuration of the TLS session cache of the contexts that impersonate hosts.
+     * Used only in {@link TlsInterceptionMode#LOCAL LOCAL} mode.
+     */
+    public final TlsSessionConfig tlsSessions;
+
+    /**
+     * Configuration of direct origin mode, in which the server answers requests sent
+     * straight to it, routed by {@code Host} header, instead of acting as a proxy. If
+     * null, the server acts as a proxy. Requires the {@link ServerEngine#NETTY NETTY} engine.
+     */
+    @Nullable
+    public final DirectOriginConfig directOrigin;
+
     private VhsReplayManagerConfig(Builder builder) {
         mappedFileResolutionRoot = builder.mappedFileResolutionRoot;
         keystoreGenerator = builder.keystoreGenerator;
         bmpResponseListener = builder.bmpResponseListener;
         harReaderFactory = builder.harReaderFactory;
         harReaderMode = builder.harReaderMode;
+        streamingHarLoader = builder.streamingHarLoader;
+        harIndexFile = builder.harIndexFile;
+        verifyHarIndexChecksum = builder.verifyHarIndexChecksum;
+        entryParsingParallelism = builder.entryParsingParallelism;
+        collapseDuplicateEntries = builder.collapseDuplicateEntries;
+        deduplicateBodies = builder.deduplicateBodies;
+        asynchronousStart = builder.asynchronousStart;
+        maxLoadingWait = builder.maxLoadingWait;
+        startupListener = builder.startupListener;
+        entryMatcherCache = builder.entryMatcherCache;
+        asyncManufacturing = builder.asyncManufacturing;
+        servedResponseLog = builder.servedResponseLog;
+        engine = builder.engine;
+        http2 = builder.http2;
+        tlsInterceptionMode = builder.tlsInterceptionMode;
+        tlsEndpointExecutorFactory = builder.tlsEndpointExecutorFactory;
+        leafKeyType = builder.leafKeyType;
+        leafCertificateStoreDir = builder.leafCertificateStoreDir;
+        pregenerateLeafCertificates = builder.pregenerateLeafCertificates;
+        tlsSessions = builder.tlsSessions;
+        directOrigin = builder.directOrigin;
     }
 
     public static VhsReplayManagerConfig getDefault() {
@@ -44,6 +230,30 @@ public class VhsReplayManagerConfig {
         private BmpResponseListener bmpResponseListener;
         private HarReaderFactory harReaderFactory;
         private HarReaderMode harReaderMode;
+        private boolean streamingHarLoader;
+        private File harIndexFile;
+        private boolean verifyHarIndexChecksum;
+        private int entryParsingParallelism;
+        private boolean collapseDuplicateEntries;
+        private boolean deduplicateBodies;
+        private boolean asynchronousStart;
+        private Duration maxLoadingWait;
+        private StartupListener startupListener;
+        private EntryMatcherCache entryMatcherCache;
+        private AsyncManufacturingConfig asyncManufacturing;
+        @Nullable
+        private ServedResponseLogConfig servedResponseLog;
+        private ServerEngine engine;
+        private boolean http2;
+        private TlsInterceptionMode tlsInterceptionMode;
+        private ConnectionExecutorFactory tlsEndpointExecutorFactory;
+        private LeafKeyType leafKeyType;
+        @Nullable
+        private Path leafCertificateStoreDir;
+        private boolean pregenerateLeafCertificates;
+        private TlsSessionConfig tlsSessions;
+        @Nullable
+        private DirectOriginConfig directOrigin;
 
         private Builder() {
             mappedFileResolutionRoot = new File(System.getProperty("user.dir")).toPath();
@@ -51,6 +261,14 @@ public class VhsReplayManagerConfig {
             keystoreGenerator = KeystoreGenerator.createJreGenerator(KeystoreType.PKCS12);
             harReaderFactory = HarReaderFactory.easier();
             harReaderMode = HarReaderMode.STRICT;
+            entryParsingParallelism = Runtime.getRuntime().availableProcessors();
+            maxLoadingWait = Duration.ofSeconds(30);
+            startupListener = StartupListener.inactive();
+            engine = ServerEngine.BROWSERUP;
+            tlsInterceptionMode = TlsInterceptionMode.UPSTREAM_ENDPOINT;
+            tlsEndpointExecutorFactory = ConnectionExecutorFactory.getDefault();
+            leafKeyType = LeafKeyType.RSA;
+            tlsSessions = TlsSessionConfig.getDefault();
         }
 
         public Builder mappedFileResolutionRoot(Path val) {
@@ -78,7 +296,117 @@ public class VhsReplayManagerConfig {
             return this;
         }
 
+        public Builder streamingHarLoader(boolean streamingHarLoader) {
+            this.streamingHarLoader = streamingHarLoader;
+            return this;
+        }
+
+        public Builder harIndexFile(@Nullable File harIndexFile) {
+            this.harIndexFile = harIndexFile;
+            return this;
+        }
+
+        public Builder verifyHarIndexChecksum(boolean verifyHarIndexChecksum) {
+            this.verifyHarIndexChecksum = verifyHarIndexChecksum;
+            return this;
+        }
+
+        public Builder entryParsingParallelism(int entryParsingParallelism) {
+            checkArgument(entryParsingParallelism > 0, "parallelism must be positive");
+            this.entryParsingParallelism = entryParsingParallelism;
+            return this;
+        }
+
+        public Builder collapseDuplicateEntries(boolean collapseDuplicateEntries) {
+            this.collapseDuplicateEntries = collapseDuplicateEntries;
+            return this;
+        }
+
+        public Builder deduplicateBodies(boolean deduplicateBodies) {
+            this.deduplicateBodies = deduplicateBodies;
+            return this;
+        }
+
+        public Builder asynchronousStart(boolean asynchronousStart) {
+            this.asynchronousStart = asynchronousStart;
+            return this;
+        }
+
+        public Builder maxLoadingWait(Duration maxLoadingWait) {
+            checkArgument(!maxLoadingWait.isNegative(), "wait must be nonnegative");
+            this.maxLoadingWait = maxLoadingWait;
+            return this;
+        }
+
+        public Builder startupListener(StartupListener startupListener) {
+            this.startupListener = requireNonNull(startupListener);
+            return this;
+        }
+
+        public Builder entryMatcherCache(@Nullable EntryMatcherCache entryMatcherCache) {
+            this.entryMatcherCache = entryMatcherCache;
+            return this;
+        }
+
+        public Builder asyncManufacturing(@Nullable AsyncManufacturingConfig asyncManufacturing) {
+            this.asyncManufacturing = asyncManufacturing;
+            return this;
+        }
+
+        public Builder servedResponseLog(@Nullable ServedResponseLogConfig servedResponseLog) {
+            this.servedResponseLog = servedResponseLog;
+            return this;
+        }
+
+        public Builder tlsInterceptionMode(TlsInterceptionMode tlsInterceptionMode) {
+            this.tlsInterceptionMode = requireNonNull(tlsInterceptionMode);
+            return this;
+        }
+
+        public Builder engine(ServerEngine engine) {
+            this.engine = requireNonNull(engine);
+            return this;
+        }
+
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        public Builder tlsEndpointExecutorFactory(ConnectionExecutorFactory tlsEndpointExecutorFactory) {
+            this.tlsEndpointExecutorFactory = requireNonNull(tlsEndpointExecutorFactory);
+            return this;
+        }
+
+        public Builder leafKeyType(LeafKeyType leafKeyType) {
+            this.leafKeyType = requireNonNull(leafKeyType);
+            return this;
+        }
+
+        public Builder leafCertificateStoreDir(@Nullable Path leafCertificateStoreDir) {
+            this.leafCertificateStoreDir = leafCertificateStoreDir;
+            return this;
+        }
+
+        public Builder pregenerateLeafCertificates(boolean pregenerateLeafCertificates) {
+            this.pregenerateLeafCertificates = pregenerateLeafCertificates;
+            return this;
+        }
+
+        public Builder tlsSessions(TlsSessionConfig tlsSessions) {
+            this.tlsSessions = requireNonNull(tlsSessions);
+            return this;
+        }
+
+        public Builder directOrigin(@Nullable DirectOriginConfig directOrigin) {
+            this.directOrigin = directOrigin;
+            return this;
+        }
+
         public VhsReplayManagerConfig build() {
+            checkArgument(!http2 || engine == ServerEngine.NETTY, "HTTP/2 requires the %s engine", ServerEngine.NETTY);
+            checkArgument(directOrigin == null || engine == ServerEngine.NETTY, "direct origin mode requires the %s engine", ServerEngine.NETTY);
+            checkArgument(!asynchronousStart || asyncManufacturing != null, "asynchronous start requires asynchronous manufacturing");
             return new VhsReplayManagerConfig(this);
         }
     }
@@ -0,0 +1,112 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import io.github.mike10004.vhs.EntryMatcher;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EntryMatcherCacheTest {
+
+    @Test
+    public void acquire_shared() throws Exception {
+        EntryMatcherCache cache = new EntryMatcherCache();
+        AtomicInteger loads = new AtomicInteger();
+        EntryMatcherCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            return createMatcher();
+        };
+        EntryMatcherCache.Lease first = cache.acquire("a", loader);
+        EntryMatcherCache.Lease second = cache.acquire("a", loader);
+        assertSame("matcher", first.getMatcher(), second.getMatcher());
+        assertEquals("loads", 1, loads.get());
+        first.close();
+        first.close();
+        assertEquals("size after first release", 1, cache.size());
+        second.close();
+        assertEquals("size after last release", 0, cache.size());
+        EntryMatcherCache.Lease third = cache.acquire("a", loader);
+        assertNotSame("reloaded after release", first.getMatcher(), third.getMatcher());
+        assertEquals("loads", 2, loads.get());
+        third.close();
+    }
+
+    @Test
+    public void acquire_distinctKeys() throws Exception {
+        EntryMatcherCache cache = new EntryMatcherCache();
+        try (EntryMatcherCache.Lease a = cache.acquire("a", EntryMatcherCacheTest::createMatcher);
+             EntryMatcherCache.Lease b = cache.acquire("b", EntryMatcherCacheTest::createMatcher)) {
+            assertNotSame(a.getMatcher(), b.getMatcher());
+            assertEquals(2, cache.size());
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void acquire_loadFails() throws Exception {
+        EntryMatcherCache cache = new EntryMatcherCache();
+        try {
+            cache.acquire("a", () -> {
+                throw new IOException("malformed");
+            });
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertEquals("malformed", e.getMessage());
+        }
+        assertEquals("size", 0, cache.size());
+        try (EntryMatcherCache.Lease lease = cache.acquire("a", EntryMatcherCacheTest::createMatcher)) {
+            assertTrue(lease.getMatcher() != null);
+        }
+    }
+
+    @Test
+    public void acquire_concurrent() throws Exception {
+        EntryMatcherCache cache = new EntryMatcherCache();
+        CountDownLatch loading = new CountDownLatch(1), proceed = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        EntryMatcherCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return createMatcher();
+        };
+        CompletableFuture<EntryMatcherCache.Lease> first = CompletableFuture.supplyAsync(() -> acquireUnchecked(cache, loader));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        CompletableFuture<EntryMatcherCache.Lease> second = CompletableFuture.supplyAsync(() -> acquireUnchecked(cache, loader));
+        proceed.countDown();
+        assertSame(first.get(5, TimeUnit.SECONDS).getMatcher(), second.get(5, TimeUnit.SECONDS).getMatcher());
+        assertEquals("loads", 1, loads.get());
+    }
+
+    private static EntryMatcherCache.Lease acquireUnchecked(EntryMatcherCache cache, EntryMatcherCache.Loader loader) {
+        try {
+            return cache.acquire("a", loader);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static EntryMatcher<?> createMatcher() {
+        return new EntryMatcher<Object>() {
+            @Override
+            public HttpRespondable findTopEntry(Object state, ParsedRequest request) {
+                return null;
+            }
+        };
+    }
+}
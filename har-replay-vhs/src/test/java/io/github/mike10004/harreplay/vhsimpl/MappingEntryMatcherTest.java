@@ -47,6 +47,18 @@ public class MappingEntryMatcherTest {
         NameValuePairList.StringMapEntryList headers = NameValuePairList.StringMapEntryList.caseInsensitive(rawHeaders.entries());
         assertEquals("num content-length headers", 1, headers.streamValues(HttpHeaders.CONTENT_LENGTH).count());
         assertEquals("num content-type headers", 1, headers.streamValues(HttpHeaders.CONTENT_TYPE).count());
+        assertEquals("num etag headers", 0, headers.streamValues(HttpHeaders.ETAG).count());
+        assertEquals("num last-modified headers", 0, headers.streamValues(HttpHeaders.LAST_MODIFIED).count());
+    }
+
+    @Test
+    public void constructHeaders_conditionalRequestsEnabled() throws Exception {
+        MappingEntryMatcher m = new MappingEntryMatcher(ImmutableList.of(), temporaryFolder.getRoot().toPath(), true);
+        File file = temporaryFolder.newFile();
+        Multimap<String, String> rawHeaders = m.constructHeaders(file, MediaType.OCTET_STREAM);
+        NameValuePairList.StringMapEntryList headers = NameValuePairList.StringMapEntryList.caseInsensitive(rawHeaders.entries());
+        assertEquals("num etag headers", 1, headers.streamValues(HttpHeaders.ETAG).count());
+        assertEquals("num last-modified headers", 1, headers.streamValues(HttpHeaders.LAST_MODIFIED).count());
     }
 
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
+import io.github.mike10004.harreplay.ReplayServerConfig.VariableHolder;
 import io.github.mike10004.vhs.harbridge.HttpMethod;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import org.junit.Test;
@@ -91,4 +92,12 @@ public class ReplacingInterceptorVariableDictionaryTest {
             assertEquals("substituted value", testCase.expectedValueIfValid, value);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void compiledInterpolation() {
+        VariableHolder template = VariableHolder.of(testCase.variableName);
+        String expected = template.interpolate(new ReplacingInterceptorVariableDictionary(testCase.request));
+        String actual = RequestInterpolator.compile(template).interpolate(testCase.request);
+        assertEquals("compiled interpolation", expected, actual);
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import io.github.mike10004.harreplay.ReplayServerConfig.ReplacementReplace;
+import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
+import io.github.mike10004.harreplay.ReplayServerConfig.VariableHolder;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Program that compares the per-request cost of interpolating replacement templates
+ * with a {@link ReplacingInterceptorVariableDictionary} and with a compiled
+ * {@link RequestInterpolator}. Run with no arguments.
+ */
+public class RequestInterpolatorBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int MEASURED_ITERATIONS = 1_000_000;
+
+    public static void main(String[] args) {
+        ParsedRequest request = createTypicalRequest();
+        List<ReplacementReplace> templates = ImmutableList.of(
+                StringLiteral.of("constant"),
+                VariableHolder.of(ReplacingInterceptorVariableDictionary.KEY_REQUEST_URL),
+                VariableHolder.of(ReplacingInterceptorVariableDictionary.PREFIX_KEY_REQUEST_HEADER + "user-agent"),
+                VariableHolder.of(ReplacingInterceptorVariableDictionary.PREFIX_KEY_REQUEST_HEADER + "Referer"),
+                VariableHolder.of(ReplacingInterceptorVariableDictionary.PREFIX_KEY_REQUEST_QUERY + "callback"));
+        System.out.format("%-40s %14s %14s%n", "template", "dictionary ns", "compiled ns");
+        for (ReplacementReplace template : templates) {
+            RequestInterpolator compiled = RequestInterpolator.compile(template);
+            measure(() -> template.interpolate(new ReplacingInterceptorVariableDictionary(request)), WARMUP_ITERATIONS);
+            measure(() -> compiled.interpolate(request), WARMUP_ITERATIONS);
+            double dictionaryNanos = measure(() -> template.interpolate(new ReplacingInterceptorVariableDictionary(request)), MEASURED_ITERATIONS);
+            double compiledNanos = measure(() -> compiled.interpolate(request), MEASURED_ITERATIONS);
+            System.out.format("%-40s %14.1f %14.1f%n", describe(template), dictionaryNanos, compiledNanos);
+        }
+    }
+
+    private interface Interpolation {
+        String perform();
+    }
+
+    private static volatile int sink;
+
+    private static double measure(Interpolation interpolation, int iterations) {
+        int lengths = 0;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        for (int i = 0; i < iterations; i++) {
+            lengths += interpolation.perform().length();
+        }
+        long elapsed = stopwatch.elapsed(TimeUnit.NANOSECONDS);
+        sink = lengths;
+        return (double) elapsed / iterations;
+    }
+
+    private static String describe(ReplacementReplace template) {
+        if (template instanceof VariableHolder) {
+            return "var " + ((VariableHolder) template).var;
+        }
+        return "literal";
+    }
+
+    private static ParsedRequest createTypicalRequest() {
+        URI url = URI.create("https://www.example.com/api/items?page=2&size=50&sort=name&callback=jsonp123&_=1700000000");
+        ImmutableMultimap<String, Optional<String>> query = ImmutableMultimap.<String, Optional<String>>builder()
+                .put("page", Optional.of("2"))
+                .put("size", Optional.of("50"))
+                .put("sort", Optional.of("name"))
+                .put("callback", Optional.of("jsonp123"))
+                .put("_", Optional.of("1700000000"))
+                .build();
+        ImmutableMultimap<String, String> headers = ImmutableMultimap.<String, String>builder()
+                .put("host", "www.example.com")
+                .put("user-agent", "Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0")
+                .put("accept", "application/json, text/javascript, */*; q=0.01")
+                .put("accept-language", "en-US,en;q=0.5")
+                .put("accept-encoding", "gzip, deflate, br")
+                .put("referer", "https://www.example.com/items")
+                .put("cookie", "session=abcdef0123456789; theme=dark")
+                .put("x-requested-with", "XMLHttpRequest")
+                .put("connection", "keep-alive")
+                .build();
+        return ParsedRequest.inMemory(HttpMethod.GET, url, query, headers, null);
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.mike10004.harreplay.vhsimpl;
 
+import io.github.mike10004.vhs.bmp.DirectOriginConfig;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -10,5 +11,21 @@ public class VhsReplayManagerConfigTest {
     public void getDefault() {
         // this is not a great test, but we have to link up the tests we have for reading HARs with the actual calls to construct HarReader instances
         assertTrue(VhsReplayManagerConfig.getDefault().harReaderFactory instanceof EasierHarReaderFactory);
+        assertNull("entry matcher cache", VhsReplayManagerConfig.getDefault().entryMatcherCache);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void http2RequiresNettyEngine() {
+        VhsReplayManagerConfig.builder().http2(true).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void directOriginRequiresNettyEngine() {
+        VhsReplayManagerConfig.builder().directOrigin(DirectOriginConfig.builder().build()).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void asynchronousStartRequiresAsyncManufacturing() {
+        VhsReplayManagerConfig.builder().asynchronousStart(true).build();
     }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import com.google.common.base.CharMatcher;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import com.google.common.net.HostAndPort;
+import io.github.mike10004.harreplay.LoadProgress;
 import io.github.mike10004.harreplay.ReplayManager;
 import io.github.mike10004.harreplay.ReplayServerConfig;
 import io.github.mike10004.harreplay.ReplaySessionConfig;
@@ -13,14 +14,29 @@ import io.github.mike10004.harreplay.tests.ImmutableHttpResponse;
 import io.github.mike10004.harreplay.tests.ReplayManagerTestBase;
 import io.github.mike10004.harreplay.tests.ReplayManagerTester;
 import io.github.mike10004.harreplay.tests.Tests;
+import io.github.mike10004.vhs.bmp.AsyncManufacturingConfig;
+import io.github.mike10004.vhs.bmp.DirectOriginConfig;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStreamReader;
+import java.net.Socket;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -58,6 +74,45 @@ public class VhsReplayManagerTest extends ReplayManagerTestBase {
         }
     }
 
+    @Test
+    public void nettyEngine() throws Exception {
+        ReplayManager replayManager = new VhsReplayManager(VhsReplayManagerConfig.builder()
+                .engine(ServerEngine.NETTY)
+                .http2(true)
+                .build());
+        Fixture fixture = fixturesRule.getFixtures().http();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(fixture.harFile());
+        try (ReplaySessionControl ctrl = replayManager.start(config)) {
+            ImmutableHttpResponse rsp = Tests.fetch(ctrl.getSocketAddress(), fixture.startUrl());
+            assertEquals("status", 200, rsp.status);
+        }
+    }
+
+    @Test
+    public void directOrigin() throws Exception {
+        ReplayManager replayManager = new VhsReplayManager(VhsReplayManagerConfig.builder()
+                .engine(ServerEngine.NETTY)
+                .directOrigin(DirectOriginConfig.builder().build())
+                .build());
+        Fixture fixture = fixturesRule.getFixtures().http();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(fixture.harFile());
+        URI url = fixture.startUrl();
+        try (ReplaySessionControl ctrl = replayManager.start(config)) {
+            HostAndPort serverAddress = ctrl.getSocketAddress();
+            String statusLine;
+            try (Socket socket = new Socket(serverAddress.getHost(), serverAddress.getPort())) {
+                socket.setSoTimeout(10000);
+                String requestHead = String.format("GET %s HTTP/1.1\r\nHost: %s:%d\r\nConnection: close\r\n\r\n", url.getRawPath(), url.getHost(), serverAddress.getPort());
+                socket.getOutputStream().write(requestHead.getBytes(StandardCharsets.US_ASCII));
+                statusLine = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+            }
+            assertEquals("status line", "HTTP/1.1 200 OK", statusLine);
+            assertFalse("https address", ctrl.getHttpsSocketAddress().isPresent());
+        }
+    }
+
     @Test
     public void acceptEncodingIsObeyed() throws Exception {
         io.github.mike10004.vhs.harbridge.Hars.class.getName();
@@ -80,6 +135,170 @@ public class VhsReplayManagerTest extends ReplayManagerTestBase {
         }
     }
 
+    @Test
+    public void asynchronousStart() throws Exception {
+        VhsReplayManagerConfig managerConfig = VhsReplayManagerConfig.builder()
+                .asynchronousStart(true)
+                .asyncManufacturing(AsyncManufacturingConfig.builder().build())
+                .build();
+        ReplayManager replayManager = new VhsReplayManager(managerConfig);
+        Fixture fixture = fixturesRule.getFixtures().http();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(fixture.harFile());
+        try (ReplaySessionControl ctrl = replayManager.start(config)) {
+            ImmutableHttpResponse rsp = Tests.fetch(ctrl.getSocketAddress(), fixture.startUrl());
+            assertEquals("status", 200, rsp.status);
+            ctrl.getReadiness().get(10, TimeUnit.SECONDS);
+            LoadProgress progress = ctrl.getLoadProgress();
+            assertTrue("complete", progress.complete);
+            assertTrue("entries loaded", progress.entriesLoaded > 0);
+            assertEquals("entries total", progress.entriesTotal, progress.entriesLoaded);
+        }
+    }
+
+    @Test
+    public void asynchronousStart_streamingDeduplicated() throws Exception {
+        AtomicReference<DeduplicationStats> deduplicationStats = new AtomicReference<>();
+        VhsReplayManagerConfig managerConfig = VhsReplayManagerConfig.builder()
+                .asynchronousStart(true)
+                .asyncManufacturing(AsyncManufacturingConfig.builder().build())
+                .streamingHarLoader(true)
+                .deduplicateBodies(true)
+                .startupListener(new StartupListener() {
+                    @Override
+                    public void phaseCompleted(Phase phase, Duration elapsed) {
+                    }
+
+                    @Override
+                    public void bodiesDeduplicated(DeduplicationStats stats) {
+                        deduplicationStats.set(stats);
+                    }
+                })
+                .build();
+        ReplayManager replayManager = new VhsReplayManager(managerConfig);
+        Fixture fixture = fixturesRule.getFixtures().http();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(fixture.harFile());
+        try (ReplaySessionControl ctrl = replayManager.start(config)) {
+            ctrl.getReadiness().get(10, TimeUnit.SECONDS);
+            DeduplicationStats stats = deduplicationStats.get();
+            assertNotNull("deduplication stats", stats);
+            assertEquals("bodies", ctrl.getLoadProgress().entriesLoaded, stats.getBodyCount());
+            ImmutableHttpResponse rsp = Tests.fetch(ctrl.getSocketAddress(), fixture.startUrl());
+            assertEquals("status", 200, rsp.status);
+        }
+    }
+
+    @Test
+    public void startupListenerNotified() throws Exception {
+        Map<StartupListener.Phase, Duration> phases = new ConcurrentHashMap<>();
+        AtomicReference<DeduplicationStats> deduplicationStats = new AtomicReference<>();
+        VhsReplayManagerConfig managerConfig = VhsReplayManagerConfig.builder()
+                .startupListener(new StartupListener() {
+                    @Override
+                    public void phaseCompleted(Phase phase, Duration elapsed) {
+                        phases.put(phase, elapsed);
+                    }
+
+                    @Override
+                    public void bodiesDeduplicated(DeduplicationStats stats) {
+                        deduplicationStats.set(stats);
+                    }
+                })
+                .deduplicateBodies(true)
+                .collapseDuplicateEntries(true)
+                .build();
+        ReplayManager replayManager = new VhsReplayManager(managerConfig);
+        Fixture fixture = fixturesRule.getFixtures().http();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .config(ReplayServerConfig.builder().conditionalRequests(true).build())
+                .build(fixture.harFile());
+        try (ReplaySessionControl ctrl = replayManager.start(config)) {
+            assertEquals("phases", EnumSet.allOf(StartupListener.Phase.class), phases.keySet());
+            assertNotNull("deduplication stats", deduplicationStats.get());
+            ImmutableHttpResponse rsp = Tests.fetch(ctrl.getSocketAddress(), fixture.startUrl());
+            assertEquals("status", 200, rsp.status);
+        }
+    }
+
+    @Test
+    public void entryMatcherShared() throws Exception {
+        EntryMatcherCache cache = new EntryMatcherCache();
+        VhsReplayManagerConfig managerConfig = VhsReplayManagerConfig.builder()
+                .entryMatcherCache(cache)
+                .build();
+        Fixture fixture = fixturesRule.getFixtures().http();
+        ReplaySessionConfig firstConfig = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .port(Tests.findOpenPort())
+                .build(fixture.harFile());
+        try (ReplaySessionControl first = new VhsReplayManager(managerConfig).start(firstConfig)) {
+            ReplaySessionConfig secondConfig = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                    .port(Tests.findOpenPort())
+                    .build(fixture.harFile());
+            try (ReplaySessionControl second = new VhsReplayManager(managerConfig).start(secondConfig)) {
+                assertEquals("cache size", 1, cache.size());
+                assertEquals("first status", 200, Tests.fetch(first.getSocketAddress(), fixture.startUrl()).status);
+                assertEquals("second status", 200, Tests.fetch(second.getSocketAddress(), fixture.startUrl()).status);
+            }
+            assertEquals("cache size after one session stops", 1, cache.size());
+        }
+        assertEquals("cache size after all sessions stop", 0, cache.size());
+    }
+
+    @Test
+    public void start_keystoreGenerationFails() throws Exception {
+        VhsReplayManagerConfig managerConfig = VhsReplayManagerConfig.builder()
+                .keystoreGenerator(commonName -> {
+                    throw new GeneralSecurityException("generation failed");
+                })
+                .build();
+        ReplayManager replayManager = new VhsReplayManager(managerConfig);
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(fixturesRule.getFixtures().http().harFile());
+        try {
+            replayManager.start(config).close();
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertTrue("cause " + e.getCause(), e.getCause() instanceof GeneralSecurityException);
+        }
+    }
+
+    @Test
+    public void start_harLoadingFails() throws Exception {
+        ReplayManager replayManager = new VhsReplayManager();
+        File harFile = temporaryFolder.newFile();
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write("{\"log\": ");
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(harFile);
+        try {
+            replayManager.start(config).close();
+            fail("should have thrown");
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Test
+    public void collectHttpsHosts() throws Exception {
+        Fixture fixture = fixturesRule.getFixtures().https();
+        VhsReplayManager replayManager = new VhsReplayManager();
+        ReplaySessionConfig sessionConfig = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(fixture.harFile());
+        Set<String> hosts = replayManager.collectHttpsHosts(replayManager.buildHarEntryMatcher(sessionConfig));
+        assertTrue("hosts " + hosts + " include " + fixture.startUrl().getHost(), hosts.contains(fixture.startUrl().getHost()));
+    }
+
+    @Test
+    public void collectHttpsHosts_index() throws Exception {
+        Fixture fixture = fixturesRule.getFixtures().https();
+        VhsReplayManager replayManager = new VhsReplayManager();
+        File indexFile = temporaryFolder.newFile("https.idx");
+        replayManager.compileHarIndex(fixture.harFile(), indexFile, false);
+        ReplaySessionConfig sessionConfig = ReplaySessionConfig.builder(temporaryFolder.getRoot().toPath())
+                .build(indexFile);
+        Set<String> hosts = replayManager.collectHttpsHosts(replayManager.buildHarEntryMatcher(sessionConfig));
+        assertTrue("hosts " + hosts + " include " + fixture.startUrl().getHost(), hosts.contains(fixture.startUrl().getHost()));
+    }
+
     private static final CharMatcher ASCII = CharMatcher.ascii();
 
     @Test
@@ -0,0 +1,37 @@
+package io.github.mike10004.vhs;
+
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+import java.io.IOException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Entry parser that canonicalizes the requests parsed by another parser.
+ * @param <E> HAR entry type
+ */
+public class CanonicalizingEntryParser<E> implements EntryParser<E> {
+
+    private final EntryParser<E> delegate;
+    private final RequestCanonicalizer canonicalizer;
+
+    public CanonicalizingEntryParser(EntryParser<E> delegate, RequestCanonicalizer canonicalizer) {
+        this.delegate = requireNonNull(delegate);
+        this.canonicalizer = requireNonNull(canonicalizer);
+    }
+
+    @Override
+    public ParsedRequest parseRequest(E harEntry) throws IOException {
+        return canonicalizer.canonicalize(delegate.parseRequest(harEntry));
+    }
+
+    @Override
+    public HttpRespondable parseResponse(ParsedRequest request, E harEntry) throws IOException {
+        return delegate.parseResponse(request, harEntry);
+    }
+
+    @Override
+    public HttpRespondable parseResponseMetadata(ParsedRequest request, E harEntry) throws IOException {
+        return delegate.parseResponseMetadata(request, harEntry);
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.mike10004.vhs;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import io.github.mike10004.vhs.HeuristicEntryMatcher.ParsedEntry;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * Collapser of runs of duplicate entries. Polling produces many entries with
+ * the same request and the same response, each of which would otherwise be
+ * rated for every request. Among the entries with a given method and URL, a
+ * run of consecutive entries whose requests and responses are identical is
+ * collapsed into the first entry of the run, with a repeat count equal to the
+ * length of the run. Only consecutive entries are collapsed, so that sequence
+ * positions still identify the entry that was recorded at that position.
+ */
+class DuplicateEntryCollapser {
+
+    private static final Logger log = LoggerFactory.getLogger(DuplicateEntryCollapser.class);
+
+    private final boolean parallel;
+
+    /**
+     * Constructs an instance.
+     * @param parallel true if entries may be fingerprinted on multiple threads
+     */
+    public DuplicateEntryCollapser(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Collapses runs of duplicate entries. Each entry's response is produced once
+     * in order to compare it with the response of the previous entry.
+     * @param entries entries in HAR order
+     * @return the entries, with runs collapsed
+     * @throws IOException if a response cannot be produced
+     */
+    public List<ParsedEntry> collapse(List<ParsedEntry> entries) throws IOException {
+        HashCode[] fingerprints = new HashCode[entries.size()];
+        IntStream indexes = IntStream.range(0, entries.size());
+        try {
+            (parallel ? indexes.parallel() : indexes).forEach(i -> {
+                try {
+                    fingerprints[i] = fingerprint(entries.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<ImmutablePair<HttpMethod, URI>, Run> lastRuns = new HashMap<>();
+        List<Run> runs = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            ParsedEntry entry = entries.get(i);
+            ImmutablePair<HttpMethod, URI> key = ImmutablePair.of(entry.request.method, entry.request.url);
+            @Nullable Run lastRun = lastRuns.get(key);
+            if (lastRun != null && lastRun.fingerprint.equals(fingerprints[i])) {
+                lastRun.repeatCount += entry.repeatCount;
+            } else {
+                Run run = new Run(entry, fingerprints[i]);
+                runs.add(run);
+                lastRuns.put(key, run);
+            }
+        }
+        List<ParsedEntry> collapsed = new ArrayList<>(runs.size());
+        for (Run run : runs) {
+            collapsed.add(run.repeatCount == run.entry.repeatCount ? run.entry : run.entry.withRepeatCount(run.repeatCount));
+        }
+        log.debug("collapsed {} entries into {}", entries.size(), collapsed.size());
+        return collapsed;
+    }
+
+    private static class Run {
+
+        public final ParsedEntry entry;
+        public final HashCode fingerprint;
+        public int repeatCount;
+
+        public Run(ParsedEntry entry, HashCode fingerprint) {
+            this.entry = entry;
+            this.fingerprint = fingerprint;
+            repeatCount = entry.repeatCount;
+        }
+    }
+
+    /**
+     * Computes a hash of the features of an entry's request that the heuristic rates
+     * and of the response produced for that request.
+     */
+    private static HashCode fingerprint(ParsedEntry entry) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        ParsedRequest request = entry.request;
+        putString(hasher, request.method.name());
+        putString(hasher, request.url.toString());
+        if (request.query == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(request.query.size());
+            request.query.entries().forEach(param -> {
+                putString(hasher, param.getKey());
+                putString(hasher, param.getValue().orElse(null));
+            });
+        }
+        hasher.putInt(request.indexedHeaders.size());
+        request.indexedHeaders.entries().forEach(header -> {
+            putString(hasher, header.getKey());
+            putString(hasher, header.getValue());
+        });
+        OutputStream sink = Funnels.asOutputStream(hasher);
+        hasher.putBoolean(request.isBodyPresent());
+        if (request.isBodyPresent()) {
+            try (InputStream in = request.openBodyStream()) {
+                hasher.putLong(ByteStreams.copy(in, sink));
+            }
+        }
+        HttpRespondable response = entry.responseCreator.createRespondable(request);
+        hasher.putInt(response.getStatus());
+        response.streamHeaders().forEach(header -> {
+            putString(hasher, header.getKey());
+            putString(hasher, header.getValue());
+        });
+        CountingOutputStream bodySink = new CountingOutputStream(sink);
+        putString(hasher, Optional.ofNullable(response.writeBody(bodySink)).map(Object::toString).orElse(null));
+        hasher.putLong(bodySink.getCount());
+        return hasher.hash();
+    }
+
+    private static void putString(Hasher hasher, @Nullable String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length());
+            hasher.putString(value, StandardCharsets.UTF_8);
+        }
+    }
+}
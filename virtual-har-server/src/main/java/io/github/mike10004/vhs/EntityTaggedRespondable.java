@@ -0,0 +1,65 @@
+package io.github.mike10004.vhs;
+
+import com.google.common.io.ByteSource;
+import com.google.common.net.MediaType;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Respondable that delegates to another respondable but supplies its own entity tag.
+ */
+class EntityTaggedRespondable implements HttpRespondable {
+
+    private final HttpRespondable delegate;
+    private final Supplier<String> entityTagSupplier;
+
+    EntityTaggedRespondable(HttpRespondable delegate, Supplier<String> entityTagSupplier) {
+        this.delegate = requireNonNull(delegate);
+        this.entityTagSupplier = requireNonNull(entityTagSupplier);
+    }
+
+    @Override
+    public int getStatus() {
+        return delegate.getStatus();
+    }
+
+    @Override
+    public Stream<? extends Entry<String, String>> streamHeaders() {
+        return delegate.streamHeaders();
+    }
+
+    @Override
+    public MediaType writeBody(OutputStream outputStream) throws IOException {
+        return delegate.writeBody(outputStream);
+    }
+
+    @Nullable
+    @Override
+    public MediaType previewContentType() {
+        return delegate.previewContentType();
+    }
+
+    @Nullable
+    @Override
+    public ByteSource getBodySource() {
+        return delegate.getBodySource();
+    }
+
+    @Nullable
+    @Override
+    public String getEntityTag() {
+        return entityTagSupplier.get();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityTaggedRespondable{delegate=" + delegate + "}";
+    }
+}
@@ -18,4 +18,19 @@ public interface EntryMatcher<S> {
     @Nullable
     HttpRespondable findTopEntry(S state, ParsedRequest request);
 
+    /**
+     * Finds the best response for a given HTTP request when only the status and
+     * headers of the response are needed, as for a {@code HEAD} request.
+     * Implementations may return a response whose body has not been read and
+     * whose {@code Content-Length} header is absent if the length is not known
+     * without reading the body. The default implementation returns the result
+     * of {@link #findTopEntry(Object, ParsedRequest)}.
+     * @param request the request
+     * @return the response that matches best, or null if none matches well enough
+     */
+    @Nullable
+    default HttpRespondable findTopEntryMetadata(S state, ParsedRequest request) {
+        return findTopEntry(state, request);
+    }
+
 }
@@ -28,4 +28,17 @@ public interface EntryParser<E> {
      */
     HttpRespondable parseResponse(ParsedRequest request, E harEntry) throws IOException;
 
+    /**
+     * Parses the status and headers of the HTTP response present in a HAR entry.
+     * Implementations may return a response whose body has not been read. The
+     * default implementation returns the result of {@link #parseResponse(ParsedRequest, Object)}.
+     * @param harEntry the HAR entry
+     * @param request the new client request
+     * @return the parsed response
+     * @throws IOException if extraction from HAR goes awry
+     */
+    default HttpRespondable parseResponseMetadata(ParsedRequest request, E harEntry) throws IOException {
+        return parseResponse(request, harEntry);
+    }
+
 }
@@ -6,6 +6,7 @@ import com.google.common.io.ByteSource;
 import com.google.common.net.HostAndPort;
 import com.google.common.net.HttpHeaders;
 import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarInterner;
 import io.github.mike10004.vhs.harbridge.HarResponseData;
 import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
 import io.github.mike10004.vhs.harbridge.HttpMethod;
@@ -33,10 +34,23 @@ public class HarBridgeEntryParser<E> implements EntryParser<E> {
 
     private final HarBridge<E> bridge;
     private final HarResponseEncoderFactory<E> responseEncoderFactory;
+    private final HarInterner interner;
 
     public HarBridgeEntryParser(HarBridge<E> bridge, HarResponseEncoderFactory<E> responseEncoderFactory) {
+        this(bridge, responseEncoderFactory, HarInterner.create());
+    }
+
+    /**
+     * Constructs an instance. Requests parsed by this instance share instances
+     * of identical URLs, header strings, and header sets through the interner.
+     * @param bridge the bridge
+     * @param responseEncoderFactory the response encoder factory
+     * @param interner the interner
+     */
+    public HarBridgeEntryParser(HarBridge<E> bridge, HarResponseEncoderFactory<E> responseEncoderFactory, HarInterner interner) {
         this.bridge = requireNonNull(bridge);
         this.responseEncoderFactory = requireNonNull(responseEncoderFactory);
+        this.interner = requireNonNull(interner);
     }
 
     public static <E> HarBridgeEntryParser<E> withPlainEncoder(HarBridge<E> bridge) {
@@ -85,12 +99,12 @@ public class HarBridgeEntryParser<E> implements EntryParser<E> {
     @Override
     public ParsedRequest parseRequest(E harEntry) throws IOException {
         HttpMethod method = HttpMethod.valueOf(bridge.getRequestMethod(harEntry));
-        URI parsedUrl = parseUrl(method, bridge.getRequestUrl(harEntry));
-        Multimap<String, Optional<String>> query = parseQuery(parsedUrl);
-        Multimap<String, String> indexedHeaders = indexHeaders(bridge.getRequestHeaders(harEntry));
+        URI parsedUrl = interner.intern(parseUrl(method, bridge.getRequestUrl(harEntry)));
+        Multimap<String, Optional<String>> query = interner.queryMultimap(parseQuery(parsedUrl));
+        Multimap<String, String> indexedHeaders = interner.headerMultimap(indexHeaders(bridge.getRequestHeaders(harEntry)));
         ByteSource bodySource = bridge.getRequestPostData(harEntry);
         byte[] body = bodySource.read();
-        return ParsedRequest.inMemory(method, parsedUrl, query, indexedHeaders, body);
+        return ParsedRequest.create(method, parsedUrl, query, indexedHeaders, body.length == 0 ? ByteSource.empty() : ByteSource.wrap(body));
     }
 
     /**
@@ -120,6 +134,24 @@ public class HarBridgeEntryParser<E> implements EntryParser<E> {
         return constructRespondable(status, responseData);
     }
 
+    /**
+     * Parses the status and headers of the response without reading the body.
+     * The {@code Content-Length} header is set to the size of the body if that
+     * size is known without reading, and removed otherwise, because a recorded
+     * value may describe a differently-encoded body.
+     * @param request the new client request
+     * @param entry the HAR entry
+     * @return a response whose body has not been read
+     * @throws IOException if extraction from HAR goes awry
+     */
+    @Override
+    public HttpRespondable parseResponseMetadata(ParsedRequest request, E entry) throws IOException {
+        int status = bridge.getResponseStatus(entry);
+        HarResponseEncoding responseEncoder = responseEncoderFactory.getEncoder(request, entry);
+        HarResponseData responseData = bridge.getResponseData(request, entry, responseEncoder);
+        return constructRespondable(status, responseData, responseData.getBody().sizeIfKnown().orNull());
+    }
+
     /**
      * Replaces the content-length header.
      * @param headers headers
@@ -158,11 +190,15 @@ public class HarBridgeEntryParser<E> implements EntryParser<E> {
     }
 
     protected static HttpRespondable constructRespondable(int status, HarResponseData responseData) throws IOException {
+        return constructRespondable(status, responseData, responseData.getBody().size());
+    }
+
+    private static HttpRespondable constructRespondable(int status, HarResponseData responseData, @Nullable Long contentLength) {
         Multimap<String, String> headers = ArrayListMultimap.create();
         responseData.headers().forEach(header -> {
             headers.put(header.getKey(), header.getValue());
         });
-        replaceContentLength(headers, responseData.getBody().size());
+        replaceContentLength(headers, contentLength);
         return HttpRespondable.inMemory(status, headers, responseData.getContentType(), responseData.getBody());
     }
 
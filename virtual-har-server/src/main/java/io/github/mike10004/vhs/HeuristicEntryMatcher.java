@@ -1,20 +1,49 @@
 package io.github.mike10004.vhs;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.math.IntMath;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.RoundingMode;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
@@ -37,6 +66,185 @@ public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
         return new Factory<>(heuristic, thresholdExclusive);
     }
 
+    /**
+     * Creates a factory that parses entries on multiple threads.
+     * @param heuristic the heuristic
+     * @param thresholdExclusive the rating threshold
+     * @param parallelism maximum number of threads used to parse entries
+     * @param <T> state type
+     * @return a new factory
+     */
+    public static <T> EntryMatcherFactory<T> factory(Heuristic heuristic, int thresholdExclusive, int parallelism) {
+        return new Factory<>(heuristic, thresholdExclusive, parallelism);
+    }
+
+    /**
+     * Creates a factory that parses entries on multiple threads and optionally
+     * collapses runs of duplicate entries. Collapsing requires that each entry's
+     * response be produced once at load time, in exchange for fewer entries to
+     * rate for each request.
+     * @param heuristic the heuristic
+     * @param thresholdExclusive the rating threshold
+     * @param parallelism maximum number of threads used to parse entries
+     * @param collapseDuplicates true to collapse consecutive entries that have
+     *                           identical requests and responses
+     * @param <T> state type
+     * @return a new factory
+     */
+    public static <T> EntryMatcherFactory<T> factory(Heuristic heuristic, int thresholdExclusive, int parallelism, boolean collapseDuplicates) {
+        return new Factory<>(heuristic, thresholdExclusive, parallelism, collapseDuplicates);
+    }
+
+    /**
+     * Creates a builder of a factory.
+     * @param heuristic the heuristic
+     * @param thresholdExclusive the rating threshold
+     * @param <T> state type
+     * @return a new builder
+     */
+    public static <T> FactoryBuilder<T> factoryBuilder(Heuristic heuristic, int thresholdExclusive) {
+        return new FactoryBuilder<>(heuristic, thresholdExclusive);
+    }
+
+    /**
+     * Builder of factories.
+     * @param <T> state type
+     */
+    public static final class FactoryBuilder<T> {
+
+        private final Heuristic heuristic;
+        private final int thresholdExclusive;
+        private int parallelism = 1;
+        private boolean collapseDuplicates;
+        private boolean entityTagging;
+        @Nullable
+        private Executor parsingExecutor;
+        private ConstructionListener constructionListener = ConstructionListener.inactive();
+
+        private FactoryBuilder(Heuristic heuristic, int thresholdExclusive) {
+            this.heuristic = requireNonNull(heuristic);
+            this.thresholdExclusive = thresholdExclusive;
+        }
+
+        /**
+         * Sets the maximum number of threads used to parse entries. Default is 1.
+         * @param parallelism the parallelism
+         * @return this builder
+         */
+        public FactoryBuilder<T> parallelism(int parallelism) {
+            checkArgument(parallelism > 0, "parallelism must be positive");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets whether runs of duplicate entries are collapsed. Default is false.
+         * @param collapseDuplicates true to collapse consecutive entries that have
+         *                           identical requests and responses
+         * @return this builder
+         * @see HeuristicEntryMatcher#factory(Heuristic, int, int, boolean)
+         */
+        public FactoryBuilder<T> collapseDuplicates(boolean collapseDuplicates) {
+            this.collapseDuplicates = collapseDuplicates;
+            return this;
+        }
+
+        /**
+         * Sets whether responses carry entity tags computed from their bodies. If enabled,
+         * the tag of each entry's response is computed when the matcher is constructed,
+         * so that conditional requests are answered without hashing response bodies.
+         * Entries whose responses have an {@code ETag} header are not read. Default is false.
+         * @param entityTagging true to compute entity tags
+         * @return this builder
+         */
+        public FactoryBuilder<T> entityTagging(boolean entityTagging) {
+            this.entityTagging = entityTagging;
+            return this;
+        }
+
+        /**
+         * Sets the executor that parses and tags entries on multiple threads. The executor
+         * should have at least as many threads as the parallelism. If not set, the factory
+         * creates a pool of daemon threads the first time it is needed and reuses it for
+         * every matcher it constructs.
+         * @param parsingExecutor the executor
+         * @return this builder
+         * @see #newParsingExecutor(int)
+         */
+        public FactoryBuilder<T> parsingExecutor(Executor parsingExecutor) {
+            this.parsingExecutor = requireNonNull(parsingExecutor);
+            return this;
+        }
+
+        /**
+         * Sets the listener notified as each step of matcher construction completes.
+         * @param constructionListener the listener
+         * @return this builder
+         */
+        public FactoryBuilder<T> constructionListener(ConstructionListener constructionListener) {
+            this.constructionListener = requireNonNull(constructionListener);
+            return this;
+        }
+
+        public EntryMatcherFactory<T> build() {
+            return new Factory<>(this);
+        }
+    }
+
+    private static final long PARSING_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Creates an executor suitable for parsing entries. Its threads are daemon threads
+     * that terminate when idle, so the executor need not be shut down.
+     * @param parallelism the maximum number of threads
+     * @return a new executor
+     */
+    public static ExecutorService newParsingExecutor(int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+                PARSING_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("entry-parser-%d")
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Callback interface that defines a method invoked as each step of matcher
+     * construction completes. Steps that are not performed are not reported.
+     */
+    public interface ConstructionListener {
+
+        /**
+         * Enumeration of construction steps.
+         */
+        enum Step {
+
+            /**
+             * Parsing of requests.
+             */
+            PARSING,
+
+            /**
+             * Collapsing of runs of duplicate entries.
+             */
+            COLLAPSING,
+
+            /**
+             * Computation of response entity tags.
+             */
+            ENTITY_TAGGING
+        }
+
+        void stepCompleted(Step step, Duration elapsed);
+
+        static ConstructionListener inactive() {
+            return (step, elapsed) -> {};
+        }
+    }
+
     /**
      * Interface that maps a request to a response.
      */
@@ -48,31 +256,179 @@ public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
          * @throws IOException on I/O error
          */
         HttpRespondable createRespondable(ParsedRequest request) throws IOException;
+
+        /**
+         * Constructs and returns a respondable whose body need not have been read.
+         * @param request the request
+         * @return the response
+         * @throws IOException on I/O error
+         * @see EntryParser#parseResponseMetadata(ParsedRequest, Object)
+         */
+        default HttpRespondable createMetadataRespondable(ParsedRequest request) throws IOException {
+            return createRespondable(request);
+        }
     }
 
     protected static class Factory<S> implements EntryMatcherFactory<S> {
 
         private static final Logger log = LoggerFactory.getLogger(Factory.class);
 
+        /**
+         * Minimum number of entries to parse per thread. Below this, the cost of
+         * handing off work exceeds the cost of parsing.
+         */
+        static final int MIN_ENTRIES_PER_THREAD = 64;
+
+        /**
+         * Number of work units per thread. Entries vary in size, so having more units
+         * than threads keeps the threads evenly busy.
+         */
+        private static final int UNITS_PER_THREAD = 4;
+
         protected final Heuristic heuristic;
         protected final int thresholdExclusive;
+        protected final int parallelism;
+        protected final boolean collapseDuplicates;
+        protected final boolean entityTagging;
+        protected final ConstructionListener constructionListener;
+        private final Supplier<Executor> parsingExecutor;
 
         protected Factory(Heuristic heuristic, int thresholdExclusive) {
-            this.thresholdExclusive = thresholdExclusive;
-            this.heuristic = requireNonNull(heuristic);
+            this(heuristic, thresholdExclusive, 1);
         }
 
+        protected Factory(Heuristic heuristic, int thresholdExclusive, int parallelism) {
+            this(heuristic, thresholdExclusive, parallelism, false);
+        }
+
+        protected Factory(Heuristic heuristic, int thresholdExclusive, int parallelism, boolean collapseDuplicates) {
+            this(new FactoryBuilder<>(heuristic, thresholdExclusive)
+                    .parallelism(parallelism)
+                    .collapseDuplicates(collapseDuplicates));
+        }
+
+        protected Factory(FactoryBuilder<?> builder) {
+            this.thresholdExclusive = builder.thresholdExclusive;
+            this.heuristic = builder.heuristic;
+            this.parallelism = builder.parallelism;
+            this.collapseDuplicates = builder.collapseDuplicates;
+            this.entityTagging = builder.entityTagging;
+            this.constructionListener = builder.constructionListener;
+            Executor suppliedExecutor = builder.parsingExecutor;
+            int poolSize = builder.parallelism;
+            this.parsingExecutor = suppliedExecutor != null
+                    ? () -> suppliedExecutor
+                    : Suppliers.memoize(() -> newParsingExecutor(poolSize));
+        }
+
+        /**
+         * Parses entries. The parsed entries are in the same order as the input entries.
+         * If this factory collapses duplicates, runs of duplicate entries are replaced
+         * by a single entry with a repeat count. If this factory tags entities, the entity
+         * tag of each entry's response is computed. If the number of entries warrants it,
+         * they are parsed and tagged on multiple threads, so the parser must be safe for
+         * concurrent use.
+         * @param entries the entries
+         * @param requestParser the parser
+         * @param <E> HAR entry type
+         * @return a list of parsed entries
+         * @throws IOException if parsing fails
+         */
         protected <E> List<ParsedEntry> parseEntries(List<E> entries, EntryParser<E> requestParser) throws IOException {
-            List<ParsedEntry> parsedEntries = new ArrayList<>(entries.size());
-            for (E entry : entries) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            int threads = Math.min(parallelism, entries.size() / MIN_ENTRIES_PER_THREAD);
+            List<ParsedEntry> parsedEntries;
+            if (threads > 1) {
+                parsedEntries = runInParallel(entries.size(), threads, (from, to) -> parseEntries(entries, requestParser, from, to));
+            } else {
+                threads = 1;
+                parsedEntries = parseEntries(entries, requestParser, 0, entries.size());
+            }
+            log.debug("parsed {} entries in {} ms using {} thread(s)", parsedEntries.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS), threads);
+            constructionListener.stepCompleted(ConstructionListener.Step.PARSING, stopwatch.elapsed());
+            if (collapseDuplicates) {
+                stopwatch.reset().start();
+                parsedEntries = new DuplicateEntryCollapser(threads > 1).collapse(parsedEntries);
+                constructionListener.stepCompleted(ConstructionListener.Step.COLLAPSING, stopwatch.elapsed());
+            }
+            if (entityTagging) {
+                precomputeEntityTags(parsedEntries, threads);
+            }
+            return parsedEntries;
+        }
+
+        private <E> List<ParsedEntry> parseEntries(List<E> entries, EntryParser<E> requestParser, int fromIndex, int toIndex) throws IOException {
+            List<ParsedEntry> parsedEntries = new ArrayList<>(toIndex - fromIndex);
+            for (E entry : entries.subList(fromIndex, toIndex)) {
                 ParsedRequest request = requestParser.parseRequest(entry);
                 HttpRespondableCreator respondableCreator = new EntryRespondableCreator<>(entry, requestParser);
-                ParsedEntry parsedEntry = new ParsedEntry(request, respondableCreator);
+                ParsedEntry parsedEntry = new ParsedEntry(request, respondableCreator, 1, entityTagging);
                 parsedEntries.add(parsedEntry);
             }
             return parsedEntries;
         }
 
+        private void precomputeEntityTags(List<ParsedEntry> parsedEntries, int threads) throws IOException {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            UnitTask<Void> task = (from, to) -> {
+                for (ParsedEntry entry : parsedEntries.subList(from, to)) {
+                    try {
+                        entry.precomputeEntityTag();
+                    } catch (IOException e) {
+                        log.warn("could not create response to compute entity tag", e);
+                    }
+                }
+                return Collections.emptyList();
+            };
+            if (threads > 1) {
+                runInParallel(parsedEntries.size(), threads, task);
+            } else {
+                task.run(0, parsedEntries.size());
+            }
+            log.debug("computed entity tags of {} entries in {} ms", parsedEntries.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            constructionListener.stepCompleted(ConstructionListener.Step.ENTITY_TAGGING, stopwatch.elapsed());
+        }
+
+        /**
+         * Interface of a task performed on a range of entries.
+         * @param <T> result element type
+         */
+        private interface UnitTask<T> {
+            List<T> run(int fromIndex, int toIndex) throws IOException;
+        }
+
+        /**
+         * Divides a range of entries into units and performs a task on each unit
+         * using the parsing executor. Units not yet finished are cancelled if a unit fails.
+         * @return the concatenated results of the units, in order
+         */
+        private <T> List<T> runInParallel(int size, int threads, UnitTask<T> task) throws IOException {
+            int unitSize = IntMath.divide(size, threads * UNITS_PER_THREAD, RoundingMode.CEILING);
+            Executor executor = parsingExecutor.get();
+            List<FutureTask<List<T>>> units = new ArrayList<>();
+            try {
+                for (int fromIndex = 0; fromIndex < size; fromIndex += unitSize) {
+                    int from = fromIndex, to = Math.min(size, fromIndex + unitSize);
+                    FutureTask<List<T>> unit = new FutureTask<>(() -> task.run(from, to));
+                    units.add(unit);
+                    executor.execute(unit);
+                }
+                List<T> results = new ArrayList<>(size);
+                for (FutureTask<List<T>> unit : units) {
+                    results.addAll(unit.get());
+                }
+                return results;
+            } catch (ExecutionException e) {
+                Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while parsing entries");
+            } finally {
+                units.forEach(unit -> unit.cancel(true));
+            }
+        }
 
         @Override
         public <E> EntryMatcher<S> createEntryMatcher(List<E> entries, EntryParser<E> requestParser) throws IOException {
@@ -96,6 +452,11 @@ public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
         public HttpRespondable createRespondable(ParsedRequest newRequest) throws IOException {
             return requestParser.parseResponse(newRequest, entry);
         }
+
+        @Override
+        public HttpRespondable createMetadataRespondable(ParsedRequest newRequest) throws IOException {
+            return requestParser.parseResponseMetadata(newRequest, entry);
+        }
     }
 
     private static final Comparator<RatedEntry> RATED_ENTRY_COMPARATOR = new Comparator<RatedEntry>() {
@@ -155,6 +516,24 @@ public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
     @Nullable
     @Override
     public HttpRespondable findTopEntry(S state, ParsedRequest request) {
+        return findTopEntry(state, request, false);
+    }
+
+    /**
+     * Finds the best response without reading its body. The entity tag of the
+     * response is computed from the body only if it is requested.
+     * @param state the state
+     * @param request the request
+     * @return the response that matches best, or null if none matches well enough
+     */
+    @Nullable
+    @Override
+    public HttpRespondable findTopEntryMetadata(S state, ParsedRequest request) {
+        return findTopEntry(state, request, true);
+    }
+
+    @Nullable
+    private HttpRespondable findTopEntry(S state, ParsedRequest request, boolean metadataOnly) {
         List<RatedEntry> ratedEntryList = entries.stream()
                 .map(createEntryToRatingFunction(request, state))
                 .collect(Collectors.toList());
@@ -163,7 +542,11 @@ public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
                 .max(getRatedEntryComparator());
         if (topRatedEntry.isPresent()) {
             try {
-                return topRatedEntry.get().entry.responseCreator.createRespondable(request);
+                ParsedEntry entry = topRatedEntry.get().entry;
+                if (metadataOnly) {
+                    return entry.tagResponse(entry.responseCreator.createMetadataRespondable(request));
+                }
+                return entry.tagResponse(entry.responseCreator.createRespondable(request));
             } catch (IOException e) {
                 log.warn("could not create response for top-rated entry", e);
             }
@@ -172,6 +555,14 @@ public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
     }
 
 
+    /**
+     * Streams the recorded request of each entry.
+     * @return a stream of requests
+     */
+    public Stream<ParsedRequest> streamRequests() {
+        return entries.stream().map(entry -> entry.request);
+    }
+
     /**
      * Class that represents a HAR entry with a saved request and a method to produce
      * a response.
@@ -182,9 +573,101 @@ public class HeuristicEntryMatcher<S> implements EntryMatcher<S> {
 
         public final HttpRespondableCreator responseCreator;
 
+        /**
+         * Number of consecutive identical entries for the request's method and URL
+         * that this entry stands for; greater than 1 if duplicates were collapsed.
+         */
+        public final int repeatCount;
+
+        /**
+         * Entity tags computed from response bodies, keyed by content encoding,
+         * because the same entry may produce differently-encoded bodies; null if
+         * responses are not tagged.
+         */
+        @Nullable
+        private final ConcurrentMap<String, String> computedEntityTags;
+
         public ParsedEntry(ParsedRequest request, HttpRespondableCreator responseCreator) {
+            this(request, responseCreator, 1);
+        }
+
+        public ParsedEntry(ParsedRequest request, HttpRespondableCreator responseCreator, int repeatCount) {
+            this(request, responseCreator, repeatCount, false);
+        }
+
+        /**
+         * Constructs an instance.
+         * @param request the recorded request
+         * @param responseCreator the response creator
+         * @param repeatCount number of consecutive identical entries this entry stands for
+         * @param entityTagging true if responses carry entity tags computed from their bodies
+         */
+        public ParsedEntry(ParsedRequest request, HttpRespondableCreator responseCreator, int repeatCount, boolean entityTagging) {
+            checkArgument(repeatCount > 0, "repeat count must be positive");
             this.responseCreator = requireNonNull(responseCreator);
             this.request = requireNonNull(request);
+            this.repeatCount = repeatCount;
+            computedEntityTags = entityTagging ? new ConcurrentHashMap<>(2) : null;
+        }
+
+        /**
+         * Creates an entry with the same request and response that stands for
+         * the given number of consecutive identical entries.
+         * @param repeatCount the repeat count
+         * @return a new entry
+         */
+        public ParsedEntry withRepeatCount(int repeatCount) {
+            return new ParsedEntry(request, responseCreator, repeatCount, computedEntityTags != null);
+        }
+
+        /**
+         * Returns a respondable whose entity tag is computed at most once per
+         * content encoding for this entry. If responses are not tagged, or if the
+         * response already has an {@code ETag} header, the response is returned unchanged.
+         * @param response a response created from this entry
+         * @return a response with an entity tag
+         */
+        protected HttpRespondable tagResponse(HttpRespondable response) {
+            if (computedEntityTags == null || response.getEntityTag() != null) {
+                return response;
+            }
+            String contentEncoding = response.streamHeaders()
+                    .filter(header -> HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(header.getKey()))
+                    .map(Entry::getValue)
+                    .findFirst().orElse("");
+            return new EntityTaggedRespondable(response, () -> computedEntityTags.computeIfAbsent(contentEncoding, k -> computeEntityTag(response)));
+        }
+
+        /**
+         * Computes the entity tag of the response to the recorded request,
+         * unless it has been computed already or responses are not tagged.
+         * @throws IOException if the response cannot be created
+         */
+        protected void precomputeEntityTag() throws IOException {
+            if (computedEntityTags == null) {
+                return;
+            }
+            tagResponse(responseCreator.createMetadataRespondable(request)).getEntityTag();
+        }
+
+        @Nullable
+        private static String computeEntityTag(HttpRespondable response) {
+            try {
+                HashCode hash;
+                @Nullable ByteSource bodySource = response.getBodySource();
+                if (bodySource != null) {
+                    hash = bodySource.hash(Hashing.sha256());
+                } else {
+                    try (HashingOutputStream out = new HashingOutputStream(Hashing.sha256(), ByteStreams.nullOutputStream())) {
+                        response.writeBody(out);
+                        hash = out.hash();
+                    }
+                }
+                return "\"" + BaseEncoding.base64Url().omitPadding().encode(hash.asBytes()) + "\"";
+            } catch (IOException e) {
+                log.warn("failed to compute entity tag from response body", e);
+                return null;
+            }
         }
 
     }
@@ -2,12 +2,14 @@ package io.github.mike10004.vhs;
 
 import com.google.common.collect.Multimap;
 import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map.Entry;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static java.util.Objects.requireNonNull;
@@ -44,6 +46,31 @@ public interface HttpRespondable {
     @Nullable
     MediaType previewContentType();
 
+    /**
+     * Gets a source of the response body bytes, if the body is held by
+     * a byte source that supports cheap slicing. Responders use this to
+     * serve part of a body without writing the whole thing.
+     * @return the body source, or null if not available
+     */
+    @Nullable
+    default ByteSource getBodySource() {
+        return null;
+    }
+
+    /**
+     * Gets the entity tag that identifies the representation in this response.
+     * The default implementation returns the value of the {@code ETag} header,
+     * if present.
+     * @return the entity tag, including quotes, or null if not available
+     */
+    @Nullable
+    default String getEntityTag() {
+        return streamHeaders()
+                .filter(header -> HttpHeaders.ETAG.equalsIgnoreCase(header.getKey()))
+                .map(Entry::getValue)
+                .findFirst().orElse(null);
+    }
+
     /**
      * Creates an instance whose content is held in memory.
      * @param status HTTP status code
@@ -67,4 +94,14 @@ public interface HttpRespondable {
                 .build();
     }
 
+    /**
+     * Creates an instance that delegates to the given respondable but supplies
+     * its own entity tag. The supplier is invoked each time the tag is requested.
+     * @param respondable the respondable
+     * @param entityTagSupplier supplier of the entity tag
+     * @return the new instance
+     */
+    static HttpRespondable withEntityTag(HttpRespondable respondable, Supplier<String> entityTagSupplier) {
+        return new EntityTaggedRespondable(respondable, entityTagSupplier);
+    }
 }
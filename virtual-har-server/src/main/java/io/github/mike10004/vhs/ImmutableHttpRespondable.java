@@ -73,6 +73,11 @@ public class ImmutableHttpRespondable implements HttpRespondable {
         return contentType;
     }
 
+    @Override
+    public ByteSource getBodySource() {
+        return bodySource;
+    }
+
     public static final class Builder {
         private final int status;
         private MediaType contentType = MediaType.OCTET_STREAM;
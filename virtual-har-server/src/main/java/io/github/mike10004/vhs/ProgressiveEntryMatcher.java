@@ -0,0 +1,354 @@
+package io.github.mike10004.vhs;
+
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Entry matcher that answers requests while entries are still being loaded.
+ * Entries are added in file order by a loader, and the complete matcher is
+ * constructed when the loader finishes. Until then, entries are grouped into
+ * buckets by request method and URL. A request waits, up to a limit, until its
+ * bucket holds more entries than there have been earlier requests with the same
+ * method and URL, so that each repeated request can be matched to the entry
+ * at its position in the sequence. A request whose bucket is not filled within
+ * the limit, as when its method and URL never appear exactly in the HAR, waits
+ * for loading to finish and is matched by the complete matcher.
+ *
+ * <p>Waiting is permitted only on threads for which the blocking predicate
+ * returns true, so that I/O threads are never blocked. On other threads, a
+ * request is matched among its bucket if the bucket is already filled, by the
+ * complete matcher if loading has finished, and otherwise not at all.
+ * @param <S> state type
+ * @param <E> HAR entry type
+ */
+public class ProgressiveEntryMatcher<S, E> implements EntryMatcher<S> {
+
+    private static final Logger log = LoggerFactory.getLogger(ProgressiveEntryMatcher.class);
+
+    private final EntryMatcherFactory<S> matcherFactory;
+    private final EntryMatcherFactory<S> bucketMatcherFactory;
+    private final EntryParser<E> entryParser;
+    private final long maxWaitNanos;
+    private final BooleanSupplier blockingPermitted;
+    private final Object lock = new Object();
+    private final Map<Pair<HttpMethod, URI>, List<E>> buckets; // guarded by lock
+    private final List<E> entries; // guarded by lock
+    private final Map<E, ParsedRequest> parsedRequests; // guarded by lock
+    private final ConcurrentMap<Pair<HttpMethod, URI>, AtomicInteger> requestCounts;
+    private final AtomicInteger entriesLoaded;
+    private volatile int entriesTotal;
+    private final CompletableFuture<EntryMatcher<S>> completeMatcher;
+
+    /**
+     * Constructs an instance.
+     * @param matcherFactory factory used to construct the complete matcher and bucket matchers
+     * @param entryParser parser of entries
+     * @param maxWait maximum time a request waits for its bucket
+     * @param maxWaitUnit unit of the maximum wait time
+     */
+    public ProgressiveEntryMatcher(EntryMatcherFactory<S> matcherFactory, EntryParser<E> entryParser, long maxWait, TimeUnit maxWaitUnit) {
+        this(matcherFactory, matcherFactory, entryParser, maxWait, maxWaitUnit, () -> true);
+    }
+
+    /**
+     * Constructs an instance that uses a separate factory for bucket matchers.
+     * A bucket matcher is constructed for each request answered while loading,
+     * so its factory should do no more work than matching requires.
+     * @param matcherFactory factory used to construct the complete matcher
+     * @param bucketMatcherFactory factory used to construct bucket matchers
+     * @param entryParser parser of entries
+     * @param maxWait maximum time a request waits for its bucket
+     * @param maxWaitUnit unit of the maximum wait time
+     * @param blockingPermitted predicate that returns true if the current thread may wait
+     */
+    public ProgressiveEntryMatcher(EntryMatcherFactory<S> matcherFactory, EntryMatcherFactory<S> bucketMatcherFactory, EntryParser<E> entryParser, long maxWait, TimeUnit maxWaitUnit, BooleanSupplier blockingPermitted) {
+        checkArgument(maxWait >= 0, "max wait must be nonnegative");
+        this.matcherFactory = requireNonNull(matcherFactory);
+        this.bucketMatcherFactory = requireNonNull(bucketMatcherFactory);
+        this.entryParser = requireNonNull(entryParser);
+        this.maxWaitNanos = maxWaitUnit.toNanos(maxWait);
+        this.blockingPermitted = requireNonNull(blockingPermitted);
+        buckets = new HashMap<>();
+        entries = new ArrayList<>();
+        parsedRequests = new IdentityHashMap<>();
+        requestCounts = new ConcurrentHashMap<>();
+        entriesLoaded = new AtomicInteger();
+        entriesTotal = -1;
+        completeMatcher = new CompletableFuture<>();
+    }
+
+    private static Pair<HttpMethod, URI> bucketKey(ParsedRequest request) {
+        return ImmutablePair.of(request.method, request.url);
+    }
+
+    /**
+     * Adds an entry. Entries must be added in file order.
+     * @param entry the entry
+     * @throws IOException if the entry request cannot be parsed
+     * @throws CancellationException if loading has already ended, as when the session was stopped
+     */
+    public void add(E entry) throws IOException {
+        ParsedRequest request = entryParser.parseRequest(entry);
+        Pair<HttpMethod, URI> key = bucketKey(request);
+        synchronized (lock) {
+            if (completeMatcher.isDone()) {
+                throw new CancellationException("loading already ended");
+            }
+            entries.add(entry);
+            parsedRequests.put(entry, request);
+            buckets.computeIfAbsent(key, k -> new ArrayList<>(1)).add(entry);
+            entriesLoaded.incrementAndGet();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Sets the total number of entries, if known before all entries are added.
+     * @param entriesTotal the total
+     */
+    public void setEntriesTotal(int entriesTotal) {
+        this.entriesTotal = entriesTotal;
+    }
+
+    /**
+     * Constructs the complete matcher from all added entries. Requests received
+     * after this are answered by the complete matcher without waiting.
+     * @throws IOException if constructing the matcher fails
+     */
+    public void finish() throws IOException {
+        List<E> allEntries;
+        EntryParser<E> parser;
+        synchronized (lock) {
+            allEntries = new ArrayList<>(entries);
+            parser = new PreparsedEntryParser<>(new IdentityHashMap<>(parsedRequests), entryParser);
+        }
+        EntryMatcher<S> matcher = matcherFactory.createEntryMatcher(allEntries, parser);
+        entriesTotal = allEntries.size();
+        synchronized (lock) {
+            completeMatcher.complete(matcher);
+            entries.clear();
+            parsedRequests.clear();
+            buckets.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Ends loading unsuccessfully. Waiting requests are released, and this
+     * matcher finds no entries from then on.
+     * @param cause the cause
+     */
+    public void fail(Throwable cause) {
+        synchronized (lock) {
+            completeMatcher.completeExceptionally(cause);
+            entries.clear();
+            parsedRequests.clear();
+            buckets.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Gets a future that completes when the complete matcher has been constructed.
+     * @return the readiness future
+     */
+    public CompletableFuture<Void> getReadiness() {
+        return completeMatcher.thenApply(matcher -> null);
+    }
+
+    /**
+     * Gets a future that completes with the matcher of all entries once it has been
+     * constructed.
+     * @return the future
+     */
+    public CompletableFuture<EntryMatcher<S>> getCompleteMatcher() {
+        return completeMatcher.thenApply(matcher -> matcher);
+    }
+
+    public int getEntriesLoaded() {
+        return entriesLoaded.get();
+    }
+
+    /**
+     * Gets the total number of entries.
+     * @return the total, or -1 if not yet known
+     */
+    public int getEntriesTotal() {
+        return entriesTotal;
+    }
+
+    /**
+     * Checks whether loading has ended, successfully or not.
+     * @return true if loading has ended
+     */
+    public boolean isComplete() {
+        return completeMatcher.isDone();
+    }
+
+    @Nullable
+    @Override
+    public HttpRespondable findTopEntry(S state, ParsedRequest request) {
+        return findTopEntry(state, request, false);
+    }
+
+    @Nullable
+    @Override
+    public HttpRespondable findTopEntryMetadata(S state, ParsedRequest request) {
+        return findTopEntry(state, request, true);
+    }
+
+    @Nullable
+    private HttpRespondable findTopEntry(S state, ParsedRequest request, boolean metadataOnly) {
+        if (!completeMatcher.isDone()) {
+            Pair<HttpMethod, URI> key = bucketKey(request);
+            int occurrence = requestCounts.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement();
+            boolean blocking = blockingPermitted.getAsBoolean();
+            Candidates<E> candidates = blocking ? awaitCandidates(key, occurrence) : currentCandidates(key, occurrence);
+            if (candidates != null) {
+                return findTopEntryAmong(candidates, state, request, metadataOnly);
+            }
+            if (!blocking && !completeMatcher.isDone()) {
+                log.info("entries for {} {} not yet loaded and waiting is not permitted on {}", request.method, request.url, Thread.currentThread().getName());
+                return null;
+            }
+        }
+        EntryMatcher<S> matcher;
+        try {
+            matcher = completeMatcher.join();
+        } catch (CompletionException | CancellationException e) {
+            log.debug("loading failed or was interrupted; no entry found for {} {}", request.method, request.url);
+            return null;
+        }
+        return metadataOnly ? matcher.findTopEntryMetadata(state, request) : matcher.findTopEntry(state, request);
+    }
+
+    private static class Candidates<E> {
+
+        public final List<E> entries;
+        public final EntryParser<E> parser;
+
+        public Candidates(List<E> entries, EntryParser<E> parser) {
+            this.entries = entries;
+            this.parser = parser;
+        }
+    }
+
+    /**
+     * Creates a snapshot of the entries in a bucket.
+     */
+    private Candidates<E> snapshot(List<E> bucket) {
+        Map<E, ParsedRequest> requests = new IdentityHashMap<>(bucket.size());
+        bucket.forEach(entry -> requests.put(entry, parsedRequests.get(entry)));
+        return new Candidates<>(new ArrayList<>(bucket), new PreparsedEntryParser<>(requests, entryParser));
+    }
+
+    /**
+     * Gets the bucket for a request without waiting.
+     * @return the bucket entries, or null if the bucket is not ready
+     */
+    @Nullable
+    private Candidates<E> currentCandidates(Pair<HttpMethod, URI> key, int occurrence) {
+        synchronized (lock) {
+            List<E> bucket = buckets.getOrDefault(key, Collections.emptyList());
+            return bucket.size() > occurrence ? snapshot(bucket) : null;
+        }
+    }
+
+    /**
+     * Waits until the bucket for a request is ready.
+     * @return the bucket entries, or null if loading ended or the wait elapsed or was interrupted
+     */
+    @Nullable
+    private Candidates<E> awaitCandidates(Pair<HttpMethod, URI> key, int occurrence) {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        synchronized (lock) {
+            while (!completeMatcher.isDone()) {
+                List<E> bucket = buckets.getOrDefault(key, Collections.emptyList());
+                if (bucket.size() > occurrence) {
+                    return snapshot(bucket);
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private HttpRespondable findTopEntryAmong(Candidates<E> candidates, S state, ParsedRequest request, boolean metadataOnly) {
+        if (candidates.entries.isEmpty()) {
+            return null;
+        }
+        try {
+            EntryMatcher<S> matcher = bucketMatcherFactory.createEntryMatcher(candidates.entries, candidates.parser);
+            return metadataOnly ? matcher.findTopEntryMetadata(state, request) : matcher.findTopEntry(state, request);
+        } catch (IOException e) {
+            log.warn("failed to construct matcher from loaded entries", e);
+            return null;
+        }
+    }
+
+    /**
+     * Parser that returns requests already parsed when entries were added,
+     * so that entries are not parsed twice.
+     */
+    private static class PreparsedEntryParser<E> implements EntryParser<E> {
+
+        private final Map<E, ParsedRequest> requests;
+        private final EntryParser<E> delegate;
+
+        public PreparsedEntryParser(Map<E, ParsedRequest> requests, EntryParser<E> delegate) {
+            this.requests = requests;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ParsedRequest parseRequest(E harEntry) throws IOException {
+            @Nullable ParsedRequest request = requests.get(harEntry);
+            return request != null ? request : delegate.parseRequest(harEntry);
+        }
+
+        @Override
+        public HttpRespondable parseResponse(ParsedRequest request, E harEntry) throws IOException {
+            return delegate.parseResponse(request, harEntry);
+        }
+
+        @Override
+        public HttpRespondable parseResponseMetadata(ParsedRequest request, E harEntry) throws IOException {
+            return delegate.parseResponseMetadata(request, harEntry);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.mike10004.vhs;
+
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+/**
+ * Interface for services that rewrite requests into a canonical form, so that
+ * requests that differ only in volatile details compare as equal.
+ * Canonicalization is applied to both recorded and incoming requests.
+ */
+public interface RequestCanonicalizer {
+
+    /**
+     * Returns the canonical form of a request.
+     * @param request the request
+     * @return the canonical request; may be the argument request if no change is required
+     */
+    ParsedRequest canonicalize(ParsedRequest request);
+
+    /**
+     * Returns a canonicalizer that returns requests unchanged.
+     * @return the identity canonicalizer
+     */
+    static RequestCanonicalizer identity() {
+        return request -> request;
+    }
+}
@@ -9,4 +9,14 @@ public interface ResponseInterceptor {
 
     HttpRespondable intercept(ParsedRequest request, HttpRespondable respondable);
 
+    /**
+     * Returns true if this interceptor may replace the body of a response. Responses
+     * to {@code HEAD} requests are constructed from response metadata, without reading
+     * bodies, only if no interceptor may replace the body. The default returns true.
+     * @return true if the body may be replaced
+     */
+    default boolean isBodyRewriting() {
+        return true;
+    }
+
 }
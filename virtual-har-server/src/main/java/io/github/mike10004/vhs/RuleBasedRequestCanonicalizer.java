@@ -0,0 +1,206 @@
+package io.github.mike10004.vhs;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.github.mike10004.vhs.repackaged.org.apache.http.client.utils.URLEncodedUtils;
+
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Canonicalizer that removes or normalizes query parameters and headers by name
+ * and optionally sorts query parameters by name. A normalized query parameter keeps
+ * its name but loses its value; a normalized header has its value replaced by the
+ * empty string. Names are compared case-insensitively. Instances are immutable;
+ * use {@link #builder()} to construct one.
+ */
+public class RuleBasedRequestCanonicalizer implements RequestCanonicalizer {
+
+    private final ImmutableSet<String> removedQueryParameters;
+    private final ImmutableSet<String> normalizedQueryParameters;
+    private final ImmutableSet<String> removedHeaders;
+    private final ImmutableSet<String> normalizedHeaders;
+    private final boolean sortQueryParameters;
+
+    private RuleBasedRequestCanonicalizer(Builder builder) {
+        removedQueryParameters = ImmutableSet.copyOf(builder.removedQueryParameters);
+        normalizedQueryParameters = ImmutableSet.copyOf(builder.normalizedQueryParameters);
+        removedHeaders = ImmutableSet.copyOf(builder.removedHeaders);
+        normalizedHeaders = ImmutableSet.copyOf(builder.normalizedHeaders);
+        sortQueryParameters = builder.sortQueryParameters;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ParsedRequest canonicalize(ParsedRequest request) {
+        URI url = request.url;
+        @Nullable Multimap<String, Optional<String>> query = request.query;
+        if (request.query != null && isQueryCanonicalizationRequired()) {
+            url = canonicalizeQuery(request.url);
+            if (url != request.url) {
+                query = HttpRequests.parseQuery(url);
+            }
+        }
+        Multimap<String, String> headers = request.indexedHeaders;
+        if (isHeaderCanonicalizationRequired(headers)) {
+            headers = canonicalizeHeaders(headers);
+        }
+        if (url == request.url && headers == request.indexedHeaders) {
+            return request;
+        }
+        return ParsedRequest.derived(request, url, query, headers);
+    }
+
+    private boolean isQueryCanonicalizationRequired() {
+        return sortQueryParameters || !removedQueryParameters.isEmpty() || !normalizedQueryParameters.isEmpty();
+    }
+
+    private boolean isHeaderCanonicalizationRequired(Multimap<String, String> indexedHeaders) {
+        for (String name : indexedHeaders.keySet()) {
+            if (removedHeaders.contains(name) || normalizedHeaders.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Multimap<String, String> canonicalizeHeaders(Multimap<String, String> indexedHeaders) {
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        indexedHeaders.forEach((name, value) -> {
+            if (!removedHeaders.contains(name)) {
+                headers.put(name, normalizedHeaders.contains(name) ? "" : value);
+            }
+        });
+        return headers;
+    }
+
+    private static final class QueryParameter {
+
+        public final String name;
+        public final String rawText;
+
+        private QueryParameter(String name, String rawText) {
+            this.name = name;
+            this.rawText = rawText;
+        }
+    }
+
+    /**
+     * Rewrites the query string of a URL. The raw (encoded) text of retained
+     * parameters is preserved. If no rule changes the query, the URL itself
+     * is returned.
+     */
+    private URI canonicalizeQuery(URI url) {
+        String rawQuery = requireNonNull(url.getRawQuery());
+        List<QueryParameter> params = new ArrayList<>();
+        for (String rawParam : rawQuery.split("&")) {
+            if (rawParam.isEmpty()) {
+                continue;
+            }
+            List<Entry<String, String>> parsed = URLEncodedUtils.parse(rawParam, StandardCharsets.UTF_8);
+            if (parsed.isEmpty()) {
+                continue;
+            }
+            String name = parsed.get(0).getKey().toLowerCase();
+            if (removedQueryParameters.contains(name)) {
+                continue;
+            }
+            if (normalizedQueryParameters.contains(name)) {
+                int equalsPos = rawParam.indexOf('=');
+                rawParam = equalsPos < 0 ? rawParam : rawParam.substring(0, equalsPos);
+            }
+            params.add(new QueryParameter(name, rawParam));
+        }
+        if (sortQueryParameters) {
+            params.sort(Comparator.comparing(param -> param.name)); // stable, so repeated names keep their order
+        }
+        StringBuilder canonicalQuery = new StringBuilder(rawQuery.length());
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                canonicalQuery.append('&');
+            }
+            canonicalQuery.append(params.get(i).rawText);
+        }
+        if (rawQuery.contentEquals(canonicalQuery)) {
+            return url;
+        }
+        String urlStr = url.toString();
+        int queryStart = urlStr.indexOf('?');
+        int fragmentStart = urlStr.indexOf('#', queryStart);
+        StringBuilder sb = new StringBuilder(urlStr.length()).append(urlStr, 0, queryStart);
+        if (canonicalQuery.length() > 0) {
+            sb.append('?').append(canonicalQuery);
+        }
+        if (fragmentStart >= 0) {
+            sb.append(urlStr, fragmentStart, urlStr.length());
+        }
+        return URI.create(sb.toString());
+    }
+
+    @Override
+    public String toString() {
+        return "RuleBasedRequestCanonicalizer{" +
+                "removedQueryParameters=" + removedQueryParameters +
+                ", normalizedQueryParameters=" + normalizedQueryParameters +
+                ", removedHeaders=" + removedHeaders +
+                ", normalizedHeaders=" + normalizedHeaders +
+                ", sortQueryParameters=" + sortQueryParameters +
+                '}';
+    }
+
+    public static final class Builder {
+
+        private final Set<String> removedQueryParameters = new HashSet<>();
+        private final Set<String> normalizedQueryParameters = new HashSet<>();
+        private final Set<String> removedHeaders = new HashSet<>();
+        private final Set<String> normalizedHeaders = new HashSet<>();
+        private boolean sortQueryParameters;
+
+        private Builder() {
+        }
+
+        public Builder removeQueryParameters(Iterable<String> names) {
+            names.forEach(name -> removedQueryParameters.add(name.toLowerCase()));
+            return this;
+        }
+
+        public Builder normalizeQueryParameters(Iterable<String> names) {
+            names.forEach(name -> normalizedQueryParameters.add(name.toLowerCase()));
+            return this;
+        }
+
+        public Builder removeHeaders(Iterable<String> names) {
+            names.forEach(name -> removedHeaders.add(name.toLowerCase()));
+            return this;
+        }
+
+        public Builder normalizeHeaders(Iterable<String> names) {
+            names.forEach(name -> normalizedHeaders.add(name.toLowerCase()));
+            return this;
+        }
+
+        public Builder sortQueryParameters(boolean val) {
+            sortQueryParameters = val;
+            return this;
+        }
+
+        public RuleBasedRequestCanonicalizer build() {
+            return new RuleBasedRequestCanonicalizer(this);
+        }
+    }
+}
@@ -30,7 +30,7 @@ public class StatefulHeuristicEntryMatcher extends HeuristicEntryMatcher<ReplayS
         ImmutableMap.Builder<ParsedEntry, Integer> b = ImmutableMap.builder();
         AtomicLongMap<Pair<HttpMethod, URI>> counter = AtomicLongMap.create();
         for (ParsedEntry entry : entries) {
-            int sequencePosition = Ints.saturatedCast(counter.getAndIncrement(ImmutablePair.of(entry.request.method, entry.request.url)));
+            int sequencePosition = Ints.saturatedCast(counter.getAndAdd(ImmutablePair.of(entry.request.method, entry.request.url), entry.repeatCount));
             b.put(entry, sequencePosition);
         }
         return b.build();
@@ -44,7 +44,9 @@ public class StatefulHeuristicEntryMatcher extends HeuristicEntryMatcher<ReplayS
             if (rating > 0) {
                 int entrySequencePosition = entrySequencePositions.get(entry);
                 int requestSequencePosition = state.query(request);
-                boost = entrySequencePosition == requestSequencePosition ? SEQUENCE_MATCH_BOOST : 0;
+                boolean inSequence = requestSequencePosition >= entrySequencePosition
+                        && requestSequencePosition - entrySequencePosition < entry.repeatCount;
+                boost = inSequence ? SEQUENCE_MATCH_BOOST : 0;
             }
             return new RatedEntry(entry, rating + boost);
         };
@@ -54,12 +56,39 @@ public class StatefulHeuristicEntryMatcher extends HeuristicEntryMatcher<ReplayS
         return new MyFactory(heuristic, thresholdExclusive);
     }
 
+    public static EntryMatcherFactory<ReplaySessionState> factory(Heuristic heuristic, int thresholdExclusive, int parallelism) {
+        return new MyFactory(heuristic, thresholdExclusive, parallelism);
+    }
+
+    /**
+     * Creates a factory that optionally collapses runs of duplicate entries.
+     * A collapsed entry occupies as many sequence positions as the entries it
+     * stands for, so requests are answered in recorded order.
+     * @param heuristic the heuristic
+     * @param thresholdExclusive the rating threshold
+     * @param parallelism maximum number of threads used to parse entries
+     * @param collapseDuplicates true to collapse duplicate entries
+     * @return a new factory
+     * @see HeuristicEntryMatcher#factory(Heuristic, int, int, boolean)
+     */
+    public static EntryMatcherFactory<ReplaySessionState> factory(Heuristic heuristic, int thresholdExclusive, int parallelism, boolean collapseDuplicates) {
+        return new MyFactory(heuristic, thresholdExclusive, parallelism, collapseDuplicates);
+    }
+
     protected static class MyFactory extends Factory<ReplaySessionState> {
 
         public MyFactory(Heuristic heuristic, int thresholdExclusive) {
             super(heuristic, thresholdExclusive);
         }
 
+        public MyFactory(Heuristic heuristic, int thresholdExclusive, int parallelism) {
+            super(heuristic, thresholdExclusive, parallelism);
+        }
+
+        public MyFactory(Heuristic heuristic, int thresholdExclusive, int parallelism, boolean collapseDuplicates) {
+            super(heuristic, thresholdExclusive, parallelism, collapseDuplicates);
+        }
+
         @Override
         public <E> EntryMatcher<ReplaySessionState> createEntryMatcher(List<E> entries, EntryParser<E> requestParser) throws IOException {
             List<ParsedEntry> parsedEntries = parseEntries(entries, requestParser);
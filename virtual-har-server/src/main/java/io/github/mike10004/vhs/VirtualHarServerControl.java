@@ -2,6 +2,8 @@ package io.github.mike10004.vhs;
 
 import com.google.common.net.HostAndPort;
 
+import java.util.Optional;
+
 /**
  * Interface that represents a controller of a virtual HAR server that has been started.
  */
@@ -13,4 +15,13 @@ public interface VirtualHarServerControl extends java.io.Closeable {
      */
     HostAndPort getSocketAddress();
 
+    /**
+     * Gets the socket address on which the server answers HTTPS requests sent
+     * directly to it, if it does so.
+     * @return the socket address, or empty if the server serves no HTTPS port
+     */
+    default Optional<HostAndPort> getHttpsSocketAddress() {
+        return Optional.empty();
+    }
+
 }
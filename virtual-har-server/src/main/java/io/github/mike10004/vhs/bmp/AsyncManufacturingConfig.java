@@ -0,0 +1,113 @@
+package io.github.mike10004.vhs.bmp;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Configuration of asynchronous response manufacturing. In this mode, responses
+ * are manufactured on a bounded pool of worker threads instead of on the proxy's
+ * I/O threads, so that a slow response does not hold up other connections served
+ * by the same I/O thread. When all workers are busy and the queue is full,
+ * requests are answered immediately with the overload status. The first request
+ * on each connection is still manufactured on the I/O thread, and responses
+ * manufactured on workers bypass the proxy's response filters, so the proxy's
+ * own HAR capture does not record them.
+ */
+public class AsyncManufacturingConfig {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_OVERLOAD_STATUS = 503;
+
+    /**
+     * Number of worker threads.
+     */
+    public final int workerThreads;
+
+    /**
+     * Maximum number of requests awaiting a worker.
+     */
+    public final int queueCapacity;
+
+    /**
+     * Status of the response sent when the queue is full.
+     */
+    public final int overloadStatus;
+
+    /**
+     * Value of the {@code Retry-After} header of the response sent when the queue
+     * is full. If null, the header is not sent.
+     */
+    @Nullable
+    public final Duration retryAfter;
+
+    private AsyncManufacturingConfig(Builder builder) {
+        workerThreads = builder.workerThreads;
+        queueCapacity = builder.queueCapacity;
+        overloadStatus = builder.overloadStatus;
+        retryAfter = builder.retryAfter;
+    }
+
+    public static AsyncManufacturingConfig getDefault() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncManufacturingConfig{" +
+                "workerThreads=" + workerThreads +
+                ", queueCapacity=" + queueCapacity +
+                ", overloadStatus=" + overloadStatus +
+                ", retryAfter=" + retryAfter +
+                '}';
+    }
+
+    @SuppressWarnings({"unused", "UnusedReturnValue"})
+    public static final class Builder {
+
+        private int workerThreads;
+        private int queueCapacity;
+        private int overloadStatus;
+        @Nullable
+        private Duration retryAfter;
+
+        private Builder() {
+            workerThreads = Runtime.getRuntime().availableProcessors();
+            queueCapacity = DEFAULT_QUEUE_CAPACITY;
+            overloadStatus = DEFAULT_OVERLOAD_STATUS;
+        }
+
+        public Builder workerThreads(int workerThreads) {
+            checkArgument(workerThreads > 0, "number of worker threads must be positive");
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            checkArgument(queueCapacity > 0, "queue capacity must be positive");
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder overloadStatus(int overloadStatus) {
+            checkArgument(overloadStatus >= 100 && overloadStatus <= 599, "status must be in [100, 599]");
+            this.overloadStatus = overloadStatus;
+            return this;
+        }
+
+        public Builder retryAfter(@Nullable Duration retryAfter) {
+            checkArgument(retryAfter == null || !retryAfter.isNegative(), "retry-after must be nonnegative");
+            this.retryAfter = retryAfter;
+            return this;
+        }
+
+        public AsyncManufacturingConfig build() {
+            return new AsyncManufacturingConfig(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package io.github.mike10004.vhs.bmp;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Channel handler that manufactures responses on worker threads. The proxy invokes
+ * filters on the client channel's I/O thread and requires a filter to return its
+ * response synchronously, so this handler is inserted into the client channel pipeline
+ * ahead of the proxy's own handler and takes requests before the proxy sees them.
+ * The request is captured on the I/O thread, the response is manufactured by a
+ * {@link ManufacturingExecutor}, and the response is written on the I/O thread.
+ *
+ * <p>The handler is installed when the proxy filters the first request on a
+ * connection, so that request is answered synchronously by the proxy; subsequent
+ * requests on the connection, including all requests tunneled through a
+ * {@code CONNECT}, are answered asynchronously. Requests that are to be passed
+ * through to the proxy, such as {@code CONNECT} requests, are forwarded unchanged.
+ * Reading from the channel is suspended while a response is being manufactured,
+ * so that responses are written in the order in which requests were received.
+ *
+ * <p>Responses manufactured asynchronously are written directly to the client
+ * channel, so they do not pass through the proxy's response filters. Filters added
+ * to the proxy by other sources, such as the proxy's own HAR capture, do not see
+ * these responses. The {@link BmpResponseListener} is notified of every response,
+ * however it was manufactured. The proxy offers no hook into client pipeline setup,
+ * which is why the handler is installed by a filter rather than when the connection
+ * is accepted.
+ */
+class AsyncManufacturingHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncManufacturingHandler.class);
+
+    static final String HANDLER_NAME = "vhs-async-manufacturing";
+
+    /**
+     * Name of the proxy's handler in the client channel pipeline.
+     */
+    private static final String PROXY_HANDLER_NAME = "handler";
+
+    private final ResponseManufacturingFiltersSource filtersSource;
+    private final ManufacturingExecutor executor;
+    private final Deque<Object> pending;
+    private boolean passingThrough;
+    private boolean busy;
+    @Nullable
+    private ResponseManufacturingFilter currentFilter;
+    @Nullable
+    private HttpRequest currentRequest;
+
+    /**
+     * Constructs an instance.
+     * @param filtersSource source of filters that capture requests and manufacture responses
+     * @param executor the executor
+     * @param passingThrough true if the rest of a request that is bound for the proxy is yet to be read
+     */
+    AsyncManufacturingHandler(ResponseManufacturingFiltersSource filtersSource, ManufacturingExecutor executor, boolean passingThrough) {
+        this.filtersSource = requireNonNull(filtersSource);
+        this.executor = requireNonNull(executor);
+        this.passingThrough = passingThrough;
+        pending = new ArrayDeque<>();
+    }
+
+    /**
+     * Filters source that installs a handler in the pipeline of each client channel.
+     * The source does not filter any requests itself.
+     */
+    static class Installer extends HttpFiltersSourceAdapter {
+
+        private final ResponseManufacturingFiltersSource filtersSource;
+        private final ManufacturingExecutor executor;
+
+        public Installer(ResponseManufacturingFiltersSource filtersSource, ManufacturingExecutor executor) {
+            this.filtersSource = requireNonNull(filtersSource);
+            this.executor = requireNonNull(executor);
+        }
+
+        @Override
+        public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            if (ctx != null) {
+                install(ctx.pipeline(), originalRequest);
+            }
+            return null;
+        }
+
+        void install(ChannelPipeline pipeline, HttpRequest originalRequest) {
+            if (pipeline.get(HANDLER_NAME) != null || pipeline.get(PROXY_HANDLER_NAME) == null) {
+                return;
+            }
+            // the content of the request being filtered, if not yet read, is bound for the proxy
+            boolean passingThrough = !(originalRequest instanceof LastHttpContent);
+            pipeline.addBefore(PROXY_HANDLER_NAME, HANDLER_NAME, new AsyncManufacturingHandler(filtersSource, executor, passingThrough));
+            log.trace("installed asynchronous manufacturing handler in {}", pipeline.channel());
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (busy) {
+            pending.add(msg);
+        } else {
+            handle(ctx, msg);
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, Object msg) {
+        if (passingThrough || !(msg instanceof HttpObject) || ((HttpObject) msg).decoderResult().isFailure()) {
+            if (msg instanceof LastHttpContent) {
+                passingThrough = false;
+            }
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            currentFilter = filtersSource.createAsyncFilter(request, ctx);
+            if (currentFilter == null) {
+                passingThrough = !(msg instanceof LastHttpContent);
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            currentRequest = request;
+        }
+        ResponseManufacturingFilter filter = currentFilter;
+        HttpRequest request = currentRequest;
+        if (filter == null || request == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        try {
+            filter.captureRequest((HttpObject) msg);
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+        if (msg instanceof LastHttpContent) {
+            currentFilter = null;
+            currentRequest = null;
+            dispatch(ctx, filter, request);
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, ResponseManufacturingFilter filter, HttpRequest request) {
+        RequestCapture capture = filter.freezeRequestCapture();
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        HttpVersion protocolVersion = request.protocolVersion();
+        busy = true;
+        ctx.channel().config().setAutoRead(false);
+        boolean accepted = executor.submit(() -> {
+            HttpResponse response = manufacture(filter, capture, protocolVersion);
+            try {
+                ctx.executor().execute(() -> respond(ctx, response, keepAlive));
+            } catch (RejectedExecutionException e) {
+                log.debug("response to {} {} not written because event loop is shut down", capture.request.method, capture.request.url);
+                ReferenceCountUtil.release(response);
+            }
+        });
+        if (!accepted) {
+            log.debug("overloaded; rejecting {} {}", capture.request.method, capture.request.url);
+            respond(ctx, executor.createOverloadResponse(protocolVersion), keepAlive);
+        }
+    }
+
+    private static HttpResponse manufacture(ResponseManufacturingFilter filter, RequestCapture capture, HttpVersion protocolVersion) {
+        try {
+            return filter.produceResponse(capture);
+        } catch (RuntimeException e) {
+            log.error("failed to manufacture response to " + capture.request.method + " " + capture.request.url, e);
+            return ManufacturingExecutor.createEmptyResponse(protocolVersion, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private void respond(ChannelHandlerContext ctx, HttpResponse response, boolean keepAlive) {
+        if (!ctx.channel().isActive()) {
+            ReferenceCountUtil.release(response);
+            return;
+        }
+        HttpUtil.setKeepAlive(response, keepAlive);
+        ChannelFuture written = ctx.writeAndFlush(response);
+        if (!(response instanceof LastHttpContent)) {
+            written = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        if (!keepAlive) {
+            written.addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        busy = false;
+        while (!busy && !pending.isEmpty()) {
+            handle(ctx, pending.remove());
+        }
+        if (!busy) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releasePending();
+    }
+
+    private void releasePending() {
+        while (!pending.isEmpty()) {
+            ReferenceCountUtil.release(pending.remove());
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package io.github.mike10004.vhs.bmp;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * Callback interface that defines a method invoked in exceptional cases
  * when a response manufacturer can't manufacture a response.
@@ -10,6 +12,19 @@ public interface BmpResponseListener {
 
     void responding(RequestCapture requestCapture, ResponseCapture responseCapture);
 
+    /**
+     * Returns a listener that notifies this listener and then another.
+     * @param next the listener to notify after this one
+     * @return a composite listener
+     */
+    default BmpResponseListener andThen(BmpResponseListener next) {
+        requireNonNull(next);
+        return (req, rsp) -> {
+            responding(req, rsp);
+            next.responding(req, rsp);
+        };
+    }
+
     static BmpResponseListener inactive() {
         return (req, rsp) -> {};
     }
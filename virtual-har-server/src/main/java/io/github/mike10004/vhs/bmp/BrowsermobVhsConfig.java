@@ -21,6 +21,51 @@ public class BrowsermobVhsConfig {
     public final CertificateAndKeySourceFactory certificateAndKeySourceFactory;
     public final BmpResponseListener bmpResponseListener;
 
+    /**
+     * Way in which TLS connections from clients are intercepted. In
+     * {@link TlsInterceptionMode#LOCAL LOCAL} mode, the TLS endpoint factory is not used.
+     */
+    public final TlsInterceptionMode tlsInterceptionMode;
+
+    /**
+     * Configuration of asynchronous response manufacturing. If null, responses
+     * are manufactured synchronously on the proxy's I/O threads.
+     */
+    @Nullable
+    public final AsyncManufacturingConfig asyncManufacturing;
+
+    /**
+     * Configuration of the log of served responses. If null, served responses
+     * are not recorded.
+     */
+    @Nullable
+    public final ServedResponseLogConfig servedResponseLog;
+
+    /**
+     * Configuration of the certificates that impersonate hosts.
+     */
+    public final LeafCertificateConfig leafCertificates;
+
+    /**
+     * Configuration of the TLS session cache of the contexts that impersonate hosts.
+     */
+    public final TlsSessionConfig tlsSessions;
+
+    /**
+     * Whether HTTP/2 is offered by ALPN to clients on tunneled connections. Only
+     * {@link NettyVirtualHarServer} serves HTTP/2, and only where the JDK supports
+     * ALPN; otherwise clients are served HTTP/1.1. The BrowserUp proxy serves
+     * HTTP/1.1 only, so {@link BrowsermobVirtualHarServer} rejects this option.
+     */
+    public final boolean http2;
+
+    /**
+     * Configuration of direct origin mode, or null if the server acts as a proxy.
+     * Only {@link NettyVirtualHarServer} supports direct origin mode.
+     */
+    @Nullable
+    public final DirectOriginConfig directOrigin;
+
     private BrowsermobVhsConfig(Builder builder) {
         port = builder.port;
         scratchDirProvider = builder.scratchDirProvider;
@@ -28,6 +73,13 @@ public class BrowsermobVhsConfig {
         tlsEndpointFactory = builder.tlsEndpointFactory;
         certificateAndKeySourceFactory = builder.certificateAndKeySourceFactory;
         bmpResponseListener = builder.bmpResponseListener;
+        tlsInterceptionMode = builder.tlsInterceptionMode;
+        asyncManufacturing = builder.asyncManufacturing;
+        servedResponseLog = builder.servedResponseLog;
+        leafCertificates = builder.leafCertificates;
+        tlsSessions = builder.tlsSessions;
+        http2 = builder.http2;
+        directOrigin = builder.directOrigin;
     }
 
     public static Builder builder(BmpResponseManufacturer bmanufacturer) {
@@ -63,6 +115,16 @@ public class BrowsermobVhsConfig {
         private TlsEndpointFactory tlsEndpointFactory;
         private CertificateAndKeySourceFactory certificateAndKeySourceFactory;
         private BmpResponseListener bmpResponseListener = BmpResponseListener.inactive();
+        private TlsInterceptionMode tlsInterceptionMode = TlsInterceptionMode.UPSTREAM_ENDPOINT;
+        @Nullable
+        private AsyncManufacturingConfig asyncManufacturing;
+        @Nullable
+        private ServedResponseLogConfig servedResponseLog;
+        private LeafCertificateConfig leafCertificates = LeafCertificateConfig.getDefault();
+        private TlsSessionConfig tlsSessions = TlsSessionConfig.getDefault();
+        private boolean http2;
+        @Nullable
+        private DirectOriginConfig directOrigin;
 
         private Builder(BmpResponseManufacturer bmpResponseManufacturer) {
             this.bmpResponseManufacturer = requireNonNull(bmpResponseManufacturer);
@@ -100,6 +162,41 @@ public class BrowsermobVhsConfig {
             return this;
         }
 
+        public Builder tlsInterceptionMode(TlsInterceptionMode tlsInterceptionMode) {
+            this.tlsInterceptionMode = requireNonNull(tlsInterceptionMode);
+            return this;
+        }
+
+        public Builder asyncManufacturing(@Nullable AsyncManufacturingConfig asyncManufacturing) {
+            this.asyncManufacturing = asyncManufacturing;
+            return this;
+        }
+
+        public Builder servedResponseLog(@Nullable ServedResponseLogConfig servedResponseLog) {
+            this.servedResponseLog = servedResponseLog;
+            return this;
+        }
+
+        public Builder leafCertificates(LeafCertificateConfig leafCertificates) {
+            this.leafCertificates = requireNonNull(leafCertificates);
+            return this;
+        }
+
+        public Builder tlsSessions(TlsSessionConfig tlsSessions) {
+            this.tlsSessions = requireNonNull(tlsSessions);
+            return this;
+        }
+
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        public Builder directOrigin(@Nullable DirectOriginConfig directOrigin) {
+            this.directOrigin = directOrigin;
+            return this;
+        }
+
         public BrowsermobVhsConfig build() {
             return new BrowsermobVhsConfig(this);
         }
@@ -5,6 +5,7 @@ import com.google.common.io.Closeables;
 import com.google.common.net.HostAndPort;
 import io.github.mike10004.vhs.VirtualHarServer;
 import io.github.mike10004.vhs.VirtualHarServerControl;
+import io.github.mike10004.vhs.bmp.ResponseManufacturingFiltersSource.HostRewriteFilter;
 import io.github.mike10004.vhs.bmp.ResponseManufacturingFiltersSource.PassthruPredicate;
 import io.github.mike10004.vhs.bmp.ScratchDirProvider.Scratch;
 import com.browserup.bup.BrowserUpProxy;
@@ -17,15 +18,18 @@ import org.littleshoot.proxy.MitmManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Supplier;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 public class BrowsermobVirtualHarServer implements VirtualHarServer {
@@ -38,6 +42,8 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
 
     public BrowsermobVirtualHarServer(BrowsermobVhsConfig config) {
         this.config = requireNonNull(config);
+        checkArgument(!config.http2, "HTTP/2 is not supported by this implementation");
+        checkArgument(config.directOrigin == null, "direct origin mode is not supported by this implementation");
     }
 
     @Override
@@ -47,18 +53,43 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
         closeables.add(scratch);
         CertificateAndKeySource certificateAndKeySource;
         BrowserUpProxy proxy;
+        @Nullable ManufacturingExecutor manufacturingExecutor = null;
         Path scratchPath = scratch.getRoot();
+        TlsHandshakeCounter handshakeCounter = new TlsHandshakeCounter();
         try {
             certificateAndKeySource = config.certificateAndKeySourceFactory.produce(config, scratchPath);
-            TlsEndpoint httpsInterceptionServer = config.tlsEndpointFactory.produce(config, scratchPath);
-            closeables.add(httpsInterceptionServer);
-            TrustSource trustSource = httpsInterceptionServer.getTrustSource();
-            proxy = startProxy(config.bmpResponseManufacturer.withFreshState(), httpsInterceptionServer.getSocketAddress(), certificateAndKeySource, trustSource);
+            ConnectFilterFactory connectFilterFactory;
+            TrustSource trustSource;
+            if (config.tlsInterceptionMode == TlsInterceptionMode.LOCAL) {
+                ImpersonatingSslContextSource sslContextSource = ImpersonatingSslContextSource.create(certificateAndKeySource, config.leafCertificates, config.tlsSessions, false, closeables);
+                connectFilterFactory = (connectRequest, ctx) -> new TlsTerminatingConnectFilter(connectRequest, ctx, sslContextSource);
+                trustSource = TrustSource.defaultTrustSource();
+            } else {
+                TlsEndpoint httpsInterceptionServer = config.tlsEndpointFactory.produce(config, scratchPath);
+                closeables.add(httpsInterceptionServer);
+                HostRewriter hostRewriter = HostRewriter.from(httpsInterceptionServer.getSocketAddress());
+                connectFilterFactory = (connectRequest, ctx) -> new HostRewriteFilter(connectRequest, ctx, hostRewriter);
+                trustSource = httpsInterceptionServer.getTrustSource();
+            }
+            connectFilterFactory = countHandshakes(connectFilterFactory, handshakeCounter);
+            if (config.asyncManufacturing != null) {
+                manufacturingExecutor = new ManufacturingExecutor(config.asyncManufacturing);
+                closeables.add(manufacturingExecutor);
+            }
+            BmpResponseListener responseListener = ServedResponseRecorder.appendTo(config.bmpResponseListener, config.servedResponseLog, closeables);
+            proxy = startProxy(config.bmpResponseManufacturer.withFreshState(), connectFilterFactory, certificateAndKeySource, trustSource, responseListener, manufacturingExecutor);
         } catch (RuntimeException | IOException e) {
             closeAll(closeables, true);
             throw e;
         }
-        return new BrowsermobVhsControl(proxy, closeables);
+        return new BrowsermobVhsControl(proxy, closeables, manufacturingExecutor, handshakeCounter);
+    }
+
+    private static ConnectFilterFactory countHandshakes(ConnectFilterFactory connectFilterFactory, TlsHandshakeCounter handshakeCounter) {
+        return (connectRequest, ctx) -> {
+            handshakeCounter.attach(ctx.pipeline());
+            return connectFilterFactory.createConnectFilter(connectRequest, ctx);
+        };
     }
 
     private static void closeAll(Iterable<? extends Closeable> closeables, @SuppressWarnings("SameParameterValue") boolean swallowIOException) {
@@ -72,13 +103,18 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
     }
 
     protected BrowserUpProxy startProxy(BmpResponseManufacturer.WithState<?> responseManufacturer,
-                                      HostAndPort httpsHostRewriteDestination,
+                                      ConnectFilterFactory connectFilterFactory,
                                       CertificateAndKeySource certificateAndKeySource,
-                                      TrustSource trustSource) throws IOException {
+                                      TrustSource trustSource,
+                                      BmpResponseListener responseListener,
+                                      @Nullable ManufacturingExecutor manufacturingExecutor) throws IOException {
         BrowserUpProxy bmp = instantiateProxy();
-        configureProxy(bmp, responseManufacturer, httpsHostRewriteDestination, certificateAndKeySource, config.bmpResponseListener, trustSource);
-        bmp.enableHarCaptureTypes(getCaptureTypes());
-        bmp.newHar();
+        configureProxy(bmp, responseManufacturer, connectFilterFactory, certificateAndKeySource, responseListener, trustSource, manufacturingExecutor);
+        Set<CaptureType> captureTypes = getCaptureTypes();
+        if (!captureTypes.isEmpty()) {
+            bmp.enableHarCaptureTypes(captureTypes);
+            bmp.newHar();
+        }
         if (config.port == null) {
             bmp.start();
         } else {
@@ -91,6 +127,7 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
         MitmManager mitmManager = ImpersonatingMitmManager.builder()
                 .rootCertificateSource(certificateAndKeySource)
                 .trustSource(trustSource)
+                .serverKeyGenerator(config.leafCertificates.keyType.createKeyGenerator())
                 .build();
         return mitmManager;
     }
@@ -107,28 +144,53 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
 
     protected void configureProxy(BrowserUpProxy bmp,
                                   BmpResponseManufacturer.WithState<?> responseManufacturer,
-                                  HostAndPort httpsHostRewriteDestination,
+                                  ConnectFilterFactory connectFilterFactory,
                                   CertificateAndKeySource certificateAndKeySource,
                                   BmpResponseListener bmpResponseListener,
-                                  TrustSource trustSource) {
+                                  TrustSource trustSource,
+                                  @Nullable ManufacturingExecutor manufacturingExecutor) {
         MitmManager mitmManager = createMitmManager(bmp, certificateAndKeySource, trustSource);
         bmp.setMitmManager(mitmManager);
-        HostRewriter hostRewriter = HostRewriter.from(httpsHostRewriteDestination);
-        bmp.addFirstHttpFilterFactory(createFirstFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, createPassthruPredicate()));
+        ResponseManufacturingFiltersSource filtersSource = createFirstFiltersSource(responseManufacturer, connectFilterFactory, bmpResponseListener, createPassthruPredicate());
+        bmp.addFirstHttpFilterFactory(filtersSource);
+        if (manufacturingExecutor != null) {
+            bmp.addLastHttpFilterFactory(new AsyncManufacturingHandler.Installer(filtersSource, manufacturingExecutor));
+        }
     }
 
-    /* package */ ResponseManufacturingFiltersSource createFirstFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, HostRewriter hostRewriter, BmpResponseListener bmpResponseListener, PassthruPredicate passthruPredicate) {
-        return new ResponseManufacturingFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, passthruPredicate);
+    /* package */ ResponseManufacturingFiltersSource createFirstFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, ConnectFilterFactory connectFilterFactory, BmpResponseListener bmpResponseListener, PassthruPredicate passthruPredicate) {
+        return new ResponseManufacturingFiltersSource(responseManufacturer, connectFilterFactory, bmpResponseListener, passthruPredicate);
     }
 
-    static class BrowsermobVhsControl implements VirtualHarServerControl {
+    public static class BrowsermobVhsControl implements VirtualHarServerControl {
 
         private final BrowserUpProxy proxy;
         private final ImmutableList<Closeable> closeables;
+        @Nullable
+        private final ManufacturingExecutor manufacturingExecutor;
+        private final TlsHandshakeCounter handshakeCounter;
 
-        BrowsermobVhsControl(BrowserUpProxy proxy, Iterable<Closeable> closeables) {
+        BrowsermobVhsControl(BrowserUpProxy proxy, Iterable<Closeable> closeables, @Nullable ManufacturingExecutor manufacturingExecutor, TlsHandshakeCounter handshakeCounter) {
             this.proxy = requireNonNull(proxy);
             this.closeables = ImmutableList.copyOf(closeables);
+            this.manufacturingExecutor = manufacturingExecutor;
+            this.handshakeCounter = requireNonNull(handshakeCounter);
+        }
+
+        /**
+         * Gets the metrics of the worker pool that manufactures responses.
+         * @return the metrics, or empty if responses are manufactured synchronously
+         */
+        public Optional<ManufacturingMetrics> getManufacturingMetrics() {
+            return Optional.ofNullable(manufacturingExecutor).map(ManufacturingExecutor::getMetrics);
+        }
+
+        /**
+         * Gets the counts of TLS handshakes on tunneled client connections.
+         * @return the metrics
+         */
+        public TlsHandshakeMetrics getTlsHandshakeMetrics() {
+            return handshakeCounter.getMetrics();
         }
 
         @Override
@@ -143,10 +205,15 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
         }
     }
 
-    private static final Set<CaptureType> ALL_CAPTURE_TYPES = EnumSet.allOf(CaptureType.class);
-
+    /**
+     * Gets the types of data the proxy captures in its HAR. Every response is
+     * manufactured, so by default nothing is captured, and the proxy does not
+     * accumulate a HAR for the lifetime of the server. To keep a record of
+     * what was served, configure a {@link BrowsermobVhsConfig#servedResponseLog served response log}.
+     * @return the capture types; if empty, no HAR is captured
+     */
     protected Set<CaptureType> getCaptureTypes() {
-        return ALL_CAPTURE_TYPES;
+        return EnumSet.noneOf(CaptureType.class);
     }
 
 }
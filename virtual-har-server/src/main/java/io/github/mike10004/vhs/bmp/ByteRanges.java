@@ -0,0 +1,206 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.ImmutableHttpRespondable;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map.Entry;
+
+/**
+ * Static utility methods that support responding to byte-range requests
+ * as described in RFC 7233. Only requests for a single range are honored;
+ * for multi-range requests, the full response is sent, which the spec permits.
+ */
+class ByteRanges {
+
+    private static final Logger log = LoggerFactory.getLogger(ByteRanges.class);
+
+    static final String BYTES_UNIT = "bytes";
+
+    static final int SC_OK = 200, SC_PARTIAL_CONTENT = 206, SC_RANGE_NOT_SATISFIABLE = 416;
+
+    private ByteRanges() {}
+
+    /**
+     * Value class that represents a range of bytes. Both ends are inclusive.
+     */
+    static final class ByteRange {
+
+        public final long first;
+        public final long last;
+
+        ByteRange(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        public long length() {
+            return last - first + 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ByteRange{%d-%d}", first, last);
+        }
+    }
+
+    /**
+     * Responds to a range request, if the request is a range request to which
+     * the given response is eligible to respond with partial content. If not,
+     * the full response is returned.
+     * @param request the request
+     * @param fullResponse the response containing the full representation
+     * @return a partial-content or range-not-satisfiable response, or the full response
+     * @throws IOException if the body size cannot be determined
+     */
+    public static HttpRespondable respond(ParsedRequest request, HttpRespondable fullResponse) throws IOException {
+        if (request.method != HttpMethod.GET || fullResponse.getStatus() != SC_OK) {
+            return fullResponse;
+        }
+        @Nullable String rangeHeaderValue = request.getFirstHeaderValue(HttpHeaders.RANGE);
+        if (rangeHeaderValue == null) {
+            return fullResponse;
+        }
+        @Nullable ByteSource bodySource = fullResponse.getBodySource();
+        if (bodySource == null) {
+            log.debug("body source not available for range request; responding with full representation");
+            return fullResponse;
+        }
+        @Nullable String ifRange = request.getFirstHeaderValue(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !isIfRangeSatisfied(ifRange, fullResponse)) {
+            return fullResponse;
+        }
+        if (!isSingleByteRange(rangeHeaderValue)) {
+            return fullResponse;
+        }
+        @Nullable Long knownLength = bodySource.sizeIfKnown().orNull();
+        long totalLength = knownLength == null ? bodySource.size() : knownLength;
+        @Nullable ByteRange range;
+        try {
+            range = parseRange(rangeHeaderValue, totalLength);
+        } catch (IllegalArgumentException e) {
+            log.debug("ignoring malformed range header {}", rangeHeaderValue);
+            return fullResponse;
+        }
+        MediaType contentType = fullResponse.previewContentType();
+        if (contentType == null) {
+            contentType = MediaType.OCTET_STREAM;
+        }
+        if (range == null) {
+            return ImmutableHttpRespondable.builder(SC_RANGE_NOT_SATISFIABLE)
+                    .headers(filterEntityHeaders(fullResponse))
+                    .header(HttpHeaders.CONTENT_RANGE, String.format("%s */%d", BYTES_UNIT, totalLength))
+                    .header(HttpHeaders.CONTENT_LENGTH, "0")
+                    .contentType(contentType)
+                    .build();
+        }
+        return ImmutableHttpRespondable.builder(SC_PARTIAL_CONTENT)
+                .headers(filterEntityHeaders(fullResponse))
+                .header(HttpHeaders.CONTENT_RANGE, String.format("%s %d-%d/%d", BYTES_UNIT, range.first, range.last, totalLength))
+                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(range.length()))
+                .contentType(contentType)
+                .bodySource(bodySource.slice(range.first, range.length()))
+                .build();
+    }
+
+    private static Multimap<String, String> filterEntityHeaders(HttpRespondable response) {
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        response.streamHeaders()
+                .filter(header -> !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getKey()))
+                .filter(header -> !HttpHeaders.CONTENT_RANGE.equalsIgnoreCase(header.getKey()))
+                .forEach(header -> headers.put(header.getKey(), header.getValue()));
+        return headers;
+    }
+
+    @Nullable
+    private static String getFirstHeaderValue(HttpRespondable response, String headerName) {
+        return response.streamHeaders()
+                .filter(header -> headerName.equalsIgnoreCase(header.getKey()))
+                .map(Entry::getValue)
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Evaluates an {@code If-Range} precondition. An entity tag must match the
+     * response entity tag by strong comparison; a date must exactly match the
+     * {@code Last-Modified} value.
+     * @param ifRange value of the {@code If-Range} header
+     * @param response the full response
+     * @return true if a partial response may be sent
+     */
+    @VisibleForTesting
+    static boolean isIfRangeSatisfied(String ifRange, HttpRespondable response) {
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            @Nullable String etag = response.getEntityTag();
+            return etag != null && !etag.startsWith("W/") && ifRange.equals(etag.trim());
+        }
+        @Nullable String lastModified = getFirstHeaderValue(response, HttpHeaders.LAST_MODIFIED);
+        return lastModified != null && ifRange.equals(lastModified.trim());
+    }
+
+    private static boolean isSingleByteRange(String rangeHeaderValue) {
+        return rangeHeaderValue.indexOf(',') < 0;
+    }
+
+    /**
+     * Parses a single byte range specification.
+     * @param rangeHeaderValue value of {@code Range} header
+     * @param totalLength length of the full representation
+     * @return the range, or null if the range is not satisfiable
+     * @throws IllegalArgumentException if the header value is malformed
+     */
+    @Nullable
+    @VisibleForTesting
+    static ByteRange parseRange(String rangeHeaderValue, long totalLength) {
+        String value = CharMatcher.whitespace().removeFrom(rangeHeaderValue);
+        String prefix = BYTES_UNIT + "=";
+        if (!value.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            throw new IllegalArgumentException("unsupported range unit");
+        }
+        String spec = value.substring(prefix.length());
+        int hyphen = spec.indexOf('-');
+        if (hyphen < 0) {
+            throw new IllegalArgumentException("range spec must contain hyphen");
+        }
+        String firstStr = spec.substring(0, hyphen), lastStr = spec.substring(hyphen + 1);
+        if (firstStr.isEmpty()) {
+            long suffixLength = parseNonnegative(lastStr);
+            if (suffixLength == 0 || totalLength == 0) {
+                return null;
+            }
+            return new ByteRange(Math.max(0, totalLength - suffixLength), totalLength - 1);
+        }
+        long first = parseNonnegative(firstStr);
+        long last = lastStr.isEmpty() ? Long.MAX_VALUE : parseNonnegative(lastStr);
+        if (last < first) {
+            throw new IllegalArgumentException("last byte position precedes first");
+        }
+        if (first >= totalLength) {
+            return null;
+        }
+        return new ByteRange(first, Math.min(last, totalLength - 1));
+    }
+
+    private static long parseNonnegative(String digits) {
+        if (digits.isEmpty() || !CharMatcher.inRange('0', '9').matchesAllOf(digits)) {
+            throw new IllegalArgumentException("not a byte position");
+        }
+        return Long.parseLong(digits);
+    }
+}
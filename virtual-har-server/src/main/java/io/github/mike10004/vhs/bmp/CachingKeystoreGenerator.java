@@ -0,0 +1,209 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keystore generator that stores generated keystores in a directory and reuses
+ * them in later sessions and later runs of the program. Keystores are keyed by
+ * certificate common name and keystore type. A stored keystore is reused until its
+ * certificate is within a minimum remaining validity period of its expiry date, and
+ * is then replaced by a newly generated keystore.
+ *
+ * <p>Each keystore is stored in a file with its password, so the directory should
+ * be readable only by the user; on file systems that support POSIX permissions,
+ * files are created readable and writable only by the owner. Access to a keystore
+ * file is serialized among threads and among processes by a lock on a companion
+ * lock file, so concurrent runners that share a directory generate a keystore once.
+ */
+public class CachingKeystoreGenerator implements KeystoreGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingKeystoreGenerator.class);
+
+    public static final Duration DEFAULT_MIN_REMAINING_VALIDITY = Duration.ofDays(7);
+
+    private static final String DEFAULT_COMMON_NAME_KEY = "default";
+    private static final String PROP_KEYSTORE_TYPE = "keystoreType";
+    private static final String PROP_PRIVATE_KEY_ALIAS = "privateKeyAlias";
+    private static final String PROP_KEYSTORE_PASSWORD = "keystorePassword";
+    private static final String PROP_KEYSTORE_BYTES = "keystoreBytes";
+
+    /*
+     * File locks are held on behalf of the whole JVM, so threads of this process
+     * acquire an in-process lock for a file before they acquire the file lock.
+     */
+    private static final ConcurrentMap<Path, ReentrantLock> inProcessLocks = new ConcurrentHashMap<>();
+
+    private final KeystoreGenerator delegate;
+    private final KeystoreType keystoreType;
+    private final Path cacheDir;
+    private final Duration minRemainingValidity;
+
+    /**
+     * Constructs an instance.
+     * @param delegate generator of keystores that are not present in the cache
+     * @param keystoreType type of keystore produced by the delegate
+     * @param cacheDir directory in which keystores are stored; created if it does not exist
+     * @param minRemainingValidity minimum period for which a stored certificate must
+     *                             remain valid to be reused
+     */
+    public CachingKeystoreGenerator(KeystoreGenerator delegate, KeystoreType keystoreType, Path cacheDir, Duration minRemainingValidity) {
+        this.delegate = requireNonNull(delegate, "delegate");
+        this.keystoreType = requireNonNull(keystoreType, "keystoreType");
+        this.cacheDir = requireNonNull(cacheDir, "cacheDir");
+        this.minRemainingValidity = requireNonNull(minRemainingValidity, "minRemainingValidity");
+        checkArgument(!minRemainingValidity.isNegative(), "minimum remaining validity must be nonnegative");
+    }
+
+    /**
+     * Returns an instance that generates keystores with the JRE's key generation
+     * facilities and reuses stored keystores until a week before they expire.
+     * @param keystoreType keystore type
+     * @param cacheDir directory in which keystores are stored
+     * @return a new generator instance
+     */
+    public static CachingKeystoreGenerator createJreGenerator(KeystoreType keystoreType, Path cacheDir) {
+        return new CachingKeystoreGenerator(KeystoreGenerator.createJreGenerator(keystoreType), keystoreType, cacheDir, DEFAULT_MIN_REMAINING_VALIDITY);
+    }
+
+    @Override
+    public KeystoreData generate(@Nullable String certificateCommonName) throws IOException, GeneralSecurityException {
+        Files.createDirectories(cacheDir);
+        Path keystoreFile = resolveKeystoreFile(certificateCommonName);
+        Path lockFile = keystoreFile.resolveSibling(keystoreFile.getFileName() + ".lock");
+        ReentrantLock inProcessLock = inProcessLocks.computeIfAbsent(lockFile.toAbsolutePath().normalize(), k -> new ReentrantLock());
+        inProcessLock.lock();
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = lockChannel.lock();
+            try {
+                return generateLocked(certificateCommonName, keystoreFile);
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            inProcessLock.unlock();
+        }
+    }
+
+    /**
+     * Reads a usable keystore from the given file or generates and stores a new one.
+     * The caller must hold the locks on the file.
+     */
+    private KeystoreData generateLocked(@Nullable String certificateCommonName, Path keystoreFile) throws IOException, GeneralSecurityException {
+        @Nullable KeystoreData cached = readIfUsable(keystoreFile);
+        if (cached != null) {
+            log.debug("reusing keystore from {}", keystoreFile);
+            return cached;
+        }
+        KeystoreData generated = delegate.generate(certificateCommonName);
+        checkArgument(generated.keystoreType == keystoreType, "delegate generated %s keystore but %s was expected", generated.keystoreType, keystoreType);
+        write(generated, keystoreFile);
+        log.debug("stored generated keystore in {}", keystoreFile);
+        return generated;
+    }
+
+    Path resolveKeystoreFile(@Nullable String certificateCommonName) {
+        String key = certificateCommonName == null ? DEFAULT_COMMON_NAME_KEY : Hashing.sha256().hashString(certificateCommonName, StandardCharsets.UTF_8).toString().substring(0, 32);
+        return cacheDir.resolve(keystoreType.name().toLowerCase(Locale.ROOT) + "-" + key + ".properties");
+    }
+
+    @Nullable
+    private KeystoreData readIfUsable(Path keystoreFile) {
+        if (!Files.isRegularFile(keystoreFile)) {
+            return null;
+        }
+        KeystoreData keystoreData;
+        X509Certificate certificate;
+        try {
+            keystoreData = read(keystoreFile);
+            certificate = keystoreData.asCertificateAndKeySource().load().getCertificate();
+        } catch (IOException | RuntimeException e) {
+            log.warn("failed to read keystore from {}; a new keystore will be generated", keystoreFile, e);
+            return null;
+        }
+        if (keystoreData.keystoreType != keystoreType) {
+            log.warn("{} contains a {} keystore; a new {} keystore will be generated", keystoreFile, keystoreData.keystoreType, keystoreType);
+            return null;
+        }
+        Instant now = Instant.now();
+        Instant notAfter = certificate.getNotAfter().toInstant();
+        if (certificate.getNotBefore().toInstant().isAfter(now) || notAfter.minus(minRemainingValidity).isBefore(now)) {
+            log.info("certificate in {} is not valid through {}; a new keystore will be generated", keystoreFile, now.plus(minRemainingValidity));
+            return null;
+        }
+        return keystoreData;
+    }
+
+    private static KeystoreData read(Path keystoreFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(keystoreFile)) {
+            properties.load(in);
+        }
+        KeystoreType keystoreType = KeystoreType.valueOf(requireProperty(properties, PROP_KEYSTORE_TYPE));
+        String privateKeyAlias = requireProperty(properties, PROP_PRIVATE_KEY_ALIAS);
+        char[] keystorePassword = requireProperty(properties, PROP_KEYSTORE_PASSWORD).toCharArray();
+        byte[] keystoreBytes = BaseEncoding.base64().decode(requireProperty(properties, PROP_KEYSTORE_BYTES));
+        return new KeystoreData(keystoreType, keystoreBytes, privateKeyAlias, keystorePassword);
+    }
+
+    private static String requireProperty(Properties properties, String name) throws IOException {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            throw new IOException("property missing: " + name);
+        }
+        return value;
+    }
+
+    private static void write(KeystoreData keystoreData, Path keystoreFile) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(PROP_KEYSTORE_TYPE, keystoreData.keystoreType.name());
+        properties.setProperty(PROP_PRIVATE_KEY_ALIAS, keystoreData.privateKeyAlias);
+        properties.setProperty(PROP_KEYSTORE_PASSWORD, keystoreData.keystorePassword == null ? "" : String.copyValueOf(keystoreData.keystorePassword));
+        properties.setProperty(PROP_KEYSTORE_BYTES, BaseEncoding.base64().encode(keystoreData.keystoreBytes));
+        Path tempFile = Files.createTempFile(keystoreFile.getParent(), keystoreFile.getFileName().toString(), ".tmp");
+        try {
+            OwnerOnlyFiles.restrictToOwner(tempFile);
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, null);
+            }
+            Files.move(tempFile, keystoreFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingKeystoreGenerator{" +
+                "keystoreType=" + keystoreType +
+                ", cacheDir=" + cacheDir +
+                ", minRemainingValidity=" + minRemainingValidity +
+                '}';
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.ImmutableHttpRespondable;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Static utility methods that support responding to conditional requests
+ * as described in RFC 7232. Only the {@code If-None-Match} and
+ * {@code If-Modified-Since} preconditions are evaluated.
+ */
+class ConditionalRequests {
+
+    private static final Logger log = LoggerFactory.getLogger(ConditionalRequests.class);
+
+    static final int SC_OK = 200, SC_NOT_MODIFIED = 304;
+
+    /**
+     * Headers that a 304 response carries over from the 200 response it stands in for.
+     * See RFC 7232 section 4.1.
+     */
+    private static final Set<String> NOT_MODIFIED_HEADERS = ImmutableSet.of(
+            HttpHeaders.CACHE_CONTROL.toLowerCase(),
+            HttpHeaders.CONTENT_LOCATION.toLowerCase(),
+            HttpHeaders.DATE.toLowerCase(),
+            HttpHeaders.ETAG.toLowerCase(),
+            HttpHeaders.EXPIRES.toLowerCase(),
+            HttpHeaders.LAST_MODIFIED.toLowerCase(),
+            HttpHeaders.VARY.toLowerCase());
+
+    private ConditionalRequests() {}
+
+    /**
+     * Adds an {@code ETag} header to a successful response that has an entity tag
+     * but lacks the header.
+     * @param response the response
+     * @return a response with the {@code ETag} header, or the argument response
+     */
+    public static HttpRespondable addEntityTagHeader(HttpRespondable response) {
+        if (response.getStatus() != SC_OK) {
+            return response;
+        }
+        if (getFirstHeaderValue(response, HttpHeaders.ETAG) != null) {
+            return response;
+        }
+        @Nullable ByteSource bodySource = response.getBodySource();
+        if (bodySource == null) {
+            return response;
+        }
+        @Nullable String entityTag = response.getEntityTag();
+        if (entityTag == null) {
+            return response;
+        }
+        MediaType contentType = response.previewContentType();
+        if (contentType == null) {
+            return response;
+        }
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        response.streamHeaders().forEach(header -> headers.put(header.getKey(), header.getValue()));
+        headers.put(HttpHeaders.ETAG, entityTag);
+        return ImmutableHttpRespondable.builder(response.getStatus())
+                .headers(headers)
+                .contentType(contentType)
+                .bodySource(bodySource)
+                .build();
+    }
+
+    /**
+     * Replaces the entity tag of a response whose body was replaced by an interceptor.
+     * The tag of the matched response describes the body before interception, so
+     * a tag is computed from the intercepted body instead. Responses whose body
+     * source is the one of the matched response keep their tag.
+     * @param matched the matched response, before interception
+     * @param intercepted the response after interception
+     * @return a response whose entity tag describes its body
+     */
+    public static HttpRespondable tagInterceptedResponse(HttpRespondable matched, HttpRespondable intercepted) {
+        if (intercepted == matched || intercepted.getStatus() != SC_OK) {
+            return intercepted;
+        }
+        @Nullable ByteSource bodySource = intercepted.getBodySource();
+        if (bodySource == null || bodySource == matched.getBodySource()) {
+            return intercepted;
+        }
+        String entityTag;
+        try {
+            entityTag = computeEntityTag(bodySource);
+        } catch (IOException e) {
+            log.warn("failed to compute entity tag from intercepted response body", e);
+            return intercepted;
+        }
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        intercepted.streamHeaders()
+                .filter(header -> !HttpHeaders.ETAG.equalsIgnoreCase(header.getKey()))
+                .forEach(header -> headers.put(header.getKey(), header.getValue()));
+        headers.put(HttpHeaders.ETAG, entityTag);
+        @Nullable MediaType contentType = intercepted.previewContentType();
+        return ImmutableHttpRespondable.builder(intercepted.getStatus())
+                .headers(headers)
+                .contentType(contentType == null ? MediaType.OCTET_STREAM : contentType)
+                .bodySource(bodySource)
+                .build();
+    }
+
+    private static String computeEntityTag(ByteSource bodySource) throws IOException {
+        HashCode hash = bodySource.hash(Hashing.sha256());
+        return "\"" + BaseEncoding.base64Url().omitPadding().encode(hash.asBytes()) + "\"";
+    }
+
+    /**
+     * Evaluates the preconditions of a request against a response.
+     * If {@code If-None-Match} is present, {@code If-Modified-Since} is ignored.
+     * @param request the request
+     * @param response the full response
+     * @return true if a 304 response should be sent instead of the full response
+     */
+    public static boolean isNotModified(ParsedRequest request, HttpRespondable response) {
+        if ((request.method != HttpMethod.GET && request.method != HttpMethod.HEAD) || response.getStatus() != SC_OK) {
+            return false;
+        }
+        @Nullable String ifNoneMatch = request.getFirstHeaderValue(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchesAnyWeakly(ifNoneMatch, response.getEntityTag());
+        }
+        @Nullable String ifModifiedSince = request.getFirstHeaderValue(HttpHeaders.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            @Nullable String lastModified = getFirstHeaderValue(response, HttpHeaders.LAST_MODIFIED);
+            return lastModified != null && isNotModifiedSince(lastModified, ifModifiedSince);
+        }
+        return false;
+    }
+
+    /**
+     * Constructs a 304 response that stands in for the given response.
+     * The body of the argument response is not read.
+     * @param response the full response
+     * @return the not-modified response
+     */
+    public static HttpRespondable notModified(HttpRespondable response) {
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        response.streamHeaders()
+                .filter(header -> NOT_MODIFIED_HEADERS.contains(header.getKey().toLowerCase()))
+                .forEach(header -> headers.put(header.getKey(), header.getValue()));
+        @Nullable String entityTag = response.getEntityTag();
+        if (entityTag != null && !headers.keySet().stream().anyMatch(HttpHeaders.ETAG::equalsIgnoreCase)) {
+            headers.put(HttpHeaders.ETAG, entityTag);
+        }
+        return ImmutableHttpRespondable.builder(SC_NOT_MODIFIED)
+                .headers(headers)
+                .build();
+    }
+
+    @Nullable
+    private static String getFirstHeaderValue(HttpRespondable response, String headerName) {
+        return response.streamHeaders()
+                .filter(header -> headerName.equalsIgnoreCase(header.getKey()))
+                .map(Entry::getValue)
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Evaluates an {@code If-None-Match} header value by weak comparison.
+     * @param ifNoneMatch the header value
+     * @param entityTag the response entity tag
+     * @return true if any listed tag matches
+     */
+    @VisibleForTesting
+    static boolean matchesAnyWeakly(String ifNoneMatch, @Nullable String entityTag) {
+        if (entityTag == null) {
+            return false;
+        }
+        if ("*".equals(ifNoneMatch.trim())) {
+            return true;
+        }
+        String opaqueTag = stripWeakness(entityTag.trim());
+        for (String candidate : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if (opaqueTag.equals(stripWeakness(candidate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeakness(String entityTag) {
+        return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+    }
+
+    @VisibleForTesting
+    static boolean isNotModifiedSince(String lastModified, String ifModifiedSince) {
+        try {
+            ZonedDateTime modified = ZonedDateTime.parse(lastModified.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return !modified.isAfter(since);
+        } catch (DateTimeParseException e) {
+            log.debug("ignoring unparseable date in If-Modified-Since precondition: {}", e.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package io.github.mike10004.vhs.bmp;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequest;
+import org.littleshoot.proxy.HttpFilters;
+
+/**
+ * Interface of a factory that creates the filters for {@code CONNECT} requests
+ * that are not passed through. The filters determine how TLS connections
+ * from the client are intercepted.
+ * @see TlsInterceptionMode
+ */
+public interface ConnectFilterFactory {
+
+    HttpFilters createConnectFilter(HttpRequest connectRequest, ChannelHandlerContext ctx);
+
+}
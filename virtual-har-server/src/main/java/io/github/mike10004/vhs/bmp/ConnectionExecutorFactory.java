@@ -0,0 +1,91 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Interface of a factory that creates the executor that serves connections accepted
+ * by a TLS endpoint. Each connection occupies a task for as long as it is open, so
+ * an executor that rejects a task causes the connection to be closed. An executor
+ * is created each time an endpoint starts and shut down when the endpoint stops.
+ * @see NanohttpdTlsEndpointFactory
+ */
+public interface ConnectionExecutorFactory {
+
+    /**
+     * Creates an executor.
+     * @return a new executor
+     */
+    ExecutorService createExecutor();
+
+    /**
+     * Returns a factory of executors that start a new daemon thread for each
+     * connection that no idle thread is available to serve. The number of
+     * connections served at once is not limited.
+     * @return a factory
+     */
+    static ConnectionExecutorFactory cachedThreads() {
+        return () -> Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("tls-endpoint-connection-%d")
+                .build());
+    }
+
+    /**
+     * Returns a factory of executors that serve connections on a bounded pool of
+     * daemon threads. Connections accepted while all threads are busy wait in
+     * a queue; connections accepted while the queue is full are closed. A client
+     * such as a proxy may keep connections open between requests, and each one
+     * holds a thread until it is closed or has been idle for the endpoint's idle
+     * timeout, so queued connections may wait that long for a thread.
+     * @param maxThreads maximum number of connections served at once
+     * @param queueCapacity maximum number of connections awaiting a thread; may be zero
+     * @return a factory
+     */
+    static ConnectionExecutorFactory bounded(int maxThreads, int queueCapacity) {
+        checkArgument(maxThreads > 0, "maxThreads must be positive");
+        checkArgument(queueCapacity >= 0, "queueCapacity must be nonnegative");
+        return () -> {
+            BlockingQueue<Runnable> queue = queueCapacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                    60L, TimeUnit.SECONDS,
+                    queue,
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("tls-endpoint-connection-%d")
+                            .build());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        };
+    }
+
+    /**
+     * Returns a factory of executors that start a new virtual thread for each
+     * connection, if the runtime supports virtual threads.
+     * @return a factory, or an empty optional if virtual threads are not supported
+     */
+    static Optional<ConnectionExecutorFactory> virtualThreads() {
+        return VirtualThreads.FACTORY;
+    }
+
+    /**
+     * Returns the factory used if none is specified. This is the virtual thread
+     * factory if the runtime supports virtual threads, and the cached thread
+     * factory otherwise.
+     * @return the default factory
+     */
+    static ConnectionExecutorFactory getDefault() {
+        return virtualThreads().orElseGet(ConnectionExecutorFactory::cachedThreads);
+    }
+
+}
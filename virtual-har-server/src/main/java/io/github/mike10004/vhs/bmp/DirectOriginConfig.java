@@ -0,0 +1,78 @@
+package io.github.mike10004.vhs.bmp;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration of direct origin mode, in which the server answers requests as an
+ * origin server rather than as a proxy. Clients send requests to the server itself,
+ * for example by resolving the recorded hostnames to the server's address or by
+ * setting the {@code Host} header. Each request is routed by the hostname in its
+ * {@code Host} header; the port in the header is ignored, because it is the port of
+ * the server rather than of the recorded origin. An HTTPS request without a
+ * {@code Host} header is routed by the server name the client indicated in the
+ * handshake. {@code CONNECT} requests are refused. Only {@link NettyVirtualHarServer}
+ * supports direct origin mode.
+ */
+public class DirectOriginConfig {
+
+    public static final String DEFAULT_HOSTNAME = "localhost";
+
+    /**
+     * Port on which HTTPS is served, or zero for any free port. If null, only HTTP
+     * is served, on the server's port.
+     */
+    @Nullable
+    public final Integer httpsPort;
+
+    /**
+     * Hostname of the certificate presented to HTTPS clients that do not indicate
+     * a server name.
+     */
+    public final String defaultHostname;
+
+    private DirectOriginConfig(Builder builder) {
+        httpsPort = builder.httpsPort;
+        defaultHostname = builder.defaultHostname;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectOriginConfig{" +
+                "httpsPort=" + httpsPort +
+                ", defaultHostname='" + defaultHostname + '\'' +
+                '}';
+    }
+
+    @SuppressWarnings({"unused", "UnusedReturnValue"})
+    public static final class Builder {
+
+        @Nullable
+        private Integer httpsPort;
+        private String defaultHostname = DEFAULT_HOSTNAME;
+
+        private Builder() {
+        }
+
+        public Builder httpsPort(@Nullable Integer httpsPort) {
+            checkArgument(httpsPort == null || (httpsPort >= 0 && httpsPort <= 65535), "invalid port: %s", httpsPort);
+            this.httpsPort = httpsPort;
+            return this;
+        }
+
+        public Builder defaultHostname(String defaultHostname) {
+            this.defaultHostname = requireNonNull(defaultHostname);
+            return this;
+        }
+
+        public DirectOriginConfig build() {
+            return new DirectOriginConfig(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.mike10004.vhs.bmp;
+
+/**
+ * Value class that reports the state of the connections accepted by a TLS endpoint.
+ */
+public final class EndpointConnectionMetrics {
+
+    private final int activeConnections;
+    private final int peakActiveConnections;
+    private final long acceptedCount;
+    private final long rejectedCount;
+
+    /**
+     * Constructs an instance.
+     * @param activeConnections number of connections being served or awaiting a thread
+     * @param peakActiveConnections greatest number of connections that have been active at once
+     * @param acceptedCount number of connections handed to the executor
+     * @param rejectedCount number of connections closed because the executor rejected them
+     */
+    public EndpointConnectionMetrics(int activeConnections, int peakActiveConnections, long acceptedCount, long rejectedCount) {
+        this.activeConnections = activeConnections;
+        this.peakActiveConnections = peakActiveConnections;
+        this.acceptedCount = acceptedCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getPeakActiveConnections() {
+        return peakActiveConnections;
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointConnectionMetrics{" +
+                "activeConnections=" + activeConnections +
+                ", peakActiveConnections=" + peakActiveConnections +
+                ", acceptedCount=" + acceptedCount +
+                ", rejectedCount=" + rejectedCount +
+                '}';
+    }
+}
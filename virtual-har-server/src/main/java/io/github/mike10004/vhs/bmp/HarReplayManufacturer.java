@@ -6,7 +6,9 @@ import com.google.common.net.MediaType;
 import io.github.mike10004.vhs.EntryMatcher;
 import io.github.mike10004.vhs.HttpRespondable;
 import io.github.mike10004.vhs.ReplaySessionState;
+import io.github.mike10004.vhs.RequestCanonicalizer;
 import io.github.mike10004.vhs.ResponseInterceptor;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import org.slf4j.Logger;
@@ -33,6 +35,9 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
     private final EntryMatcher<? super ReplaySessionState> entryMatcher;
     private final ImmutableList<ResponseInterceptor> responseInterceptors;
     private final HttpAssistant<RequestCapture, HttpResponse> bmpAssistant;
+    private final boolean conditionalRequestsEnabled;
+    private final RequestCanonicalizer requestCanonicalizer;
+    private final boolean headMetadataSufficient;
 
     /**
      * Constructs an instance.
@@ -52,6 +57,88 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
         this.responseInterceptors = ImmutableList.copyOf(responseInterceptors);
         this.bmpAssistant = requireNonNull(bmpAssistant);
         this.sessionStateFactory = requireNonNull(sessionStateFactory);
+        this.conditionalRequestsEnabled = false;
+        this.requestCanonicalizer = RequestCanonicalizer.identity();
+        this.headMetadataSufficient = isHeadMetadataSufficient(this.responseInterceptors);
+    }
+
+    /**
+     * Constructs an instance from a builder.
+     * @param builder the builder
+     */
+    protected HarReplayManufacturer(Builder builder) {
+        this.entryMatcher = requireNonNull(builder.entryMatcher);
+        this.responseInterceptors = ImmutableList.copyOf(builder.responseInterceptors);
+        this.bmpAssistant = new BmpHttpAssistant();
+        this.sessionStateFactory = requireNonNull(builder.sessionStateFactory);
+        this.conditionalRequestsEnabled = builder.conditionalRequestsEnabled;
+        this.requestCanonicalizer = requireNonNull(builder.requestCanonicalizer);
+        this.headMetadataSufficient = isHeadMetadataSufficient(this.responseInterceptors);
+    }
+
+    private static boolean isHeadMetadataSufficient(Iterable<ResponseInterceptor> responseInterceptors) {
+        for (ResponseInterceptor interceptor : responseInterceptors) {
+            if (interceptor.isBodyRewriting()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static Builder builder(EntryMatcher<? super ReplaySessionState> entryMatcher) {
+        return new Builder(entryMatcher);
+    }
+
+    public static final class Builder {
+
+        private final EntryMatcher<? super ReplaySessionState> entryMatcher;
+        private Iterable<ResponseInterceptor> responseInterceptors = ImmutableList.of();
+        private Supplier<? extends ReplaySessionState> sessionStateFactory = ReplaySessionState::countingUrlMethodPairs;
+        private boolean conditionalRequestsEnabled;
+        private RequestCanonicalizer requestCanonicalizer = RequestCanonicalizer.identity();
+
+        private Builder(EntryMatcher<? super ReplaySessionState> entryMatcher) {
+            this.entryMatcher = requireNonNull(entryMatcher);
+        }
+
+        public Builder responseInterceptors(Iterable<ResponseInterceptor> val) {
+            responseInterceptors = ImmutableList.copyOf(val);
+            return this;
+        }
+
+        public Builder sessionStateFactory(Supplier<? extends ReplaySessionState> val) {
+            sessionStateFactory = requireNonNull(val);
+            return this;
+        }
+
+        /**
+         * Sets whether conditional requests are honored. If enabled, successful responses
+         * are sent with an {@code ETag} header, and requests with {@code If-None-Match}
+         * or {@code If-Modified-Since} preconditions are answered with 304 Not Modified
+         * when the preconditions are met. Disabled by default.
+         * @param val true to enable
+         * @return this builder
+         */
+        public Builder conditionalRequests(boolean val) {
+            conditionalRequestsEnabled = val;
+            return this;
+        }
+
+        /**
+         * Sets the canonicalizer applied to each incoming request before it is
+         * registered with the session state and matched. Entries should be
+         * canonicalized with the same canonicalizer when they are parsed.
+         * @param val the canonicalizer
+         * @return this builder
+         */
+        public Builder requestCanonicalizer(RequestCanonicalizer val) {
+            requestCanonicalizer = requireNonNull(val);
+            return this;
+        }
+
+        public HarReplayManufacturer build() {
+            return new HarReplayManufacturer(this);
+        }
     }
 
     @Override
@@ -61,6 +148,10 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
 
     @Override
     public ResponseCapture manufacture(ReplaySessionState state, RequestCapture capture) {
+        ParsedRequest canonicalRequest = requestCanonicalizer.canonicalize(capture.request);
+        if (canonicalRequest != capture.request) {
+            capture = RequestCapture.of(capture.httpVersion, canonicalRequest);
+        }
         state.register(capture.request);
         return manufacture(state, bmpAssistant, capture);
     }
@@ -79,6 +170,84 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
                 .build();
     }
 
+    /**
+     * Finds the entry that best matches a request. A {@code HEAD} request is matched
+     * against {@code HEAD} entries first and {@code GET} entries otherwise. For a
+     * {@code HEAD} request, only the metadata of the response is looked up, unless
+     * a response interceptor may replace the body.
+     * @param sessionState the session state
+     * @param request the request
+     * @return the matched response, or null if no entry matches
+     * @see EntryMatcher#findTopEntryMetadata(Object, ParsedRequest)
+     */
+    @Nullable
+    protected HttpRespondable findTopEntry(ReplaySessionState sessionState, ParsedRequest request) {
+        if (request.method != HttpMethod.HEAD) {
+            return entryMatcher.findTopEntry(sessionState, request);
+        }
+        if (!headMetadataSufficient) {
+            @Nullable HttpRespondable bestEntry = entryMatcher.findTopEntry(sessionState, request);
+            if (bestEntry == null) {
+                bestEntry = entryMatcher.findTopEntry(sessionState, HeadRequests.toGetRequest(request));
+            }
+            return bestEntry;
+        }
+        @Nullable HttpRespondable bestEntry = entryMatcher.findTopEntryMetadata(sessionState, request);
+        if (bestEntry == null) {
+            bestEntry = entryMatcher.findTopEntryMetadata(sessionState, HeadRequests.toGetRequest(request));
+        }
+        return bestEntry;
+    }
+
+    /**
+     * Strips the body from the matched response if the request is a {@code HEAD} request.
+     * This happens after interception, so the headers are those of the response to
+     * the equivalent {@code GET} request. If no interceptor may replace the body, the
+     * content length is taken from the response metadata and the body is not read
+     * unless an entity tag is computed from it for a conditional request. Otherwise
+     * the content length is the size of the intercepted body.
+     * @param request the request
+     * @param respondable the matched response, after interception
+     * @return a body-less response, or the argument response if this is not a {@code HEAD} request
+     * @throws IOException if the size of the intercepted body cannot be determined
+     */
+    protected HttpRespondable respondToHeadRequest(ParsedRequest request, HttpRespondable respondable) throws IOException {
+        if (request.method != HttpMethod.HEAD) {
+            return respondable;
+        }
+        return headMetadataSufficient ? HeadRequests.withoutBody(respondable) : HeadRequests.withoutMeasuredBody(respondable);
+    }
+
+    /**
+     * Honors the {@code Range} and {@code If-Range} headers of a request, if present,
+     * by slicing the body of the matched response. The full body is not copied.
+     * @param request the request
+     * @param respondable the matched response, after interception
+     * @return a partial-content response, or the argument response if no range applies
+     * @throws IOException if the body size cannot be determined
+     */
+    protected HttpRespondable respondToRangeRequest(ParsedRequest request, HttpRespondable respondable) throws IOException {
+        return ByteRanges.respond(request, respondable);
+    }
+
+    /**
+     * Honors the {@code If-None-Match} and {@code If-Modified-Since} headers of a request,
+     * if conditional requests are enabled. A not-modified response is constructed
+     * without reading the body of the matched response.
+     * @param request the request
+     * @param respondable the matched response, after interception
+     * @return a not-modified response, or the matched response with an entity tag header
+     */
+    protected HttpRespondable respondToConditionalRequest(ParsedRequest request, HttpRespondable respondable) {
+        if (!conditionalRequestsEnabled) {
+            return respondable;
+        }
+        if (ConditionalRequests.isNotModified(request, respondable)) {
+            return ConditionalRequests.notModified(respondable);
+        }
+        return ConditionalRequests.addEntityTagHeader(respondable);
+    }
+
     protected <Q> ResponseCapture manufacture(ReplaySessionState sessionState, HttpAssistant<Q, HttpResponse> assistant, Q incoming) {
         ParsedRequest request;
         try {
@@ -89,17 +258,24 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
             HttpResponse netty = assistant.constructResponse(incoming, outgoing);
             return ResponseCapture.error(netty);
         }
-        @Nullable HttpRespondable bestEntry = entryMatcher.findTopEntry(sessionState, request);
+        @Nullable HttpRespondable bestEntry = findTopEntry(sessionState, request);
         if (bestEntry != null) {
+            HttpRespondable matchedEntry = bestEntry;
             for (ResponseInterceptor interceptor : responseInterceptors) {
                 bestEntry = interceptor.intercept(request, bestEntry);
             }
+            if (conditionalRequestsEnabled && (request.method != HttpMethod.HEAD || !headMetadataSufficient)) {
+                bestEntry = ConditionalRequests.tagInterceptedResponse(matchedEntry, bestEntry);
+            }
         }
         if (bestEntry == null) {
             ImmutableHttpResponse response = createNotFoundResponse();
             return ResponseCapture.unmatched(assistant.constructResponse(incoming, response));
         } else {
             try {
+                bestEntry = respondToHeadRequest(request, bestEntry);
+                bestEntry = respondToConditionalRequest(request, bestEntry);
+                bestEntry = respondToRangeRequest(request, bestEntry);
                 return ResponseCapture.matched(assistant.transformRespondable(incoming, bestEntry));
             } catch (IOException e) {
                 log.warn("failed to construct response", e);
@@ -0,0 +1,89 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.ImmutableHttpRespondable;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Static utility methods that support responding to {@code HEAD} requests
+ * without materializing response bodies.
+ */
+class HeadRequests {
+
+    private HeadRequests() {}
+
+    /**
+     * Creates a {@code GET} request equivalent to a {@code HEAD} request.
+     * A {@code HEAD} request has no body, so none is carried over.
+     * @param headRequest the request
+     * @return the {@code GET} request
+     */
+    public static ParsedRequest toGetRequest(ParsedRequest headRequest) {
+        checkArgument(headRequest.method == HttpMethod.HEAD, "not a HEAD request: %s", headRequest.method);
+        return ParsedRequest.inMemory(HttpMethod.GET, headRequest.url, headRequest.query, headRequest.indexedHeaders, null);
+    }
+
+    /**
+     * Constructs a response with the status and headers of the given response and an empty body.
+     * If the response lacks a {@code Content-Length} header, one is added if the body
+     * size is known without reading the body. The body of the argument response is not read,
+     * and the entity tag of the argument response is preserved.
+     * @param fullResponse the response to a {@code GET} request
+     * @return the response to a {@code HEAD} request
+     */
+    public static HttpRespondable withoutBody(HttpRespondable fullResponse) {
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        fullResponse.streamHeaders().forEach(header -> headers.put(header.getKey(), header.getValue()));
+        if (headers.keySet().stream().noneMatch(HttpHeaders.CONTENT_LENGTH::equalsIgnoreCase)) {
+            @Nullable ByteSource bodySource = fullResponse.getBodySource();
+            @Nullable Long knownLength = bodySource == null ? null : bodySource.sizeIfKnown().orNull();
+            if (knownLength != null) {
+                headers.put(HttpHeaders.CONTENT_LENGTH, knownLength.toString());
+            }
+        }
+        return withHeaders(fullResponse, headers);
+    }
+
+    /**
+     * Constructs a response with the status and headers of the given response and an empty body,
+     * replacing any {@code Content-Length} header with the size of the body of the given response.
+     * This is used for responses whose body may have been replaced by an interceptor, so that
+     * the content length matches that of the response to a {@code GET} request. The body is read
+     * if its size is not otherwise known.
+     * @param fullResponse the response to a {@code GET} request
+     * @return the response to a {@code HEAD} request
+     * @throws IOException if the body size cannot be determined
+     */
+    public static HttpRespondable withoutMeasuredBody(HttpRespondable fullResponse) throws IOException {
+        @Nullable ByteSource bodySource = fullResponse.getBodySource();
+        if (bodySource == null) {
+            return withoutBody(fullResponse);
+        }
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        fullResponse.streamHeaders()
+                .filter(header -> !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getKey()))
+                .forEach(header -> headers.put(header.getKey(), header.getValue()));
+        headers.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(bodySource.size()));
+        return withHeaders(fullResponse, headers);
+    }
+
+    private static HttpRespondable withHeaders(HttpRespondable fullResponse, Multimap<String, String> headers) {
+        @Nullable MediaType contentType = fullResponse.previewContentType();
+        HttpRespondable headResponse = ImmutableHttpRespondable.builder(fullResponse.getStatus())
+                .headers(headers)
+                .contentType(contentType == null ? MediaType.OCTET_STREAM : contentType)
+                .build();
+        return HttpRespondable.withEntityTag(headResponse, fullResponse::getEntityTag);
+    }
+}
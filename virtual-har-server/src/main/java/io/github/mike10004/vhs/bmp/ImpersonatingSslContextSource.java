@@ -0,0 +1,233 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.bup.mitm.CertificateAndKey;
+import com.browserup.bup.mitm.CertificateAndKeySource;
+import com.browserup.bup.mitm.CertificateInfo;
+import com.browserup.bup.mitm.HostnameCertificateInfoGenerator;
+import com.browserup.bup.mitm.keys.KeyGenerator;
+import com.browserup.bup.mitm.tools.BouncyCastleSecurityProviderTool;
+import com.browserup.bup.mitm.tools.SecurityProviderTool;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLException;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Source of server SSL contexts whose certificates impersonate a host. Each
+ * certificate is signed by the root certificate of a {@link CertificateAndKeySource}
+ * and names only the impersonated host, so no connection to the real host is needed.
+ * Contexts are cached by hostname. Certificates may also be kept in a
+ * {@link LeafCertificateStore} so that they are reused in later runs. Each context
+ * caches TLS sessions as configured by a {@link TlsSessionConfig}. Contexts may also
+ * offer HTTP/2 to clients by ALPN, in which case they are restricted to the cipher
+ * suites that HTTP/2 permits.
+ */
+class ImpersonatingSslContextSource {
+
+    private static final Logger log = LoggerFactory.getLogger(ImpersonatingSslContextSource.class);
+
+    private static final String MESSAGE_DIGEST = "SHA256";
+
+    private static final ApplicationProtocolConfig HTTP2_PROTOCOLS = new ApplicationProtocolConfig(Protocol.ALPN,
+            SelectorFailureBehavior.NO_ADVERTISE, SelectedListenerFailureBehavior.ACCEPT,
+            ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1);
+
+    private static final Supplier<Boolean> alpnSupported = Suppliers.memoize(ImpersonatingSslContextSource::probeAlpn);
+
+    private final Supplier<CertificateAndKey> rootCertificate;
+    private final SecurityProviderTool securityProviderTool;
+    private final KeyGenerator keyGenerator;
+    private final Supplier<LeafCertificateStore> certificateStore;
+    private final TlsSessionConfig sessionConfig;
+    private final boolean http2;
+    private final LoadingCache<String, SslContext> sslContexts;
+
+    public ImpersonatingSslContextSource(CertificateAndKeySource rootCertificateSource) {
+        this(rootCertificateSource, LeafCertificateConfig.getDefault());
+    }
+
+    public ImpersonatingSslContextSource(CertificateAndKeySource rootCertificateSource, LeafCertificateConfig leafConfig) {
+        this(rootCertificateSource, leafConfig, TlsSessionConfig.getDefault());
+    }
+
+    public ImpersonatingSslContextSource(CertificateAndKeySource rootCertificateSource, LeafCertificateConfig leafConfig, TlsSessionConfig sessionConfig) {
+        this(rootCertificateSource, leafConfig, sessionConfig, false);
+    }
+
+    /**
+     * Constructs an instance.
+     * @param rootCertificateSource source of the certificate authority
+     * @param leafConfig configuration of the impersonating certificates
+     * @param sessionConfig configuration of the session cache of each context
+     * @param http2 whether contexts offer HTTP/2 by ALPN; see {@link #isAlpnSupported()}
+     */
+    public ImpersonatingSslContextSource(CertificateAndKeySource rootCertificateSource, LeafCertificateConfig leafConfig, TlsSessionConfig sessionConfig, boolean http2) {
+        requireNonNull(rootCertificateSource);
+        this.sessionConfig = requireNonNull(sessionConfig);
+        this.http2 = http2;
+        rootCertificate = Suppliers.memoize(rootCertificateSource::load);
+        securityProviderTool = new BouncyCastleSecurityProviderTool();
+        keyGenerator = leafConfig.keyType.createKeyGenerator();
+        certificateStore = leafConfig.storeDir == null ? () -> null : Suppliers.memoize(() -> LeafCertificateStore.forAuthority(leafConfig.storeDir, rootCertificate.get().getCertificate()));
+        sslContexts = CacheBuilder.newBuilder()
+                .build(new CacheLoader<String, SslContext>() {
+                    @Override
+                    public SslContext load(String hostname) throws SSLException {
+                        return createSslContext(hostname);
+                    }
+                });
+    }
+
+    /**
+     * Creates a source and starts creating contexts for the configured hosts in the
+     * background once they are available. The background work is stopped when the
+     * closeables are closed.
+     * @param rootCertificateSource source of the certificate authority
+     * @param leafConfig configuration of the impersonating certificates
+     * @param sessionConfig configuration of the session cache of each context
+     * @param http2 whether contexts offer HTTP/2 by ALPN
+     * @param closeables list of closeables to which the background executor is added
+     * @return a new source
+     */
+    static ImpersonatingSslContextSource create(CertificateAndKeySource rootCertificateSource, LeafCertificateConfig leafConfig, TlsSessionConfig sessionConfig, boolean http2, List<Closeable> closeables) {
+        ImpersonatingSslContextSource source = new ImpersonatingSslContextSource(rootCertificateSource, leafConfig, sessionConfig, http2);
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicReference<ExecutorService> executorRef = new AtomicReference<>();
+        closeables.add(() -> {
+            closed.set(true);
+            @Nullable ExecutorService executor = executorRef.get();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        });
+        leafConfig.pregeneratedHosts.whenComplete((hostnames, e) -> {
+            if (e != null) {
+                log.info("certificates will be generated on demand because hosts are unavailable: {}", e.toString());
+                return;
+            }
+            if (hostnames.isEmpty() || closed.get()) {
+                return;
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(leafConfig.pregenerationParallelism, hostnames.size()), new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("leaf-certificate-generator-%d")
+                    .build());
+            executorRef.set(executor);
+            if (closed.get()) {
+                executor.shutdownNow();
+                return;
+            }
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            source.pregenerate(hostnames, executor).whenComplete((ignore, ex) -> {
+                executor.shutdown();
+                log.debug("created {} certificates in {} ms", hostnames.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            });
+        });
+        return source;
+    }
+
+    /**
+     * Gets a context whose certificate impersonates the given host.
+     * @param hostname the hostname
+     * @return the context
+     */
+    public SslContext getSslContext(String hostname) {
+        return sslContexts.getUnchecked(hostname);
+    }
+
+    /**
+     * Creates contexts for hosts in the background. A request for a context that is
+     * being created waits for it to be completed.
+     * @param hostnames the hostnames
+     * @param executor the executor on which contexts are created
+     * @return a future that completes when all contexts have been created
+     */
+    public CompletableFuture<Void> pregenerate(Collection<String> hostnames, ExecutorService executor) {
+        CompletableFuture<?>[] futures = hostnames.stream()
+                .map(hostname -> CompletableFuture.runAsync(() -> {
+                    try {
+                        getSslContext(hostname);
+                    } catch (RuntimeException e) {
+                        log.warn("failed to create certificate for {}", hostname, e);
+                    }
+                }, executor))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    private SslContext createSslContext(String hostname) throws SSLException {
+        CertificateAndKey root = rootCertificate.get();
+        @Nullable LeafCertificateStore store = certificateStore.get();
+        @Nullable CertificateAndKey impersonating = store == null ? null : store.load(hostname);
+        if (impersonating == null) {
+            CertificateInfo certificateInfo = new HostnameCertificateInfoGenerator().generate(Collections.singletonList(hostname), null);
+            impersonating = securityProviderTool.createServerCertificate(certificateInfo,
+                    root.getCertificate(), root.getPrivateKey(), keyGenerator.generate(), MESSAGE_DIGEST);
+            if (store != null) {
+                store.save(hostname, impersonating);
+            }
+        }
+        SslContextBuilder builder = SslContextBuilder.forServer(impersonating.getPrivateKey(), impersonating.getCertificate(), root.getCertificate())
+                .sessionCacheSize(sessionConfig.sessionCacheSize)
+                .sessionTimeout(sessionConfig.sessionTimeout.getSeconds());
+        if (http2) {
+            builder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(HTTP2_PROTOCOLS);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Determines whether the JDK SSL provider supports ALPN on this platform. The
+     * provider supports ALPN on Java 9 and later.
+     * @return true if ALPN is supported
+     */
+    static boolean isAlpnSupported() {
+        return alpnSupported.get();
+    }
+
+    private static boolean probeAlpn() {
+        try {
+            SslContextBuilder.forClient()
+                    .sslProvider(SslProvider.JDK)
+                    .applicationProtocolConfig(HTTP2_PROTOCOLS)
+                    .build()
+                    .newEngine(ByteBufAllocator.DEFAULT);
+            return true;
+        } catch (SSLException | RuntimeException e) {
+            log.debug("ALPN not supported", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration of the certificates that impersonate hosts in tunneled connections.
+ * The key type applies in every {@link TlsInterceptionMode}. Pre-generation and the
+ * certificate store apply only in {@link TlsInterceptionMode#LOCAL LOCAL} mode, where the
+ * proxy generates the certificates itself.
+ */
+public class LeafCertificateConfig {
+
+    public static final int DEFAULT_PREGENERATION_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Type of key pair generated for each certificate.
+     */
+    public final LeafKeyType keyType;
+
+    /**
+     * Directory in which generated certificates are stored for reuse in later runs.
+     * Certificates are stored in a subdirectory specific to the certificate authority
+     * that signed them, so they are reused only with the same authority. If null,
+     * certificates are not stored.
+     */
+    @Nullable
+    public final Path storeDir;
+
+    /**
+     * Hosts whose certificates are generated in the background when the server starts.
+     * Generation begins when the stage completes, so the server need not wait for the
+     * hosts to be collected. If the stage completes exceptionally, no certificates are
+     * generated ahead of time.
+     */
+    public final CompletionStage<? extends Collection<String>> pregeneratedHosts;
+
+    /**
+     * Maximum number of certificates generated at once in the background.
+     */
+    public final int pregenerationParallelism;
+
+    private LeafCertificateConfig(Builder builder) {
+        keyType = builder.keyType;
+        storeDir = builder.storeDir;
+        pregeneratedHosts = builder.pregeneratedHosts;
+        pregenerationParallelism = builder.pregenerationParallelism;
+    }
+
+    public static LeafCertificateConfig getDefault() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "LeafCertificateConfig{" +
+                "keyType=" + keyType +
+                ", storeDir=" + storeDir +
+                ", pregeneratedHosts=" + pregeneratedHosts +
+                ", pregenerationParallelism=" + pregenerationParallelism +
+                '}';
+    }
+
+    @SuppressWarnings({"unused", "UnusedReturnValue"})
+    public static final class Builder {
+
+        private LeafKeyType keyType = LeafKeyType.RSA;
+        @Nullable
+        private Path storeDir;
+        private CompletionStage<? extends Collection<String>> pregeneratedHosts = CompletableFuture.completedFuture(ImmutableSet.of());
+        private int pregenerationParallelism = DEFAULT_PREGENERATION_PARALLELISM;
+
+        private Builder() {
+        }
+
+        public Builder keyType(LeafKeyType keyType) {
+            this.keyType = requireNonNull(keyType);
+            return this;
+        }
+
+        public Builder storeDir(@Nullable Path storeDir) {
+            this.storeDir = storeDir;
+            return this;
+        }
+
+        public Builder pregeneratedHosts(Iterable<String> pregeneratedHosts) {
+            return pregeneratedHosts(CompletableFuture.completedFuture(ImmutableSet.copyOf(pregeneratedHosts)));
+        }
+
+        public Builder pregeneratedHosts(CompletionStage<? extends Collection<String>> pregeneratedHosts) {
+            this.pregeneratedHosts = requireNonNull(pregeneratedHosts);
+            return this;
+        }
+
+        public Builder pregenerationParallelism(int pregenerationParallelism) {
+            checkArgument(pregenerationParallelism > 0, "parallelism must be positive");
+            this.pregenerationParallelism = pregenerationParallelism;
+            return this;
+        }
+
+        public LeafCertificateConfig build() {
+            return new LeafCertificateConfig(this);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.bup.mitm.CertificateAndKey;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Directory of certificates that impersonate hosts, each stored with its private key
+ * in a PKCS12 keystore. The directory is specific to the certificate authority that
+ * signed the certificates. Files are replaced atomically, so concurrent runners that
+ * share a directory may generate a certificate more than once but never read a
+ * partially written file. Where the file system supports it, the directory and its
+ * files are accessible only to their owner.
+ */
+class LeafCertificateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LeafCertificateStore.class);
+
+    private static final String KEYSTORE_TYPE = "PKCS12";
+    private static final String ALIAS = "leaf";
+    // the keystore only needs a password because the format requires one; file permissions protect the keys
+    private static final char[] PASSWORD = "vhs-leaf".toCharArray();
+    private static final Duration MIN_REMAINING_VALIDITY = Duration.ofDays(1);
+
+    private final Path dir;
+    private final X509Certificate rootCertificate;
+
+    private LeafCertificateStore(Path dir, X509Certificate rootCertificate) {
+        this.dir = requireNonNull(dir);
+        this.rootCertificate = requireNonNull(rootCertificate);
+    }
+
+    /**
+     * Creates a store in a subdirectory of a parent directory that is named for the
+     * certificate authority.
+     * @param parentDir the parent directory
+     * @param rootCertificate the certificate authority's certificate
+     * @return a new store
+     */
+    public static LeafCertificateStore forAuthority(Path parentDir, X509Certificate rootCertificate) {
+        String fingerprint;
+        try {
+            fingerprint = Hashing.sha256().hashBytes(rootCertificate.getEncoded()).toString().substring(0, 32);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("root certificate cannot be encoded", e);
+        }
+        return new LeafCertificateStore(parentDir.resolve(fingerprint), rootCertificate);
+    }
+
+    /**
+     * Loads the stored certificate for a host, if one is stored and remains valid.
+     * @param hostname the hostname
+     * @return the certificate and key, or null if none is usable
+     */
+    @Nullable
+    public CertificateAndKey load(String hostname) {
+        Path file = resolveFile(hostname);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        X509Certificate certificate;
+        Key key;
+        try (InputStream in = Files.newInputStream(file)) {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keyStore.load(in, PASSWORD);
+            certificate = (X509Certificate) keyStore.getCertificate(ALIAS);
+            key = keyStore.getKey(ALIAS, PASSWORD);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            log.warn("failed to load certificate for {} from {}", hostname, file, e);
+            return null;
+        }
+        if (certificate == null || !(key instanceof PrivateKey)) {
+            log.warn("{} does not contain a certificate and private key", file);
+            return null;
+        }
+        if (certificate.getNotAfter().toInstant().isBefore(Instant.now().plus(MIN_REMAINING_VALIDITY))) {
+            log.debug("stored certificate for {} expires soon", hostname);
+            return null;
+        }
+        return new CertificateAndKey(certificate, (PrivateKey) key);
+    }
+
+    /**
+     * Stores the certificate for a host. Failure to store is logged and otherwise ignored.
+     * @param hostname the hostname
+     * @param certificateAndKey the certificate and key
+     */
+    public void save(String hostname, CertificateAndKey certificateAndKey) {
+        Path file = resolveFile(hostname);
+        try {
+            Files.createDirectories(dir);
+            OwnerOnlyFiles.restrictToOwner(dir);
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keyStore.load(null, null);
+            keyStore.setKeyEntry(ALIAS, certificateAndKey.getPrivateKey(), PASSWORD, new Certificate[]{certificateAndKey.getCertificate(), rootCertificate});
+            Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try {
+                OwnerOnlyFiles.restrictToOwner(tempFile);
+                try (OutputStream out = Files.newOutputStream(tempFile)) {
+                    keyStore.store(out, PASSWORD);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            log.warn("failed to store certificate for {} in {}", hostname, file, e);
+        }
+    }
+
+    Path resolveFile(String hostname) {
+        return dir.resolve(Hashing.sha256().hashString(hostname, StandardCharsets.UTF_8).toString().substring(0, 32) + ".p12");
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.bup.mitm.keys.ECKeyGenerator;
+import com.browserup.bup.mitm.keys.KeyGenerator;
+import com.browserup.bup.mitm.keys.RSAKeyGenerator;
+
+/**
+ * Enumeration of types of key pair generated for certificates that impersonate hosts.
+ */
+public enum LeafKeyType {
+
+    /**
+     * 2048-bit RSA keys.
+     */
+    RSA,
+
+    /**
+     * Elliptic curve keys on the P-256 curve. These are generated much faster than
+     * RSA keys, and handshakes that use them are cheaper for the proxy.
+     */
+    EC;
+
+    KeyGenerator createKeyGenerator() {
+        switch (this) {
+            case RSA:
+                return new RSAKeyGenerator();
+            case EC:
+                return new ECKeyGenerator();
+            default:
+                throw new IllegalStateException("unhandled: " + this);
+        }
+    }
+}
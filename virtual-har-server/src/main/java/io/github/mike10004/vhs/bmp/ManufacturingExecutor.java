@@ -0,0 +1,105 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bounded pool of worker threads that manufacture responses. An instance is
+ * created for each start of a server and shut down when the server stops.
+ */
+public final class ManufacturingExecutor implements Closeable {
+
+    private static final ThreadLocal<Boolean> workerThread = ThreadLocal.withInitial(() -> false);
+
+    private final AsyncManufacturingConfig config;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    ManufacturingExecutor(AsyncManufacturingConfig config) {
+        this.config = requireNonNull(config);
+        executor = new ThreadPoolExecutor(config.workerThreads, config.workerThreads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("response-manufacturer-%d")
+                        .setThreadFactory(runnable -> new Thread(() -> {
+                            workerThread.set(true);
+                            runnable.run();
+                        }))
+                        .build());
+    }
+
+    /**
+     * Checks whether the current thread is a worker of any instance. Workers
+     * may block while manufacturing a response; I/O threads may not.
+     * @return true if the current thread is a worker
+     */
+    public static boolean isWorkerThread() {
+        return workerThread.get();
+    }
+
+    public AsyncManufacturingConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Submits a task for execution by a worker.
+     * @param task the task
+     * @return true if the task was accepted, false if the queue is full
+     */
+    boolean submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        peakQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+        return true;
+    }
+
+    /**
+     * Creates the response that is sent when the queue is full.
+     * @param protocolVersion protocol version of the request
+     * @return a new response
+     */
+    FullHttpResponse createOverloadResponse(HttpVersion protocolVersion) {
+        FullHttpResponse response = createEmptyResponse(protocolVersion, HttpResponseStatus.valueOf(config.overloadStatus));
+        if (config.retryAfter != null) {
+            response.headers().set(HttpHeaders.RETRY_AFTER, config.retryAfter.getSeconds());
+        }
+        return response;
+    }
+
+    static FullHttpResponse createEmptyResponse(HttpVersion protocolVersion, HttpResponseStatus status) {
+        FullHttpResponse response = new DefaultFullHttpResponse(protocolVersion, status);
+        HttpUtil.setContentLength(response, 0);
+        return response;
+    }
+
+    public ManufacturingMetrics getMetrics() {
+        return new ManufacturingMetrics(executor.getQueue().size(), peakQueueDepth.get(), executor.getActiveCount(), executor.getCompletedTaskCount(), rejectedCount.get());
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.mike10004.vhs.bmp;
+
+/**
+ * Value class that reports the state of the worker pool that manufactures
+ * responses asynchronously.
+ */
+public final class ManufacturingMetrics {
+
+    private final int queueDepth;
+    private final int peakQueueDepth;
+    private final int activeCount;
+    private final long completedCount;
+    private final long rejectedCount;
+
+    /**
+     * Constructs an instance.
+     * @param queueDepth number of requests awaiting a worker
+     * @param peakQueueDepth greatest number of requests that have awaited a worker at once
+     * @param activeCount number of workers manufacturing a response
+     * @param completedCount number of responses manufactured
+     * @param rejectedCount number of requests answered with the overload status
+     */
+    public ManufacturingMetrics(int queueDepth, int peakQueueDepth, int activeCount, long completedCount, long rejectedCount) {
+        this.queueDepth = queueDepth;
+        this.peakQueueDepth = peakQueueDepth;
+        this.activeCount = activeCount;
+        this.completedCount = completedCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getPeakQueueDepth() {
+        return peakQueueDepth;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ManufacturingMetrics{" +
+                "queueDepth=" + queueDepth +
+                ", peakQueueDepth=" + peakQueueDepth +
+                ", activeCount=" + activeCount +
+                ", completedCount=" + completedCount +
+                ", rejectedCount=" + rejectedCount +
+                '}';
+    }
+}
@@ -1,8 +1,10 @@
 package io.github.mike10004.vhs.bmp;
 
 import com.google.common.net.HostAndPort;
+import com.google.common.primitives.Ints;
 import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig.TlsEndpointFactory;
 import com.browserup.bup.mitm.TrustSource;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.KeyManager;
@@ -46,6 +48,7 @@ import java.nio.charset.CharsetEncoder;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.time.Duration;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -59,30 +62,75 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 /**
  * Factory that produces a TLS endpoint that accepts TLS connections
- * as a normal web server would.
+ * as a normal web server would. Each accepted connection is served by a
+ * task submitted to an executor created by a {@link ConnectionExecutorFactory};
+ * a connection whose task is rejected is closed. A connection occupies its task
+ * while it is kept alive between requests, so a connection that is idle for longer
+ * than the idle timeout is closed to free the task for connections that are waiting.
+ * Connection counts for all endpoints produced by an instance are available from
+ * {@link #getConnectionMetrics()}.
  */
 public class NanohttpdTlsEndpointFactory implements TlsEndpointFactory {
 
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(NanohttpdTlsEndpointFactory.class);
+
+    /**
+     * Default duration for which a connection may be idle before it is closed.
+     */
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMillis(NanoHTTPD.SOCKET_READ_TIMEOUT);
+
     private SSLServerSocketFactory socketFactory;
     private TrustSource trustSource;
     @Nullable
     private Integer port;
+    private ConnectionExecutorFactory executorFactory;
+    private final Duration idleTimeout;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger peakActiveConnections = new AtomicInteger();
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
 
     public NanohttpdTlsEndpointFactory(SSLServerSocketFactory socketFactory, TrustSource trustSource, @Nullable Integer port) {
+        this(socketFactory, trustSource, port, ConnectionExecutorFactory.getDefault());
+    }
+
+    public NanohttpdTlsEndpointFactory(SSLServerSocketFactory socketFactory, TrustSource trustSource, @Nullable Integer port, ConnectionExecutorFactory executorFactory) {
+        this(socketFactory, trustSource, port, executorFactory, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public NanohttpdTlsEndpointFactory(SSLServerSocketFactory socketFactory, TrustSource trustSource, @Nullable Integer port, ConnectionExecutorFactory executorFactory, Duration idleTimeout) {
         this.socketFactory = requireNonNull(socketFactory, "socketFactory");
         this.trustSource = requireNonNull(trustSource, "trustSource");
         this.port = port;
+        this.executorFactory = requireNonNull(executorFactory, "executorFactory");
+        this.idleTimeout = requireNonNull(idleTimeout, "idleTimeout");
+        checkArgument(!idleTimeout.isNegative() && !idleTimeout.isZero(), "idle timeout must be positive");
+    }
+
+    /**
+     * Gets the connection counts of all endpoints produced by this instance.
+     * @return the metrics
+     */
+    public EndpointConnectionMetrics getConnectionMetrics() {
+        return new EndpointConnectionMetrics(activeConnections.get(), peakActiveConnections.get(), acceptedCount.get(), rejectedCount.get());
     }
 
     @Override
@@ -109,9 +157,41 @@ public class NanohttpdTlsEndpointFactory implements TlsEndpointFactory {
      * @throws GeneralSecurityException on security error
      */
     public static NanohttpdTlsEndpointFactory create(KeystoreData keystoreData, @Nullable Integer port) throws IOException, GeneralSecurityException {
+        return create(keystoreData, port, ConnectionExecutorFactory.getDefault());
+    }
+
+    /**
+     * Creates a factory that constructs an instance with SSL server socket factory
+     * and trust source generated from the same keystore data, whose endpoints serve
+     * connections with executors from the given factory.
+     * @param keystoreData the keystore data
+     * @param port the port
+     * @param executorFactory the connection executor factory
+     * @return the factory
+     * @throws IOException on I/O error
+     * @throws GeneralSecurityException on security error
+     */
+    public static NanohttpdTlsEndpointFactory create(KeystoreData keystoreData, @Nullable Integer port, ConnectionExecutorFactory executorFactory) throws IOException, GeneralSecurityException {
+        return create(keystoreData, port, executorFactory, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a factory that constructs an instance with SSL server socket factory
+     * and trust source generated from the same keystore data, whose endpoints serve
+     * connections with executors from the given factory and close connections that
+     * are idle for longer than the given timeout.
+     * @param keystoreData the keystore data
+     * @param port the port
+     * @param executorFactory the connection executor factory
+     * @param idleTimeout duration for which a connection may be idle before it is closed
+     * @return the factory
+     * @throws IOException on I/O error
+     * @throws GeneralSecurityException on security error
+     */
+    public static NanohttpdTlsEndpointFactory create(KeystoreData keystoreData, @Nullable Integer port, ConnectionExecutorFactory executorFactory, Duration idleTimeout) throws IOException, GeneralSecurityException {
         SSLServerSocketFactory sslServerSocketFactory = createSSLServerSocketFactory(keystoreData);
         TrustSource trustSource = createTrustSource(keystoreData);
-        return new NanohttpdTlsEndpointFactory(sslServerSocketFactory, trustSource, port);
+        return new NanohttpdTlsEndpointFactory(sslServerSocketFactory, trustSource, port, executorFactory, idleTimeout);
     }
 
     public static SSLServerSocketFactory createSSLServerSocketFactory(KeystoreData keystoreData) throws IOException, GeneralSecurityException {
@@ -141,9 +221,56 @@ public class NanohttpdTlsEndpointFactory implements TlsEndpointFactory {
     protected NanoHTTPD createServer(int port) {
         NanoHTTPD server = new NanoServer(port);
         server.makeSecure(socketFactory, null);
+        server.setAsyncRunner(new ExecutorAsyncRunner(executorFactory.createExecutor()));
         return server;
     }
 
+    /**
+     * Strategy that serves each connection with a task submitted to an executor.
+     * The connection counts are kept by the enclosing factory.
+     */
+    private class ExecutorAsyncRunner implements NanoHTTPD.AsyncRunner {
+
+        private final ExecutorService executor;
+        private final Set<NanoHTTPD.ClientHandler> running = ConcurrentHashMap.newKeySet();
+
+        public ExecutorAsyncRunner(ExecutorService executor) {
+            this.executor = requireNonNull(executor);
+        }
+
+        @Override
+        public void closeAll() {
+            executor.shutdownNow();
+            for (NanoHTTPD.ClientHandler clientHandler : running) {
+                clientHandler.close();
+            }
+        }
+
+        @Override
+        public void closed(NanoHTTPD.ClientHandler clientHandler) {
+            if (running.remove(clientHandler)) {
+                activeConnections.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void exec(NanoHTTPD.ClientHandler clientHandler) {
+            running.add(clientHandler);
+            peakActiveConnections.accumulateAndGet(activeConnections.incrementAndGet(), Math::max);
+            try {
+                executor.execute(clientHandler);
+            } catch (RejectedExecutionException e) {
+                if (rejectedCount.incrementAndGet() == 1) {
+                    log.warn("TLS endpoint connection rejected; further rejections are counted but not logged");
+                }
+                closed(clientHandler);
+                clientHandler.close();
+                return;
+            }
+            acceptedCount.incrementAndGet();
+        }
+    }
+
     private class NanoEndpoint implements TlsEndpoint {
 
         private NanoHTTPD server;
@@ -151,7 +278,7 @@ public class NanohttpdTlsEndpointFactory implements TlsEndpointFactory {
 
         public NanoEndpoint(int port) throws IOException {
             server = createServer(port);
-            server.start();
+            server.start(Ints.saturatedCast(idleTimeout.toMillis()));
             socketAddress = HostAndPort.fromParts("localhost", server.getListeningPort());
         }
 
@@ -0,0 +1,228 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.bup.mitm.CertificateAndKeySource;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.mike10004.vhs.VirtualHarServer;
+import io.github.mike10004.vhs.VirtualHarServerControl;
+import io.github.mike10004.vhs.bmp.ScratchDirProvider.Scratch;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.ssl.SniHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Virtual HAR server implementation built directly on Netty. Every request is answered
+ * by the response manufacturer, so unlike {@link BrowsermobVirtualHarServer}, this
+ * implementation has no forwarding machinery, captures no HAR, and terminates TLS
+ * in-process with per-host certificates signed by the configured root certificate.
+ * The {@link BrowsermobVhsConfig#tlsEndpointFactory TLS endpoint factory} of the
+ * configuration is not used. If {@link BrowsermobVhsConfig#http2 HTTP/2} is enabled,
+ * tunneled connections whose clients select it by ALPN are served HTTP/2, with each
+ * stream answered like a request on its own connection. If {@link BrowsermobVhsConfig#directOrigin
+ * direct origin mode} is configured, the server answers as an origin rather than as a
+ * proxy, optionally serving HTTPS on a second port with certificates chosen by the
+ * server name that each client indicates.
+ */
+public class NettyVirtualHarServer implements VirtualHarServer {
+
+    private static final Logger log = LoggerFactory.getLogger(NettyVirtualHarServer.class);
+
+    /**
+     * Maximum length of a request body.
+     */
+    static final int MAX_CONTENT_LENGTH = 64 * 1024 * 1024;
+
+    static final String CODEC_HANDLER_NAME = "codec";
+    static final String AGGREGATOR_HANDLER_NAME = "aggregator";
+
+    private static final long SHUTDOWN_QUIET_PERIOD_MILLIS = 0;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 2000;
+
+    private final BrowsermobVhsConfig config;
+
+    public NettyVirtualHarServer(BrowsermobVhsConfig config) {
+        this.config = requireNonNull(config);
+    }
+
+    @Override
+    public VirtualHarServerControl start() throws IOException {
+        List<Closeable> closeables = new ArrayList<>();
+        Scratch scratch = config.scratchDirProvider.createScratchDir();
+        closeables.add(scratch);
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("vhs-netty-boss-%d").build());
+        EventLoopGroup workerGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("vhs-netty-worker-%d").build());
+        @Nullable ManufacturingExecutor manufacturingExecutor = null;
+        @Nullable Channel serverChannel = null;
+        @Nullable Channel httpsServerChannel = null;
+        TlsHandshakeCounter handshakeCounter = new TlsHandshakeCounter();
+        try {
+            CertificateAndKeySource certificateAndKeySource = config.certificateAndKeySourceFactory.produce(config, scratch.getRoot());
+            boolean http2 = config.http2;
+            if (http2 && !ImpersonatingSslContextSource.isAlpnSupported()) {
+                log.warn("HTTP/2 requires ALPN, which is not supported on this platform; serving HTTP/1.1 only");
+                http2 = false;
+            }
+            ImpersonatingSslContextSource sslContextSource = ImpersonatingSslContextSource.create(certificateAndKeySource, config.leafCertificates, config.tlsSessions, http2, closeables);
+            if (config.asyncManufacturing != null) {
+                manufacturingExecutor = new ManufacturingExecutor(config.asyncManufacturing);
+                closeables.add(manufacturingExecutor);
+            }
+            BmpResponseListener responseListener = ServedResponseRecorder.appendTo(config.bmpResponseListener, config.servedResponseLog, closeables);
+            BmpResponseManufacturer.WithState<?> responseManufacturer = config.bmpResponseManufacturer.withFreshState();
+            @Nullable ManufacturingExecutor executor = manufacturingExecutor;
+            @Nullable DirectOriginConfig directOrigin = config.directOrigin;
+            ReplayRequestHandler.Role role = directOrigin == null ? ReplayRequestHandler.Role.PROXY : ReplayRequestHandler.Role.HTTP_ORIGIN;
+            ServerBootstrap bootstrap = new ServerBootstrap()
+                    .group(bossGroup, workerGroup)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline()
+                                    .addLast(CODEC_HANDLER_NAME, new HttpServerCodec())
+                                    .addLast(AGGREGATOR_HANDLER_NAME, new HttpObjectAggregator(MAX_CONTENT_LENGTH))
+                                    .addLast("handler", new ReplayRequestHandler(role, responseManufacturer, responseListener, sslContextSource, handshakeCounter, executor));
+                        }
+                    });
+            serverChannel = bind(bootstrap, config.port);
+            if (directOrigin != null && directOrigin.httpsPort != null) {
+                ServerBootstrap httpsBootstrap = new ServerBootstrap()
+                        .group(bossGroup, workerGroup)
+                        .channel(NioServerSocketChannel.class)
+                        .childHandler(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            protected void initChannel(SocketChannel ch) {
+                                ReplayRequestHandler handler = new ReplayRequestHandler(ReplayRequestHandler.Role.HTTPS_ORIGIN, responseManufacturer, responseListener, sslContextSource, handshakeCounter, executor);
+                                handshakeCounter.attach(ch.pipeline());
+                                ch.pipeline()
+                                        .addFirst(new SniHandler(hostname -> sslContextSource.getSslContext(hostname == null ? directOrigin.defaultHostname : hostname)))
+                                        .addLast(handler.createProtocolHandler())
+                                        .addLast(CODEC_HANDLER_NAME, new HttpServerCodec())
+                                        .addLast(AGGREGATOR_HANDLER_NAME, new HttpObjectAggregator(MAX_CONTENT_LENGTH))
+                                        .addLast("handler", handler);
+                            }
+                        });
+                httpsServerChannel = bind(httpsBootstrap, directOrigin.httpsPort);
+            }
+        } catch (RuntimeException | IOException e) {
+            if (serverChannel != null) {
+                serverChannel.close().syncUninterruptibly();
+            }
+            shutdown(bossGroup, workerGroup);
+            closeAll(closeables);
+            throw e;
+        }
+        log.debug("listening on {}", serverChannel.localAddress());
+        if (httpsServerChannel != null) {
+            log.debug("serving https on {}", httpsServerChannel.localAddress());
+        }
+        return new NettyVhsControl(serverChannel, httpsServerChannel, bossGroup, workerGroup, closeables, manufacturingExecutor, handshakeCounter);
+    }
+
+    private static Channel bind(ServerBootstrap bootstrap, @Nullable Integer port) throws IOException {
+        ChannelFuture bindFuture = bootstrap.bind(port == null ? 0 : port).awaitUninterruptibly();
+        if (!bindFuture.isSuccess()) {
+            throw new IOException("failed to bind to port " + port, bindFuture.cause());
+        }
+        return bindFuture.channel();
+    }
+
+    private static void shutdown(EventLoopGroup... groups) {
+        for (EventLoopGroup group : groups) {
+            group.shutdownGracefully(SHUTDOWN_QUIET_PERIOD_MILLIS, SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).syncUninterruptibly();
+        }
+    }
+
+    private static void closeAll(Iterable<? extends Closeable> closeables) {
+        for (Closeable closeable : closeables) {
+            try {
+                Closeables.close(closeable, true);
+            } catch (IOException e) {
+                log.warn("failed to close " + closeable, e);
+            }
+        }
+    }
+
+    public static class NettyVhsControl implements VirtualHarServerControl {
+
+        private final Channel serverChannel;
+        @Nullable
+        private final Channel httpsServerChannel;
+        private final EventLoopGroup bossGroup;
+        private final EventLoopGroup workerGroup;
+        private final ImmutableList<Closeable> closeables;
+        @Nullable
+        private final ManufacturingExecutor manufacturingExecutor;
+        private final TlsHandshakeCounter handshakeCounter;
+
+        private NettyVhsControl(Channel serverChannel, @Nullable Channel httpsServerChannel, EventLoopGroup bossGroup, EventLoopGroup workerGroup, Iterable<Closeable> closeables, @Nullable ManufacturingExecutor manufacturingExecutor, TlsHandshakeCounter handshakeCounter) {
+            this.serverChannel = requireNonNull(serverChannel);
+            this.httpsServerChannel = httpsServerChannel;
+            this.bossGroup = requireNonNull(bossGroup);
+            this.workerGroup = requireNonNull(workerGroup);
+            this.closeables = ImmutableList.copyOf(closeables);
+            this.manufacturingExecutor = manufacturingExecutor;
+            this.handshakeCounter = requireNonNull(handshakeCounter);
+        }
+
+        @Override
+        public HostAndPort getSocketAddress() {
+            return HostAndPort.fromParts("localhost", ((InetSocketAddress) serverChannel.localAddress()).getPort());
+        }
+
+        @Override
+        public Optional<HostAndPort> getHttpsSocketAddress() {
+            return Optional.ofNullable(httpsServerChannel)
+                    .map(channel -> HostAndPort.fromParts("localhost", ((InetSocketAddress) channel.localAddress()).getPort()));
+        }
+
+        /**
+         * Gets the metrics of the worker pool that manufactures responses.
+         * @return the metrics, or empty if responses are manufactured synchronously
+         */
+        public Optional<ManufacturingMetrics> getManufacturingMetrics() {
+            return Optional.ofNullable(manufacturingExecutor).map(ManufacturingExecutor::getMetrics);
+        }
+
+        /**
+         * Gets the counts of TLS handshakes on client connections, tunneled or, in direct origin mode, served on the HTTPS port.
+         * @return the metrics
+         */
+        public TlsHandshakeMetrics getTlsHandshakeMetrics() {
+            return handshakeCounter.getMetrics();
+        }
+
+        @Override
+        public void close() {
+            serverChannel.close().syncUninterruptibly();
+            if (httpsServerChannel != null) {
+                httpsServerChannel.close().syncUninterruptibly();
+            }
+            shutdown(bossGroup, workerGroup);
+            closeAll(closeables);
+        }
+    }
+}
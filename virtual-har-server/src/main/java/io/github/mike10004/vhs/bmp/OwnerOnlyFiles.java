@@ -0,0 +1,32 @@
+package io.github.mike10004.vhs.bmp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Static utility methods that protect files holding private keys.
+ */
+class OwnerOnlyFiles {
+
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIR = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private OwnerOnlyFiles() {}
+
+    /**
+     * Makes a file or directory accessible only to its owner. On file systems
+     * that do not support POSIX permissions, this method does nothing.
+     * @param path the file or directory
+     * @throws IOException on I/O error
+     */
+    public static void restrictToOwner(Path path) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, Files.isDirectory(path) ? OWNER_ONLY_DIR : OWNER_ONLY_FILE);
+        } catch (UnsupportedOperationException ignore) {
+        }
+    }
+}
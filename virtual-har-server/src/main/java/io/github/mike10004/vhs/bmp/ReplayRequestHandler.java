@@ -0,0 +1,404 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.net.HostAndPort;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLSession;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Channel handler that answers the requests on a client connection of a
+ * {@link NettyVirtualHarServer}. A {@code CONNECT} request is answered by the
+ * handler itself, after which the connection is terminated with a certificate
+ * that impersonates the requested host, and the requests tunneled through it
+ * are answered like other requests. Requests on a connection are answered in
+ * the order in which they were received. If the client selects HTTP/2 by ALPN,
+ * the connection is switched to HTTP/2, and each stream is answered by its own
+ * instance of this handler, so streams are answered independently. In direct
+ * origin mode, {@code CONNECT} requests are refused and each request is routed
+ * by its {@code Host} header, as by an origin server.
+ */
+class ReplayRequestHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayRequestHandler.class);
+
+    static final String SSL_HANDLER_NAME = "ssl";
+    static final String HTTP2_HANDLER_NAME = "http2";
+
+    static final HttpResponseStatus CONNECTION_ESTABLISHED = new HttpResponseStatus(200, "Connection established");
+    private static final int DEFAULT_HTTPS_PORT = 443;
+    private static final int DEFAULT_HTTP_PORT = 80;
+
+    /**
+     * Enumeration of the roles in which the handler answers requests.
+     */
+    enum Role {
+
+        /**
+         * Proxy that answers requests carrying absolute URLs and tunnels {@code CONNECT} requests.
+         */
+        PROXY,
+
+        /**
+         * Origin server that answers plain HTTP requests.
+         */
+        HTTP_ORIGIN,
+
+        /**
+         * Origin server that answers requests on connections it terminates with TLS.
+         */
+        HTTPS_ORIGIN
+    }
+
+    private final Role role;
+    private final BmpResponseManufacturer.WithState<?> responseManufacturer;
+    private final BmpResponseListener responseListener;
+    private final ImpersonatingSslContextSource sslContextSource;
+    private final TlsHandshakeCounter handshakeCounter;
+    @Nullable
+    private final ManufacturingExecutor executor;
+    private final Deque<FullHttpRequest> pending;
+    private boolean busy;
+
+    /**
+     * Destination of the tunnel established by a {@code CONNECT} request, or null
+     * if no tunnel has been established on this connection.
+     */
+    @Nullable
+    private HostAndPort tunnelDestination;
+
+    public ReplayRequestHandler(Role role, BmpResponseManufacturer.WithState<?> responseManufacturer, BmpResponseListener responseListener,
+                                ImpersonatingSslContextSource sslContextSource, TlsHandshakeCounter handshakeCounter,
+                                @Nullable ManufacturingExecutor executor) {
+        this.role = requireNonNull(role);
+        this.responseManufacturer = requireNonNull(responseManufacturer);
+        this.responseListener = requireNonNull(responseListener);
+        this.sslContextSource = requireNonNull(sslContextSource);
+        this.handshakeCounter = requireNonNull(handshakeCounter);
+        this.executor = executor;
+        pending = new ArrayDeque<>();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof FullHttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (busy) {
+            pending.add((FullHttpRequest) msg);
+            return;
+        }
+        try {
+            handle(ctx, (FullHttpRequest) msg);
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, FullHttpRequest request) {
+        HttpVersion protocolVersion = request.protocolVersion();
+        if (!request.decoderResult().isSuccess()) {
+            respond(ctx, ManufacturingExecutor.createEmptyResponse(protocolVersion, HttpResponseStatus.BAD_REQUEST), false);
+            return;
+        }
+        if (HttpMethod.CONNECT.equals(request.method())) {
+            if (role != Role.PROXY) {
+                respond(ctx, ManufacturingExecutor.createEmptyResponse(protocolVersion, HttpResponseStatus.METHOD_NOT_ALLOWED), false);
+                return;
+            }
+            establishTunnel(ctx, request);
+            return;
+        }
+        RequestCapture capture = capture(ctx, request);
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        if (executor == null) {
+            respond(ctx, manufacture(capture, protocolVersion), keepAlive);
+            return;
+        }
+        busy = true;
+        ctx.channel().config().setAutoRead(false);
+        boolean accepted = executor.submit(() -> {
+            HttpResponse response = manufacture(capture, protocolVersion);
+            try {
+                ctx.executor().execute(() -> respond(ctx, response, keepAlive));
+            } catch (RejectedExecutionException e) {
+                log.debug("response to {} {} not written because event loop is shut down", capture.request.method, capture.request.url);
+                ReferenceCountUtil.release(response);
+            }
+        });
+        if (!accepted) {
+            log.debug("overloaded; rejecting {} {}", capture.request.method, capture.request.url);
+            respond(ctx, executor.createOverloadResponse(protocolVersion), keepAlive);
+        }
+    }
+
+    /**
+     * Answers a CONNECT request and terminates TLS on the connection. The SSL handler
+     * is installed before the response is written, in start-TLS mode so that the response
+     * itself is sent in the clear, because the client may send its handshake as soon as
+     * it reads the response.
+     */
+    private void establishTunnel(ChannelHandlerContext ctx, FullHttpRequest request) {
+        HostAndPort destination = HostAndPort.fromString(request.uri()).withDefaultPort(DEFAULT_HTTPS_PORT);
+        SslContext sslContext;
+        try {
+            sslContext = sslContextSource.getSslContext(destination.getHost());
+        } catch (RuntimeException e) {
+            log.error("failed to create certificate for " + destination.getHost(), e);
+            respond(ctx, ManufacturingExecutor.createEmptyResponse(request.protocolVersion(), HttpResponseStatus.BAD_GATEWAY), false);
+            return;
+        }
+        handshakeCounter.attach(ctx.pipeline());
+        ctx.pipeline().addFirst(SSL_HANDLER_NAME, new SslHandler(sslContext.newEngine(ctx.alloc()), true))
+                .addAfter(SSL_HANDLER_NAME, null, new NegotiatedProtocolHandler(destination));
+        tunnelDestination = destination;
+        ctx.writeAndFlush(new DefaultFullHttpResponse(request.protocolVersion(), CONNECTION_ESTABLISHED));
+    }
+
+    /**
+     * Creates a handler that switches a connection terminated with TLS to HTTP/2 if
+     * the client selects it. The handler must follow the SSL handler in the pipeline.
+     */
+    ChannelHandler createProtocolHandler() {
+        return new NegotiatedProtocolHandler(null);
+    }
+
+    private RequestCapture capture(ChannelHandlerContext ctx, FullHttpRequest request) {
+        RequestAccumulator accumulator = new RequestAccumulator(request.protocolVersion());
+        accumulator.setMethod(request.method().name());
+        accumulator.setUrl(reconstructUrl(ctx, request));
+        for (Map.Entry<String, String> header : request.headers()) {
+            if (!isExtensionHeader(header.getKey())) {
+                accumulator.addHeader(header.getKey(), header.getValue());
+            }
+        }
+        for (Map.Entry<String, String> header : request.trailingHeaders()) {
+            accumulator.addHeader(header.getKey(), header.getValue());
+        }
+        ByteBuf content = request.content();
+        byte[] body = new byte[content.readableBytes()];
+        content.getBytes(content.readerIndex(), body);
+        accumulator.setBody(body);
+        return accumulator.freeze();
+    }
+
+    /**
+     * Determines whether a header was added in the conversion of an HTTP/2 stream
+     * and so was not sent by the client.
+     */
+    private static boolean isExtensionHeader(String name) {
+        for (ExtensionHeaderNames extensionHeaderName : ExtensionHeaderNames.values()) {
+            if (extensionHeaderName.text().contentEqualsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reconstructs the absolute URL of a request. A request sent to a proxy carries the
+     * absolute URL, but a request tunneled through a {@code CONNECT} or sent to an origin
+     * carries only the path and query, so the authority is taken from the {@code Host}
+     * header. The port in the header of a request sent to an origin is that of this
+     * server, so it is dropped.
+     */
+    private String reconstructUrl(ChannelHandlerContext ctx, FullHttpRequest request) {
+        String uri = request.uri();
+        if (role == Role.PROXY && tunnelDestination == null && (uri.startsWith("http://") || uri.startsWith("https://"))) {
+            return uri;
+        }
+        boolean secure = tunnelDestination != null || role == Role.HTTPS_ORIGIN;
+        String scheme = secure ? "https" : "http";
+        int defaultPort = secure ? DEFAULT_HTTPS_PORT : DEFAULT_HTTP_PORT;
+        @Nullable String hostHeader = request.headers().get(HttpHeaderNames.HOST);
+        @Nullable String serverName;
+        HostAndPort authority;
+        if (hostHeader != null) {
+            authority = HostAndPort.fromString(hostHeader);
+        } else if (tunnelDestination != null) {
+            authority = tunnelDestination;
+        } else if (role == Role.HTTPS_ORIGIN && (serverName = getRequestedServerName(ctx)) != null) {
+            authority = HostAndPort.fromHost(serverName);
+        } else {
+            authority = HostAndPort.fromHost("localhost");
+        }
+        if (authority.hasPort() && (role != Role.PROXY || authority.getPort() == defaultPort)) {
+            authority = HostAndPort.fromHost(authority.getHost());
+        }
+        return scheme + "://" + authority + uri;
+    }
+
+    /**
+     * Gets the server name that the client indicated in the handshake of the
+     * connection, or of the parent connection of an HTTP/2 stream.
+     */
+    @Nullable
+    private static String getRequestedServerName(ChannelHandlerContext ctx) {
+        @Nullable SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+        if (sslHandler == null && ctx.channel().parent() != null) {
+            sslHandler = ctx.channel().parent().pipeline().get(SslHandler.class);
+        }
+        if (sslHandler == null) {
+            return null;
+        }
+        SSLSession session = sslHandler.engine().getSession();
+        if (session instanceof ExtendedSSLSession) {
+            for (SNIServerName serverName : ((ExtendedSSLSession) session).getRequestedServerNames()) {
+                if (serverName instanceof SNIHostName) {
+                    return ((SNIHostName) serverName).getAsciiName();
+                }
+            }
+        }
+        return null;
+    }
+
+    private HttpResponse manufacture(RequestCapture capture, HttpVersion protocolVersion) {
+        try {
+            ResponseCapture responseCapture = responseManufacturer.invoke(capture);
+            responseListener.responding(capture, responseCapture);
+            return responseCapture.response;
+        } catch (RuntimeException e) {
+            log.error("failed to manufacture response to " + capture.request.method + " " + capture.request.url, e);
+            return ManufacturingExecutor.createEmptyResponse(protocolVersion, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private void respond(ChannelHandlerContext ctx, HttpResponse response, boolean keepAlive) {
+        if (!ctx.channel().isActive()) {
+            ReferenceCountUtil.release(response);
+            return;
+        }
+        HttpUtil.setKeepAlive(response, keepAlive);
+        ChannelFuture written = ctx.writeAndFlush(response);
+        if (!(response instanceof LastHttpContent)) {
+            written = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        if (!keepAlive) {
+            written.addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        if (busy) {
+            busy = false;
+            while (!busy && !pending.isEmpty()) {
+                FullHttpRequest request = pending.remove();
+                try {
+                    handle(ctx, request);
+                } finally {
+                    request.release();
+                }
+            }
+            if (!busy) {
+                ctx.channel().config().setAutoRead(true);
+            }
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.debug("closing {} due to {}", ctx.channel(), cause.toString());
+        ctx.close();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releasePending();
+    }
+
+    private void releasePending() {
+        while (!pending.isEmpty()) {
+            pending.remove().release();
+        }
+    }
+
+    /**
+     * Handler that switches a connection terminated with TLS to HTTP/2 if the client
+     * selects it. The HTTP/1.1 handlers are replaced by an HTTP/2 codec whose streams
+     * are converted to HTTP/1.1 messages for a handler per stream.
+     */
+    private class NegotiatedProtocolHandler extends ApplicationProtocolNegotiationHandler {
+
+        /**
+         * Destination of the tunnel, or null if the connection was not tunneled.
+         */
+        @Nullable
+        private final HostAndPort destination;
+
+        public NegotiatedProtocolHandler(@Nullable HostAndPort destination) {
+            super(ApplicationProtocolNames.HTTP_1_1);
+            this.destination = destination;
+        }
+
+        @Override
+        protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+            if (!ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                return;
+            }
+            ChannelPipeline pipeline = ctx.pipeline();
+            pipeline.remove(NettyVirtualHarServer.AGGREGATOR_HANDLER_NAME);
+            pipeline.remove(ReplayRequestHandler.this);
+            pipeline.replace(NettyVirtualHarServer.CODEC_HANDLER_NAME, HTTP2_HANDLER_NAME, Http2FrameCodecBuilder.forServer().build());
+            pipeline.addAfter(HTTP2_HANDLER_NAME, null, new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+                @Override
+                protected void initChannel(Http2StreamChannel ch) {
+                    ReplayRequestHandler streamHandler = new ReplayRequestHandler(role, responseManufacturer, responseListener, sslContextSource, handshakeCounter, executor);
+                    streamHandler.tunnelDestination = destination;
+                    ch.pipeline()
+                            .addLast(new Http2StreamFrameToHttpObjectCodec(true))
+                            .addLast(new HttpObjectAggregator(NettyVirtualHarServer.MAX_CONTENT_LENGTH))
+                            .addLast(streamHandler);
+                }
+            }));
+        }
+
+        @Override
+        protected void handshakeFailure(ChannelHandlerContext ctx, Throwable cause) {
+            log.debug("closing {} due to failed handshake: {}", ctx.channel(), cause.toString());
+            ctx.close();
+        }
+    }
+}
@@ -21,13 +21,13 @@ class ResponseManufacturingFiltersSource extends HttpFiltersSourceAdapter {
     private static final Logger log = LoggerFactory.getLogger(ResponseManufacturingFiltersSource.class);
 
     private final BmpResponseManufacturer.WithState<?> responseManufacturer;
-    private final HostRewriter hostRewriter;
+    private final ConnectFilterFactory connectFilterFactory;
     private final BmpResponseListener bmpResponseListener;
     private final PassthruPredicate passthruPredicate;
 
-    public ResponseManufacturingFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, HostRewriter hostRewriter, BmpResponseListener bmpResponseListener, PassthruPredicate passthruPredicate) {
+    public ResponseManufacturingFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, ConnectFilterFactory connectFilterFactory, BmpResponseListener bmpResponseListener, PassthruPredicate passthruPredicate) {
         this.responseManufacturer = requireNonNull(responseManufacturer);
-        this.hostRewriter = requireNonNull(hostRewriter);
+        this.connectFilterFactory = requireNonNull(connectFilterFactory);
         this.bmpResponseListener = requireNonNull(bmpResponseListener);
         this.passthruPredicate = requireNonNull(passthruPredicate);
     }
@@ -52,14 +52,25 @@ class ResponseManufacturingFiltersSource extends HttpFiltersSourceAdapter {
             return null;
         }
         if (ProxyUtils.isCONNECT(originalRequest)) {
-            return createHostRewriteFilter(originalRequest, ctx, hostRewriter);
+            return connectFilterFactory.createConnectFilter(originalRequest, ctx);
         } else {
             return createResponseManufacturingFilter(originalRequest, ctx, responseManufacturer, bmpResponseListener);
         }
     }
 
-    /* package */ HostRewriteFilter createHostRewriteFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, HostRewriter hostRewriter) {
-        return new HostRewriteFilter(originalRequest, ctx, hostRewriter);
+    /**
+     * Creates a filter with which to capture a request that is answered asynchronously.
+     * @param request the request
+     * @param ctx channel handler context
+     * @return the filter, or null if the request is to be passed through to the proxy
+     * @see AsyncManufacturingHandler
+     */
+    @Nullable
+    /* package */ ResponseManufacturingFilter createAsyncFilter(HttpRequest request, ChannelHandlerContext ctx) {
+        if (ProxyUtils.isCONNECT(request) || passthruPredicate.isForwardable(request, ctx)) {
+            return null;
+        }
+        return createResponseManufacturingFilter(request, ctx, responseManufacturer, bmpResponseListener);
     }
 
     /* package */ ResponseManufacturingFilter createResponseManufacturingFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, BmpResponseManufacturer.WithState<?> responseManufacturer, BmpResponseListener bmpResponseListener) {
@@ -0,0 +1,71 @@
+package io.github.mike10004.vhs.bmp;
+
+import java.io.File;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration of the log of responses served by a virtual HAR server. Each
+ * response is appended to the log file as it is served, as one line of JSON
+ * that contains the request and the response status and headers. Bodies are
+ * not recorded. When the file reaches its maximum size, further responses
+ * are counted but not recorded.
+ */
+public class ServedResponseLogConfig {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Log file. An existing file is overwritten.
+     */
+    public final File file;
+
+    /**
+     * Maximum size of the log file in bytes.
+     */
+    public final long maxBytes;
+
+    private ServedResponseLogConfig(Builder builder) {
+        file = builder.file;
+        maxBytes = builder.maxBytes;
+    }
+
+    public static ServedResponseLogConfig toFile(File file) {
+        return builder(file).build();
+    }
+
+    public static Builder builder(File file) {
+        return new Builder(file);
+    }
+
+    @Override
+    public String toString() {
+        return "ServedResponseLogConfig{" +
+                "file=" + file +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+
+    @SuppressWarnings({"unused", "UnusedReturnValue"})
+    public static final class Builder {
+
+        private final File file;
+        private long maxBytes;
+
+        private Builder(File file) {
+            this.file = requireNonNull(file);
+            maxBytes = DEFAULT_MAX_BYTES;
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            checkArgument(maxBytes > 0, "maximum size must be positive");
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public ServedResponseLogConfig build() {
+            return new ServedResponseLogConfig(this);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.handler.codec.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Response listener that appends a line of JSON to a file for each response served.
+ * Each line has the shape of a HAR entry without bodies, timings, or cache data.
+ * Entries are written as they are served, so the memory used does not grow with
+ * the length of a session, and the file does not grow beyond its configured size.
+ * @see ServedResponseLogConfig
+ */
+final class ServedResponseRecorder implements BmpResponseListener, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ServedResponseRecorder.class);
+
+    private static final byte[] LINE_SEPARATOR = {'\n'};
+
+    private final ServedResponseLogConfig config;
+    private final JsonFactory jsonFactory;
+    private final OutputStream out;
+    private long bytesWritten;
+    private long recordedCount;
+    private long droppedCount;
+    private boolean stopped;
+
+    private ServedResponseRecorder(ServedResponseLogConfig config, JsonFactory jsonFactory, OutputStream out) {
+        this.config = requireNonNull(config);
+        this.jsonFactory = requireNonNull(jsonFactory);
+        this.out = requireNonNull(out);
+    }
+
+    /**
+     * Opens a recorder, creating or truncating the log file.
+     * @param config the log configuration
+     * @return a new recorder
+     * @throws IOException if the file cannot be opened
+     */
+    public static ServedResponseRecorder open(ServedResponseLogConfig config) throws IOException {
+        return new ServedResponseRecorder(config, new JsonFactory(), new BufferedOutputStream(new FileOutputStream(config.file)));
+    }
+
+    /**
+     * Appends a recorder to a listener if a log is configured. The recorder is
+     * added to a list of closeables to be closed when the server stops.
+     * @param listener the listener
+     * @param config the log configuration, or null if no log is configured
+     * @param closeables list of closeables to which the recorder is added
+     * @return a listener that notifies the given listener and then the recorder,
+     * or the given listener if no log is configured
+     * @throws IOException if the file cannot be opened
+     */
+    static BmpResponseListener appendTo(BmpResponseListener listener, @Nullable ServedResponseLogConfig config, List<Closeable> closeables) throws IOException {
+        if (config == null) {
+            return listener;
+        }
+        ServedResponseRecorder recorder = open(config);
+        closeables.add(recorder);
+        return listener.andThen(recorder);
+    }
+
+    @Override
+    public void responding(RequestCapture requestCapture, ResponseCapture responseCapture) {
+        byte[] line;
+        try {
+            line = serialize(requestCapture, responseCapture);
+        } catch (IOException | RuntimeException e) {
+            log.warn("failed to serialize entry for " + requestCapture.request.url, e);
+            return;
+        }
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            if (bytesWritten + line.length + LINE_SEPARATOR.length > config.maxBytes) {
+                if (droppedCount++ == 0) {
+                    log.warn("{} reached maximum size of {} bytes; further responses will not be recorded", config.file, config.maxBytes);
+                }
+                return;
+            }
+            try {
+                out.write(line);
+                out.write(LINE_SEPARATOR);
+                out.flush();
+            } catch (IOException e) {
+                log.error("failed to write to " + config.file + "; further responses will not be recorded", e);
+                stopped = true;
+                return;
+            }
+            bytesWritten += line.length + LINE_SEPARATOR.length;
+            recordedCount++;
+        }
+    }
+
+    private byte[] serialize(RequestCapture requestCapture, ResponseCapture responseCapture) throws IOException {
+        HttpResponse response = responseCapture.response;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        try (JsonGenerator gen = jsonFactory.createGenerator(buffer, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeStringField("startedDateTime", Instant.now().toString());
+            gen.writeObjectFieldStart("request");
+            gen.writeStringField("method", requestCapture.request.method.name());
+            gen.writeStringField("url", requestCapture.request.url.toString());
+            gen.writeStringField("httpVersion", requestCapture.httpVersion.text());
+            gen.writeArrayFieldStart("headers");
+            for (Map.Entry<String, String> header : requestCapture.request.indexedHeaders.entries()) {
+                writeHeader(gen, header);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeObjectFieldStart("response");
+            gen.writeNumberField("status", response.status().code());
+            gen.writeStringField("statusText", response.status().reasonPhrase());
+            gen.writeStringField("httpVersion", response.protocolVersion().text());
+            gen.writeArrayFieldStart("headers");
+            for (Map.Entry<String, String> header : response.headers()) {
+                writeHeader(gen, header);
+            }
+            gen.writeEndArray();
+            gen.writeNumberField("bodySize", response instanceof ByteBufHolder ? ((ByteBufHolder) response).content().readableBytes() : -1);
+            gen.writeEndObject();
+            gen.writeStringField("_origin", responseCapture.origin.name());
+            gen.writeEndObject();
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void writeHeader(JsonGenerator gen, Map.Entry<String, String> header) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("name", header.getKey());
+        gen.writeStringField("value", header.getValue());
+        gen.writeEndObject();
+    }
+
+    public synchronized long getRecordedCount() {
+        return recordedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (droppedCount > 0) {
+            log.info("{} responses recorded in {}; {} not recorded because the file reached its maximum size", recordedCount, config.file, droppedCount);
+        }
+        stopped = true;
+        out.close();
+    }
+}
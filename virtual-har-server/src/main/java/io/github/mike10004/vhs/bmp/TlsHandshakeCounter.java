@@ -0,0 +1,68 @@
+package io.github.mike10004.vhs.bmp;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLSession;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter of the TLS handshakes on client connections. A handler is attached to the
+ * pipeline of a connection when the client requests a tunnel, before the TLS handler
+ * is added to the head of the pipeline, so the handler receives the event that
+ * completes the handshake. A handshake is counted as resumed if its session was
+ * created before the tunnel was requested, which is to say in an earlier handshake.
+ */
+final class TlsHandshakeCounter {
+
+    private final AtomicLong fullCount = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Attaches a handler that counts the handshake on a connection.
+     * @param pipeline the pipeline of the client connection
+     */
+    public void attach(ChannelPipeline pipeline) {
+        pipeline.addFirst(new HandshakeObserver(System.currentTimeMillis()));
+    }
+
+    public TlsHandshakeMetrics getMetrics() {
+        return new TlsHandshakeMetrics(fullCount.get(), resumedCount.get(), failedCount.get());
+    }
+
+    private void record(SslHandshakeCompletionEvent event, @Nullable SslHandler sslHandler, long attachedAt) {
+        if (!event.isSuccess() || sslHandler == null) {
+            failedCount.incrementAndGet();
+            return;
+        }
+        SSLSession session = sslHandler.engine().getSession();
+        if (session.getCreationTime() < attachedAt) {
+            resumedCount.incrementAndGet();
+        } else {
+            fullCount.incrementAndGet();
+        }
+    }
+
+    private class HandshakeObserver extends ChannelInboundHandlerAdapter {
+
+        private final long attachedAt;
+
+        public HandshakeObserver(long attachedAt) {
+            this.attachedAt = attachedAt;
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof SslHandshakeCompletionEvent) {
+                record((SslHandshakeCompletionEvent) evt, ctx.pipeline().get(SslHandler.class), attachedAt);
+                ctx.pipeline().remove(this);
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.mike10004.vhs.bmp;
+
+/**
+ * Value class that reports the TLS handshakes on connections from clients.
+ */
+public final class TlsHandshakeMetrics {
+
+    private final long fullCount;
+    private final long resumedCount;
+    private final long failedCount;
+
+    /**
+     * Constructs an instance.
+     * @param fullCount number of handshakes that established a new session
+     * @param resumedCount number of handshakes that resumed a cached session
+     * @param failedCount number of handshakes that failed
+     */
+    public TlsHandshakeMetrics(long fullCount, long resumedCount, long failedCount) {
+        this.fullCount = fullCount;
+        this.resumedCount = resumedCount;
+        this.failedCount = failedCount;
+    }
+
+    public long getFullCount() {
+        return fullCount;
+    }
+
+    public long getResumedCount() {
+        return resumedCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "TlsHandshakeMetrics{" +
+                "fullCount=" + fullCount +
+                ", resumedCount=" + resumedCount +
+                ", failedCount=" + failedCount +
+                '}';
+    }
+}
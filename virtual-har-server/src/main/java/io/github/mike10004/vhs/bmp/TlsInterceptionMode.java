@@ -0,0 +1,25 @@
+package io.github.mike10004.vhs.bmp;
+
+/**
+ * Enumeration of ways in which a {@link BrowsermobVirtualHarServer} intercepts
+ * TLS connections from clients.
+ */
+public enum TlsInterceptionMode {
+
+    /**
+     * Forward each tunnel to the {@link BrowsermobVhsConfig#tlsEndpointFactory TLS endpoint},
+     * so that the proxy's man-in-the-middle machinery performs a handshake with the
+     * endpoint before it performs a handshake with the client. Each client connection
+     * therefore costs two handshakes and a connection to the endpoint.
+     */
+    UPSTREAM_ENDPOINT,
+
+    /**
+     * Answer each {@code CONNECT} request in the proxy and terminate TLS on the client
+     * connection with a certificate that impersonates the requested host. No upstream
+     * connection is made and no TLS endpoint is started. Requests sent through such a
+     * tunnel cannot be passed through to the remote host, but a {@code CONNECT} request
+     * that is passed through is handled by the proxy as usual.
+     */
+    LOCAL
+}
@@ -0,0 +1,90 @@
+package io.github.mike10004.vhs.bmp;
+
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration of the TLS session cache of the contexts that impersonate hosts.
+ * A client that reconnects to a host within the session timeout resumes its earlier
+ * session with an abbreviated handshake, which skips the certificate exchange and
+ * the key agreement. Each impersonated host has its own context, so the cache size
+ * and timeout apply per host.
+ *
+ * <p>The configuration applies to the contexts created by the proxy itself, which is
+ * to say in {@link TlsInterceptionMode#LOCAL LOCAL} mode and in the Netty engine.
+ * BrowserUp's {@code ImpersonatingMitmManager} builds its contexts privately, so in
+ * {@link TlsInterceptionMode#UPSTREAM_ENDPOINT UPSTREAM_ENDPOINT} mode sessions are
+ * cached with the provider defaults.
+ *
+ * <p>Whether session tickets are issued is up to the JDK provider, which has no
+ * per-context setting. In JDK 13 and later, tickets for TLS 1.2 sessions are
+ * controlled by the {@code jdk.tls.server.enableSessionTicketExtension} system
+ * property; otherwise sessions are resumed by session ID from the cache.
+ */
+public class TlsSessionConfig {
+
+    /**
+     * Maximum number of sessions cached per context. Zero means the provider default.
+     */
+    public final long sessionCacheSize;
+
+    /**
+     * Length of time a cached session may be resumed. Zero means the provider default.
+     */
+    public final Duration sessionTimeout;
+
+    private TlsSessionConfig(Builder builder) {
+        sessionCacheSize = builder.sessionCacheSize;
+        sessionTimeout = builder.sessionTimeout;
+    }
+
+    /**
+     * Gets a configuration that uses the provider defaults. The JDK provider caches
+     * up to 20480 sessions per context for 24 hours.
+     * @return the default configuration
+     */
+    public static TlsSessionConfig getDefault() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "TlsSessionConfig{" +
+                "sessionCacheSize=" + sessionCacheSize +
+                ", sessionTimeout=" + sessionTimeout +
+                '}';
+    }
+
+    @SuppressWarnings({"unused", "UnusedReturnValue"})
+    public static final class Builder {
+
+        private long sessionCacheSize;
+        private Duration sessionTimeout = Duration.ZERO;
+
+        private Builder() {
+        }
+
+        public Builder sessionCacheSize(long sessionCacheSize) {
+            checkArgument(sessionCacheSize >= 0, "cache size must be nonnegative");
+            this.sessionCacheSize = sessionCacheSize;
+            return this;
+        }
+
+        public Builder sessionTimeout(Duration sessionTimeout) {
+            requireNonNull(sessionTimeout);
+            checkArgument(!sessionTimeout.isNegative(), "timeout must be nonnegative");
+            this.sessionTimeout = sessionTimeout;
+            return this;
+        }
+
+        public TlsSessionConfig build() {
+            return new TlsSessionConfig(this);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.bup.filters.HttpsAwareFiltersAdapter;
+import com.google.common.net.HostAndPort;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AttributeKey;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Filter that answers a {@code CONNECT} request and terminates TLS on the client
+ * connection. A TLS handler with a certificate that impersonates the requested host
+ * is inserted at the head of the client channel pipeline, so requests tunneled through
+ * the connection reach the proxy decrypted, where they are answered by the response
+ * manufacturing filters like any other request. The handler is created in
+ * start-TLS mode, so the response to the {@code CONNECT} request is sent in the clear.
+ *
+ * <p>The channel attributes that mark a connection as HTTPS are set here, because the
+ * proxy's own filter that would set them is not invoked for a request that is answered
+ * by an earlier filter.
+ * @see TlsInterceptionMode#LOCAL
+ */
+class TlsTerminatingConnectFilter extends HttpFiltersAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(TlsTerminatingConnectFilter.class);
+
+    static final String SSL_HANDLER_NAME = "vhs-ssl";
+
+    private static final int DEFAULT_HTTPS_PORT = 443;
+
+    private final ImpersonatingSslContextSource sslContextSource;
+
+    public TlsTerminatingConnectFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, ImpersonatingSslContextSource sslContextSource) {
+        super(originalRequest, ctx);
+        this.sslContextSource = requireNonNull(sslContextSource);
+    }
+
+    @Override
+    public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+        if (!(httpObject instanceof HttpRequest)) {
+            return null;
+        }
+        HttpRequest request = (HttpRequest) httpObject;
+        HostAndPort destination = HostAndPort.fromString(request.uri()).withDefaultPort(DEFAULT_HTTPS_PORT);
+        SslContext sslContext;
+        try {
+            sslContext = sslContextSource.getSslContext(destination.getHost());
+        } catch (RuntimeException e) {
+            log.error("failed to create certificate for " + destination.getHost(), e);
+            return ManufacturingExecutor.createEmptyResponse(request.protocolVersion(), HttpResponseStatus.BAD_GATEWAY);
+        }
+        Channel channel = ctx.channel();
+        channel.attr(AttributeKey.<Boolean>valueOf(HttpsAwareFiltersAdapter.IS_HTTPS_ATTRIBUTE_NAME)).set(Boolean.TRUE);
+        channel.attr(AttributeKey.<String>valueOf(HttpsAwareFiltersAdapter.ORIGINAL_HOST_ATTRIBUTE_NAME)).set(request.uri());
+        channel.attr(AttributeKey.<String>valueOf(HttpsAwareFiltersAdapter.HOST_ATTRIBUTE_NAME)).set((destination.getPort() == DEFAULT_HTTPS_PORT ? HostAndPort.fromHost(destination.getHost()) : destination).toString());
+        ctx.pipeline().addFirst(SSL_HANDLER_NAME, new SslHandler(sslContext.newEngine(ctx.alloc()), true));
+        return new DefaultFullHttpResponse(request.protocolVersion(), ReplayRequestHandler.CONNECTION_ESTABLISHED);
+    }
+}
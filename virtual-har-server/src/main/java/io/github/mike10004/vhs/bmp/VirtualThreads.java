@@ -0,0 +1,45 @@
+package io.github.mike10004.vhs.bmp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Probe for the virtual thread executor. The project is compiled for Java 8,
+ * so the executor is found by reflection.
+ */
+final class VirtualThreads {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+    static final Optional<ConnectionExecutorFactory> FACTORY = probe();
+
+    private VirtualThreads() {}
+
+    private static Optional<ConnectionExecutorFactory> probe() {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return Optional.empty();
+        }
+        ConnectionExecutorFactory factory = () -> {
+            try {
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("failed to create virtual thread executor", e);
+            }
+        };
+        try {
+            factory.createExecutor().shutdown();
+        } catch (RuntimeException e) {
+            log.debug("virtual threads not available", e);
+            return Optional.empty();
+        }
+        return Optional.of(factory);
+    }
+}
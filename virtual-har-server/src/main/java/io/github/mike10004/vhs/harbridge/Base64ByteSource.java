@@ -3,10 +3,13 @@ package io.github.mike10004.vhs.harbridge;
 import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
+import com.google.common.primitives.Ints;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.CharBuffer;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 @SuppressWarnings("Guava")
@@ -42,6 +45,30 @@ class Base64ByteSource extends ByteSource {
         return decodingSource.openStream();
     }
 
+    /**
+     * Returns a view of a slice of the decoded data. Each group of four base-64
+     * characters decodes to three bytes, so the slice decodes only the groups
+     * that overlap the requested range instead of decoding and skipping the
+     * data that precedes it.
+     * @param offset offset in decoded data
+     * @param length maximum length of slice
+     * @return a byte source
+     */
+    @Override
+    public ByteSource slice(long offset, long length) {
+        checkArgument(offset >= 0, "offset must be nonnegative: %s", offset);
+        checkArgument(length >= 0, "length must be nonnegative: %s", length);
+        if (offset >= decodedLength || length == 0) {
+            return ByteSource.empty();
+        }
+        long end = Math.min(decodedLength, offset + Math.min(length, decodedLength));
+        long firstGroup = offset / 3, lastGroupExclusive = (end + 2) / 3;
+        int charStart = Ints.checkedCast(firstGroup * 4);
+        int charEnd = Ints.checkedCast(Math.min(base64Data.length(), lastGroupExclusive * 4));
+        ByteSource groupsSource = BaseEncoding.base64().decodingSource(CharSource.wrap(CharBuffer.wrap(base64Data, charStart, charEnd)));
+        return groupsSource.slice(offset - firstGroup * 3, end - offset);
+    }
+
     @Override
     public boolean isEmpty() {
         return base64Data.isEmpty();
@@ -0,0 +1,193 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Deduplicator of response bodies by content hash. HARs of multi-page sessions
+ * contain the same scripts, stylesheets, and fonts many times over; replacing
+ * each body with the first body that has the same SHA-256 hash lets entries
+ * share one instance, so that the content is decoded and held once. Hashes
+ * are computed in parallel.
+ */
+public final class BodyDeduplicator {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+    private BodyDeduplicator() {}
+
+    /**
+     * Interface of a service that computes the hash and length of a body.
+     * Methods are invoked concurrently from multiple threads.
+     * @param <T> body type
+     */
+    public interface BodyHasher<T> {
+
+        /**
+         * Computes the hash of a body.
+         * @param body the body
+         * @param hashFunction the hash function
+         * @return the hash
+         * @throws IOException if the body cannot be read
+         */
+        HashCode hash(T body, HashFunction hashFunction) throws IOException;
+
+        /**
+         * Gets the length of a body in bytes.
+         * @param body the body
+         * @return the length
+         * @throws IOException if the body cannot be read
+         */
+        long length(T body) throws IOException;
+    }
+
+    /**
+     * Class that represents the result of deduplication.
+     * @param <T> body type
+     */
+    public static final class Result<T> {
+
+        private final List<T> bodies;
+        private final DeduplicationStats stats;
+
+        private Result(List<T> bodies, DeduplicationStats stats) {
+            this.bodies = Collections.unmodifiableList(bodies);
+            this.stats = requireNonNull(stats);
+        }
+
+        /**
+         * Gets the deduplicated bodies. The list is parallel to the argument list,
+         * and each element is the first body with the same content.
+         * @return the list of bodies
+         */
+        public List<T> getBodies() {
+            return bodies;
+        }
+
+        public DeduplicationStats getStats() {
+            return stats;
+        }
+    }
+
+    /**
+     * Deduplicates a list of bodies.
+     * @param bodies the bodies; null elements are retained and not counted
+     * @param hasher the hasher
+     * @param <T> body type
+     * @return the result
+     * @throws IOException if a body cannot be read
+     */
+    public static <T> Result<T> deduplicate(List<T> bodies, BodyHasher<T> hasher) throws IOException {
+        requireNonNull(hasher, "hasher");
+        HashCode[] hashes = new HashCode[bodies.size()];
+        long[] lengths = new long[bodies.size()];
+        try {
+            IntStream.range(0, bodies.size()).parallel().forEach(i -> {
+                @Nullable T body = bodies.get(i);
+                if (body != null) {
+                    try {
+                        hashes[i] = hasher.hash(body, HASH_FUNCTION);
+                        lengths[i] = hasher.length(body);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<HashCode, T> canonical = new HashMap<>();
+        List<T> deduplicated = new ArrayList<>(bodies.size());
+        int bodyCount = 0;
+        long totalBytes = 0, uniqueBytes = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            @Nullable T body = bodies.get(i);
+            if (body != null) {
+                bodyCount++;
+                totalBytes += lengths[i];
+                @Nullable T existing = canonical.putIfAbsent(hashes[i], body);
+                if (existing == null) {
+                    uniqueBytes += lengths[i];
+                } else {
+                    body = existing;
+                }
+            }
+            deduplicated.add(body);
+        }
+        return new Result<>(deduplicated, new DeduplicationStats(bodyCount, canonical.size(), totalBytes, uniqueBytes));
+    }
+
+    /**
+     * Creates a deduplicator that is given bodies one at a time, so that bodies
+     * need not be collected into a list before they are deduplicated. Hashes are
+     * computed on the calling thread.
+     * @param hasher the hasher
+     * @param <T> body type
+     * @return a new deduplicator
+     */
+    public static <T> Incremental<T> incremental(BodyHasher<T> hasher) {
+        return new Incremental<>(hasher);
+    }
+
+    /**
+     * Deduplicator that is given bodies one at a time. Instances are not safe
+     * for concurrent use.
+     * @param <T> body type
+     */
+    public static final class Incremental<T> {
+
+        private final BodyHasher<T> hasher;
+        private final Map<HashCode, T> canonical;
+        private int bodyCount;
+        private long totalBytes, uniqueBytes;
+
+        private Incremental(BodyHasher<T> hasher) {
+            this.hasher = requireNonNull(hasher, "hasher");
+            canonical = new HashMap<>();
+        }
+
+        /**
+         * Deduplicates a body.
+         * @param body the body; null is returned as is and not counted
+         * @return the first body given to this instance with the same content
+         * @throws IOException if the body cannot be read
+         */
+        @Nullable
+        public T deduplicate(@Nullable T body) throws IOException {
+            if (body == null) {
+                return null;
+            }
+            HashCode hash = hasher.hash(body, HASH_FUNCTION);
+            long length = hasher.length(body);
+            bodyCount++;
+            totalBytes += length;
+            @Nullable T existing = canonical.putIfAbsent(hash, body);
+            if (existing == null) {
+                uniqueBytes += length;
+                return body;
+            }
+            return existing;
+        }
+
+        /**
+         * Gets statistics on the bodies deduplicated so far.
+         * @return the statistics
+         */
+        public DeduplicationStats getStats() {
+            return new DeduplicationStats(bodyCount, canonical.size(), totalBytes, uniqueBytes);
+        }
+    }
+}
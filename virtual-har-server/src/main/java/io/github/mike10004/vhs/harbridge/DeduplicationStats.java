@@ -0,0 +1,75 @@
+package io.github.mike10004.vhs.harbridge;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Value class that reports how many response bodies were found to be
+ * identical to another and how many bytes sharing them saves.
+ */
+public final class DeduplicationStats {
+
+    private static final DeduplicationStats EMPTY = new DeduplicationStats(0, 0, 0L, 0L);
+
+    private final int bodyCount;
+    private final int uniqueBodyCount;
+    private final long totalBytes;
+    private final long uniqueBytes;
+
+    /**
+     * Constructs an instance.
+     * @param bodyCount number of bodies
+     * @param uniqueBodyCount number of distinct bodies
+     * @param totalBytes sum of the lengths of all bodies
+     * @param uniqueBytes sum of the lengths of distinct bodies
+     */
+    public DeduplicationStats(int bodyCount, int uniqueBodyCount, long totalBytes, long uniqueBytes) {
+        checkArgument(uniqueBodyCount >= 0 && uniqueBodyCount <= bodyCount, "unique body count must be in [0, %s]", bodyCount);
+        checkArgument(uniqueBytes >= 0 && uniqueBytes <= totalBytes, "unique bytes must be in [0, %s]", totalBytes);
+        this.bodyCount = bodyCount;
+        this.uniqueBodyCount = uniqueBodyCount;
+        this.totalBytes = totalBytes;
+        this.uniqueBytes = uniqueBytes;
+    }
+
+    public static DeduplicationStats empty() {
+        return EMPTY;
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    public int getUniqueBodyCount() {
+        return uniqueBodyCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getUniqueBytes() {
+        return uniqueBytes;
+    }
+
+    /**
+     * Gets the number of bytes that are not held because their body is shared.
+     * @return the number of bytes saved
+     */
+    public long getBytesSaved() {
+        return totalBytes - uniqueBytes;
+    }
+
+    /**
+     * Gets the ratio of the number of bodies to the number of distinct bodies.
+     * A ratio of 1 means that no bodies were shared.
+     * @return the deduplication ratio
+     */
+    public double getRatio() {
+        return uniqueBodyCount == 0 ? 1.0 : (double) bodyCount / uniqueBodyCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeduplicationStats{bodies=%d, unique=%d, ratio=%.2f, bytesSaved=%d}", bodyCount, uniqueBodyCount, getRatio(), getBytesSaved());
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Multimap;
+
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Interner of the strings and header collections of HAR entries. Entries in
+ * a HAR usually carry near-identical headers, so interning header names, values,
+ * and identical header sets allows the entries of a HAR to share one instance of
+ * each. An interner is meant to be scoped to the loading of a single HAR, so that
+ * its instances become unreachable together with the entries. Instances are
+ * safe for use by multiple threads.
+ */
+public final class HarInterner {
+
+    private static final HarInterner PASS_THROUGH = new HarInterner(false);
+
+    private final boolean enabled;
+    private final Interner<String> strings;
+    private final Interner<Map.Entry<String, String>> headers;
+    private final Interner<ImmutableList<Map.Entry<String, String>>> headerLists;
+    private final Interner<ImmutableMultimap<String, ?>> multimaps;
+    private final Interner<URI> uris;
+
+    private HarInterner(boolean enabled) {
+        this.enabled = enabled;
+        strings = Interners.newStrongInterner();
+        headers = Interners.newStrongInterner();
+        headerLists = Interners.newStrongInterner();
+        multimaps = Interners.newStrongInterner();
+        uris = Interners.newStrongInterner();
+    }
+
+    /**
+     * Creates a new interner.
+     * @return a new interner
+     */
+    public static HarInterner create() {
+        return new HarInterner(true);
+    }
+
+    /**
+     * Gets an interner that returns its arguments as-is.
+     * @return the pass-through interner
+     */
+    public static HarInterner passThrough() {
+        return PASS_THROUGH;
+    }
+
+    @Nullable
+    public String intern(@Nullable String value) {
+        if (value == null || !enabled) {
+            return value;
+        }
+        return strings.intern(value);
+    }
+
+    /**
+     * Interns a URI. Requests for the same URL share the URI instance, and with it
+     * the host, path, and query strings that the instance holds.
+     * @param uri the URI
+     * @return the interned URI
+     */
+    public URI intern(URI uri) {
+        if (!enabled) {
+            return uri;
+        }
+        return uris.intern(uri);
+    }
+
+    /**
+     * Creates a header with interned name and value.
+     * @param name the name
+     * @param value the value
+     * @return the header
+     */
+    public Map.Entry<String, String> header(@Nullable String name, @Nullable String value) {
+        Map.Entry<String, String> header = new SimpleImmutableEntry<>(intern(name), intern(value));
+        if (!enabled) {
+            return header;
+        }
+        return headers.intern(header);
+    }
+
+    /**
+     * Creates an immutable list of headers, sharing the instance among identical lists.
+     * @param headerList the headers
+     * @return the immutable list
+     */
+    public ImmutableList<Map.Entry<String, String>> headerList(List<? extends Map.Entry<String, String>> headerList) {
+        ImmutableList.Builder<Map.Entry<String, String>> b = ImmutableList.builder();
+        headerList.forEach(header -> b.add(header(header.getKey(), header.getValue())));
+        ImmutableList<Map.Entry<String, String>> list = b.build();
+        if (!enabled) {
+            return list;
+        }
+        return headerLists.intern(list);
+    }
+
+    /**
+     * Creates an immutable multimap of headers, sharing the instance among identical multimaps.
+     * @param headerMultimap the headers
+     * @return the immutable multimap
+     */
+    public ImmutableMultimap<String, String> headerMultimap(Multimap<String, String> headerMultimap) {
+        ImmutableListMultimap.Builder<String, String> b = ImmutableListMultimap.builder();
+        headerMultimap.entries().forEach(header -> b.put(intern(header.getKey()), intern(header.getValue())));
+        return internMultimap(b.build());
+    }
+
+    /**
+     * Creates an immutable multimap of query parameters, sharing the instance among identical multimaps.
+     * @param query the query parameters
+     * @return the immutable multimap, or null if the argument is null
+     */
+    @Nullable
+    public ImmutableMultimap<String, Optional<String>> queryMultimap(@Nullable Multimap<String, Optional<String>> query) {
+        if (query == null) {
+            return null;
+        }
+        ImmutableListMultimap.Builder<String, Optional<String>> b = ImmutableListMultimap.builder();
+        query.entries().forEach(param -> b.put(intern(param.getKey()), param.getValue().map(this::intern)));
+        return internMultimap(b.build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> ImmutableMultimap<String, V> internMultimap(ImmutableMultimap<String, V> multimap) {
+        if (!enabled) {
+            return multimap;
+        }
+        return (ImmutableMultimap<String, V>) multimaps.intern(multimap);
+    }
+}
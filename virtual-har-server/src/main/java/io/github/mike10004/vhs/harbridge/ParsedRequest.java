@@ -1,5 +1,6 @@
 package io.github.mike10004.vhs.harbridge;
 
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.io.ByteSource;
@@ -10,6 +11,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
@@ -43,12 +45,27 @@ public abstract class ParsedRequest {
      */
     public final ImmutableMultimap<String, String> indexedHeaders;
 
+    /**
+     * Flag that specifies whether all header names are lowercase, in which
+     * case headers can be looked up by key instead of by scanning.
+     */
+    private final boolean headerNamesLowercase;
+
     private ParsedRequest(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders) {
         this.method = requireNonNull(method);
         this.url = requireNonNull(url);
         this.query = query == null ? null : ImmutableMultimap.copyOf(query);
         this.indexedHeaders = ImmutableMultimap.copyOf(indexedHeaders);
+        this.headerNamesLowercase = this.indexedHeaders.keySet().stream().allMatch(ParsedRequest::isLowercase);
+    }
 
+    private static boolean isLowercase(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public abstract boolean isBodyPresent();
@@ -59,6 +76,55 @@ public abstract class ParsedRequest {
         return new MemoryRequest(method, url, query, indexedHeaders, body);
     }
 
+    /**
+     * Creates a request whose body is read from the given source. Unlike
+     * {@link #inMemory(HttpMethod, URI, Multimap, Multimap, byte[])}, the body is not copied,
+     * so requests may share body storage, such as a region of a memory-mapped file.
+     * The source must always supply the same bytes.
+     * @param method the method
+     * @param url the URL
+     * @param query the query parameters
+     * @param indexedHeaders the headers, with lowercase names
+     * @param body the body source, or null if the request has no body
+     * @return the new request
+     */
+    public static ParsedRequest create(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders, @Nullable ByteSource body) {
+        return new SourceRequest(method, url, query, indexedHeaders, body);
+    }
+
+    /**
+     * Creates a request with the method and body of the given request and the given URL,
+     * query, and headers. The body is not copied.
+     * @param source the source request
+     * @param url the new URL
+     * @param query the new query parameters
+     * @param indexedHeaders the new headers, with lowercase names
+     * @return the new request
+     */
+    public static ParsedRequest derived(ParsedRequest source, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders) {
+        return new DerivedRequest(source, url, query, indexedHeaders);
+    }
+
+    private static class DerivedRequest extends ParsedRequest {
+
+        private final ParsedRequest source;
+
+        public DerivedRequest(ParsedRequest source, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders) {
+            super(source.method, url, query, indexedHeaders);
+            this.source = requireNonNull(source);
+        }
+
+        @Override
+        public boolean isBodyPresent() {
+            return source.isBodyPresent();
+        }
+
+        @Override
+        public InputStream openBodyStream() throws IOException {
+            return source.openBodyStream();
+        }
+    }
+
     static class MemoryRequest extends ParsedRequest {
 
         private final ByteSource bodySource;
@@ -85,9 +151,39 @@ public abstract class ParsedRequest {
 
     }
 
+    private static class SourceRequest extends ParsedRequest {
+
+        @Nullable
+        private final ByteSource bodySource;
+
+        public SourceRequest(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders, @Nullable ByteSource bodySource) {
+            super(method, url, query, indexedHeaders);
+            this.bodySource = bodySource;
+        }
+
+        @Override
+        public boolean isBodyPresent() {
+            return bodySource != null;
+        }
+
+        @Override
+        public InputStream openBodyStream() throws IOException {
+            return bodySource == null ? ByteSource.empty().openStream() : bodySource.openStream();
+        }
+    }
+
+    /**
+     * Gets the value of the first header with the given name. Names are compared case-insensitively.
+     * @param headerName the header name
+     * @return the value, or null if the request has no such header
+     */
     @Nullable
     public String getFirstHeaderValue(String headerName) {
         requireNonNull(headerName, "headerName");
+        if (headerNamesLowercase) {
+            ImmutableCollection<String> values = indexedHeaders.get(headerName.toLowerCase(Locale.ROOT));
+            return values.isEmpty() ? null : values.iterator().next();
+        }
         return indexedHeaders.entries().stream()
                 .filter(header -> headerName.equalsIgnoreCase(header.getKey()))
                 .map(Map.Entry::getValue)
@@ -4,6 +4,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
 import com.google.common.io.ByteSource;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
@@ -15,7 +17,10 @@ import com.browserup.harreader.model.HarPostDataParam;
 import com.browserup.harreader.model.HarRequest;
 import com.browserup.harreader.model.HarResponse;
 import com.browserup.harreader.model.HttpMethod;
+import io.github.mike10004.vhs.harbridge.BodyDeduplicator;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
 import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarInterner;
 import io.github.mike10004.vhs.harbridge.HarResponseData;
 import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
 import io.github.mike10004.vhs.harbridge.Hars;
@@ -27,11 +32,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -164,6 +172,9 @@ public class SstoehrHarBridge implements HarBridge<HarEntry> {
             return TypedContent.identity(ByteSource.empty(), MediaType.OCTET_STREAM);
         }
         HarContent content = requireNonNull(rsp.getContent(), "response.content");
+        if (content instanceof DecodedHarContent) {
+            return ((DecodedHarContent) content).toTypedContent();
+        }
         @Nullable Long harContentSize = nullIfNegative(content.getSize());
         @Nullable Long bodySize = nullIfNegative(rsp.getBodySize());
         List<HarHeader> headers = MoreObjects.firstNonNull(rsp.getHeaders(), Collections.emptyList());
@@ -178,6 +189,160 @@ public class SstoehrHarBridge implements HarBridge<HarEntry> {
         return Hars.translateResponseContent(contentType, text, bodySize, harContentSize, contentEncodingHeaderValue, harContentEncoding, comment, exMachinaCharset);
     }
 
+    /**
+     * Replaces the request URL, header strings, and content type strings of HAR entries
+     * with interned instances, so that entries share identical strings.
+     * @param entries the entries, which are modified
+     * @param interner the interner
+     */
+    public static void internStrings(Iterable<HarEntry> entries, HarInterner interner) {
+        for (HarEntry entry : entries) {
+            @Nullable HarRequest request = entry.getRequest();
+            if (request != null) {
+                request.setUrl(interner.intern(request.getUrl()));
+                internHeaders(request.getHeaders(), interner);
+            }
+            @Nullable HarResponse response = entry.getResponse();
+            if (response != null) {
+                internHeaders(response.getHeaders(), interner);
+                @Nullable HarContent content = response.getContent();
+                if (content != null) {
+                    content.setMimeType(interner.intern(content.getMimeType()));
+                    content.setEncoding(interner.intern(content.getEncoding()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the response content of entries and deduplicates the decoded bodies by
+     * content hash. The content of each entry is replaced by content that references
+     * a body shared among all entries whose decoded bodies are identical, so that
+     * each distinct body is decoded and held once. Content text is not retained.
+     * Entries whose content cannot be decoded are left unchanged.
+     * @param entries the entries, which are modified
+     * @return statistics on the deduplication, measured in decoded bytes
+     */
+    public static DeduplicationStats deduplicateContent(List<HarEntry> entries) {
+        SstoehrHarBridge bridge = new SstoehrHarBridge();
+        List<DecodedHarContent> decoded = entries.parallelStream()
+                .map(bridge::decodeResponseContent)
+                .collect(Collectors.toList());
+        List<byte[]> bodies = decoded.stream()
+                .map(content -> content == null ? null : content.body.bytes)
+                .collect(Collectors.toList());
+        BodyDeduplicator.Result<byte[]> result;
+        try {
+            result = BodyDeduplicator.deduplicate(bodies, new BodyDeduplicator.BodyHasher<byte[]>() {
+                @Override
+                public HashCode hash(byte[] body, HashFunction hashFunction) {
+                    return hashFunction.hashBytes(body);
+                }
+
+                @Override
+                public long length(byte[] body) {
+                    return body.length;
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("in-memory body cannot fail to be read", e);
+        }
+        Map<byte[], DecodedBody> sharedBodies = new IdentityHashMap<>();
+        List<byte[]> shared = result.getBodies();
+        for (int i = 0; i < entries.size(); i++) {
+            @Nullable DecodedHarContent content = decoded.get(i);
+            if (content != null) {
+                content.body = sharedBodies.computeIfAbsent(shared.get(i), DecodedBody::new);
+                entries.get(i).getResponse().setContent(content);
+            }
+        }
+        return result.getStats();
+    }
+
+    /**
+     * Decodes the response content of an entry into memory.
+     * @return the decoded content, or null if the entry has no content text or decoding fails
+     */
+    @Nullable
+    private DecodedHarContent decodeResponseContent(HarEntry entry) {
+        @Nullable HarResponse response = entry.getResponse();
+        if (response == null || response.getContent() == null || response.getContent().getText() == null) {
+            return null;
+        }
+        try {
+            TypedContent content = getResponseBody(entry);
+            return new DecodedHarContent(response.getContent(), content.getContentType(), new DecodedBody(content.asByteSource().read()));
+        } catch (IOException | RuntimeException e) {
+            log.debug("failed to decode response content of {}; not deduplicating", getRequestUrl(entry), e);
+            return null;
+        }
+    }
+
+    /**
+     * Source of a decoded body that is shared among entries.
+     */
+    private static final class DecodedBody extends ByteSource {
+
+        private final byte[] bytes;
+
+        private DecodedBody(byte[] bytes) {
+            this.bytes = requireNonNull(bytes);
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public com.google.common.base.Optional<Long> sizeIfKnown() {
+            return com.google.common.base.Optional.of((long) bytes.length);
+        }
+
+        @Override
+        public long size() {
+            return bytes.length;
+        }
+
+        @Override
+        public byte[] read() {
+            return bytes.clone();
+        }
+    }
+
+    /**
+     * Response content whose body has already been decoded. The content text
+     * is not retained; the decoded body is served instead.
+     */
+    private static final class DecodedHarContent extends HarContent {
+
+        private final MediaType contentType;
+        private DecodedBody body;
+
+        private DecodedHarContent(HarContent original, MediaType contentType, DecodedBody body) {
+            this.contentType = requireNonNull(contentType);
+            this.body = requireNonNull(body);
+            setSize(original.getSize());
+            setCompression(original.getCompression());
+            setMimeType(original.getMimeType());
+            setEncoding(original.getEncoding());
+            setComment(original.getComment());
+        }
+
+        public TypedContent toTypedContent() {
+            return TypedContent.identity(body, contentType);
+        }
+    }
+
+    private static void internHeaders(@Nullable List<HarHeader> headers, HarInterner interner) {
+        if (headers != null) {
+            for (HarHeader header : headers) {
+                header.setName(interner.intern(header.getName()));
+                header.setValue(interner.intern(header.getValue()));
+            }
+        }
+    }
+
     @Override
     public int getResponseStatus(HarEntry entry) {
         HarResponse response = entry.getResponse();
@@ -0,0 +1,122 @@
+package io.github.mike10004.vhs.harbridge.streaming;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reference to a JSON string value in a HAR file. The value is decoded from the
+ * file when first requested. The decoded value is softly reachable, so it may be
+ * reclaimed under memory pressure and decoded again.
+ */
+final class DeferredText {
+
+    /**
+     * Number of bytes at the end of the range that are scanned for the closing quote.
+     */
+    private static final int TAIL_LENGTH = 64;
+
+    private final MappedHarFile harFile;
+    private final JsonFactory jsonFactory;
+    private final long offset;
+    private final int length;
+    private volatile SoftReference<String> cached;
+
+    /**
+     * Constructs an instance.
+     * @param harFile the HAR file
+     * @param jsonFactory factory used to decode the value
+     * @param offset byte offset of the opening quote of the JSON string
+     * @param length number of bytes from the opening quote to a position at or
+     *               beyond the closing quote; bytes after the string are ignored
+     */
+    DeferredText(MappedHarFile harFile, JsonFactory jsonFactory, long offset, int length) {
+        this.harFile = requireNonNull(harFile);
+        this.jsonFactory = requireNonNull(jsonFactory);
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public String read() throws IOException {
+        SoftReference<String> ref = cached;
+        String text = ref == null ? null : ref.get();
+        if (text == null) {
+            text = decode();
+            cached = new SoftReference<>(text);
+        }
+        return text;
+    }
+
+    private String decode() throws IOException {
+        byte[] bytes = harFile.read(offset, length);
+        try (JsonParser parser = jsonFactory.createParser(bytes)) {
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.VALUE_STRING) {
+                throw new IOException("expected string at byte offset " + offset + " but found " + token);
+            }
+            return parser.getText();
+        }
+    }
+
+    /**
+     * Computes the hash of the JSON string as encoded in the file, from the opening
+     * quote through the closing quote. Identical strings have the same hash
+     * regardless of the whitespace that follows them.
+     * @param hashFunction the hash function
+     * @return the hash
+     * @throws IOException on I/O error
+     */
+    public HashCode hash(HashFunction hashFunction) throws IOException {
+        byte[] bytes = harFile.read(offset, length);
+        return hashFunction.hashBytes(bytes, 0, encodedLength(bytes));
+    }
+
+    /**
+     * Gets the length of the JSON string as encoded in the file, from the opening
+     * quote through the closing quote.
+     * @return the length in bytes
+     * @throws IOException on I/O error
+     */
+    public int getEncodedLength() throws IOException {
+        int tailLength = Math.min(length, TAIL_LENGTH);
+        byte[] tail = harFile.read(offset + length - tailLength, tailLength);
+        int tailEncodedLength = encodedLength(tail);
+        if (tailEncodedLength > 0 || tailLength == length) {
+            return length - tailLength + tailEncodedLength;
+        }
+        return encodedLength(harFile.read(offset, length));
+    }
+
+    /**
+     * Finds the length through the last quote. Only whitespace and a comma
+     * may follow the closing quote, so the last quote is the closing quote.
+     */
+    private static int encodedLength(byte[] bytes) {
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] == '"') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "DeferredText{offset=" + offset + ", length=" + length + "}";
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.mike10004.vhs.harbridge.streaming;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Read-only view of a HAR file from which byte ranges are read on demand.
+ * Files small enough to fit in a single mapping are memory-mapped; larger
+ * files are read with positioned reads.
+ */
+class MappedHarFile {
+
+    private final File file;
+    private final MappedByteBuffer mapping;
+
+    private MappedHarFile(File file, MappedByteBuffer mapping) {
+        this.file = file;
+        this.mapping = mapping;
+    }
+
+    public static MappedHarFile open(File file) throws IOException {
+        MappedByteBuffer mapping = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        return new MappedHarFile(file, mapping);
+    }
+
+    /**
+     * Reads a range of bytes.
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return a new array containing the bytes
+     * @throws IOException on I/O error
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        checkArgument(offset >= 0 && length >= 0, "offset %s and length %s must be nonnegative", offset, length);
+        byte[] bytes = new byte[length];
+        if (mapping != null) {
+            ByteBuffer view = mapping.duplicate();
+            view.position((int) offset);
+            view.get(bytes);
+            return bytes;
+        }
+        ByteSource slice = Files.asByteSource(file).slice(offset, length);
+        try (InputStream in = slice.openStream()) {
+            ByteStreams.readFully(in, bytes);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedHarFile{file=" + file + ", mapped=" + (mapping != null) + "}";
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.mike10004.vhs.harbridge.streaming;
+
+import com.google.common.collect.ImmutableList;
+import io.github.mike10004.vhs.harbridge.HarInterner;
+import io.github.mike10004.vhs.repackaged.org.apache.http.NameValuePair;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Class that represents the subset of a HAR entry that is needed to replay it.
+ * The response content text is not held in memory; it is read from the HAR file
+ * on demand. Instances are produced by {@link StreamingHarLoader}.
+ */
+public final class StreamedHarEntry {
+
+    @Nullable
+    final String requestMethod;
+    @Nullable
+    final String requestUrl;
+    final ImmutableList<Map.Entry<String, String>> requestHeaders;
+    @Nullable
+    final Long requestBodySize;
+    @Nullable
+    final String postDataMimeType;
+    @Nullable
+    final String postDataText;
+    @Nullable
+    final ImmutableList<NameValuePair> postDataParams;
+    @Nullable
+    final String postDataComment;
+    final boolean responsePresent;
+    final int responseStatus;
+    final ImmutableList<Map.Entry<String, String>> responseHeaders;
+    @Nullable
+    final Long responseBodySize;
+    final boolean contentPresent;
+    @Nullable
+    final Long contentSize;
+    @Nullable
+    final String contentMimeType;
+    @Nullable
+    final String contentEncoding;
+    @Nullable
+    final String contentComment;
+    @Nullable
+    private volatile DeferredText contentText; // replaced when content is deduplicated
+
+    private StreamedHarEntry(Builder b) {
+        HarInterner interner = b.interner;
+        requestMethod = interner.intern(b.requestMethod);
+        requestUrl = interner.intern(b.requestUrl);
+        requestHeaders = interner.headerList(b.requestHeaders.build());
+        requestBodySize = b.requestBodySize;
+        postDataMimeType = interner.intern(b.postDataMimeType);
+        postDataText = b.postDataText;
+        postDataParams = b.postDataParams == null ? null : b.postDataParams.build();
+        postDataComment = b.postDataComment;
+        responsePresent = b.responsePresent;
+        responseStatus = b.responseStatus;
+        responseHeaders = interner.headerList(b.responseHeaders.build());
+        responseBodySize = b.responseBodySize;
+        contentPresent = b.contentPresent;
+        contentSize = b.contentSize;
+        contentMimeType = interner.intern(b.contentMimeType);
+        contentEncoding = interner.intern(b.contentEncoding);
+        contentComment = b.contentComment;
+        contentText = b.contentText;
+    }
+
+    /**
+     * Gets the request URL.
+     * @return the URL, or null if the HAR entry has no request URL
+     */
+    @Nullable
+    public String getRequestUrl() {
+        return requestUrl;
+    }
+
+    /**
+     * Reads the response content text from the HAR file.
+     * @return the text, or null if the HAR entry has no content text
+     * @throws IOException on I/O error
+     */
+    @Nullable
+    public String readContentText() throws IOException {
+        return contentText == null ? null : contentText.read();
+    }
+
+    @Nullable
+    DeferredText getContentTextReference() {
+        return contentText;
+    }
+
+    void setContentTextReference(@Nullable DeferredText contentText) {
+        this.contentText = contentText;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamedHarEntry{" + requestMethod + " " + requestUrl + " -> " + responseStatus + "}";
+    }
+
+    static Builder builder() {
+        return builder(HarInterner.passThrough());
+    }
+
+    /**
+     * Creates a builder of entries whose strings and headers are interned.
+     * @param interner the interner
+     * @return a new builder
+     */
+    static Builder builder(HarInterner interner) {
+        return new Builder(interner);
+    }
+
+    static final class Builder {
+
+        private final HarInterner interner;
+        String requestMethod;
+        String requestUrl;
+        final ImmutableList.Builder<Map.Entry<String, String>> requestHeaders = ImmutableList.builder();
+        Long requestBodySize;
+        String postDataMimeType;
+        String postDataText;
+        ImmutableList.Builder<NameValuePair> postDataParams;
+        String postDataComment;
+        boolean responsePresent;
+        int responseStatus;
+        final ImmutableList.Builder<Map.Entry<String, String>> responseHeaders = ImmutableList.builder();
+        Long responseBodySize;
+        boolean contentPresent;
+        Long contentSize;
+        String contentMimeType;
+        String contentEncoding;
+        String contentComment;
+        DeferredText contentText;
+
+        private Builder(HarInterner interner) {
+            this.interner = requireNonNull(interner);
+        }
+
+        public StreamedHarEntry build() {
+            return new StreamedHarEntry(this);
+        }
+    }
+}
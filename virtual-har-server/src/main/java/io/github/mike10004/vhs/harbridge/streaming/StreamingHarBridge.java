@@ -0,0 +1,114 @@
+package io.github.mike10004.vhs.harbridge.streaming;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarResponseData;
+import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
+import io.github.mike10004.vhs.harbridge.Hars;
+import io.github.mike10004.vhs.harbridge.HttpContentCodecs;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.github.mike10004.vhs.harbridge.TypedContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bridge to entries produced by {@link StreamingHarLoader}. The response content
+ * text is read from the HAR file each time response data is requested.
+ */
+public class StreamingHarBridge implements HarBridge<StreamedHarEntry> {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingHarBridge.class);
+
+    public static final Charset DEFAULT_EX_MACHINA_CHARSET = StandardCharsets.UTF_8;
+
+    private final Charset exMachinaCharset;
+
+    public StreamingHarBridge() {
+        this(DEFAULT_EX_MACHINA_CHARSET);
+    }
+
+    public StreamingHarBridge(Charset exMachinaCharset) {
+        this.exMachinaCharset = requireNonNull(exMachinaCharset);
+    }
+
+    @Override
+    public String getRequestMethod(StreamedHarEntry entry) {
+        if (entry.requestMethod != null) {
+            return entry.requestMethod;
+        }
+        log.info("request method not present in HAR entry");
+        return "";
+    }
+
+    @Override
+    public String getRequestUrl(StreamedHarEntry entry) {
+        if (entry.requestUrl != null) {
+            return entry.requestUrl;
+        }
+        log.info("request URL not present in HAR entry");
+        return "";
+    }
+
+    @Override
+    public Stream<Map.Entry<String, String>> getRequestHeaders(StreamedHarEntry entry) {
+        return entry.requestHeaders.stream();
+    }
+
+    @Nullable
+    private static Long nullIfNegative(@Nullable Long value) {
+        return value == null || value < 0 ? null : value;
+    }
+
+    @Override
+    public ByteSource getRequestPostData(StreamedHarEntry entry) throws IOException {
+        return Hars.getRequestPostData(entry.postDataParams, entry.postDataMimeType, entry.postDataText, nullIfNegative(entry.requestBodySize), entry.postDataComment, exMachinaCharset);
+    }
+
+    @Override
+    public int getResponseStatus(StreamedHarEntry entry) {
+        if (entry.responsePresent) {
+            return entry.responseStatus;
+        }
+        log.info("response not present in entry; returning 500 as status");
+        return 500;
+    }
+
+    @Override
+    public HarResponseData getResponseData(ParsedRequest request, StreamedHarEntry entry, HarResponseEncoding encoding) throws IOException {
+        TypedContent contentPackage = getResponseBody(entry);
+        HarResponseData underlying = HarResponseData.of(entry.responseHeaders, contentPackage.getContentType(), contentPackage.asByteSource());
+        underlying = underlying.transformer()
+                .replaceContentType(contentPackage.getContentType())
+                .replaceHeader(HttpHeaders.CONTENT_ENCODING, HttpContentCodecs.CONTENT_ENCODING_IDENTITY)
+                .transform();
+        return encoding.transformUnencoded(underlying);
+    }
+
+    TypedContent getResponseBody(StreamedHarEntry entry) throws IOException {
+        if (!entry.responsePresent) {
+            return TypedContent.identity(ByteSource.empty(), MediaType.OCTET_STREAM);
+        }
+        if (!entry.contentPresent) {
+            throw new NullPointerException("response.content");
+        }
+        @Nullable String contentEncodingHeaderValue = entry.responseHeaders.stream()
+                .filter(h -> HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(h.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst().orElse(null);
+        @Nullable String harContentEncoding = Strings.emptyToNull(entry.contentEncoding);
+        @Nullable String text = entry.readContentText();
+        return Hars.translateResponseContent(entry.contentMimeType, text, nullIfNegative(entry.responseBodySize), nullIfNegative(entry.contentSize), contentEncodingHeaderValue, harContentEncoding, entry.contentComment, exMachinaCharset);
+    }
+}
@@ -0,0 +1,495 @@
+package io.github.mike10004.vhs.harbridge.streaming;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import io.github.mike10004.vhs.harbridge.BodyDeduplicator;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
+import io.github.mike10004.vhs.harbridge.HarInterner;
+import io.github.mike10004.vhs.repackaged.org.apache.http.NameValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Loader of HAR files that reads only the fields that are needed to replay entries.
+ * The parser streams through the file, skipping timings, cookies, cache data, page
+ * data, and other fields that are irrelevant to replay. Response content text is
+ * not decoded during loading; its location in the file is recorded instead, and the
+ * file is memory-mapped so that the text can be read when a matching request arrives.
+ */
+public class StreamingHarLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingHarLoader.class);
+
+    private static final BodyDeduplicator.BodyHasher<DeferredText> CONTENT_TEXT_HASHER = new BodyDeduplicator.BodyHasher<DeferredText>() {
+        @Override
+        public HashCode hash(DeferredText text, HashFunction hashFunction) throws IOException {
+            return text.hash(hashFunction);
+        }
+
+        @Override
+        public long length(DeferredText text) throws IOException {
+            return text.getEncodedLength();
+        }
+    };
+
+    private final JsonFactory jsonFactory;
+
+    public StreamingHarLoader() {
+        this(new JsonFactory());
+    }
+
+    public StreamingHarLoader(JsonFactory jsonFactory) {
+        this.jsonFactory = requireNonNull(jsonFactory);
+    }
+
+    /**
+     * Loads entries from a HAR file. The file must not be modified while the
+     * entries are in use.
+     * @param harFile the HAR file
+     * @return the list of entries
+     * @throws IOException on I/O error or if the file is not a HAR
+     */
+    public List<StreamedHarEntry> load(File harFile) throws IOException {
+        List<StreamedHarEntry> entries = new ArrayList<>();
+        load(harFile, entries::add);
+        return entries;
+    }
+
+    /**
+     * Interface for a consumer of entries as they are loaded.
+     */
+    public interface EntryConsumer {
+
+        /**
+         * Accepts an entry.
+         * @param entry the entry
+         * @throws IOException to abort loading
+         */
+        void accept(StreamedHarEntry entry) throws IOException;
+    }
+
+    /**
+     * Loads entries from a HAR file, passing each to a consumer in file order as
+     * soon as it has been read. The file must not be modified while the entries
+     * are in use.
+     * @param harFile the HAR file
+     * @param consumer the entry consumer
+     * @throws IOException on I/O error, if the file is not a HAR, or if the consumer throws
+     */
+    public void load(File harFile, EntryConsumer consumer) throws IOException {
+        MappedHarFile mappedFile = MappedHarFile.open(harFile);
+        HarInterner interner = createInterner();
+        int[] count = {0};
+        try (ReadTrackingInputStream in = new ReadTrackingInputStream(new FileInputStream(harFile));
+             JsonParser parser = jsonFactory.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            forEachField(parser, name -> {
+                if ("log".equals(name)) {
+                    readLog(parser, in, mappedFile, interner, entry -> {
+                        count[0]++;
+                        consumer.accept(entry);
+                    });
+                    return true;
+                }
+                return false;
+            });
+        }
+        log.debug("loaded {} entries from {}", count[0], harFile);
+    }
+
+    /**
+     * Creates a deduplicator of response content text that is given entries one
+     * at a time as they are loaded, so that entries need not be collected first.
+     * @return a new deduplicator
+     * @see #deduplicateContent(List)
+     */
+    public static ContentDeduplicator createContentDeduplicator() {
+        return new ContentDeduplicator();
+    }
+
+    /**
+     * Deduplicator of response content text that is given entries one at a time.
+     * Each entry is made to share the content text reference of the first earlier
+     * entry with identical content text. Instances are not safe for concurrent use.
+     */
+    public static final class ContentDeduplicator {
+
+        private final BodyDeduplicator.Incremental<DeferredText> deduplicator;
+
+        private ContentDeduplicator() {
+            deduplicator = BodyDeduplicator.incremental(CONTENT_TEXT_HASHER);
+        }
+
+        /**
+         * Deduplicates the content text of an entry.
+         * @param entry the entry
+         * @throws IOException on I/O error
+         */
+        public void deduplicate(StreamedHarEntry entry) throws IOException {
+            @Nullable DeferredText text = entry.getContentTextReference();
+            @Nullable DeferredText shared = deduplicator.deduplicate(text);
+            if (shared != text) {
+                entry.setContentTextReference(shared);
+            }
+        }
+
+        /**
+         * Gets statistics on the entries deduplicated so far.
+         * @return statistics measured in encoded bytes
+         */
+        public DeduplicationStats getStats() {
+            return deduplicator.getStats();
+        }
+    }
+
+    /**
+     * Deduplicates the response content text of entries by content hash. Entries
+     * whose content text is identical are made to share one reference to it, so that
+     * the text is decoded and held once no matter how many entries it appears in.
+     * Entries may be in use while this method executes.
+     * @param entries entries loaded from one file
+     * @return statistics on the deduplication, measured in encoded bytes
+     * @throws IOException on I/O error
+     */
+    public static DeduplicationStats deduplicateContent(List<StreamedHarEntry> entries) throws IOException {
+        List<DeferredText> texts = entries.stream()
+                .map(StreamedHarEntry::getContentTextReference)
+                .collect(Collectors.toList());
+        BodyDeduplicator.Result<DeferredText> result = BodyDeduplicator.deduplicate(texts, CONTENT_TEXT_HASHER);
+        List<DeferredText> shared = result.getBodies();
+        for (int i = 0; i < entries.size(); i++) {
+            if (shared.get(i) != texts.get(i)) {
+                entries.get(i).setContentTextReference(shared.get(i));
+            }
+        }
+        return result.getStats();
+    }
+
+    /**
+     * Creates the interner used for the entries of one file. Entries loaded
+     * from the same file share instances of identical strings and headers.
+     * @return a new interner
+     */
+    protected HarInterner createInterner() {
+        return HarInterner.create();
+    }
+
+    private void readLog(JsonParser parser, ReadTrackingInputStream in, MappedHarFile mappedFile, HarInterner interner, EntryConsumer consumer) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        forEachField(parser, name -> {
+            if ("entries".equals(name)) {
+                forEachElement(parser, () -> consumer.accept(readEntry(parser, in, mappedFile, interner)));
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private StreamedHarEntry readEntry(JsonParser parser, ReadTrackingInputStream in, MappedHarFile mappedFile, HarInterner interner) throws IOException {
+        StreamedHarEntry.Builder b = StreamedHarEntry.builder(interner);
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        forEachField(parser, name -> {
+            switch (name) {
+                case "request":
+                    readRequest(parser, b);
+                    return true;
+                case "response":
+                    readResponse(parser, in, mappedFile, b);
+                    return true;
+                default:
+                    return false;
+            }
+        });
+        return b.build();
+    }
+
+    private void readRequest(JsonParser parser, StreamedHarEntry.Builder b) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        forEachField(parser, name -> {
+            switch (name) {
+                case "method":
+                    b.requestMethod = parser.getValueAsString();
+                    return true;
+                case "url":
+                    b.requestUrl = parser.getValueAsString();
+                    return true;
+                case "headers":
+                    readHeaders(parser, b.requestHeaders::add);
+                    return true;
+                case "bodySize":
+                    b.requestBodySize = readLong(parser);
+                    return true;
+                case "postData":
+                    readPostData(parser, b);
+                    return true;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    private void readPostData(JsonParser parser, StreamedHarEntry.Builder b) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        forEachField(parser, name -> {
+            switch (name) {
+                case "mimeType":
+                    b.postDataMimeType = parser.getValueAsString();
+                    return true;
+                case "text":
+                    b.postDataText = parser.getValueAsString();
+                    return true;
+                case "comment":
+                    b.postDataComment = parser.getValueAsString();
+                    return true;
+                case "params":
+                    if (parser.currentToken() == JsonToken.START_ARRAY) {
+                        ImmutableList.Builder<NameValuePair> params = ImmutableList.builder();
+                        forEachElement(parser, () -> readNameValue(parser, (n, v) -> params.add(NameValuePair.of(n, v))));
+                        b.postDataParams = params;
+                        return true;
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    private void readResponse(JsonParser parser, ReadTrackingInputStream in, MappedHarFile mappedFile, StreamedHarEntry.Builder b) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        b.responsePresent = true;
+        forEachField(parser, name -> {
+            switch (name) {
+                case "status":
+                    b.responseStatus = parser.getValueAsInt(0);
+                    return true;
+                case "headers":
+                    readHeaders(parser, header -> {
+                        if (header.getKey() != null) {
+                            b.responseHeaders.add(new SimpleImmutableEntry<>(header.getKey(), Strings.nullToEmpty(header.getValue())));
+                        }
+                    });
+                    return true;
+                case "bodySize":
+                    b.responseBodySize = readLong(parser);
+                    return true;
+                case "content":
+                    readContent(parser, in, mappedFile, b);
+                    return true;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    /**
+     * Reads a content object. This does not use {@link #forEachField(JsonParser, FieldHandler)},
+     * because skipping over the text value without decoding it requires advancing the parser
+     * to the token that follows.
+     */
+    private void readContent(JsonParser parser, ReadTrackingInputStream in, MappedHarFile mappedFile, StreamedHarEntry.Builder b) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        b.contentPresent = true;
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if ("text".equals(name) && valueToken == JsonToken.VALUE_STRING) {
+                long start = in.correctOffset(parser.getTokenLocation().getByteOffset());
+                token = parser.nextToken();
+                long end = in.correctOffset(parser.getTokenLocation().getByteOffset());
+                b.contentText = new DeferredText(mappedFile, jsonFactory, start, Math.toIntExact(end - start));
+                continue;
+            }
+            switch (name) {
+                case "size":
+                    b.contentSize = readLong(parser);
+                    break;
+                case "mimeType":
+                    b.contentMimeType = parser.getValueAsString();
+                    break;
+                case "encoding":
+                    b.contentEncoding = parser.getValueAsString();
+                    break;
+                case "comment":
+                    b.contentComment = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+            token = parser.nextToken();
+        }
+        expect(parser, token, JsonToken.END_OBJECT);
+    }
+
+    private void readHeaders(JsonParser parser, Consumer<Map.Entry<String, String>> sink) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        forEachElement(parser, () -> readNameValue(parser, (name, value) -> sink.accept(new SimpleImmutableEntry<>(name, value))));
+    }
+
+    private interface NameValueConsumer {
+        void accept(@Nullable String name, @Nullable String value);
+    }
+
+    private void readNameValue(JsonParser parser, NameValueConsumer sink) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        String[] pair = new String[2];
+        forEachField(parser, name -> {
+            switch (name) {
+                case "name":
+                    pair[0] = parser.getValueAsString();
+                    return true;
+                case "value":
+                    pair[1] = parser.getValueAsString();
+                    return true;
+                default:
+                    return false;
+            }
+        });
+        sink.accept(pair[0], pair[1]);
+    }
+
+    @Nullable
+    private static Long readLong(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private interface FieldHandler {
+        /**
+         * Handles a field value. The parser is positioned at the first token of the value.
+         * @param name field name
+         * @return true if the value was consumed; false if it should be skipped
+         */
+        boolean handle(String name) throws IOException;
+    }
+
+    private interface ElementHandler {
+        void handle() throws IOException;
+    }
+
+    private static void forEachField(JsonParser parser, FieldHandler handler) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (!handler.handle(name)) {
+                parser.skipChildren();
+            }
+        }
+        expect(parser, token, JsonToken.END_OBJECT);
+    }
+
+    private static void forEachElement(JsonParser parser, ElementHandler handler) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new IOException("unexpected end of input in array");
+            }
+            handler.handle();
+        }
+    }
+
+    /**
+     * Input stream that records the lengths of the first and most recent reads, so that
+     * byte offsets reported by the parser can be corrected. Jackson 2.10 reads each buffer
+     * with a single read and then advances its count of processed bytes by the length of
+     * the new buffer instead of the length of the buffer it replaces. Its offsets are
+     * therefore wrong by the difference between the lengths of the first and current
+     * buffers, which differ when a read returns fewer bytes, as the last read of a file does.
+     */
+    private static class ReadTrackingInputStream extends FilterInputStream {
+
+        private int firstReadLength = -1;
+        private int lastReadLength;
+
+        public ReadTrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * Corrects an offset reported by the parser for a location in its current buffer.
+         * @param parserOffset the reported offset
+         * @return the actual offset in the file
+         */
+        public long correctOffset(long parserOffset) {
+            return firstReadLength < 0 ? parserOffset : parserOffset + firstReadLength - lastReadLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                if (firstReadLength < 0) {
+                    firstReadLength = n;
+                }
+                lastReadLength = n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("skip not supported");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static void expect(JsonParser parser, @Nullable JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("expected " + expected + " but found " + actual + " at " + parser.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package io.github.mike10004.vhs.index;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
+import io.github.mike10004.vhs.harbridge.HarInterner;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Compiled HAR index, opened from a file written by {@link HarIndexWriter}.
+ * The file is memory-mapped. Requests and response headers are read when the
+ * index is opened, and response bodies are read from the mapping on demand.
+ * Entries with identical response bodies share the stored body.
+ */
+public final class HarIndex {
+
+    private final File indexFile;
+    private final HarIndexSource source;
+    private final ImmutableList<IndexedEntry> entries;
+    private final DeduplicationStats deduplicationStats;
+
+    private HarIndex(File indexFile, HarIndexSource source, List<IndexedEntry> entries, DeduplicationStats deduplicationStats) {
+        this.indexFile = requireNonNull(indexFile);
+        this.source = requireNonNull(source);
+        this.entries = ImmutableList.copyOf(entries);
+        this.deduplicationStats = requireNonNull(deduplicationStats);
+    }
+
+    /**
+     * Computes the checksum of a HAR file that is recorded in indexes compiled from it.
+     * @param harFile the HAR file
+     * @return the checksum
+     * @throws IOException on I/O error
+     */
+    public static HashCode checksum(File harFile) throws IOException {
+        return HarIndexSource.checksum(harFile);
+    }
+
+    /**
+     * Checks whether a file starts with the index file magic number.
+     * @param file the file
+     * @return true if the file appears to be an index file
+     * @throws IOException on I/O error
+     */
+    public static boolean isIndexFile(File file) throws IOException {
+        if (file.length() < 8) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == HarIndexFormat.MAGIC;
+        }
+    }
+
+    /**
+     * Opens an index file.
+     * @param indexFile the index file
+     * @return the index
+     * @throws IOException if the file cannot be read, is not an index file,
+     * or was written in an unsupported version of the format
+     */
+    public static HarIndex open(File indexFile) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("index file too large: " + indexFile);
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        try {
+            return read(indexFile, mapping);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("index file is truncated: " + indexFile, e);
+        }
+    }
+
+    private static HarIndex read(File indexFile, ByteBuffer in) throws IOException {
+        HarIndexSource source = HarIndexSource.readHeader(indexFile, in);
+        int entryCount = in.getInt();
+        if (entryCount < 0) {
+            throw new IOException("invalid entry count " + entryCount);
+        }
+        ImmutableList.Builder<IndexedEntry> entries = ImmutableList.builder();
+        HarInterner interner = HarInterner.create();
+        BodyTable bodyTable = new BodyTable();
+        for (int i = 0; i < entryCount; i++) {
+            entries.add(readEntry(in, interner, bodyTable));
+        }
+        return new HarIndex(indexFile, source, entries.build(), bodyTable.getStats());
+    }
+
+    /**
+     * Table of the response bodies stored in an index, in file order.
+     */
+    private static class BodyTable {
+
+        private final List<ByteSource> storedBodies = new ArrayList<>();
+        private int bodyCount;
+        private long totalBytes, uniqueBytes;
+
+        public ByteSource add(ByteSource body, long decodedLength) {
+            storedBodies.add(body);
+            bodyCount++;
+            totalBytes += decodedLength;
+            uniqueBytes += decodedLength;
+            return body;
+        }
+
+        public ByteSource reference(int ordinal) throws IOException {
+            if (ordinal < 0 || ordinal >= storedBodies.size()) {
+                throw new IOException("invalid body reference " + ordinal + "; " + storedBodies.size() + " bodies stored");
+            }
+            ByteSource body = storedBodies.get(ordinal);
+            bodyCount++;
+            totalBytes += body.sizeIfKnown().or(0L);
+            return body;
+        }
+
+        public DeduplicationStats getStats() {
+            return new DeduplicationStats(bodyCount, storedBodies.size(), totalBytes, uniqueBytes);
+        }
+    }
+
+    private static IndexedEntry readEntry(ByteBuffer in, HarInterner interner, BodyTable bodyTable) throws IOException {
+        HttpMethod method;
+        URI url;
+        try {
+            method = HttpMethod.valueOf(requireString(in));
+            url = interner.intern(new URI(requireString(in)));
+        } catch (IllegalArgumentException | URISyntaxException e) {
+            throw new IOException("invalid request in index", e);
+        }
+        @Nullable ImmutableMultimap<String, Optional<String>> query = interner.queryMultimap(readQuery(in));
+        ImmutableMultimap<String, String> requestHeaders = interner.headerMultimap(readPairs(in));
+        @Nullable ByteSource requestBody = readBlobSource(in);
+        ParsedRequest request = ParsedRequest.create(method, url, query, requestHeaders, requestBody);
+        int status = in.getInt();
+        ImmutableMultimap<String, String> responseHeaders = interner.headerMultimap(readPairs(in));
+        MediaType contentType;
+        try {
+            contentType = MediaType.parse(requireString(in));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid content type in index", e);
+        }
+        byte bodyFormat = in.get();
+        if (bodyFormat == HarIndexFormat.BODY_FORMAT_REFERENCE) {
+            ByteSource body = bodyTable.reference(in.getInt());
+            return new IndexedEntry(request, status, responseHeaders, contentType, body);
+        }
+        long decodedLength = in.getLong();
+        @Nullable ByteSource stored = readBlobSource(in);
+        if (stored == null) {
+            throw new IOException("response body missing from index entry");
+        }
+        ByteSource body;
+        switch (bodyFormat) {
+            case HarIndexFormat.BODY_FORMAT_RAW:
+                body = stored;
+                break;
+            case HarIndexFormat.BODY_FORMAT_GZIP:
+                body = new GunzippingByteSource(stored, decodedLength);
+                break;
+            default:
+                throw new IOException("unsupported body format " + bodyFormat);
+        }
+        bodyTable.add(body, decodedLength);
+        return new IndexedEntry(request, status, responseHeaders, contentType, body);
+    }
+
+    /**
+     * Reads a length-prefixed blob as a view of the index buffer, without copying it.
+     * @return the blob source, or null if the value is null
+     */
+    @Nullable
+    private static ByteSource readBlobSource(ByteBuffer in) throws IOException {
+        int length = HarIndexFormat.readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        if (length == 0) {
+            return ByteSource.empty();
+        }
+        ByteBuffer blob = in.slice();
+        blob.limit(length);
+        in.position(in.position() + length);
+        return new BufferByteSource(blob);
+    }
+
+    private static String requireString(ByteBuffer in) throws IOException {
+        @Nullable String value = HarIndexFormat.readString(in);
+        if (value == null) {
+            throw new IOException("unexpected null string in index");
+        }
+        return value;
+    }
+
+    @Nullable
+    private static ImmutableMultimap<String, Optional<String>> readQuery(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if (count < -1) {
+            throw new IOException("invalid count " + count);
+        }
+        if (count == -1) {
+            return null;
+        }
+        ImmutableMultimap.Builder<String, Optional<String>> query = ImmutableMultimap.builder();
+        for (int i = 0; i < count; i++) {
+            query.put(requireString(in), Optional.ofNullable(HarIndexFormat.readString(in)));
+        }
+        return query.build();
+    }
+
+    private static ImmutableMultimap<String, String> readPairs(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if (count < 0) {
+            throw new IOException("invalid count " + count);
+        }
+        ImmutableMultimap.Builder<String, String> pairs = ImmutableMultimap.builder();
+        for (int i = 0; i < count; i++) {
+            pairs.put(requireString(in), requireString(in));
+        }
+        return pairs.build();
+    }
+
+    /**
+     * Checks whether this index was compiled from the given HAR file, by comparing
+     * the size and modification time of the file with those recorded in this index.
+     * The HAR file is not read.
+     * @param harFile the HAR file
+     * @return true if the HAR file matches the one recorded in this index
+     * @throws IOException on I/O error
+     * @see HarIndexSource#matches(File, boolean)
+     */
+    public boolean isCompiledFrom(File harFile) throws IOException {
+        return source.matches(harFile, false);
+    }
+
+    public HarIndexSource getSource() {
+        return source;
+    }
+
+    public HashCode getSourceChecksum() {
+        return source.getChecksum();
+    }
+
+    public ImmutableList<IndexedEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets statistics on the sharing of response bodies among entries.
+     * @return the statistics, measured in decoded bytes
+     */
+    public DeduplicationStats getDeduplicationStats() {
+        return deduplicationStats;
+    }
+
+    @Override
+    public String toString() {
+        return "HarIndex{" + indexFile + ", entries=" + entries.size() + "}";
+    }
+
+    private static class BufferByteSource extends ByteSource {
+
+        private final ByteBuffer buffer;
+
+        public BufferByteSource(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new BufferInputStream(buffer.duplicate());
+        }
+
+        @Override
+        public com.google.common.base.Optional<Long> sizeIfKnown() {
+            return com.google.common.base.Optional.of((long) buffer.remaining());
+        }
+
+        @Override
+        public long size() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public byte[] read() {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private static class GunzippingByteSource extends ByteSource {
+
+        private final ByteSource compressed;
+        private final long decodedLength;
+
+        public GunzippingByteSource(ByteSource compressed, long decodedLength) {
+            this.compressed = compressed;
+            this.decodedLength = decodedLength;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new GZIPInputStream(compressed.openStream());
+        }
+
+        @Override
+        public com.google.common.base.Optional<Long> sizeIfKnown() {
+            return com.google.common.base.Optional.of(decodedLength);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.mike10004.vhs.index;
+
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and primitive codecs for the compiled HAR index file format.
+ * All numbers are big-endian. The file contains a header followed by entry records.
+ * Response bodies are stored by content: a body identical to one stored by an earlier
+ * entry is stored as a reference to that body, which is identified by its ordinal
+ * among the stored bodies.
+ *
+ * <pre>
+ * header:  int magic, int version, long sourceLength, long sourceLastModified, byte[32] sourceSha256,
+ *          int entryCount
+ * entry:   string method, string url, query query, pairs requestHeaders, blob requestBody,
+ *          int status, pairs responseHeaders, string contentType,
+ *          body responseBody
+ * body:    byte bodyFormat (raw or gzip), long decodedBodyLength, blob storedBody;
+ *          or byte bodyFormat (reference), int storedBodyOrdinal
+ * string:  int length (-1 for null), UTF-8 bytes
+ * pairs:   int count, (string name, string value)*
+ * query:   int count (-1 for null), (string name, string value)*; a null value is a parameter without '='
+ * blob:    int length (-1 for null), bytes
+ * </pre>
+ */
+final class HarIndexFormat {
+
+    /**
+     * Magic number, which is {@code VHSI} in ASCII.
+     */
+    static final int MAGIC = 0x56485349;
+
+    /**
+     * Current version. Increment this whenever the layout changes.
+     */
+    static final int VERSION = 3;
+
+    static final int SHA256_LENGTH = 32;
+
+    /**
+     * Length of the header up to but excluding the entry count.
+     */
+    static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + SHA256_LENGTH;
+
+    static final byte BODY_FORMAT_RAW = 0;
+    static final byte BODY_FORMAT_GZIP = 1;
+    static final byte BODY_FORMAT_REFERENCE = 2;
+
+    private HarIndexFormat() {}
+
+    static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        writeBlob(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void writeBlob(DataOutputStream out, @Nullable byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    @Nullable
+    static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = readBlob(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    static byte[] readBlob(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a length prefix and checks that that many bytes remain.
+     * @param in the buffer
+     * @return the length, or -1 if the value is null
+     * @throws IOException if the length is invalid
+     */
+    static int readLength(ByteBuffer in) throws IOException {
+        int length;
+        try {
+            length = in.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("index file is truncated", e);
+        }
+        if (length < -1 || length > in.remaining()) {
+            throw new IOException("invalid length " + length + " at position " + (in.position() - 4));
+        }
+        return length;
+    }
+}
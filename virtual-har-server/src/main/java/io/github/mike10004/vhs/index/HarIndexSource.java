@@ -0,0 +1,144 @@
+package io.github.mike10004.vhs.index;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Description of the HAR file that an index was compiled from, as recorded in the
+ * header of the index file. The size and modification time of the HAR file are
+ * compared to check cheaply whether an index is current; the checksum is compared
+ * only on request, because computing it reads the whole HAR file.
+ */
+public final class HarIndexSource {
+
+    private final long length;
+    private final long lastModified;
+    private final HashCode checksum;
+
+    private HarIndexSource(long length, long lastModified, HashCode checksum) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.checksum = requireNonNull(checksum);
+    }
+
+    /**
+     * Describes a HAR file. This reads the whole file to compute its checksum.
+     * @param harFile the HAR file
+     * @return the description
+     * @throws IOException on I/O error
+     */
+    static HarIndexSource describe(File harFile) throws IOException {
+        long lastModified = harFile.lastModified();
+        HashCode checksum = checksum(harFile);
+        return new HarIndexSource(harFile.length(), lastModified, checksum);
+    }
+
+    /**
+     * Computes the checksum of a HAR file that is recorded in indexes compiled from it.
+     * @param harFile the HAR file
+     * @return the checksum
+     * @throws IOException on I/O error
+     */
+    static HashCode checksum(File harFile) throws IOException {
+        return Files.asByteSource(harFile).hash(Hashing.sha256());
+    }
+
+    /**
+     * Reads the description of the HAR file from the header of an index file,
+     * without reading the entries.
+     * @param indexFile the index file
+     * @return the description
+     * @throws IOException if the file cannot be read, is not an index file,
+     * or was written in an unsupported version of the format
+     */
+    public static HarIndexSource read(File indexFile) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HarIndexFormat.HEADER_LENGTH);
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("index file is truncated: " + indexFile);
+                }
+            }
+        }
+        header.flip();
+        return readHeader(indexFile, header);
+    }
+
+    /**
+     * Reads the header of an index file, up to but excluding the entry count.
+     */
+    static HarIndexSource readHeader(File indexFile, ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != HarIndexFormat.MAGIC) {
+                throw new IOException("not an index file: " + indexFile);
+            }
+            int version = in.getInt();
+            if (version != HarIndexFormat.VERSION) {
+                throw new IOException("unsupported index version " + version + " in " + indexFile + "; recompile the index");
+            }
+            long length = in.getLong();
+            long lastModified = in.getLong();
+            byte[] sha256 = new byte[HarIndexFormat.SHA256_LENGTH];
+            in.get(sha256);
+            return new HarIndexSource(length, lastModified, HashCode.fromBytes(sha256));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("index file is truncated: " + indexFile, e);
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(length);
+        out.writeLong(lastModified);
+        checkState(checksum.bits() == HarIndexFormat.SHA256_LENGTH * 8);
+        out.write(checksum.asBytes());
+    }
+
+    /**
+     * Checks whether a HAR file is the one described. The sizes are compared first.
+     * Then either the modification times or, if requested, the checksums are compared.
+     * Comparing checksums reads the whole HAR file, but detects a file that was
+     * copied or touched without being changed.
+     * @param harFile the HAR file
+     * @param verifyChecksum true to compare checksums instead of modification times
+     * @return true if the HAR file matches this description
+     * @throws IOException on I/O error
+     */
+    public boolean matches(File harFile, boolean verifyChecksum) throws IOException {
+        if (harFile.length() != length) {
+            return false;
+        }
+        if (verifyChecksum) {
+            return checksum.equals(checksum(harFile));
+        }
+        return harFile.lastModified() == lastModified;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public HashCode getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "HarIndexSource{length=" + length + ", lastModified=" + lastModified + ", checksum=" + checksum + "}";
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.mike10004.vhs.index;
+
+import com.google.common.collect.Multimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.EntryParser;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Class that compiles HAR entries into an index file that can be opened with
+ * {@link HarIndex#open(File)}. Requests and responses are parsed once, at
+ * compile time, and response bodies are stored decoded. Identical response
+ * bodies are stored once.
+ */
+public class HarIndexWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(HarIndexWriter.class);
+
+    private final boolean compressBodies;
+
+    private HarIndexWriter(Builder builder) {
+        compressBodies = builder.compressBodies;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Compiles entries parsed from a HAR file into an index file. The index file
+     * is written to a temporary file in the same directory and moved into place
+     * when complete.
+     * @param harFile the HAR file; its size, modification time, and checksum are recorded in the index
+     * @param entries entries read from the HAR file
+     * @param parser parser of the entries
+     * @param indexFile the index file to write
+     * @param <E> HAR entry type
+     * @throws IOException on I/O error
+     */
+    public <E> void write(File harFile, List<E> entries, EntryParser<E> parser, File indexFile) throws IOException {
+        HarIndexSource source = HarIndexSource.describe(harFile);
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp", parent);
+        try {
+            long length;
+            DeduplicationStats stats;
+            try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                 DataOutputStream out = new DataOutputStream(counter)) {
+                out.writeInt(HarIndexFormat.MAGIC);
+                out.writeInt(HarIndexFormat.VERSION);
+                source.write(out);
+                out.writeInt(entries.size());
+                BodyStore bodyStore = new BodyStore();
+                for (E entry : entries) {
+                    writeEntry(out, entry, parser, bodyStore);
+                }
+                stats = bodyStore.getStats();
+                out.flush();
+                length = counter.getCount();
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("index would be " + length + " bytes, which exceeds maximum mappable size");
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.debug("wrote {} entries to {} ({} bytes; {})", entries.size(), indexFile, length, stats);
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                log.info("failed to delete {}", tempFile);
+            }
+        }
+    }
+
+    /**
+     * Record of the response bodies written so far, by content hash.
+     */
+    private static class BodyStore {
+
+        private final Map<HashCode, Integer> ordinals = new HashMap<>();
+        private int bodyCount;
+        private long totalBytes, uniqueBytes;
+
+        /**
+         * Records a body.
+         * @param body the decoded body
+         * @return the ordinal of the stored body with the same content, or null if
+         * the body has not been stored yet and must be written
+         */
+        @Nullable
+        public Integer store(byte[] body) {
+            bodyCount++;
+            totalBytes += body.length;
+            HashCode hash = Hashing.sha256().hashBytes(body);
+            @Nullable Integer ordinal = ordinals.putIfAbsent(hash, ordinals.size());
+            if (ordinal == null) {
+                uniqueBytes += body.length;
+            }
+            return ordinal;
+        }
+
+        public DeduplicationStats getStats() {
+            return new DeduplicationStats(bodyCount, ordinals.size(), totalBytes, uniqueBytes);
+        }
+    }
+
+    private <E> void writeEntry(DataOutputStream out, E entry, EntryParser<E> parser, BodyStore bodyStore) throws IOException {
+        ParsedRequest request = parser.parseRequest(entry);
+        HarIndexFormat.writeString(out, request.method.name());
+        HarIndexFormat.writeString(out, request.url.toString());
+        writeQuery(out, request.query);
+        writePairs(out, request.indexedHeaders.entries());
+        byte[] requestBody = null;
+        if (request.isBodyPresent()) {
+            try (InputStream in = request.openBodyStream()) {
+                requestBody = ByteStreams.toByteArray(in);
+            }
+        }
+        HarIndexFormat.writeBlob(out, requestBody);
+        HttpRespondable response = parser.parseResponse(request, entry);
+        ByteArrayOutputStream bodyBuffer = new ByteArrayOutputStream();
+        MediaType contentType = response.writeBody(bodyBuffer);
+        byte[] body = bodyBuffer.toByteArray();
+        out.writeInt(response.getStatus());
+        writePairs(out, response.streamHeaders().collect(Collectors.toList()));
+        HarIndexFormat.writeString(out, contentType.toString());
+        @Nullable Integer storedOrdinal = bodyStore.store(body);
+        if (storedOrdinal != null) {
+            out.writeByte(HarIndexFormat.BODY_FORMAT_REFERENCE);
+            out.writeInt(storedOrdinal);
+            return;
+        }
+        byte[] compressed = compressBodies ? gzip(body) : null;
+        if (compressed != null && compressed.length < body.length) {
+            out.writeByte(HarIndexFormat.BODY_FORMAT_GZIP);
+            out.writeLong(body.length);
+            HarIndexFormat.writeBlob(out, compressed);
+        } else {
+            out.writeByte(HarIndexFormat.BODY_FORMAT_RAW);
+            out.writeLong(body.length);
+            HarIndexFormat.writeBlob(out, body);
+        }
+    }
+
+    private static void writeQuery(DataOutputStream out, @Nullable Multimap<String, Optional<String>> query) throws IOException {
+        if (query == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(query.size());
+        for (Map.Entry<String, Optional<String>> param : query.entries()) {
+            HarIndexFormat.writeString(out, param.getKey());
+            HarIndexFormat.writeString(out, param.getValue().orElse(null));
+        }
+    }
+
+    private static void writePairs(DataOutputStream out, Collection<? extends Map.Entry<String, String>> pairs) throws IOException {
+        out.writeInt(pairs.size());
+        for (Map.Entry<String, String> pair : pairs) {
+            HarIndexFormat.writeString(out, pair.getKey());
+            HarIndexFormat.writeString(out, pair.getValue());
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 2 + 32);
+        try (OutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(body);
+        }
+        return buffer.toByteArray();
+    }
+
+    public static final class Builder {
+
+        private boolean compressBodies;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets whether response bodies are stored compressed. Bodies that do not
+         * get smaller when compressed are stored uncompressed regardless.
+         * @param compressBodies true to compress bodies
+         * @return this instance
+         */
+        public Builder compressBodies(boolean compressBodies) {
+            this.compressBodies = compressBodies;
+            return this;
+        }
+
+        public HarIndexWriter build() {
+            return new HarIndexWriter(this);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.mike10004.vhs.index;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Class that represents an entry in a compiled HAR index. The request is
+ * held in memory; the response body is a view of the index file.
+ */
+public final class IndexedEntry {
+
+    public final ParsedRequest request;
+    public final int status;
+    public final ImmutableMultimap<String, String> responseHeaders;
+    public final MediaType contentType;
+    public final ByteSource responseBody;
+
+    IndexedEntry(ParsedRequest request, int status, ImmutableMultimap<String, String> responseHeaders, MediaType contentType, ByteSource responseBody) {
+        this.request = requireNonNull(request);
+        this.status = status;
+        this.responseHeaders = requireNonNull(responseHeaders);
+        this.contentType = requireNonNull(contentType);
+        this.responseBody = requireNonNull(responseBody);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedEntry{" + request.method + " " + request.url + " -> " + status + "}";
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.mike10004.vhs.index;
+
+import io.github.mike10004.vhs.EntryParser;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+/**
+ * Entry parser for entries of a compiled HAR index. Requests and responses
+ * were parsed when the index was compiled, so this just returns them.
+ */
+public class IndexedEntryParser implements EntryParser<IndexedEntry> {
+
+    @Override
+    public ParsedRequest parseRequest(IndexedEntry harEntry) {
+        return harEntry.request;
+    }
+
+    @Override
+    public HttpRespondable parseResponse(ParsedRequest request, IndexedEntry harEntry) {
+        return HttpRespondable.inMemory(harEntry.status, harEntry.responseHeaders, harEntry.contentType, harEntry.responseBody);
+    }
+}
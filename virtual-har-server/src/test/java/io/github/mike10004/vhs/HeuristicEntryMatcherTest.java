@@ -1,15 +1,35 @@
 package io.github.mike10004.vhs;
 
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class HeuristicEntryMatcherTest {
 
@@ -37,6 +57,191 @@ public class HeuristicEntryMatcherTest {
         assertEquals("content", "good", content);
     }
 
+    @Test
+    public void findTopEntry_entityTagComputedOnce() throws Exception {
+        String url = "http://example.com/page";
+        AtomicInteger responsesCreated = new AtomicInteger();
+        AtomicInteger bodyReads = new AtomicInteger();
+        HeuristicEntryMatcher.ParsedEntry entry = new HeuristicEntryMatcher.ParsedEntry(Tests.createRequest("GET", url), request_ -> {
+            responsesCreated.incrementAndGet();
+            ByteSource body = new ByteSource() {
+                @Override
+                public InputStream openStream() {
+                    bodyReads.incrementAndGet();
+                    return new ByteArrayInputStream("hello".getBytes(StandardCharsets.US_ASCII));
+                }
+            };
+            return HttpRespondable.inMemory(200, ImmutableMultimap.of(), MediaType.PLAIN_TEXT_UTF_8, body);
+        }, 1, true);
+        HeuristicEntryMatcher<Object> matcher = new HeuristicEntryMatcher<>(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE, Collections.singletonList(entry));
+        Set<String> entityTags = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            HttpRespondable response = matcher.findTopEntry(new Object(), Tests.createRequest("GET", url));
+            assertNotNull("response", response);
+            entityTags.add(response.getEntityTag());
+        }
+        assertEquals("responses created", 3, responsesCreated.get());
+        assertEquals("distinct entity tags", 1, entityTags.size());
+        String entityTag = entityTags.iterator().next();
+        assertNotNull("entity tag", entityTag);
+        assertTrue("quoted", entityTag.startsWith("\"") && entityTag.endsWith("\""));
+        assertEquals("body reads", 1, bodyReads.get());
+    }
+
+    @Test
+    public void precomputeEntityTags() throws Exception {
+        String url = "http://example.com/page";
+        AtomicInteger bodyReads = new AtomicInteger();
+        ByteSource body = new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                bodyReads.incrementAndGet();
+                return new ByteArrayInputStream("hello".getBytes(StandardCharsets.US_ASCII));
+            }
+        };
+        EntryParser<String> parser = new EntryParser<String>() {
+            @Override
+            public ParsedRequest parseRequest(String entryUrl) {
+                return Tests.createRequest("GET", entryUrl);
+            }
+
+            @Override
+            public HttpRespondable parseResponse(ParsedRequest request, String entryUrl) {
+                return HttpRespondable.inMemory(200, ImmutableMultimap.of(), MediaType.PLAIN_TEXT_UTF_8, body);
+            }
+        };
+        EntryMatcher<Object> matcher = HeuristicEntryMatcher.factoryBuilder(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE)
+                .entityTagging(true)
+                .build()
+                .createEntryMatcher(Collections.singletonList(url), parser);
+        assertEquals("body reads while precomputing", 1, bodyReads.get());
+        HttpRespondable response = matcher.findTopEntry(new Object(), Tests.createRequest("GET", url));
+        assertNotNull("response", response);
+        assertNotNull("entity tag", response.getEntityTag());
+        assertEquals("body reads after precomputing", 1, bodyReads.get());
+    }
+
+    @Test
+    public void findTopEntry_entityTaggingDisabled() throws Exception {
+        String url = "http://example.com/page";
+        HttpRespondable recorded = HttpRespondable.inMemory(200, ImmutableMultimap.of(), MediaType.PLAIN_TEXT_UTF_8, new byte[0]);
+        HeuristicEntryMatcher.ParsedEntry entry = new HeuristicEntryMatcher.ParsedEntry(Tests.createRequest("GET", url), request_ -> recorded);
+        HeuristicEntryMatcher<Object> matcher = new HeuristicEntryMatcher<>(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE, Collections.singletonList(entry));
+        HttpRespondable response = matcher.findTopEntry(new Object(), Tests.createRequest("GET", url));
+        assertSame("response not wrapped", recorded, response);
+    }
+
+    @Test
+    public void findTopEntry_recordedEntityTagPreferred() throws Exception {
+        String url = "http://example.com/page";
+        HttpRespondable recorded = HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.ETAG, "\"v1\""), MediaType.PLAIN_TEXT_UTF_8, new byte[0]);
+        HeuristicEntryMatcher.ParsedEntry entry = new HeuristicEntryMatcher.ParsedEntry(Tests.createRequest("GET", url), request_ -> recorded);
+        HeuristicEntryMatcher<Object> matcher = new HeuristicEntryMatcher<>(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE, Collections.singletonList(entry));
+        HttpRespondable response = matcher.findTopEntry(new Object(), Tests.createRequest("GET", url));
+        assertNotNull("response", response);
+        assertEquals("entity tag", "\"v1\"", response.getEntityTag());
+    }
+
+    @Test
+    public void parseEntries_parallel() throws Exception {
+        List<String> urls = IntStream.range(0, 1000)
+                .mapToObj(i -> "http://example.com/page/" + i)
+                .collect(Collectors.toList());
+        Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+        EntryParser<String> parser = new EntryParser<String>() {
+            @Override
+            public ParsedRequest parseRequest(String url) {
+                threadNames.add(Thread.currentThread().getName());
+                return Tests.createRequest("GET", url);
+            }
+
+            @Override
+            public HttpRespondable parseResponse(ParsedRequest request, String url) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        HeuristicEntryMatcher.Factory<Object> factory = new HeuristicEntryMatcher.Factory<>(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE, 4);
+        List<HeuristicEntryMatcher.ParsedEntry> parsedEntries = factory.parseEntries(urls, parser);
+        List<String> parsedUrls = parsedEntries.stream().map(entry -> entry.request.url.toString()).collect(Collectors.toList());
+        assertEquals("order preserved", urls, parsedUrls);
+        assertTrue("multiple threads used: " + threadNames, threadNames.size() > 1);
+    }
+
+    @Test
+    public void parseEntries_parallel_exceptionPropagated() throws Exception {
+        List<String> urls = IntStream.range(0, 1000)
+                .mapToObj(i -> "http://example.com/page/" + i)
+                .collect(Collectors.toList());
+        EntryParser<String> parser = new EntryParser<String>() {
+            @Override
+            public ParsedRequest parseRequest(String url) throws IOException {
+                if (url.endsWith("/777")) {
+                    throw new IOException("malformed");
+                }
+                return Tests.createRequest("GET", url);
+            }
+
+            @Override
+            public HttpRespondable parseResponse(ParsedRequest request, String url) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        HeuristicEntryMatcher.Factory<Object> factory = new HeuristicEntryMatcher.Factory<>(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE, 4);
+        try {
+            factory.parseEntries(urls, parser);
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertEquals("malformed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void createEntryMatcher_suppliedExecutorAndListener() throws Exception {
+        List<String> urls = IntStream.range(0, 1000)
+                .mapToObj(i -> "http://example.com/page/" + i + " a")
+                .collect(Collectors.toList());
+        AtomicInteger executions = new AtomicInteger();
+        ExecutorService executor = HeuristicEntryMatcher.newParsingExecutor(4);
+        Map<HeuristicEntryMatcher.ConstructionListener.Step, Duration> steps = new ConcurrentHashMap<>();
+        try {
+            EntryMatcherFactory<Object> factory = HeuristicEntryMatcher.factoryBuilder(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE)
+                    .parallelism(4)
+                    .collapseDuplicates(true)
+                    .parsingExecutor(task -> {
+                        executions.incrementAndGet();
+                        executor.execute(task);
+                    })
+                    .constructionListener(steps::put)
+                    .build();
+            EntryParser<String> parser = new StatefulHeuristicEntryMatcherTest.TextEntryParser();
+            factory.createEntryMatcher(urls, parser);
+            int executionsPerMatcher = executions.get();
+            assertTrue("supplied executor used", executionsPerMatcher > 0);
+            assertEquals("steps", EnumSet.of(HeuristicEntryMatcher.ConstructionListener.Step.PARSING, HeuristicEntryMatcher.ConstructionListener.Step.COLLAPSING), steps.keySet());
+            factory.createEntryMatcher(urls, parser);
+            assertEquals("supplied executor reused", 2 * executionsPerMatcher, executions.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parseEntries_collapseDuplicates() throws Exception {
+        List<String> entries = Arrays.asList(
+                "http://example.com/poll a",
+                "http://example.com/other x",
+                "http://example.com/poll a",
+                "http://example.com/poll b",
+                "http://example.com/poll b",
+                "http://example.com/poll a");
+        HeuristicEntryMatcher.Factory<Object> factory = new HeuristicEntryMatcher.Factory<>(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE, 1, true);
+        List<HeuristicEntryMatcher.ParsedEntry> parsedEntries = factory.parseEntries(entries, new StatefulHeuristicEntryMatcherTest.TextEntryParser());
+        List<String> collapsed = parsedEntries.stream()
+                .map(entry -> entry.request.url.getPath() + "*" + entry.repeatCount)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("/poll*2", "/other*1", "/poll*2", "/poll*1"), collapsed);
+    }
+
     protected HeuristicEntryMatcher.ParsedEntry createEntry(String method, String url, int status, MediaType contentType, String bodyText) {
         ParsedRequest request = Tests.createRequest(method, url);
         assert contentType.charset().isPresent();
@@ -0,0 +1,140 @@
+package io.github.mike10004.vhs;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressiveEntryMatcherTest {
+
+    private static final long LONG_WAIT_MS = 10000;
+
+    @Test
+    public void findTopEntry_bucketLoaded() throws Exception {
+        ProgressiveEntryMatcher<Object, String> matcher = createMatcher(LONG_WAIT_MS);
+        matcher.setEntriesTotal(3);
+        matcher.add("http://example.com/a a");
+        assertEquals("a", findBodyText(matcher, "http://example.com/a"));
+        assertFalse("complete", matcher.isComplete());
+        assertEquals(1, matcher.getEntriesLoaded());
+        assertEquals(3, matcher.getEntriesTotal());
+    }
+
+    @Test
+    public void findTopEntry_waitsForEntry() throws Exception {
+        ProgressiveEntryMatcher<Object, String> matcher = createMatcher(LONG_WAIT_MS);
+        matcher.add("http://example.com/a a");
+        CompletableFuture<String> answer = CompletableFuture.supplyAsync(() -> findBodyText(matcher, "http://example.com/b"));
+        Thread.sleep(100);
+        assertFalse("answered before entry was added", answer.isDone());
+        matcher.add("http://example.com/b b");
+        assertEquals("b", answer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void findTopEntry_repeatedRequestWaitsForNextEntry() throws Exception {
+        ProgressiveEntryMatcher<Object, String> matcher = createMatcher(LONG_WAIT_MS);
+        matcher.add("http://example.com/a first");
+        assertEquals("first", findBodyText(matcher, "http://example.com/a"));
+        CompletableFuture<String> answer = CompletableFuture.supplyAsync(() -> findBodyText(matcher, "http://example.com/a"));
+        Thread.sleep(100);
+        assertFalse("answered before second entry was added", answer.isDone());
+        matcher.add("http://example.com/a second");
+        assertEquals("stateless matcher answers with first entry", "first", answer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void findTopEntry_timeoutWaitsForCompleteMatcher() throws Exception {
+        ProgressiveEntryMatcher<Object, String> matcher = createMatcher(50);
+        matcher.add("http://example.com/a a");
+        CompletableFuture<String> answer = CompletableFuture.supplyAsync(() -> findBodyText(matcher, "http://example.com/a?b=c"));
+        Thread.sleep(200);
+        assertFalse("answered from bucket after timeout", answer.isDone());
+        matcher.add("http://example.com/a?b=c b");
+        matcher.finish();
+        assertEquals("b", answer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void findTopEntry_blockingNotPermitted() throws Exception {
+        EntryMatcherFactory<Object> factory = HeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE);
+        ProgressiveEntryMatcher<Object, String> matcher = new ProgressiveEntryMatcher<>(factory, factory, new TextEntryParser(), LONG_WAIT_MS, TimeUnit.MILLISECONDS, () -> false);
+        matcher.add("http://example.com/a a");
+        assertEquals("a", findBodyText(matcher, "http://example.com/a"));
+        assertNull("not waited for", findBodyText(matcher, "http://example.com/b"));
+        matcher.add("http://example.com/b b");
+        matcher.finish();
+        assertEquals("b", findBodyText(matcher, "http://example.com/b"));
+    }
+
+    @Test
+    public void finish() throws Exception {
+        ProgressiveEntryMatcher<Object, String> matcher = createMatcher(LONG_WAIT_MS);
+        matcher.add("http://example.com/a a");
+        matcher.add("http://example.com/a?b=c b");
+        assertFalse(matcher.getReadiness().isDone());
+        matcher.finish();
+        assertTrue(matcher.getReadiness().isDone());
+        assertTrue(matcher.isComplete());
+        assertEquals("b", findBodyText(matcher, "http://example.com/a?b=c"));
+        assertNull(findBodyText(matcher, "http://example.com/c"));
+    }
+
+    @Test
+    public void fail_releasesWaiters() throws Exception {
+        ProgressiveEntryMatcher<Object, String> matcher = createMatcher(LONG_WAIT_MS);
+        CompletableFuture<String> answer = CompletableFuture.supplyAsync(() -> findBodyText(matcher, "http://example.com/a"));
+        Thread.sleep(100);
+        matcher.fail(new IOException("malformed"));
+        assertNull(answer.get(5, TimeUnit.SECONDS));
+        assertTrue(matcher.getReadiness().isCompletedExceptionally());
+        assertTrue(matcher.isComplete());
+    }
+
+    private static ProgressiveEntryMatcher<Object, String> createMatcher(long maxWaitMs) {
+        EntryMatcherFactory<Object> factory = HeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE);
+        return new ProgressiveEntryMatcher<>(factory, new TextEntryParser(), maxWaitMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Nullable
+    private static String findBodyText(ProgressiveEntryMatcher<Object, String> matcher, String url) {
+        @Nullable HttpRespondable response = matcher.findTopEntry(null, Tests.createRequest("GET", url));
+        if (response == null) {
+            return null;
+        }
+        try {
+            return Tests.readAsString(response);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Parser of entries that are a URL and a response body separated by a space.
+     */
+    private static class TextEntryParser implements EntryParser<String> {
+
+        @Override
+        public ParsedRequest parseRequest(String entry) {
+            return Tests.createRequest("GET", entry.substring(0, entry.indexOf(' ')));
+        }
+
+        @Override
+        public HttpRespondable parseResponse(ParsedRequest request, String entry) {
+            String bodyText = entry.substring(entry.indexOf(' ') + 1);
+            return HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString()), MediaType.PLAIN_TEXT_UTF_8, bodyText.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.github.mike10004.vhs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteStreams;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RuleBasedRequestCanonicalizerTest {
+
+    private static ParsedRequest request(String url, ImmutableMultimap<String, String> headers) {
+        URI uri = URI.create(url);
+        return ParsedRequest.inMemory(HttpMethod.GET, uri, HttpRequests.parseQuery(uri), headers, null);
+    }
+
+    @Test
+    public void removeAndSortQueryParameters() {
+        RequestCanonicalizer canonicalizer = RuleBasedRequestCanonicalizer.builder()
+                .removeQueryParameters(ImmutableList.of("_", "CB"))
+                .sortQueryParameters(true)
+                .build();
+        ParsedRequest canonical = canonicalizer.canonicalize(request("http://example.com/a?z=1&_=1700000000&b=%20x&cb=9&a=2&a=1#frag", ImmutableMultimap.of()));
+        assertEquals("url", "http://example.com/a?a=2&a=1&b=%20x&z=1#frag", canonical.url.toString());
+        assertEquals("query", ImmutableMultimap.of("a", Optional.of("2"), "a", Optional.of("1"), "b", Optional.of(" x"), "z", Optional.of("1")), canonical.query);
+        ParsedRequest other = canonicalizer.canonicalize(request("http://example.com/a?b=%20x&a=2&_=1700000001&z=1&a=1#frag", ImmutableMultimap.of()));
+        assertEquals("same url", canonical.url, other.url);
+    }
+
+    @Test
+    public void removeAllQueryParameters() {
+        RequestCanonicalizer canonicalizer = RuleBasedRequestCanonicalizer.builder()
+                .removeQueryParameters(ImmutableList.of("_"))
+                .build();
+        ParsedRequest canonical = canonicalizer.canonicalize(request("http://example.com/a?_=123", ImmutableMultimap.of()));
+        assertEquals("url", "http://example.com/a", canonical.url.toString());
+        assertNull("query", canonical.query);
+    }
+
+    @Test
+    public void normalizeQueryParameter() {
+        RequestCanonicalizer canonicalizer = RuleBasedRequestCanonicalizer.builder()
+                .normalizeQueryParameters(ImmutableList.of("v"))
+                .build();
+        ParsedRequest canonical = canonicalizer.canonicalize(request("http://example.com/app.js?v=1.2.3&x=y", ImmutableMultimap.of()));
+        assertEquals("url", "http://example.com/app.js?v&x=y", canonical.url.toString());
+        assertEquals("v", ImmutableList.of(Optional.empty()), canonical.query.get("v"));
+    }
+
+    @Test
+    public void removeAndNormalizeHeaders() {
+        RequestCanonicalizer canonicalizer = RuleBasedRequestCanonicalizer.builder()
+                .removeHeaders(ImmutableList.of("X-Request-ID"))
+                .normalizeHeaders(ImmutableList.of("Cookie"))
+                .build();
+        ParsedRequest original = request("http://example.com/", ImmutableMultimap.of("x-request-id", "abc", "cookie", "session=1", "accept", "*/*"));
+        ParsedRequest canonical = canonicalizer.canonicalize(original);
+        assertEquals("headers", ImmutableMultimap.of("cookie", "", "accept", "*/*"), canonical.indexedHeaders);
+        assertSame("url", original.url, canonical.url);
+    }
+
+    @Test
+    public void unchanged() {
+        RequestCanonicalizer canonicalizer = RuleBasedRequestCanonicalizer.builder()
+                .removeHeaders(ImmutableList.of("cookie"))
+                .build();
+        ParsedRequest original = request("http://example.com/?a=b", ImmutableMultimap.of("accept", "*/*"));
+        assertSame(original, canonicalizer.canonicalize(original));
+    }
+
+    @Test
+    public void unchanged_queryRulesNotMatching() {
+        RequestCanonicalizer canonicalizer = RuleBasedRequestCanonicalizer.builder()
+                .removeQueryParameters(ImmutableList.of("_"))
+                .normalizeQueryParameters(ImmutableList.of("v"))
+                .sortQueryParameters(true)
+                .build();
+        ParsedRequest original = request("http://example.com/a?a=1&b=%20x#frag", ImmutableMultimap.of("accept", "*/*"));
+        assertSame(original, canonicalizer.canonicalize(original));
+    }
+
+    @Test
+    public void bodyRetained() throws Exception {
+        RequestCanonicalizer canonicalizer = RuleBasedRequestCanonicalizer.builder()
+                .removeHeaders(ImmutableList.of("cookie"))
+                .build();
+        URI url = URI.create("http://example.com/form");
+        ParsedRequest original = ParsedRequest.inMemory(HttpMethod.POST, url, null, ImmutableMultimap.of("cookie", "x"), "a=b".getBytes());
+        ParsedRequest canonical = canonicalizer.canonicalize(original);
+        assertTrue(canonical.isBodyPresent());
+        assertEquals("a=b", new String(ByteStreams.toByteArray(canonical.openBodyStream())));
+        assertFalse(canonical.indexedHeaders.containsKey("cookie"));
+    }
+}
@@ -1,6 +1,9 @@
 package io.github.mike10004.vhs;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
@@ -10,6 +13,7 @@ import io.github.mike10004.vhs.bmp.BmpResponseManufacturer;
 import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig;
 import io.github.mike10004.vhs.bmp.BrowsermobVirtualHarServer;
 import io.github.mike10004.vhs.bmp.HarReplayManufacturer;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
 import org.junit.Rule;
 import org.junit.Test;
@@ -46,6 +50,44 @@ public class StatefulHeuristicEntryMatcherTest {
         assertEquals("responses", Arrays.asList("first", "first", "first"), responses);
     }
 
+    @Test
+    public void collapseDuplicates_preservesSequence() throws Exception {
+        List<String> entries = Arrays.asList(
+                "http://example.com/poll a",
+                "http://example.com/poll a",
+                "http://example.com/other x",
+                "http://example.com/poll a",
+                "http://example.com/poll b",
+                "http://example.com/poll a");
+        EntryMatcherFactory<ReplaySessionState> factory = StatefulHeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE, 1, true);
+        EntryMatcher<ReplaySessionState> entryMatcher = factory.createEntryMatcher(entries, new TextEntryParser());
+        ReplaySessionState state = ReplaySessionState.countingUrlMethodPairs();
+        List<String> responses = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ParsedRequest request = Tests.createRequest("GET", "http://example.com/poll");
+            state.register(request);
+            responses.add(Tests.readAsString(entryMatcher.findTopEntry(state, request)));
+        }
+        assertEquals("responses", Arrays.asList("a", "a", "a", "b", "a", "a"), responses);
+    }
+
+    /**
+     * Parser of entries that are a URL and a response body separated by a space.
+     */
+    static class TextEntryParser implements EntryParser<String> {
+
+        @Override
+        public ParsedRequest parseRequest(String entry) {
+            return Tests.createRequest("GET", entry.substring(0, entry.indexOf(' ')));
+        }
+
+        @Override
+        public HttpRespondable parseResponse(ParsedRequest request, String entry) {
+            String bodyText = entry.substring(entry.indexOf(' ') + 1);
+            return HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString()), MediaType.PLAIN_TEXT_UTF_8, bodyText.getBytes(UTF_8));
+        }
+    }
+
     private List<String> testEntryMatcher(EntryMatcherFactory<? super ReplaySessionState> entryMatcherFactory) throws Exception {
         File harFile = temporaryFolder.newFile();
         Resources.asByteSource(getClass().getResource("/multiple-requests-same-url.json")).copyTo(Files.asByteSink(harFile));
@@ -0,0 +1,122 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.io.CharSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncManufacturingHandlerTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final CountDownLatch manufacturingAllowed = new CountDownLatch(1);
+    private ManufacturingExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void respondsAfterManufacturing() throws Exception {
+        executor = new ManufacturingExecutor(AsyncManufacturingConfig.getDefault());
+        EmbeddedChannel channel = createChannel();
+        manufacturingAllowed.countDown();
+        channel.writeInbound(createRequest("/foo"));
+        FullHttpResponse response = awaitResponse(channel, 1);
+        assertEquals("status", 200, response.status().code());
+        assertEquals("content", "hello, world", response.content().toString(StandardCharsets.UTF_8));
+        assertTrue("reading resumed", channel.config().isAutoRead());
+        assertEquals("completed", 1, executor.getMetrics().getCompletedCount());
+        response.release();
+    }
+
+    @Test
+    public void respondsWithOverloadStatusWhenQueueIsFull() throws Exception {
+        executor = new ManufacturingExecutor(AsyncManufacturingConfig.builder()
+                .workerThreads(1)
+                .queueCapacity(1)
+                .retryAfter(Duration.ofSeconds(2))
+                .build());
+        EmbeddedChannel manufacturing = createChannel(), queued = createChannel(), rejected = createChannel();
+        manufacturing.writeInbound(createRequest("/a"));
+        queued.writeInbound(createRequest("/b"));
+        rejected.writeInbound(createRequest("/c"));
+        FullHttpResponse overloadResponse = rejected.readOutbound();
+        assertEquals("overload status", AsyncManufacturingConfig.DEFAULT_OVERLOAD_STATUS, overloadResponse.status().code());
+        assertEquals("retry-after", "2", overloadResponse.headers().get(HttpHeaders.RETRY_AFTER));
+        ManufacturingMetrics metrics = executor.getMetrics();
+        assertEquals("queue depth", 1, metrics.getQueueDepth());
+        assertEquals("peak queue depth", 1, metrics.getPeakQueueDepth());
+        assertEquals("rejected", 1, metrics.getRejectedCount());
+        assertEquals("completed", 0, metrics.getCompletedCount());
+        assertNull("no response yet", queued.readOutbound());
+        manufacturingAllowed.countDown();
+        assertEquals("status", 200, awaitResponse(manufacturing, 2).status().code());
+        assertEquals("status", 200, awaitResponse(queued, 2).status().code());
+        metrics = executor.getMetrics();
+        assertEquals("queue depth after completion", 0, metrics.getQueueDepth());
+        assertEquals("peak queue depth after completion", 1, metrics.getPeakQueueDepth());
+        assertEquals("completed", 2, metrics.getCompletedCount());
+        assertEquals("rejected after completion", 1, metrics.getRejectedCount());
+    }
+
+    private EmbeddedChannel createChannel() {
+        BmpResponseManufacturer<Object> manufacturer = new BmpResponseManufacturer<Object>() {
+            @Override
+            public ResponseCapture manufacture(Object state, RequestCapture capture) {
+                try {
+                    manufacturingAllowed.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                ImmutableHttpResponse response = ImmutableHttpResponse.builder(200)
+                        .content(MediaType.PLAIN_TEXT_UTF_8, CharSource.wrap("hello, world").asByteSource(StandardCharsets.UTF_8))
+                        .build();
+                return ResponseCapture.matched(new BmpHttpAssistant().constructResponse(capture, response));
+            }
+
+            @Override
+            public Object createFreshState() {
+                return new Object();
+            }
+        };
+        ResponseManufacturingFiltersSource filtersSource = new ResponseManufacturingFiltersSource(manufacturer.withFreshState(),
+                (connectRequest, ctx) -> null, BmpResponseListener.inactive(), (request, ctx) -> false);
+        return new EmbeddedChannel(new AsyncManufacturingHandler(filtersSource, executor, false));
+    }
+
+    private static DefaultFullHttpRequest createRequest(String path) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://www.example.com" + path);
+    }
+
+    private FullHttpResponse awaitResponse(EmbeddedChannel channel, long completedCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        // the response is written by a task that the worker posts to the channel's event loop
+        while (executor.getMetrics().getCompletedCount() < completedCount) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        channel.runPendingTasks();
+        FullHttpResponse response = channel.readOutbound();
+        assertTrue("response written", response != null);
+        return response;
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.net.HostAndPort;
 import com.google.common.net.MediaType;
 import com.browserup.harreader.HarReaderException;
 import com.browserup.harreader.HarReaderMode;
@@ -22,8 +23,16 @@ import io.github.mike10004.vhs.ResponseInterceptor;
 import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
 
 import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -68,6 +77,74 @@ public class BmpTests {
         return keystoreDataCache.get(certificateCommonName);
     }
 
+    /**
+     * Opens a tunnel to a host through a proxy and sends a request through it over TLS 1.2.
+     * Sessions are cached by the client context, so a later tunnel to the same host
+     * with the same context may resume the session.
+     * @param proxy the proxy address
+     * @param clientContext the client context
+     * @param host the host
+     * @return the status line of the response
+     * @throws IOException on I/O error
+     */
+    public static String requestThroughTunnel(HostAndPort proxy, SSLContext clientContext, String host) throws IOException {
+        try (Socket socket = new Socket(proxy.getHost(), proxy.getPort())) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(String.format("CONNECT %s:443 HTTP/1.1\r\nHost: %s:443\r\n\r\n", host, host).getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            readHead(socket.getInputStream());
+            try (SSLSocket sslSocket = (SSLSocket) clientContext.getSocketFactory().createSocket(socket, host, 443, false)) {
+                sslSocket.setEnabledProtocols(new String[]{"TLSv1.2"});
+                sslSocket.startHandshake();
+                OutputStream sslOut = sslSocket.getOutputStream();
+                sslOut.write(String.format("GET / HTTP/1.1\r\nHost: %s\r\nConnection: close\r\n\r\n", host).getBytes(StandardCharsets.US_ASCII));
+                sslOut.flush();
+                return new BufferedReader(new InputStreamReader(sslSocket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+            }
+        }
+    }
+
+    /**
+     * Sends a request directly to a server, as to an origin, and reads the status line
+     * of the response. If a client context is provided, the request is sent over TLS 1.2
+     * and the server name is indicated in the handshake.
+     * @param server the server address
+     * @param clientContext the client context, or null to send the request in the clear
+     * @param serverName the server name to indicate in the handshake
+     * @param requestHead the request line and headers, each terminated by CRLF
+     * @return the status line of the response
+     * @throws IOException on I/O error
+     */
+    public static String requestDirectly(HostAndPort server, @Nullable SSLContext clientContext, String serverName, String requestHead) throws IOException {
+        try (Socket socket = new Socket(server.getHost(), server.getPort())) {
+            socket.setSoTimeout(10000);
+            Socket channel = socket;
+            if (clientContext != null) {
+                SSLSocket sslSocket = (SSLSocket) clientContext.getSocketFactory().createSocket(socket, serverName, server.getPort(), false);
+                sslSocket.setEnabledProtocols(new String[]{"TLSv1.2"});
+                sslSocket.startHandshake();
+                channel = sslSocket;
+            }
+            OutputStream out = channel.getOutputStream();
+            out.write((requestHead + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return new BufferedReader(new InputStreamReader(channel.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+        }
+    }
+
+    private static void readHead(InputStream in) throws IOException {
+        int matched = 0;
+        byte[] terminator = {'\r', '\n', '\r', '\n'};
+        while (matched < terminator.length) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("connection closed before end of response head");
+            }
+            matched = b == terminator[matched] ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
     private static MapperFactory tolerantMapperFactory() {
         return new MapperFactory() {
             @Override
@@ -18,6 +18,7 @@ import io.github.mike10004.vhs.EntryMatcherFactory;
 import io.github.mike10004.vhs.HeuristicEntryMatcher;
 import io.github.mike10004.vhs.VirtualHarServer;
 import io.github.mike10004.vhs.VirtualHarServerControl;
+import io.github.mike10004.vhs.bmp.BrowsermobVirtualHarServer.BrowsermobVhsControl;
 import io.github.mike10004.vhs.bmp.ResponseManufacturingFiltersSource.PassthruPredicate;
 import io.github.mike10004.vhs.testsupport.VhsTests;
 import io.netty.channel.ChannelHandlerContext;
@@ -49,6 +50,13 @@ import static org.junit.Assert.assertTrue;
 
 public class BrowsermobVirtualHarServerTest extends BrowsermobVirtualHarServerTestBase {
 
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHttp2() throws Exception {
+        new BrowsermobVirtualHarServer(BrowsermobVhsConfig.builder(BmpTests.createManufacturer(Collections.emptyList(), Collections.emptyList()))
+                .http2(true)
+                .build());
+    }
+
     @Test
     public void basicTest() throws Exception {
         super.doBasicTest();
@@ -84,6 +92,67 @@ public class BrowsermobVirtualHarServerTest extends BrowsermobVirtualHarServerTe
         doHttpsTest(context);
     }
 
+    @Test
+    public void httpsTest_asyncManufacturing() throws Exception {
+        TestContext context = new TestContext()
+                .put(KEY_TLS_MODE, TlsMode.SUPPORT_REQUIRED)
+                .put(KEY_CLIENT_SUPPLIER, BlindlyTrustingClient.supplier())
+                .put(KEY_ASYNC_MANUFACTURING, AsyncManufacturingConfig.builder().workerThreads(2).build());
+        doHttpsTest(context);
+        assertEquals("num requests", 1, requests.size());
+        assertTrue("manufactured on worker thread: " + manufacturingThreadNames, manufacturingThreadNames.stream().allMatch(name -> name.startsWith("response-manufacturer-")));
+    }
+
+    @Test
+    public void httpsTest_localTlsInterception() throws Exception {
+        TestContext context = new TestContext()
+                .put(KEY_TLS_MODE, TlsMode.NO_SUPPORT_REQUIRED)
+                .put(KEY_CLIENT_SUPPLIER, BlindlyTrustingClient.supplier())
+                .put(KEY_TLS_INTERCEPTION_MODE, TlsInterceptionMode.LOCAL);
+        doHttpsTest(context);
+        assertEquals("num requests", 1, requests.size());
+        assertEquals("num responses", 1, customValues.size());
+    }
+
+    @Test
+    public void httpsTest_localTlsInterception_asyncManufacturing() throws Exception {
+        TestContext context = new TestContext()
+                .put(KEY_TLS_MODE, TlsMode.NO_SUPPORT_REQUIRED)
+                .put(KEY_CLIENT_SUPPLIER, BlindlyTrustingClient.supplier())
+                .put(KEY_TLS_INTERCEPTION_MODE, TlsInterceptionMode.LOCAL)
+                .put(KEY_ASYNC_MANUFACTURING, AsyncManufacturingConfig.builder().workerThreads(2).build());
+        doHttpsTest(context);
+        assertEquals("num requests", 1, requests.size());
+        assertTrue("manufactured on worker thread: " + manufacturingThreadNames, manufacturingThreadNames.stream().allMatch(name -> name.startsWith("response-manufacturer-")));
+    }
+
+    @Test
+    public void repeatedTunnels_resumeTlsSession() throws Exception {
+        checkTlsSessionResumption(TlsInterceptionMode.UPSTREAM_ENDPOINT);
+    }
+
+    @Test
+    public void repeatedTunnels_resumeTlsSession_localTlsInterception() throws Exception {
+        checkTlsSessionResumption(TlsInterceptionMode.LOCAL);
+    }
+
+    private void checkTlsSessionResumption(TlsInterceptionMode tlsInterceptionMode) throws Exception {
+        BrowsermobVhsConfig config = BrowsermobVhsConfig.builder(BmpTests.createManufacturer(Collections.emptyList(), Collections.emptyList()))
+                .certificateAndKeySource(BmpTests.generateKeystoreForUnitTest(null).asCertificateAndKeySource())
+                .tlsEndpointFactory(NanohttpdTlsEndpointFactory.create(BmpTests.generateKeystoreForUnitTest("localhost"), null))
+                .tlsInterceptionMode(tlsInterceptionMode)
+                .build();
+        SSLContext clientContext = SSLContexts.custom().loadTrustMaterial(VhsTests.blindTrustStrategy()).build();
+        try (BrowsermobVhsControl ctrl = (BrowsermobVhsControl) new BrowsermobVirtualHarServer(config).start()) {
+            for (int i = 0; i < 3; i++) {
+                BmpTests.requestThroughTunnel(ctrl.getSocketAddress(), clientContext, "www.example.com");
+            }
+            TlsHandshakeMetrics metrics = ctrl.getTlsHandshakeMetrics();
+            assertEquals("full handshakes", 1, metrics.getFullCount());
+            assertEquals("resumed handshakes", 2, metrics.getResumedCount());
+        }
+    }
+
     private static final String SELF_SIGNED_URL_STR = "https://self-signed.badssl.com/";
 
     private void checkSelfSignedRequiresTrustConfig(ApacheRecordingClient client) throws Exception {
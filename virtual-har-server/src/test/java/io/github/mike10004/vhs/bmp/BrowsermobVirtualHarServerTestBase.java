@@ -24,21 +24,29 @@ import java.util.UUID;
 public class BrowsermobVirtualHarServerTestBase extends VirtualHarServerTestBase {
 
     protected static final String KEY_KEYSTORE_DATA = "keystoreData";
+    protected static final String KEY_ASYNC_MANUFACTURING = "asyncManufacturing";
+    protected static final String KEY_TLS_INTERCEPTION_MODE = "tlsInterceptionMode";
 
     private static final String CUSTOM_HEADER_NAME = "X-Virtual-Har-Server-Unit-Test";
 
     protected List<String> requests;
     protected List<String> customValues;
+    protected List<String> manufacturingThreadNames;
 
     @Before
     public void setUp() throws IOException {
         customValues = Collections.synchronizedList(new ArrayList<>());
         requests = Collections.synchronizedList(new ArrayList<>());
+        manufacturingThreadNames = Collections.synchronizedList(new ArrayList<>());
     }
 
     @Override
     protected final VirtualHarServer createServer(int port, File harFile, EntryMatcherFactory entryMatcherFactory, TestContext context) throws IOException {
         BrowsermobVhsConfig config = createServerConfig(port, harFile, entryMatcherFactory, context);
+        return instantiateServer(config);
+    }
+
+    protected VirtualHarServer instantiateServer(BrowsermobVhsConfig config) {
         return new BrowsermobVirtualHarServer(config);
     }
 
@@ -55,6 +63,7 @@ public class BrowsermobVirtualHarServerTestBase extends VirtualHarServerTestBase
             @Override
             public ResponseCapture manufacture(ReplaySessionState state, RequestCapture capture) {
                 requests.add(String.format("%s %s", capture.request.method, capture.request.url));
+                manufacturingThreadNames.add(Thread.currentThread().getName());
                 return super.manufacture(state, capture);
             }
         };
@@ -67,7 +76,12 @@ public class BrowsermobVirtualHarServerTestBase extends VirtualHarServerTestBase
         BrowsermobVhsConfig.Builder configBuilder = BrowsermobVhsConfig.builder(responseManufacturer)
                 .port(port)
                 .responseListener(responseFilter)
-                .scratchDirProvider(ScratchDirProvider.under(scratchParent));
+                .scratchDirProvider(ScratchDirProvider.under(scratchParent))
+                .asyncManufacturing(context.get(KEY_ASYNC_MANUFACTURING));
+        TlsInterceptionMode tlsInterceptionMode = context.get(KEY_TLS_INTERCEPTION_MODE);
+        if (tlsInterceptionMode != null) {
+            configBuilder.tlsInterceptionMode(tlsInterceptionMode);
+        }
         TlsMode tlsMode = context.get(KEY_TLS_MODE);
         if (tlsMode == TlsMode.SUPPORT_REQUIRED || tlsMode == TlsMode.PREDEFINED_CERT_SUPPORT) {
             try {
@@ -0,0 +1,80 @@
+package io.github.mike10004.vhs.bmp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachingKeystoreGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final AtomicInteger generationCount = new AtomicInteger();
+
+    private final KeystoreGenerator countingGenerator = commonName -> {
+        generationCount.incrementAndGet();
+        return BmpTests.generateKeystoreForUnitTest(commonName);
+    };
+
+    @Test
+    public void reusesStoredKeystore() throws Exception {
+        Path cacheDir = temporaryFolder.getRoot().toPath().resolve("keystores");
+        KeystoreData first = new CachingKeystoreGenerator(countingGenerator, KeystoreType.PKCS12, cacheDir, Duration.ZERO).generate("localhost");
+        KeystoreData second = new CachingKeystoreGenerator(countingGenerator, KeystoreType.PKCS12, cacheDir, Duration.ZERO).generate("localhost");
+        assertEquals("generations", 1, generationCount.get());
+        assertTrue("same keystore", KeystoreDataSerializer.isEqual(first, second));
+        assertArrayEquals("password", first.keystorePassword, second.keystorePassword);
+    }
+
+    @Test
+    public void keysByCommonName() throws Exception {
+        CachingKeystoreGenerator generator = new CachingKeystoreGenerator(countingGenerator, KeystoreType.PKCS12, temporaryFolder.getRoot().toPath(), Duration.ZERO);
+        generator.generate("localhost");
+        generator.generate(null);
+        generator.generate("localhost");
+        generator.generate(null);
+        assertEquals("generations", 2, generationCount.get());
+    }
+
+    @Test
+    public void regeneratesKeystoreNearExpiry() throws Exception {
+        Duration longerThanValidity = Duration.ofDays(10 * 365);
+        CachingKeystoreGenerator generator = new CachingKeystoreGenerator(countingGenerator, KeystoreType.PKCS12, temporaryFolder.getRoot().toPath(), longerThanValidity);
+        generator.generate("localhost");
+        generator.generate("localhost");
+        assertEquals("generations", 2, generationCount.get());
+    }
+
+    @Test
+    public void concurrentGeneration() throws Exception {
+        Path cacheDir = temporaryFolder.getRoot().toPath();
+        int numThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<KeystoreData>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> new CachingKeystoreGenerator(countingGenerator, KeystoreType.PKCS12, cacheDir, Duration.ZERO).generate("localhost")));
+            }
+            KeystoreData first = futures.get(0).get();
+            for (Future<KeystoreData> future : futures) {
+                assertTrue("same keystore", KeystoreDataSerializer.isEqual(first, future.get()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("generations", 1, generationCount.get());
+    }
+}
@@ -0,0 +1,203 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.ReplaySessionState;
+import io.github.mike10004.vhs.ResponseInterceptor;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HarReplayManufacturer_ConditionalTest {
+
+    private static final String URL = "http://www.example.com/style.css";
+    private static final String LAST_MODIFIED = "Tue, 15 Nov 1994 12:45:26 GMT";
+    private static final byte[] BODY = "body { color: red; }".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void ifNoneMatch_match() {
+        FullHttpResponse response = manufacture(recorded("\"abc\""), true, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "\"xyz\", W/\"abc\""));
+        assertEquals("status", 304, response.status().code());
+        assertEquals("etag", "\"abc\"", response.headers().get(HttpHeaders.ETAG));
+        assertEquals("last-modified", LAST_MODIFIED, response.headers().get(HttpHeaders.LAST_MODIFIED));
+        assertNull("content-type", response.headers().get(HttpHeaders.CONTENT_TYPE));
+        assertEquals("body length", 0, response.content().readableBytes());
+    }
+
+    @Test
+    public void ifNoneMatch_mismatch() {
+        FullHttpResponse response = manufacture(recorded("\"abc\""), true, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "\"xyz\""));
+        assertEquals("status", 200, response.status().code());
+        assertArrayEquals("body", BODY, ByteBufUtil.getBytes(response.content()));
+    }
+
+    @Test
+    public void ifNoneMatch_takesPrecedenceOverIfModifiedSince() {
+        FullHttpResponse response = manufacture(recorded("\"abc\""), true, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "\"xyz\"", HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED));
+        assertEquals("status", 200, response.status().code());
+    }
+
+    @Test
+    public void ifModifiedSince() {
+        assertEquals(304, manufacture(recorded(null), true, ImmutableMultimap.of(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED)).status().code());
+        assertEquals(304, manufacture(recorded(null), true, ImmutableMultimap.of(HttpHeaders.IF_MODIFIED_SINCE, "Wed, 16 Nov 1994 00:00:00 GMT")).status().code());
+        assertEquals(200, manufacture(recorded(null), true, ImmutableMultimap.of(HttpHeaders.IF_MODIFIED_SINCE, "Mon, 14 Nov 1994 00:00:00 GMT")).status().code());
+        assertEquals(200, manufacture(recorded(null), true, ImmutableMultimap.of(HttpHeaders.IF_MODIFIED_SINCE, "not a date")).status().code());
+    }
+
+    @Test
+    public void disabledByDefault() {
+        FullHttpResponse response = manufacture(recorded("\"abc\""), false, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "\"abc\""));
+        assertEquals("status", 200, response.status().code());
+        assertArrayEquals("body", BODY, ByteBufUtil.getBytes(response.content()));
+    }
+
+    @Test
+    public void entityTagHeaderAdded() {
+        HttpRespondable untagged = HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.CONTENT_TYPE, MediaType.CSS_UTF_8.toString()), MediaType.CSS_UTF_8, BODY);
+        HttpRespondable tagged = new TaggedRespondable(untagged, "\"computed\"");
+        FullHttpResponse response = manufacture(tagged, true, ImmutableMultimap.of());
+        assertEquals("status", 200, response.status().code());
+        assertEquals("etag", "\"computed\"", response.headers().get(HttpHeaders.ETAG));
+        response = manufacture(tagged, true, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "\"computed\""));
+        assertEquals("status", 304, response.status().code());
+        assertEquals("etag", "\"computed\"", response.headers().get(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void notModified_bodyNotRead() {
+        ByteSource explodingSource = new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                throw new AssertionError("body should not be read");
+            }
+        };
+        HttpRespondable respondable = HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.ETAG, "\"abc\""), MediaType.OCTET_STREAM, explodingSource);
+        FullHttpResponse response = manufacture(respondable, true, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "*"));
+        assertEquals("status", 304, response.status().code());
+    }
+
+    @Test
+    public void interceptedBodyRetagged() {
+        byte[] replacedBody = "body { color: blue; }".getBytes(StandardCharsets.US_ASCII);
+        ResponseInterceptor interceptor = (request, respondable) -> HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.ETAG, "\"abc\""), MediaType.CSS_UTF_8, replacedBody);
+        FullHttpResponse response = manufacture(recorded("\"abc\""), true, HttpMethod.GET, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "\"abc\""), ImmutableList.of(interceptor));
+        assertEquals("status", 200, response.status().code());
+        assertArrayEquals("body", replacedBody, ByteBufUtil.getBytes(response.content()));
+        String entityTag = response.headers().get(HttpHeaders.ETAG);
+        assertNotEquals("etag", "\"abc\"", entityTag);
+        response = manufacture(recorded("\"abc\""), true, HttpMethod.GET, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, entityTag), ImmutableList.of(interceptor));
+        assertEquals("status", 304, response.status().code());
+    }
+
+    @Test
+    public void headRequestKeepsEntityTag() {
+        HttpRespondable untagged = HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.CONTENT_TYPE, MediaType.CSS_UTF_8.toString()), MediaType.CSS_UTF_8, BODY);
+        HttpRespondable tagged = new TaggedRespondable(untagged, "\"computed\"");
+        FullHttpResponse response = manufacture(tagged, true, HttpMethod.HEAD, ImmutableMultimap.of(), ImmutableList.of());
+        assertEquals("status", 200, response.status().code());
+        assertEquals("etag", "\"computed\"", response.headers().get(HttpHeaders.ETAG));
+        response = manufacture(tagged, true, HttpMethod.HEAD, ImmutableMultimap.of(HttpHeaders.IF_NONE_MATCH, "\"computed\""), ImmutableList.of());
+        assertEquals("status", 304, response.status().code());
+    }
+
+    @Test
+    public void matchesAnyWeakly() {
+        assertTrue(ConditionalRequests.matchesAnyWeakly("\"a\"", "\"a\""));
+        assertTrue(ConditionalRequests.matchesAnyWeakly("W/\"a\"", "\"a\""));
+        assertTrue(ConditionalRequests.matchesAnyWeakly("\"a\"", "W/\"a\""));
+        assertTrue(ConditionalRequests.matchesAnyWeakly("\"b\" , \"a\"", "\"a\""));
+        assertTrue(ConditionalRequests.matchesAnyWeakly("*", "\"a\""));
+        assertFalse(ConditionalRequests.matchesAnyWeakly("\"b\"", "\"a\""));
+        assertFalse(ConditionalRequests.matchesAnyWeakly("*", null));
+    }
+
+    private static HttpRespondable recorded(String etag) {
+        ImmutableMultimap.Builder<String, String> headers = ImmutableMultimap.<String, String>builder()
+                .put(HttpHeaders.CONTENT_TYPE, MediaType.CSS_UTF_8.toString())
+                .put(HttpHeaders.LAST_MODIFIED, LAST_MODIFIED);
+        if (etag != null) {
+            headers.put(HttpHeaders.ETAG, etag);
+        }
+        return HttpRespondable.inMemory(200, headers.build(), MediaType.CSS_UTF_8, BODY);
+    }
+
+    private static FullHttpResponse manufacture(HttpRespondable respondable, boolean conditionalRequests, ImmutableMultimap<String, String> requestHeaders) {
+        return manufacture(respondable, conditionalRequests, HttpMethod.GET, requestHeaders, ImmutableList.of());
+    }
+
+    private static FullHttpResponse manufacture(HttpRespondable respondable, boolean conditionalRequests, HttpMethod method, ImmutableMultimap<String, String> requestHeaders, ImmutableList<ResponseInterceptor> interceptors) {
+        HarReplayManufacturer manufacturer = HarReplayManufacturer.builder((state, request) -> respondable)
+                .conditionalRequests(conditionalRequests)
+                .responseInterceptors(interceptors)
+                .build();
+        ImmutableMultimap.Builder<String, String> indexedHeaders = ImmutableMultimap.builder();
+        requestHeaders.forEach((name, value) -> indexedHeaders.put(name.toLowerCase(), value));
+        ParsedRequest request = ParsedRequest.inMemory(method, URI.create(URL), null, indexedHeaders.build(), null);
+        ResponseCapture capture = manufacturer.manufacture(ReplaySessionState.stateless(), RequestCapture.of(HttpVersion.HTTP_1_1, request));
+        return (FullHttpResponse) capture.response;
+    }
+
+    private static class TaggedRespondable implements HttpRespondable {
+
+        private final HttpRespondable delegate;
+        private final String entityTag;
+
+        private TaggedRespondable(HttpRespondable delegate, String entityTag) {
+            this.delegate = delegate;
+            this.entityTag = entityTag;
+        }
+
+        @Override
+        public int getStatus() {
+            return delegate.getStatus();
+        }
+
+        @Override
+        public Stream<? extends Entry<String, String>> streamHeaders() {
+            return delegate.streamHeaders();
+        }
+
+        @Override
+        public MediaType writeBody(OutputStream out) throws IOException {
+            return delegate.writeBody(out);
+        }
+
+        @Override
+        public MediaType previewContentType() {
+            return delegate.previewContentType();
+        }
+
+        @Override
+        public ByteSource getBodySource() {
+            return delegate.getBodySource();
+        }
+
+        @Override
+        public String getEntityTag() {
+            return entityTag;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.BasicHeuristic;
+import io.github.mike10004.vhs.EntryMatcher;
+import io.github.mike10004.vhs.EntryMatcherFactory;
+import io.github.mike10004.vhs.HarBridgeEntryParser;
+import io.github.mike10004.vhs.HeuristicEntryMatcher;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.ReplaySessionState;
+import io.github.mike10004.vhs.ResponseInterceptor;
+import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarResponseData;
+import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HarReplayManufacturer_HeadTest {
+
+    private static final String URL = "http://www.example.com/big.bin";
+
+    private static final ByteSource UNREADABLE_BODY = new ByteSource() {
+        @Override
+        public InputStream openStream() {
+            throw new AssertionError("body should not be read");
+        }
+
+        @Override
+        public com.google.common.base.Optional<Long> sizeIfKnown() {
+            return com.google.common.base.Optional.of(4096L);
+        }
+    };
+
+    @Test
+    public void headMatchesGetEntry() {
+        HttpRespondable getResponse = HttpRespondable.inMemory(200, ImmutableMultimap.of(
+                HttpHeaders.CONTENT_TYPE, MediaType.OCTET_STREAM.toString(),
+                HttpHeaders.CONTENT_LENGTH, "4096",
+                "X-Custom", "foo"), MediaType.OCTET_STREAM, UNREADABLE_BODY);
+        EntryMatcher<Object> matcher = (state, request) -> request.method == HttpMethod.GET ? getResponse : null;
+        FullHttpResponse response = manufacture(matcher, HttpMethod.HEAD);
+        assertEquals("status", 200, response.status().code());
+        assertEquals("content-length", "4096", response.headers().get(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("custom header", "foo", response.headers().get("X-Custom"));
+        assertEquals("body length", 0, response.content().readableBytes());
+    }
+
+    @Test
+    public void headPrefersHeadEntry() {
+        HttpRespondable getResponse = HttpRespondable.inMemory(200, ImmutableMultimap.of("X-Source", "get"), MediaType.OCTET_STREAM, UNREADABLE_BODY);
+        HttpRespondable headResponse = HttpRespondable.inMemory(200, ImmutableMultimap.of("X-Source", "head"), MediaType.OCTET_STREAM, ByteSource.empty());
+        EntryMatcher<Object> matcher = (state, request) -> request.method == HttpMethod.HEAD ? headResponse : getResponse;
+        FullHttpResponse response = manufacture(matcher, HttpMethod.HEAD);
+        assertEquals("source", "head", response.headers().get("X-Source"));
+    }
+
+    @Test
+    public void contentLengthFromKnownSize() {
+        HttpRespondable getResponse = HttpRespondable.inMemory(200, ImmutableMultimap.of(), MediaType.OCTET_STREAM, UNREADABLE_BODY);
+        EntryMatcher<Object> matcher = (state, request) -> request.method == HttpMethod.GET ? getResponse : null;
+        FullHttpResponse response = manufacture(matcher, HttpMethod.HEAD);
+        assertEquals("content-length", "4096", response.headers().get(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("body length", 0, response.content().readableBytes());
+    }
+
+    @Test
+    public void heuristicMatcherDoesNotOpenBodySource() throws Exception {
+        AtomicInteger openCount = new AtomicInteger();
+        ByteSource body = new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                openCount.incrementAndGet();
+                throw new AssertionError("body should not be read");
+            }
+        };
+        HarBridge<String> bridge = new HarBridge<String>() {
+            @Override
+            public String getRequestMethod(String entry) {
+                return "GET";
+            }
+
+            @Override
+            public String getRequestUrl(String entry) {
+                return entry;
+            }
+
+            @Override
+            public Stream<Map.Entry<String, String>> getRequestHeaders(String entry) {
+                return Stream.empty();
+            }
+
+            @Override
+            public ByteSource getRequestPostData(String entry) {
+                return ByteSource.empty();
+            }
+
+            @Override
+            public int getResponseStatus(String entry) {
+                return 200;
+            }
+
+            @Override
+            public HarResponseData getResponseData(ParsedRequest request, String entry, HarResponseEncoding encodingStrategy) {
+                return HarResponseData.of(ImmutableList.of(
+                        new SimpleImmutableEntry<>(HttpHeaders.CONTENT_LENGTH, "999"),
+                        new SimpleImmutableEntry<>("X-Custom", "foo")), MediaType.OCTET_STREAM, body);
+            }
+        };
+        EntryMatcherFactory<Object> factory = HeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE);
+        EntryMatcher<Object> matcher = factory.createEntryMatcher(ImmutableList.of(URL), HarBridgeEntryParser.withPlainEncoder(bridge));
+        FullHttpResponse response = manufacture(matcher, HttpMethod.HEAD);
+        assertEquals("status", 200, response.status().code());
+        assertEquals("custom header", "foo", response.headers().get("X-Custom"));
+        assertNull("content-length of unknown size", response.headers().get(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("body length", 0, response.content().readableBytes());
+        assertEquals("body source opened", 0, openCount.get());
+    }
+
+    @Test
+    public void bodyRewritingInterceptorSeesFullBody() {
+        HttpRespondable getResponse = HttpRespondable.inMemory(200, ImmutableMultimap.of(
+                HttpHeaders.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString(),
+                HttpHeaders.CONTENT_LENGTH, "5"), MediaType.PLAIN_TEXT_UTF_8, "hello".getBytes(StandardCharsets.UTF_8));
+        EntryMatcher<Object> matcher = new EntryMatcher<Object>() {
+            @Override
+            public HttpRespondable findTopEntry(Object state, ParsedRequest request) {
+                return request.method == HttpMethod.GET ? getResponse : null;
+            }
+
+            @Override
+            public HttpRespondable findTopEntryMetadata(Object state, ParsedRequest request) {
+                throw new AssertionError("metadata should not be looked up");
+            }
+        };
+        ResponseInterceptor interceptor = (request, respondable) -> {
+            try {
+                String text = respondable.getBodySource().asCharSource(StandardCharsets.UTF_8).read();
+                return HttpRespondable.inMemory(200, ImmutableMultimap.of(HttpHeaders.CONTENT_LENGTH, "5"), MediaType.PLAIN_TEXT_UTF_8, (text + ", world").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        FullHttpResponse response = manufacture(matcher, HttpMethod.HEAD, interceptor);
+        assertEquals("status", 200, response.status().code());
+        assertEquals("content-length", "12", response.headers().get(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("body length", 0, response.content().readableBytes());
+    }
+
+    @Test
+    public void headUnmatched() {
+        FullHttpResponse response = manufacture((state, request) -> null, HttpMethod.HEAD);
+        assertEquals("status", 404, response.status().code());
+    }
+
+    private static FullHttpResponse manufacture(EntryMatcher<Object> entryMatcher, HttpMethod method, ResponseInterceptor... responseInterceptors) {
+        HarReplayManufacturer manufacturer = new HarReplayManufacturer(entryMatcher, ImmutableList.copyOf(responseInterceptors));
+        ParsedRequest request = ParsedRequest.inMemory(method, URI.create(URL), null, ImmutableMultimap.of(), null);
+        ResponseCapture capture = manufacturer.manufacture(ReplaySessionState.stateless(), RequestCapture.of(HttpVersion.HTTP_1_1, request));
+        return (FullHttpResponse) capture.response;
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.ReplaySessionState;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HarReplayManufacturer_RangeTest {
+
+    private static final String URL = "http://www.example.com/video.mp4";
+
+    @Test
+    public void partialContent() {
+        byte[] body = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        FullHttpResponse response = manufacture(body, ImmutableMultimap.of(HttpHeaders.RANGE, "bytes=2-5"));
+        assertEquals("status", 206, response.status().code());
+        assertEquals("content-range", "bytes 2-5/10", response.headers().get(HttpHeaders.CONTENT_RANGE));
+        assertEquals("content-length", "4", response.headers().get(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("body", "2345", new String(ByteBufUtil.getBytes(response.content()), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void suffixRange() {
+        byte[] body = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        FullHttpResponse response = manufacture(body, ImmutableMultimap.of(HttpHeaders.RANGE, "bytes=-3"));
+        assertEquals("status", 206, response.status().code());
+        assertEquals("content-range", "bytes 7-9/10", response.headers().get(HttpHeaders.CONTENT_RANGE));
+        assertEquals("body", "789", new String(ByteBufUtil.getBytes(response.content()), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void unsatisfiable() {
+        byte[] body = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        FullHttpResponse response = manufacture(body, ImmutableMultimap.of(HttpHeaders.RANGE, "bytes=10-"));
+        assertEquals("status", 416, response.status().code());
+        assertEquals("content-range", "bytes */10", response.headers().get(HttpHeaders.CONTENT_RANGE));
+        assertEquals("body length", 0, response.content().readableBytes());
+    }
+
+    @Test
+    public void ifRangeMismatch() {
+        byte[] body = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        FullHttpResponse response = manufacture(body, ImmutableMultimap.of(HttpHeaders.RANGE, "bytes=2-5", HttpHeaders.IF_RANGE, "\"other\""));
+        assertEquals("status", 200, response.status().code());
+        assertArrayEquals("body", body, ByteBufUtil.getBytes(response.content()));
+    }
+
+    @Test
+    public void ifRangeMatch() {
+        byte[] body = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        FullHttpResponse response = manufacture(body, ImmutableMultimap.of(HttpHeaders.RANGE, "bytes=0-0", HttpHeaders.IF_RANGE, "\"abc\""));
+        assertEquals("status", 206, response.status().code());
+        assertEquals("body", "0", new String(ByteBufUtil.getBytes(response.content()), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void multipleRangesIgnored() {
+        byte[] body = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        FullHttpResponse response = manufacture(body, ImmutableMultimap.of(HttpHeaders.RANGE, "bytes=0-1,4-5"));
+        assertEquals("status", 200, response.status().code());
+    }
+
+    @Test
+    public void sliceDoesNotReadPrecedingBytes() throws Exception {
+        byte[] body = new byte[1024 * 1024];
+        Arrays.fill(body, (byte) 'x');
+        AtomicInteger bytesRead = new AtomicInteger();
+        ByteSource countingSource = new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return new java.io.FilterInputStream(ByteSource.wrap(body).openStream()) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = super.read(b, off, len);
+                        bytesRead.addAndGet(Math.max(0, n));
+                        return n;
+                    }
+
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b >= 0) {
+                            bytesRead.incrementAndGet();
+                        }
+                        return b;
+                    }
+                };
+            }
+
+            @Override
+            public com.google.common.base.Optional<Long> sizeIfKnown() {
+                return com.google.common.base.Optional.of((long) body.length);
+            }
+        };
+        HttpRespondable full = HttpRespondable.inMemory(200, ImmutableMultimap.of(), MediaType.OCTET_STREAM, countingSource);
+        HttpRespondable partial = ByteRanges.respond(createRequest(ImmutableMultimap.of(HttpHeaders.RANGE, "bytes=1000000-1000099")), full);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        partial.writeBody(baos);
+        assertEquals("slice length", 100, baos.size());
+        assertEquals("bytes read", 100, bytesRead.get());
+    }
+
+    @Test
+    public void parseRange() {
+        assertEquals(0, ByteRanges.parseRange("bytes=0-", 10).first);
+        assertEquals(9, ByteRanges.parseRange("bytes=0-", 10).last);
+        assertEquals(9, ByteRanges.parseRange("bytes=5-100", 10).last);
+        assertEquals(0, ByteRanges.parseRange("bytes=-100", 10).first);
+        assertNull(ByteRanges.parseRange("bytes=-0", 10));
+        assertNull(ByteRanges.parseRange("bytes=0-", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRange_malformed() {
+        ByteRanges.parseRange("bytes=5-2", 10);
+    }
+
+    private static ParsedRequest createRequest(ImmutableMultimap<String, String> headers) {
+        return ParsedRequest.inMemory(HttpMethod.GET, URI.create(URL), null, headers, null);
+    }
+
+    private static FullHttpResponse manufacture(byte[] body, ImmutableMultimap<String, String> requestHeaders) {
+        ImmutableMultimap<String, String> responseHeaders = ImmutableMultimap.of(
+                HttpHeaders.CONTENT_TYPE, MediaType.OCTET_STREAM.toString(),
+                HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length),
+                HttpHeaders.ETAG, "\"abc\"");
+        HttpRespondable respondable = HttpRespondable.inMemory(200, responseHeaders, MediaType.OCTET_STREAM, body);
+        HarReplayManufacturer manufacturer = new HarReplayManufacturer((state, request) -> respondable, ImmutableList.of());
+        ImmutableMultimap.Builder<String, String> indexedHeaders = ImmutableMultimap.builder();
+        requestHeaders.forEach((name, value) -> indexedHeaders.put(name.toLowerCase(), value));
+        ParsedRequest request = createRequest(indexedHeaders.build());
+        ResponseCapture capture = manufacturer.manufacture(ReplaySessionState.stateless(), RequestCapture.of(HttpVersion.HTTP_1_1, request));
+        return (FullHttpResponse) capture.response;
+    }
+}
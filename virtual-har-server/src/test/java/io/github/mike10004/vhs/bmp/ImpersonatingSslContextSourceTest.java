@@ -0,0 +1,133 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.bup.mitm.CertificateAndKey;
+import com.browserup.bup.mitm.CertificateAndKeySource;
+import com.google.common.collect.ImmutableSet;
+import io.netty.handler.ssl.SslContext;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.Closeable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImpersonatingSslContextSourceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final CertificateAndKeySource rootSource = BmpTests.generateKeystoreForUnitTest(null).asCertificateAndKeySource();
+
+    @Test
+    public void ecKeys() throws Exception {
+        Path storeDir = temporaryFolder.getRoot().toPath();
+        ImpersonatingSslContextSource source = new ImpersonatingSslContextSource(rootSource, LeafCertificateConfig.builder()
+                .keyType(LeafKeyType.EC)
+                .storeDir(storeDir)
+                .build());
+        assertNotNull(source.getSslContext("www.example.com"));
+        CertificateAndKey stored = createStore(storeDir).load("www.example.com");
+        assertNotNull("stored", stored);
+        assertEquals("key algorithm", "EC", stored.getCertificate().getPublicKey().getAlgorithm());
+    }
+
+    @Test
+    public void reusesStoredCertificates() throws Exception {
+        Path storeDir = temporaryFolder.getRoot().toPath();
+        LeafCertificateConfig config = LeafCertificateConfig.builder().storeDir(storeDir).build();
+        new ImpersonatingSslContextSource(rootSource, config).getSslContext("www.example.com");
+        Path file = createStore(storeDir).resolveFile("www.example.com");
+        byte[] before = Files.readAllBytes(file);
+        new ImpersonatingSslContextSource(rootSource, config).getSslContext("www.example.com");
+        assertArrayEquals("stored certificate unchanged", before, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void storedCertificatesOwnerOnly() throws Exception {
+        Path storeDir = temporaryFolder.getRoot().toPath();
+        Assume.assumeTrue("posix", storeDir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        new ImpersonatingSslContextSource(rootSource, LeafCertificateConfig.builder().storeDir(storeDir).build()).getSslContext("www.example.com");
+        Path file = createStore(storeDir).resolveFile("www.example.com");
+        assertEquals("file permissions", PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+        assertEquals("directory permissions", PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(file.getParent()));
+    }
+
+    @Test
+    public void pregenerate() throws Exception {
+        Path storeDir = temporaryFolder.getRoot().toPath();
+        Set<String> hosts = ImmutableSet.of("a.example.com", "b.example.com", "c.example.com", "d.example.com");
+        ImpersonatingSslContextSource source = new ImpersonatingSslContextSource(rootSource, LeafCertificateConfig.builder()
+                .keyType(LeafKeyType.EC)
+                .storeDir(storeDir)
+                .build());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            source.pregenerate(hosts, executor).get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        LeafCertificateStore store = createStore(storeDir);
+        for (String host : hosts) {
+            assertTrue("stored: " + host, Files.isRegularFile(store.resolveFile(host)));
+        }
+    }
+
+    @Test
+    public void create_pregeneratesWhenHostsAvailable() throws Exception {
+        Path storeDir = temporaryFolder.getRoot().toPath();
+        CompletableFuture<Set<String>> hostsFuture = new CompletableFuture<>();
+        List<Closeable> closeables = new ArrayList<>();
+        ImpersonatingSslContextSource.create(rootSource, LeafCertificateConfig.builder()
+                .keyType(LeafKeyType.EC)
+                .storeDir(storeDir)
+                .pregeneratedHosts(hostsFuture)
+                .build(), TlsSessionConfig.getDefault(), false, closeables);
+        Path file = createStore(storeDir).resolveFile("a.example.com");
+        assertFalse("stored before hosts are available", Files.exists(file));
+        hostsFuture.complete(ImmutableSet.of("a.example.com"));
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!Files.isRegularFile(file) && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue("stored", Files.isRegularFile(file));
+        } finally {
+            for (Closeable closeable : closeables) {
+                closeable.close();
+            }
+        }
+    }
+
+    @Test
+    public void sessionConfig() throws Exception {
+        TlsSessionConfig sessionConfig = TlsSessionConfig.builder()
+                .sessionCacheSize(100)
+                .sessionTimeout(Duration.ofMinutes(5))
+                .build();
+        SslContext sslContext = new ImpersonatingSslContextSource(rootSource, LeafCertificateConfig.builder().keyType(LeafKeyType.EC).build(), sessionConfig)
+                .getSslContext("www.example.com");
+        assertEquals("cache size", 100, sslContext.sessionCacheSize());
+        assertEquals("timeout", 300, sslContext.sessionTimeout());
+    }
+
+    private LeafCertificateStore createStore(Path storeDir) {
+        return LeafCertificateStore.forAuthority(storeDir, rootSource.load().getCertificate());
+    }
+}
@@ -1,13 +1,29 @@
 package io.github.mike10004.vhs.bmp;
 
 import com.browserup.bup.mitm.TrustSource;
+import com.google.common.net.HostAndPort;
+import io.github.mike10004.vhs.testsupport.VhsTests;
+import org.apache.http.ssl.SSLContexts;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class NanohttpdTlsEndpointFactoryTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void createTrustSource() throws Exception {
         KeystoreData keystoreData = BmpTests.generateKeystoreForUnitTest(null);
@@ -17,4 +33,48 @@ public class NanohttpdTlsEndpointFactoryTest {
         assertTrue("more than one trusted CA", numTrustedCAs > 1);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void boundedExecutor_rejectsConnectionsBeyondLimit() throws Exception {
+        NanohttpdTlsEndpointFactory factory = NanohttpdTlsEndpointFactory.create(BmpTests.generateKeystoreForUnitTest("localhost"), null, ConnectionExecutorFactory.bounded(1, 0));
+        BrowsermobVhsConfig config = BrowsermobVhsConfig.builder(BmpTests.createManufacturer(Collections.emptyList(), Collections.emptyList())).build();
+        SSLContext clientContext = SSLContexts.custom().loadTrustMaterial(VhsTests.blindTrustStrategy()).build();
+        try (TlsEndpoint endpoint = factory.produce(config, temporaryFolder.getRoot().toPath())) {
+            HostAndPort address = endpoint.getSocketAddress();
+            try (SSLSocket held = (SSLSocket) clientContext.getSocketFactory().createSocket(address.getHost(), address.getPort())) {
+                held.startHandshake();
+                try (SSLSocket rejected = (SSLSocket) clientContext.getSocketFactory().createSocket(address.getHost(), address.getPort())) {
+                    rejected.startHandshake();
+                    fail("expected handshake with rejected connection to fail");
+                } catch (IOException ignore) {
+                }
+                EndpointConnectionMetrics metrics = factory.getConnectionMetrics();
+                assertEquals("accepted", 1, metrics.getAcceptedCount());
+                assertEquals("rejected", 1, metrics.getRejectedCount());
+                assertEquals("active", 1, metrics.getActiveConnections());
+            }
+        }
+    }
+
+    @Test
+    public void boundedExecutor_idleConnectionReleasesThread() throws Exception {
+        NanohttpdTlsEndpointFactory factory = NanohttpdTlsEndpointFactory.create(BmpTests.generateKeystoreForUnitTest("localhost"), null, ConnectionExecutorFactory.bounded(1, 1), Duration.ofMillis(250));
+        BrowsermobVhsConfig config = BrowsermobVhsConfig.builder(BmpTests.createManufacturer(Collections.emptyList(), Collections.emptyList())).build();
+        SSLContext clientContext = SSLContexts.custom().loadTrustMaterial(VhsTests.blindTrustStrategy()).build();
+        try (TlsEndpoint endpoint = factory.produce(config, temporaryFolder.getRoot().toPath())) {
+            HostAndPort address = endpoint.getSocketAddress();
+            try (SSLSocket idle = (SSLSocket) clientContext.getSocketFactory().createSocket(address.getHost(), address.getPort())) {
+                idle.startHandshake();
+                try (SSLSocket queued = (SSLSocket) clientContext.getSocketFactory().createSocket(address.getHost(), address.getPort())) {
+                    queued.setSoTimeout(10000);
+                    queued.startHandshake();
+                }
+                idle.setSoTimeout(10000);
+                assertEquals("idle connection closed by endpoint", -1, idle.getInputStream().read());
+            }
+            EndpointConnectionMetrics metrics = factory.getConnectionMetrics();
+            assertEquals("accepted", 2, metrics.getAcceptedCount());
+            assertEquals("rejected", 0, metrics.getRejectedCount());
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.harreader.model.HarEntry;
+import com.browserup.harreader.model.HttpMethod;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.VirtualHarServer;
+import io.github.mike10004.vhs.bmp.NettyVirtualHarServer.NettyVhsControl;
+import io.github.mike10004.vhs.testsupport.VhsTests;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import org.apache.http.ssl.SSLContexts;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NettyVirtualHarServerTest extends BrowsermobVirtualHarServerTestBase {
+
+    @Override
+    protected VirtualHarServer instantiateServer(BrowsermobVhsConfig config) {
+        return new NettyVirtualHarServer(config);
+    }
+
+    @Test
+    public void basicTest() throws Exception {
+        super.doBasicTest();
+    }
+
+    @Test
+    public void httpsTest() throws Exception {
+        super.doHttpsTest();
+        assertEquals("num requests", 1, requests.size());
+        assertEquals("num responses", 1, customValues.size());
+    }
+
+    @Test
+    public void httpsTest_asyncManufacturing() throws Exception {
+        TestContext context = new TestContext()
+                .put(KEY_TLS_MODE, TlsMode.SUPPORT_REQUIRED)
+                .put(KEY_CLIENT_SUPPLIER, BlindlyTrustingClient.supplier())
+                .put(KEY_ASYNC_MANUFACTURING, AsyncManufacturingConfig.builder().workerThreads(2).build());
+        doHttpsTest(context);
+        assertEquals("num requests", 1, requests.size());
+        assertTrue("manufactured on worker thread: " + manufacturingThreadNames, manufacturingThreadNames.stream().allMatch(name -> name.startsWith("response-manufacturer-")));
+    }
+
+    @Test
+    public void repeatedTunnels_resumeTlsSession() throws Exception {
+        BrowsermobVhsConfig config = BrowsermobVhsConfig.builder(BmpTests.createManufacturer(Collections.emptyList(), Collections.emptyList()))
+                .certificateAndKeySource(BmpTests.generateKeystoreForUnitTest(null).asCertificateAndKeySource())
+                .build();
+        SSLContext clientContext = SSLContexts.custom().loadTrustMaterial(VhsTests.blindTrustStrategy()).build();
+        try (NettyVhsControl ctrl = (NettyVhsControl) new NettyVirtualHarServer(config).start()) {
+            for (int i = 0; i < 3; i++) {
+                BmpTests.requestThroughTunnel(ctrl.getSocketAddress(), clientContext, "www.example.com");
+            }
+            TlsHandshakeMetrics metrics = ctrl.getTlsHandshakeMetrics();
+            assertEquals("full handshakes", 1, metrics.getFullCount());
+            assertEquals("resumed handshakes", 2, metrics.getResumedCount());
+        }
+    }
+
+    @Test
+    public void connect_certificateCreationFails() throws Exception {
+        BrowsermobVhsConfig config = BrowsermobVhsConfig.builder(BmpTests.createManufacturer(Collections.emptyList(), Collections.emptyList()))
+                .certificateAndKeySource(() -> {
+                    throw new IllegalStateException("no certificate authority");
+                })
+                .build();
+        try (NettyVhsControl ctrl = (NettyVhsControl) new NettyVirtualHarServer(config).start()) {
+            String statusLine = BmpTests.requestDirectly(ctrl.getSocketAddress(), null, "www.example.com", "CONNECT www.example.com:443 HTTP/1.1\r\nHost: www.example.com:443\r\n");
+            assertEquals("status line", "HTTP/1.1 502 Bad Gateway", statusLine);
+        }
+    }
+
+    @Test
+    public void http2_multiplexesStreams() throws Exception {
+        Assume.assumeTrue("ALPN supported", ImpersonatingSslContextSource.isAlpnSupported());
+        try (NettyVhsControl ctrl = (NettyVhsControl) new NettyVirtualHarServer(createHttp2Config()).start()) {
+            EventLoopGroup group = new NioEventLoopGroup(1);
+            try {
+                Channel channel = connectHttp2(ctrl.getSocketAddress(), group, "www.example.com");
+                List<CompletableFuture<String>> responses = new ArrayList<>();
+                for (int i = 0; i < 3; i++) {
+                    responses.add(requestOnStream(channel, "www.example.com"));
+                }
+                for (CompletableFuture<String> response : responses) {
+                    assertEquals("response", "200 hello", response.get(10, TimeUnit.SECONDS));
+                }
+                channel.close().syncUninterruptibly();
+            } finally {
+                group.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+            }
+            assertEquals("handshakes", 1, ctrl.getTlsHandshakeMetrics().getFullCount());
+        }
+    }
+
+    @Test
+    public void http2_servesHttp1ClientsWithoutAlpn() throws Exception {
+        SSLContext clientContext = SSLContexts.custom().loadTrustMaterial(VhsTests.blindTrustStrategy()).build();
+        try (NettyVhsControl ctrl = (NettyVhsControl) new NettyVirtualHarServer(createHttp2Config()).start()) {
+            String statusLine = BmpTests.requestThroughTunnel(ctrl.getSocketAddress(), clientContext, "www.example.com");
+            assertEquals("status line", "HTTP/1.1 200 OK", statusLine);
+        }
+    }
+
+    @Test
+    public void directOrigin_routesByHostHeader() throws Exception {
+        try (NettyVhsControl ctrl = (NettyVhsControl) new NettyVirtualHarServer(createDirectOriginConfig(null)).start()) {
+            String requestHead = String.format("GET / HTTP/1.1\r\nHost: www.example.com:%d\r\nConnection: close\r\n", ctrl.getSocketAddress().getPort());
+            String statusLine = BmpTests.requestDirectly(ctrl.getSocketAddress(), null, "www.example.com", requestHead);
+            assertEquals("status line", "HTTP/1.1 200 OK", statusLine);
+            assertEquals("requests", Collections.singletonList("GET http://www.example.com/"), requests);
+            assertFalse("https address", ctrl.getHttpsSocketAddress().isPresent());
+        }
+    }
+
+    @Test
+    public void directOrigin_refusesConnect() throws Exception {
+        try (NettyVhsControl ctrl = (NettyVhsControl) new NettyVirtualHarServer(createDirectOriginConfig(null)).start()) {
+            String statusLine = BmpTests.requestDirectly(ctrl.getSocketAddress(), null, "www.example.com", "CONNECT www.example.com:443 HTTP/1.1\r\nHost: www.example.com:443\r\n");
+            assertEquals("status line", "HTTP/1.1 405 Method Not Allowed", statusLine);
+            assertTrue("requests: " + requests, requests.isEmpty());
+        }
+    }
+
+    @Test
+    public void directOrigin_https() throws Exception {
+        SSLContext clientContext = SSLContexts.custom().loadTrustMaterial(VhsTests.blindTrustStrategy()).build();
+        try (NettyVhsControl ctrl = (NettyVhsControl) new NettyVirtualHarServer(createDirectOriginConfig(0)).start()) {
+            HostAndPort httpsAddress = ctrl.getHttpsSocketAddress().orElseThrow(() -> new AssertionError("https address"));
+            String byHostHeader = BmpTests.requestDirectly(httpsAddress, clientContext, "www.example.com", String.format("GET / HTTP/1.1\r\nHost: www.example.com:%d\r\nConnection: close\r\n", httpsAddress.getPort()));
+            assertEquals("routed by host header", "HTTP/1.1 200 OK", byHostHeader);
+            String byServerName = BmpTests.requestDirectly(httpsAddress, clientContext, "www.example.com", "GET / HTTP/1.0\r\n");
+            assertEquals("routed by server name", "HTTP/1.0 200 OK", byServerName);
+            assertEquals("request routed by server name", "GET https://www.example.com/", requests.get(1));
+            assertEquals("handshakes", 2, ctrl.getTlsHandshakeMetrics().getFullCount() + ctrl.getTlsHandshakeMetrics().getResumedCount());
+        }
+    }
+
+    private BrowsermobVhsConfig createDirectOriginConfig(@Nullable Integer httpsPort) throws Exception {
+        List<HarEntry> entries = new ArrayList<>();
+        for (String url : new String[]{"http://www.example.com/", "https://www.example.com/"}) {
+            entries.add(BmpTests.buildHarEntry(BmpTests.buildHarRequest(HttpMethod.GET, url, Collections.emptyList()),
+                    BmpTests.buildHarResponse(200, BmpTests.buildHarHeaders("Content-Type", MediaType.PLAIN_TEXT_UTF_8.toString()), BmpTests.buildHarContent("hello", MediaType.PLAIN_TEXT_UTF_8))));
+        }
+        return BrowsermobVhsConfig.builder(BmpTests.createManufacturer(entries, Collections.emptyList()))
+                .certificateAndKeySource(BmpTests.generateKeystoreForUnitTest(null).asCertificateAndKeySource())
+                .responseListener((request, response) -> requests.add(String.format("%s %s", request.request.method, request.request.url)))
+                .directOrigin(DirectOriginConfig.builder().httpsPort(httpsPort).build())
+                .build();
+    }
+
+    private static BrowsermobVhsConfig createHttp2Config() throws Exception {
+        HarEntry entry = BmpTests.buildHarEntry(BmpTests.buildHarRequest(HttpMethod.GET, "https://www.example.com/", Collections.emptyList()),
+                BmpTests.buildHarResponse(200, BmpTests.buildHarHeaders("Content-Type", MediaType.PLAIN_TEXT_UTF_8.toString()), BmpTests.buildHarContent("hello", MediaType.PLAIN_TEXT_UTF_8)));
+        return BrowsermobVhsConfig.builder(BmpTests.createManufacturer(Collections.singletonList(entry), Collections.emptyList()))
+                .certificateAndKeySource(BmpTests.generateKeystoreForUnitTest(null).asCertificateAndKeySource())
+                .http2(true)
+                .build();
+    }
+
+    /**
+     * Opens a tunnel through the proxy and negotiates HTTP/2 over TLS on it.
+     */
+    private static Channel connectHttp2(HostAndPort proxy, EventLoopGroup group, String host) throws Exception {
+        SslContext sslContext = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(Protocol.ALPN, SelectorFailureBehavior.NO_ADVERTISE,
+                        SelectedListenerFailureBehavior.ACCEPT, ApplicationProtocolNames.HTTP_2))
+                .build();
+        CompletableFuture<String> negotiated = new CompletableFuture<>();
+        Channel channel = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast("codec", new HttpClientCodec())
+                                .addLast("aggregator", new HttpObjectAggregator(8192))
+                                .addLast("connect", new SimpleChannelInboundHandler<FullHttpResponse>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+                                        ctx.pipeline().remove("codec");
+                                        ctx.pipeline().remove("aggregator");
+                                        ctx.pipeline().remove(this);
+                                        SslHandler sslHandler = sslContext.newHandler(ctx.alloc(), host, 443);
+                                        ctx.pipeline().addLast(sslHandler)
+                                                .addLast(Http2FrameCodecBuilder.forClient().build())
+                                                .addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+                                        sslHandler.handshakeFuture().addListener(future -> {
+                                            if (future.isSuccess()) {
+                                                negotiated.complete(sslHandler.applicationProtocol());
+                                            } else {
+                                                negotiated.completeExceptionally(future.cause());
+                                            }
+                                        });
+                                    }
+                                });
+                    }
+                })
+                .connect(proxy.getHost(), proxy.getPort())
+                .sync()
+                .channel();
+        channel.writeAndFlush(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, io.netty.handler.codec.http.HttpMethod.CONNECT, host + ":443")).sync();
+        assertEquals("negotiated protocol", ApplicationProtocolNames.HTTP_2, negotiated.get(10, TimeUnit.SECONDS));
+        return channel;
+    }
+
+    /**
+     * Sends a request on a new stream.
+     * @return a future that completes with the status code and body of the response
+     */
+    private static CompletableFuture<String> requestOnStream(Channel channel, String host) throws Exception {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        Http2StreamChannel stream = new Http2StreamChannelBootstrap(channel)
+                .handler(new ChannelInitializer<Http2StreamChannel>() {
+                    @Override
+                    protected void initChannel(Http2StreamChannel ch) {
+                        ch.pipeline()
+                                .addLast(new Http2StreamFrameToHttpObjectCodec(false))
+                                .addLast(new HttpObjectAggregator(8192))
+                                .addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+                                        response.complete(msg.status().code() + " " + msg.content().toString(StandardCharsets.UTF_8));
+                                    }
+                                });
+                    }
+                })
+                .open()
+                .sync()
+                .getNow();
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, io.netty.handler.codec.http.HttpMethod.GET, "/");
+        request.headers().set(HttpHeaderNames.HOST, host);
+        request.headers().set(ExtensionHeaderNames.SCHEME.text(), "https");
+        stream.writeAndFlush(request);
+        return response;
+    }
+}
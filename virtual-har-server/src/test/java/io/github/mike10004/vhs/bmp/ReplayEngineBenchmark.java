@@ -0,0 +1,171 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.browserup.harreader.HarReader;
+import com.browserup.harreader.HarReaderException;
+import com.browserup.harreader.model.HarEntry;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.google.common.net.HostAndPort;
+import io.github.mike10004.vhs.BasicHeuristic;
+import io.github.mike10004.vhs.EntryMatcher;
+import io.github.mike10004.vhs.HarBridgeEntryParser;
+import io.github.mike10004.vhs.HeuristicEntryMatcher;
+import io.github.mike10004.vhs.VirtualHarServer;
+import io.github.mike10004.vhs.VirtualHarServerControl;
+import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import io.github.mike10004.vhs.testsupport.VhsTests;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Program that reports the throughput and latency of the BrowserUp and Netty
+ * replay engines. Each engine serves the same HAR, and a number of client threads
+ * each send requests through the engine on a kept-alive connection. Run with no
+ * arguments; pass numbers to set the thread count and the requests per thread.
+ */
+public class ReplayEngineBenchmark {
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_REQUESTS_PER_THREAD = 500;
+    private static final int WARMUP_REQUESTS_PER_THREAD = 50;
+
+    private static final String HTTP_HAR_RESOURCE = "/replay-test-1.har";
+    private static final URI HTTP_URL = URI.create("http://example.com/one");
+    private static final String HTTPS_HAR_RESOURCE = "/https.www.example.com.har";
+    private static final URI HTTPS_URL = URI.create("https://www.example.com/");
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int requestsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REQUESTS_PER_THREAD;
+        Path scratchDir = java.nio.file.Files.createTempDirectory("replay-engine-benchmark");
+        try {
+            System.out.format("%-10s %-6s %8s %10s %10s %10s%n", "engine", "scheme", "requests", "req/s", "p50 ms", "p99 ms");
+            for (boolean https : new boolean[]{false, true}) {
+                File harFile = copyHar(https ? HTTPS_HAR_RESOURCE : HTTP_HAR_RESOURCE, scratchDir);
+                URI url = https ? HTTPS_URL : HTTP_URL;
+                BrowsermobVhsConfig config = createConfigBuilder(harFile, scratchDir).build();
+                run("browserup", config, BrowsermobVirtualHarServer::new, url, threads, requestsPerThread);
+                run("netty", config, NettyVirtualHarServer::new, url, threads, requestsPerThread);
+            }
+        } finally {
+            FileUtils.deleteQuietly(scratchDir.toFile());
+        }
+    }
+
+    private static void run(String engineName, BrowsermobVhsConfig config, Function<BrowsermobVhsConfig, VirtualHarServer> engine,
+                            URI url, int threads, int requestsPerThread) throws Exception {
+        try (VirtualHarServerControl ctrl = engine.apply(config).start()) {
+            sendRequests(ctrl.getSocketAddress(), url, threads, WARMUP_REQUESTS_PER_THREAD);
+            long start = System.nanoTime();
+            long[] latencies = sendRequests(ctrl.getSocketAddress(), url, threads, requestsPerThread);
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            System.out.format("%-10s %-6s %8d %10.0f %10.2f %10.2f%n", engineName, url.getScheme(), latencies.length,
+                    latencies.length / elapsedSeconds, percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6);
+        }
+    }
+
+    private static long[] sendRequests(HostAndPort proxy, URI url, int threads, int requestsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Sender(proxy, url, requestsPerThread)));
+            }
+            long[] latencies = new long[threads * requestsPerThread];
+            int i = 0;
+            for (Future<long[]> future : futures) {
+                for (long latency : future.get()) {
+                    latencies[i++] = latency;
+                }
+            }
+            return latencies;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Sender implements Callable<long[]> {
+
+        private final HostAndPort proxy;
+        private final URI url;
+        private final int numRequests;
+
+        public Sender(HostAndPort proxy, URI url, int numRequests) {
+            this.proxy = proxy;
+            this.url = url;
+            this.numRequests = numRequests;
+        }
+
+        @Override
+        public long[] call() throws Exception {
+            long[] latencies = new long[numRequests];
+            HttpClientBuilder b = HttpClients.custom()
+                    .setProxy(new HttpHost(proxy.getHost(), proxy.getPort()));
+            VhsTests.configureClientToTrustBlindly(b);
+            try (CloseableHttpClient client = b.build()) {
+                for (int i = 0; i < numRequests; i++) {
+                    long start = System.nanoTime();
+                    try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+                        EntityUtils.consume(response.getEntity());
+                        if (response.getStatusLine().getStatusCode() != 200) {
+                            throw new IllegalStateException("unexpected response: " + response.getStatusLine());
+                        }
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+            }
+            return latencies;
+        }
+    }
+
+    static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.floor(p * sorted.length))];
+    }
+
+    static BrowsermobVhsConfig.Builder createConfigBuilder(File harFile, Path scratchDir) throws IOException {
+        List<HarEntry> entries;
+        try {
+            entries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        } catch (HarReaderException e) {
+            throw new IOException(e);
+        }
+        EntryMatcher entryMatcher = HeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE)
+                .createEntryMatcher(entries, HarBridgeEntryParser.withPlainEncoder(new SstoehrHarBridge()));
+        HarReplayManufacturer responseManufacturer = new HarReplayManufacturer(entryMatcher, Collections.emptyList());
+        try {
+            return BrowsermobVhsConfig.builder(responseManufacturer)
+                    .scratchDirProvider(ScratchDirProvider.under(scratchDir))
+                    .tlsEndpointFactory(NanohttpdTlsEndpointFactory.create(BmpTests.generateKeystoreForUnitTest("localhost"), null));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static File copyHar(String resource, Path directory) throws IOException {
+        File harFile = File.createTempFile("benchmark", ".har", directory.toFile());
+        Resources.asByteSource(ReplayEngineBenchmark.class.getResource(resource)).copyTo(Files.asByteSink(harFile));
+        return harFile;
+    }
+}
@@ -190,8 +190,8 @@ public class ResponseManufacturingFilterTest {
         List<RequestCapture> requests = Collections.synchronizedList(new ArrayList<>());
         BrowsermobVirtualHarServer server = new BrowsermobVirtualHarServer(vhsConfig) {
             @Override
-            ResponseManufacturingFiltersSource createFirstFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, HostRewriter hostRewriter, BmpResponseListener bmpResponseListener, ResponseManufacturingFiltersSource.PassthruPredicate passthruPredicate) {
-                return new ResponseManufacturingFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, passthruPredicate) {
+            ResponseManufacturingFiltersSource createFirstFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, ConnectFilterFactory connectFilterFactory, BmpResponseListener bmpResponseListener, ResponseManufacturingFiltersSource.PassthruPredicate passthruPredicate) {
+                return new ResponseManufacturingFiltersSource(responseManufacturer, connectFilterFactory, bmpResponseListener, passthruPredicate) {
                     @Override
                     ResponseManufacturingFilter createResponseManufacturingFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, BmpResponseManufacturer.WithState<?> responseManufacturer, BmpResponseListener bmpResponseListener) {
                         return new ResponseManufacturingFilter(originalRequest, ctx, responseManufacturer, bmpResponseListener) {
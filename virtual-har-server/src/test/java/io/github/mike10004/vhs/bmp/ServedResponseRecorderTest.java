@@ -0,0 +1,74 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServedResponseRecorderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void recordsEachServedResponse() throws Exception {
+        File logFile = temporaryFolder.newFile("served.jsonl");
+        try (ServedResponseRecorder recorder = ServedResponseRecorder.open(ServedResponseLogConfig.toFile(logFile))) {
+            recorder.responding(createRequest("http://example.com/one"), ResponseCapture.matched(createResponse(HttpResponseStatus.OK, "hello")));
+            recorder.responding(createRequest("http://example.com/two"), ResponseCapture.unmatched(createResponse(HttpResponseStatus.NOT_FOUND, "")));
+            assertEquals("recorded", 2, recorder.getRecordedCount());
+        }
+        List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals("lines", 2, lines.size());
+        JsonObject first = new JsonParser().parse(lines.get(0)).getAsJsonObject();
+        assertEquals("url", "http://example.com/one", first.getAsJsonObject("request").get("url").getAsString());
+        assertEquals("status", 200, first.getAsJsonObject("response").get("status").getAsInt());
+        assertEquals("bodySize", 5, first.getAsJsonObject("response").get("bodySize").getAsInt());
+        assertEquals("origin", "MATCHED_ENTRY", first.get("_origin").getAsString());
+        JsonObject second = new JsonParser().parse(lines.get(1)).getAsJsonObject();
+        assertEquals("status", 404, second.getAsJsonObject("response").get("status").getAsInt());
+        assertEquals("origin", "UNMATCHED", second.get("_origin").getAsString());
+    }
+
+    @Test
+    public void stopsRecordingAtMaximumSize() throws Exception {
+        File logFile = temporaryFolder.newFile("served.jsonl");
+        long maxBytes = 1024;
+        try (ServedResponseRecorder recorder = ServedResponseRecorder.open(ServedResponseLogConfig.builder(logFile).maxBytes(maxBytes).build())) {
+            for (int i = 0; i < 100; i++) {
+                recorder.responding(createRequest("http://example.com/" + i), ResponseCapture.matched(createResponse(HttpResponseStatus.OK, "hello")));
+            }
+            assertEquals("total", 100, recorder.getRecordedCount() + recorder.getDroppedCount());
+            assertEquals("recorded lines", recorder.getRecordedCount(), Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8).size());
+        }
+        long size = logFile.length();
+        assertEquals("within maximum", true, size > 0 && size <= maxBytes);
+    }
+
+    private static RequestCapture createRequest(String url) {
+        RequestAccumulator accumulator = new RequestAccumulator(HttpVersion.HTTP_1_1);
+        accumulator.setMethod("GET");
+        accumulator.setUrl(url);
+        accumulator.addHeader("Accept", "*/*");
+        return accumulator.freeze();
+    }
+
+    private static DefaultFullHttpResponse createResponse(HttpResponseStatus status, String body) {
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
+        return response;
+    }
+}
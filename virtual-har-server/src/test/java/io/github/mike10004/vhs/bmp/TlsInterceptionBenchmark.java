@@ -0,0 +1,131 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.net.HostAndPort;
+import io.github.mike10004.vhs.VirtualHarServerControl;
+import io.github.mike10004.vhs.testsupport.VhsTests;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Program that reports the cost of setting up HTTPS connections through the
+ * BrowserUp replay engine in each {@link TlsInterceptionMode}. A number of client
+ * threads each send requests on a new connection per request, so every request
+ * includes a {@code CONNECT} and a TLS handshake with the proxy. The peak number
+ * of live threads in the process is reported alongside latency. Run with no
+ * arguments; pass numbers to set the thread count and the connections per thread.
+ */
+public class TlsInterceptionBenchmark {
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_CONNECTIONS_PER_THREAD = 100;
+    private static final int WARMUP_CONNECTIONS_PER_THREAD = 20;
+
+    private static final String HAR_RESOURCE = "/https.www.example.com.har";
+    private static final URI URL = URI.create("https://www.example.com/");
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int connectionsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONNECTIONS_PER_THREAD;
+        Path scratchDir = java.nio.file.Files.createTempDirectory("tls-interception-benchmark");
+        try {
+            File harFile = ReplayEngineBenchmark.copyHar(HAR_RESOURCE, scratchDir);
+            System.out.format("%-18s %11s %10s %10s %10s %12s%n", "mode", "connections", "conn/s", "p50 ms", "p99 ms", "peak threads");
+            for (TlsInterceptionMode mode : TlsInterceptionMode.values()) {
+                BrowsermobVhsConfig config = ReplayEngineBenchmark.createConfigBuilder(harFile, scratchDir)
+                        .tlsInterceptionMode(mode)
+                        .build();
+                run(mode, config, threads, connectionsPerThread);
+            }
+        } finally {
+            FileUtils.deleteQuietly(scratchDir.toFile());
+        }
+    }
+
+    private static void run(TlsInterceptionMode mode, BrowsermobVhsConfig config, int threads, int connectionsPerThread) throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        try (VirtualHarServerControl ctrl = new BrowsermobVirtualHarServer(config).start()) {
+            connect(ctrl.getSocketAddress(), threads, WARMUP_CONNECTIONS_PER_THREAD);
+            threadBean.resetPeakThreadCount();
+            long start = System.nanoTime();
+            long[] latencies = connect(ctrl.getSocketAddress(), threads, connectionsPerThread);
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            System.out.format("%-18s %11d %10.0f %10.2f %10.2f %12d%n", mode, latencies.length, latencies.length / elapsedSeconds,
+                    ReplayEngineBenchmark.percentile(latencies, 0.50) / 1e6, ReplayEngineBenchmark.percentile(latencies, 0.99) / 1e6,
+                    threadBean.getPeakThreadCount());
+        }
+    }
+
+    private static long[] connect(HostAndPort proxy, int threads, int connectionsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Connector(proxy, connectionsPerThread)));
+            }
+            long[] latencies = new long[threads * connectionsPerThread];
+            int i = 0;
+            for (Future<long[]> future : futures) {
+                for (long latency : future.get()) {
+                    latencies[i++] = latency;
+                }
+            }
+            return latencies;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Connector implements Callable<long[]> {
+
+        private final HostAndPort proxy;
+        private final int numConnections;
+
+        public Connector(HostAndPort proxy, int numConnections) {
+            this.proxy = proxy;
+            this.numConnections = numConnections;
+        }
+
+        @Override
+        public long[] call() throws Exception {
+            long[] latencies = new long[numConnections];
+            HttpClientBuilder b = HttpClients.custom()
+                    .setProxy(new HttpHost(proxy.getHost(), proxy.getPort()))
+                    .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+            VhsTests.configureClientToTrustBlindly(b);
+            try (CloseableHttpClient client = b.build()) {
+                for (int i = 0; i < numConnections; i++) {
+                    long start = System.nanoTime();
+                    try (CloseableHttpResponse response = client.execute(new HttpGet(URL))) {
+                        EntityUtils.consume(response.getEntity());
+                        if (response.getStatusLine().getStatusCode() != 200) {
+                            throw new IllegalStateException("unexpected response: " + response.getStatusLine());
+                        }
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+            }
+            return latencies;
+        }
+    }
+}
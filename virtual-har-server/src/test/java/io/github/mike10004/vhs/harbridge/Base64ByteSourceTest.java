@@ -17,4 +17,19 @@ public class Base64ByteSourceTest {
             assertEquals(String.format("base64 length %d", base64Data.length()), n, decodingSource.size());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void slice() throws Exception {
+        byte[] bytes = new byte[37];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        ByteSource decodingSource = Base64ByteSource.wrap(BaseEncoding.base64().encode(bytes));
+        ByteSource expectedSource = ByteSource.wrap(bytes);
+        for (int offset = 0; offset <= bytes.length + 1; offset++) {
+            for (int length = 0; length <= bytes.length + 1; length++) {
+                assertArrayEquals(String.format("slice(%d, %d)", offset, length), expectedSource.slice(offset, length).read(), decodingSource.slice(offset, length).read());
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class BodyDeduplicatorTest {
+
+    @Test
+    public void deduplicate() throws Exception {
+        String first = new String("abcdef".toCharArray()), second = new String("abcdef".toCharArray());
+        List<String> bodies = Arrays.asList(first, "xyz", null, second);
+        BodyDeduplicator.Result<String> result = BodyDeduplicator.deduplicate(bodies, new TextHasher());
+        List<String> deduplicated = result.getBodies();
+        assertEquals("size", bodies.size(), deduplicated.size());
+        assertSame("first retained", first, deduplicated.get(0));
+        assertSame("duplicate replaced", first, deduplicated.get(3));
+        assertNotSame("distinct", first, deduplicated.get(1));
+        assertNull("null retained", deduplicated.get(2));
+        DeduplicationStats stats = result.getStats();
+        assertEquals("bodies", 3, stats.getBodyCount());
+        assertEquals("unique", 2, stats.getUniqueBodyCount());
+        assertEquals("total bytes", 15, stats.getTotalBytes());
+        assertEquals("bytes saved", 6, stats.getBytesSaved());
+        assertEquals("ratio", 1.5, stats.getRatio(), 1e-9);
+    }
+
+    @Test
+    public void incremental() throws Exception {
+        String first = new String("abcdef".toCharArray()), second = new String("abcdef".toCharArray());
+        BodyDeduplicator.Incremental<String> deduplicator = BodyDeduplicator.incremental(new TextHasher());
+        assertSame("first retained", first, deduplicator.deduplicate(first));
+        assertSame("distinct", "xyz", deduplicator.deduplicate("xyz"));
+        assertNull("null retained", deduplicator.deduplicate(null));
+        assertSame("duplicate replaced", first, deduplicator.deduplicate(second));
+        DeduplicationStats stats = deduplicator.getStats();
+        assertEquals("bodies", 3, stats.getBodyCount());
+        assertEquals("unique", 2, stats.getUniqueBodyCount());
+        assertEquals("bytes saved", 6, stats.getBytesSaved());
+    }
+
+    @Test
+    public void deduplicate_hashFails() throws Exception {
+        try {
+            BodyDeduplicator.deduplicate(Arrays.asList("a", "b"), new TextHasher() {
+                @Override
+                public HashCode hash(String body, HashFunction hashFunction) throws IOException {
+                    throw new IOException("unreadable");
+                }
+            });
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertEquals("unreadable", e.getMessage());
+        }
+    }
+
+    private static class TextHasher implements BodyDeduplicator.BodyHasher<String> {
+
+        @Override
+        public HashCode hash(String body, HashFunction hashFunction) throws IOException {
+            return hashFunction.hashString(body, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long length(String body) {
+            return body.length();
+        }
+    }
+}
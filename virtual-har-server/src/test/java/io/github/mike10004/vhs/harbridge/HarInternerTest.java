@@ -0,0 +1,85 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class HarInternerTest {
+
+    @Test
+    public void intern_string() {
+        HarInterner interner = HarInterner.create();
+        String a = new String("text/html"), b = new String("text/html");
+        assertSame(interner.intern(a), interner.intern(b));
+        assertNull(interner.intern((String) null));
+    }
+
+    @Test
+    public void intern_uri() {
+        HarInterner interner = HarInterner.create();
+        URI a = URI.create("http://example.com/a?b=c"), b = URI.create("http://example.com/a?b=c");
+        assertSame(a, interner.intern(a));
+        assertSame(a, interner.intern(b));
+    }
+
+    @Test
+    public void headerList() {
+        HarInterner interner = HarInterner.create();
+        ImmutableList<Map.Entry<String, String>> a = interner.headerList(createHeaders());
+        ImmutableList<Map.Entry<String, String>> b = interner.headerList(createHeaders());
+        assertEquals(createHeaders(), a);
+        assertSame("list", a, b);
+        assertSame("value", a.get(0).getValue(), interner.header("Accept", new String("*/*")).getValue());
+    }
+
+    @Test
+    public void headerMultimap() {
+        HarInterner interner = HarInterner.create();
+        Multimap<String, String> headers = ArrayListMultimap.create();
+        headers.put("accept", "*/*");
+        headers.put("cookie", "a=b");
+        ImmutableMultimap<String, String> a = interner.headerMultimap(headers);
+        ImmutableMultimap<String, String> b = interner.headerMultimap(ArrayListMultimap.create(headers));
+        assertEquals(headers, a);
+        assertSame(a, b);
+    }
+
+    @Test
+    public void queryMultimap() {
+        HarInterner interner = HarInterner.create();
+        Multimap<String, Optional<String>> query = ArrayListMultimap.create();
+        query.put("q", Optional.of("x"));
+        query.put("flag", Optional.empty());
+        ImmutableMultimap<String, Optional<String>> a = interner.queryMultimap(query);
+        assertEquals(query, a);
+        assertSame(a, interner.queryMultimap(ArrayListMultimap.create(query)));
+        assertNull(interner.queryMultimap(null));
+    }
+
+    @Test
+    public void passThrough() {
+        HarInterner interner = HarInterner.passThrough();
+        String a = new String("text/html"), b = new String("text/html");
+        assertNotSame(interner.intern(a), interner.intern(b));
+        assertNotSame(interner.headerList(createHeaders()), interner.headerList(createHeaders()));
+        assertEquals(createHeaders(), interner.headerList(createHeaders()));
+    }
+
+    private static List<Map.Entry<String, String>> createHeaders() {
+        return ImmutableList.of(new SimpleImmutableEntry<>(new String("Accept"), new String("*/*")),
+                new SimpleImmutableEntry<>(new String("User-Agent"), new String("Mozilla/5.0")));
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.browserup.harreader.HarReader;
+import com.browserup.harreader.HarReaderMode;
+import com.browserup.harreader.model.HarEntry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.github.mike10004.vhs.EntryParser;
+import io.github.mike10004.vhs.HarBridgeEntryParser;
+import io.github.mike10004.vhs.HarResponseEncoderFactory;
+import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import io.github.mike10004.vhs.harbridge.streaming.StreamedHarEntry;
+import io.github.mike10004.vhs.harbridge.streaming.StreamingHarBridge;
+import io.github.mike10004.vhs.harbridge.streaming.StreamingHarLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Program that reports the heap retained by loaded HAR entries and their parsed
+ * requests, with and without interning. Each reference HAR is enlarged by
+ * repeating its entries, as in a long capture of one site. Run with no
+ * arguments; pass a number to set the repetition count.
+ */
+public class HarInterningBenchmark {
+
+    private static final String[] REFERENCE_HARS = {
+            "/replay-test-1.har",
+            "/https.www.example.com.har",
+            "/javascript-redirect.har",
+            "/single-entry-br-encoding.har",
+    };
+
+    private static final int DEFAULT_REPETITIONS = 500;
+
+    public static void main(String[] args) throws Exception {
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REPETITIONS;
+        System.out.format("%-32s %-10s %8s %14s %14s %8s%n", "har", "loader", "entries", "plain KiB", "interned KiB", "saved");
+        for (String resource : REFERENCE_HARS) {
+            File harFile = createEnlargedHar(resource, repetitions);
+            try {
+                report(resource, "streaming", harFile, HarInterningBenchmark::loadStreaming);
+                report(resource, "sstoehr", harFile, HarInterningBenchmark::loadSstoehr);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                harFile.delete();
+            }
+        }
+    }
+
+    private interface Loader {
+        List<?> load(File harFile, boolean interning) throws IOException;
+    }
+
+    private static void report(String resource, String loaderName, File harFile, Loader loader) throws IOException {
+        loader.load(harFile, false);
+        loader.load(harFile, true);
+        long before = usedHeap();
+        List<?> plain = loader.load(harFile, false);
+        long plainBytes = usedHeap() - before;
+        int numEntries = plain.size();
+        plain = null;
+        before = usedHeap();
+        List<?> interned = loader.load(harFile, true);
+        long internedBytes = usedHeap() - before;
+        System.out.format("%-32s %-10s %8d %14d %14d %7.1f%%%n", resource, loaderName, numEntries,
+                plainBytes / 1024, internedBytes / 1024, 100.0 * (plainBytes - internedBytes) / plainBytes);
+        interned.clear();
+    }
+
+    private static List<?> loadStreaming(File harFile, boolean interning) throws IOException {
+        List<StreamedHarEntry> entries = new StreamingHarLoader() {
+            @Override
+            protected HarInterner createInterner() {
+                return interning ? HarInterner.create() : HarInterner.passThrough();
+            }
+        }.load(harFile);
+        return parseRequests(entries, new StreamingHarBridge(), interning);
+    }
+
+    private static List<?> loadSstoehr(File harFile, boolean interning) throws IOException {
+        List<HarEntry> entries;
+        try {
+            entries = new HarReader().readFromFile(harFile, HarReaderMode.LAX).getLog().getEntries();
+        } catch (com.browserup.harreader.HarReaderException e) {
+            throw new IOException(e);
+        }
+        if (interning) {
+            SstoehrHarBridge.internStrings(entries, HarInterner.create());
+        }
+        return parseRequests(entries, new SstoehrHarBridge(), interning);
+    }
+
+    /**
+     * Parses the request of each entry and returns the entries paired with their
+     * requests, as an entry matcher retains them.
+     */
+    private static <E> List<Object> parseRequests(List<E> entries, HarBridge<E> bridge, boolean interning) throws IOException {
+        HarInterner interner = interning ? HarInterner.create() : HarInterner.passThrough();
+        EntryParser<E> parser = new HarBridgeEntryParser<>(bridge, HarResponseEncoderFactory.alwaysIdentityEncoding(), interner);
+        List<Object> retained = new ArrayList<>(entries.size() * 2);
+        for (E entry : entries) {
+            retained.add(entry);
+            retained.add(parser.parseRequest(entry));
+        }
+        return retained;
+    }
+
+    private static File createEnlargedHar(String resource, int repetitions) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode har = mapper.readTree(HarInterningBenchmark.class.getResource(resource));
+        ArrayNode entries = (ArrayNode) har.path("log").path("entries");
+        List<JsonNode> original = new ArrayList<>();
+        entries.forEach(original::add);
+        for (int i = 1; i < repetitions; i++) {
+            for (JsonNode entry : original) {
+                ObjectNode copy = entry.deepCopy();
+                JsonNode request = copy.path("request");
+                if (request instanceof ObjectNode) {
+                    String url = request.path("url").asText();
+                    ((ObjectNode) request).put("url", url + (url.contains("?") ? "&" : "?") + "_r=" + i);
+                }
+                entries.add(copy);
+            }
+        }
+        File harFile = File.createTempFile("enlarged", ".har");
+        mapper.writeValue(harFile, har);
+        return harFile;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParsedRequestTest {
+
+    private static final URI URL = URI.create("http://example.com/");
+
+    @Test
+    public void getFirstHeaderValue_lowercaseNames() {
+        ParsedRequest request = ParsedRequest.inMemory(HttpMethod.GET, URL, null, ImmutableMultimap.of("accept", "text/html", "cookie", "a=b", "cookie", "c=d"), null);
+        assertEquals("text/html", request.getFirstHeaderValue("Accept"));
+        assertEquals("a=b", request.getFirstHeaderValue("COOKIE"));
+        assertEquals("a=b", request.getFirstHeaderValue("cookie"));
+        assertNull(request.getFirstHeaderValue("Referer"));
+    }
+
+    @Test
+    public void getFirstHeaderValue_mixedCaseNames() {
+        ParsedRequest request = ParsedRequest.inMemory(HttpMethod.GET, URL, null, ImmutableMultimap.of("Accept", "text/html", "cookie", "a=b"), null);
+        assertEquals("text/html", request.getFirstHeaderValue("accept"));
+        assertEquals("a=b", request.getFirstHeaderValue("Cookie"));
+        assertNull(request.getFirstHeaderValue("Referer"));
+    }
+
+    @Test
+    public void create_sharedBody() throws Exception {
+        byte[] bytes = "x=y".getBytes(StandardCharsets.US_ASCII);
+        ByteSource body = ByteSource.wrap(bytes);
+        ParsedRequest a = ParsedRequest.create(HttpMethod.POST, URL, null, ImmutableMultimap.of(), body);
+        ParsedRequest b = ParsedRequest.create(HttpMethod.POST, URL, null, ImmutableMultimap.of(), body);
+        assertTrue(a.isBodyPresent());
+        assertArrayEquals(bytes, read(a));
+        assertArrayEquals(bytes, read(b));
+    }
+
+    @Test
+    public void create_noBody() throws Exception {
+        ParsedRequest request = ParsedRequest.create(HttpMethod.GET, URL, null, ImmutableMultimap.of(), null);
+        assertFalse(request.isBodyPresent());
+        assertEquals(0, read(request).length);
+    }
+
+    private static byte[] read(ParsedRequest request) throws Exception {
+        try (InputStream in = request.openBodyStream()) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import com.browserup.harreader.model.HarHeader;
 import com.browserup.harreader.model.HarRequest;
 import com.browserup.harreader.model.HarResponse;
 import com.browserup.harreader.model.HttpMethod;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
 import io.github.mike10004.vhs.harbridge.HarBridge;
 import io.github.mike10004.vhs.harbridge.HarResponseData;
 import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
@@ -41,9 +42,11 @@ import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class SstoehrHarBridgeTest {
@@ -83,6 +86,29 @@ public class SstoehrHarBridgeTest {
         return entry;
     }
 
+    @Test
+    public void deduplicateContent() throws Exception {
+        byte[] image = {(byte) 0x89, 'P', 'N', 'G', 0, 1, 2, 3};
+        String base64 = BaseEncoding.base64().encode(image);
+        List<HarEntry> entries = ImmutableList.of(
+                createHarEntry(URI.create("http://example.com/a.png"), MediaType.PNG, base64, image.length),
+                createHarEntry(URI.create("http://example.com/b.txt"), contentType, responseText, responseBody.length),
+                createHarEntry(URI.create("http://example.com/c.png"), MediaType.PNG, base64, image.length));
+        entries.get(0).getResponse().getContent().setEncoding("base64");
+        entries.get(2).getResponse().getContent().setEncoding("base64");
+        DeduplicationStats stats = SstoehrHarBridge.deduplicateContent(entries);
+        SstoehrHarBridge bridge = new SstoehrHarBridge();
+        TypedContent first = bridge.getResponseBody(entries.get(0)), third = bridge.getResponseBody(entries.get(2));
+        assertSame("shared body", first.asByteSource(), third.asByteSource());
+        assertArrayEquals("decoded body", image, third.asByteSource().read());
+        assertEquals("content type", MediaType.PNG, third.getContentType());
+        assertEquals("text", responseText, bridge.getResponseBody(entries.get(1)).asByteSource().asCharSource(UTF_8).read());
+        assertEquals("text retained", "", entries.get(0).getResponse().getContent().getText());
+        assertEquals("bodies", 3, stats.getBodyCount());
+        assertEquals("unique", 2, stats.getUniqueBodyCount());
+        assertEquals("bytes saved", image.length, stats.getBytesSaved());
+    }
+
     @Test
     public void getRequestMethod() throws Exception {
         assertEquals("method", HttpMethod.GET.name(), bridge.getRequestMethod(entry));
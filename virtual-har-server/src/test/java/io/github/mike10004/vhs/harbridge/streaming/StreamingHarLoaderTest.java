@@ -0,0 +1,217 @@
+package io.github.mike10004.vhs.harbridge.streaming;
+
+import com.browserup.harreader.HarReader;
+import com.browserup.harreader.HarReaderMode;
+import com.browserup.harreader.model.HarEntry;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
+import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarResponseData;
+import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingHarLoaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sameAsSstoehr_replayTest1() throws Exception {
+        compareWithSstoehr("/replay-test-1.har");
+    }
+
+    @Test
+    public void sameAsSstoehr_httpsExample() throws Exception {
+        compareWithSstoehr("/https.www.example.com.har");
+    }
+
+    @Test
+    public void sameAsSstoehr_javascriptRedirect() throws Exception {
+        compareWithSstoehr("/javascript-redirect.har");
+    }
+
+    @Test
+    public void sameAsSstoehr_brEncoding() throws Exception {
+        compareWithSstoehr("/single-entry-br-encoding.har");
+    }
+
+    private void compareWithSstoehr(String resourcePath) throws Exception {
+        File harFile = temporaryFolder.newFile();
+        Resources.asByteSource(getClass().getResource(resourcePath)).copyTo(Files.asByteSink(harFile));
+        List<HarEntry> expectedEntries = new HarReader().readFromFile(harFile, HarReaderMode.LAX).getLog().getEntries();
+        List<StreamedHarEntry> actualEntries = new StreamingHarLoader().load(harFile);
+        assertEquals("num entries", expectedEntries.size(), actualEntries.size());
+        HarBridge<HarEntry> expectedBridge = new SstoehrHarBridge();
+        HarBridge<StreamedHarEntry> actualBridge = new StreamingHarBridge();
+        for (int i = 0; i < expectedEntries.size(); i++) {
+            HarEntry expected = expectedEntries.get(i);
+            StreamedHarEntry actual = actualEntries.get(i);
+            String desc = resourcePath + " entry " + i;
+            assertEquals(desc + " method", expectedBridge.getRequestMethod(expected), actualBridge.getRequestMethod(actual));
+            assertEquals(desc + " url", expectedBridge.getRequestUrl(expected), actualBridge.getRequestUrl(actual));
+            assertEquals(desc + " request headers", expectedBridge.getRequestHeaders(expected).collect(Collectors.toList()), actualBridge.getRequestHeaders(actual).collect(Collectors.toList()));
+            assertEquals(desc + " status", expectedBridge.getResponseStatus(expected), actualBridge.getResponseStatus(actual));
+            assertBytesEqual(desc + " post data", expectedBridge.getRequestPostData(expected), actualBridge.getRequestPostData(actual));
+            ParsedRequest request = ParsedRequest.inMemory(HttpMethod.GET, URI.create(expectedBridge.getRequestUrl(expected)), null, ImmutableMultimap.of(), null);
+            HarResponseData expectedData = expectedBridge.getResponseData(request, expected, HarResponseEncoding.unencoded());
+            HarResponseData actualData = actualBridge.getResponseData(request, actual, HarResponseEncoding.unencoded());
+            assertEquals(desc + " response headers", expectedData.headers(), actualData.headers());
+            assertEquals(desc + " content type", expectedData.getContentType(), actualData.getContentType());
+            assertBytesEqual(desc + " response body", expectedData.getBody(), actualData.getBody());
+        }
+    }
+
+    private static void assertBytesEqual(String message, ByteSource expected, ByteSource actual) throws IOException {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertNotNull(message, actual);
+        assertArrayEquals(message, expected.read(), actual.read());
+    }
+
+    @Test
+    public void load_skipsUnusedFieldsAndDefersText() throws Exception {
+        String json = "{\"log\": {\"version\": \"1.2\", \"creator\": {\"name\": \"x\", \"version\": \"1\"}, \"pages\": [{\"id\": \"p\"}],\n" +
+                "\"entries\": [{\"startedDateTime\": \"2018-01-01T00:00:00.000Z\", \"time\": 5, \"cache\": {}, \"timings\": {\"send\": 1},\n" +
+                "\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/\", \"cookies\": [{\"name\": \"c\", \"value\": \"d\"}], \"headers\": [{\"name\": \"Accept\", \"value\": \"*/*\"}], \"bodySize\": -1},\n" +
+                "\"response\": {\"status\": 200, \"headers\": [{\"name\": \"Content-Type\", \"value\": \"text/plain\"}], \"bodySize\": 13,\n" +
+                "\"content\": {\"size\": 13, \"text\"  :  \"caf\\u00e9 \\\"quoted\\\"\" , \"mimeType\": \"text/plain\"}}}]}}";
+        File harFile = temporaryFolder.newFile();
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(json);
+        List<StreamedHarEntry> entries = new StreamingHarLoader().load(harFile);
+        assertEquals("num entries", 1, entries.size());
+        StreamedHarEntry entry = entries.get(0);
+        assertEquals("GET", entry.requestMethod);
+        assertEquals(Arrays.asList(new SimpleImmutableEntry<>("Accept", "*/*")), entry.requestHeaders);
+        assertEquals(200, entry.responseStatus);
+        assertEquals("text/plain", entry.contentMimeType);
+        DeferredText ref = entry.getContentTextReference();
+        assertNotNull("text reference", ref);
+        byte[] raw = Files.asByteSource(harFile).slice(ref.getOffset(), ref.getLength()).read();
+        assertTrue("raw text", new String(raw, StandardCharsets.UTF_8).startsWith("\"caf\\u00e9 \\\"quoted\\\"\" , "));
+        assertEquals("café \"quoted\"", entry.readContentText());
+    }
+
+    @Test
+    public void load_sharesIdenticalHeaders() throws Exception {
+        String entry = "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/%s\", \"headers\": [{\"name\": \"Accept\", \"value\": \"*/*\"}]},\n" +
+                "\"response\": {\"status\": 200, \"headers\": [{\"name\": \"Content-Type\", \"value\": \"text/plain\"}], \"content\": {\"size\": 1, \"text\": \"%s\", \"mimeType\": \"text/plain\"}}}";
+        String json = "{\"log\": {\"entries\": [" + String.format(entry, "a", "a") + ", " + String.format(entry, "b", "b") + "]}}";
+        File harFile = temporaryFolder.newFile();
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(json);
+        List<StreamedHarEntry> entries = new StreamingHarLoader().load(harFile);
+        assertEquals("num entries", 2, entries.size());
+        assertSame("request headers", entries.get(0).requestHeaders, entries.get(1).requestHeaders);
+        assertSame("response headers", entries.get(0).responseHeaders, entries.get(1).responseHeaders);
+        assertSame("method", entries.get(0).requestMethod, entries.get(1).requestMethod);
+        assertSame("mime type", entries.get(0).contentMimeType, entries.get(1).contentMimeType);
+        assertEquals("b", entries.get(1).readContentText());
+    }
+
+    private static final String DUPLICATE_CONTENT_JSON;
+
+    static {
+        String entry = "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/%s\", \"headers\": []},\n" +
+                "\"response\": {\"status\": 200, \"headers\": [], \"content\": {\"size\": 5, \"text\": \"%s\"%s}}}";
+        DUPLICATE_CONTENT_JSON = "{\"log\": {\"entries\": ["
+                + String.format(entry, "a", "hello", ", \"mimeType\": \"text/plain\"") + ",\n"
+                + String.format(entry, "b", "world", "") + ",\n"
+                + String.format(entry, "c", "hello", "") + "]}}";
+    }
+
+    @Test
+    public void deduplicateContent() throws Exception {
+        File harFile = temporaryFolder.newFile();
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(DUPLICATE_CONTENT_JSON);
+        List<StreamedHarEntry> entries = new StreamingHarLoader().load(harFile);
+        DeduplicationStats stats = StreamingHarLoader.deduplicateContent(entries);
+        assertSame("shared reference", entries.get(0).getContentTextReference(), entries.get(2).getContentTextReference());
+        assertNotSame("distinct reference", entries.get(0).getContentTextReference(), entries.get(1).getContentTextReference());
+        assertEquals("hello", entries.get(2).readContentText());
+        assertEquals("world", entries.get(1).readContentText());
+        assertEquals("bodies", 3, stats.getBodyCount());
+        assertEquals("unique", 2, stats.getUniqueBodyCount());
+        assertEquals("bytes saved", "\"hello\"".length(), stats.getBytesSaved());
+    }
+
+    @Test
+    public void contentDeduplicator() throws Exception {
+        File harFile = temporaryFolder.newFile();
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(DUPLICATE_CONTENT_JSON);
+        StreamingHarLoader.ContentDeduplicator deduplicator = StreamingHarLoader.createContentDeduplicator();
+        List<StreamedHarEntry> entries = new ArrayList<>();
+        new StreamingHarLoader().load(harFile, entry -> {
+            deduplicator.deduplicate(entry);
+            entries.add(entry);
+        });
+        assertSame("shared reference", entries.get(0).getContentTextReference(), entries.get(2).getContentTextReference());
+        assertEquals("hello", entries.get(2).readContentText());
+        DeduplicationStats stats = deduplicator.getStats();
+        assertEquals("bodies", 3, stats.getBodyCount());
+        assertEquals("unique", 2, stats.getUniqueBodyCount());
+    }
+
+    @Test
+    public void load_textOffsetsAcrossBufferBoundaries() throws Exception {
+        // lengths vary so that text values fall on either side of the parser's buffer boundaries and in the shorter final buffer
+        String entry = "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/%d\", \"headers\": []},\n" +
+                "\"response\": {\"status\": 200, \"headers\": [], \"content\": {\"size\": %d, \"text\": \"%s\", \"mimeType\": \"text/plain\"}}}";
+        List<String> texts = new ArrayList<>();
+        StringBuilder json = new StringBuilder("{\"log\": {\"entries\": [");
+        for (int i = 0; i < 200; i++) {
+            String text = Strings.repeat("caf\u00e9 \"" + i + "\" ", (i * 37) % 300 + 1);
+            texts.add(text);
+            if (i > 0) {
+                json.append(",\n");
+            }
+            json.append(String.format(entry, i, text.length(), text.replace("\"", "\\\"")));
+        }
+        json.append("]}}");
+        File harFile = temporaryFolder.newFile();
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(json);
+        List<StreamedHarEntry> entries = new StreamingHarLoader().load(harFile);
+        assertEquals("num entries", texts.size(), entries.size());
+        for (int i = 0; i < texts.size(); i++) {
+            assertEquals("text " + i, texts.get(i), entries.get(i).readContentText());
+        }
+    }
+
+    @Test
+    public void load_nullText() throws Exception {
+        String json = "{\"log\": {\"entries\": [{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/\", \"headers\": []},\n" +
+                "\"response\": {\"status\": 204, \"headers\": [], \"content\": {\"size\": 0, \"text\": null}}}]}}";
+        File harFile = temporaryFolder.newFile();
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(json);
+        StreamedHarEntry entry = new StreamingHarLoader().load(harFile).get(0);
+        assertNull(entry.readContentText());
+        assertEquals(204, entry.responseStatus);
+    }
+}
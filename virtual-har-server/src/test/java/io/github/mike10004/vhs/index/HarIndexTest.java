@@ -0,0 +1,185 @@
+package io.github.mike10004.vhs.index;
+
+import com.browserup.harreader.HarReader;
+import com.browserup.harreader.model.HarEntry;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.FileWriteMode;
+import com.google.common.io.Files;
+import io.github.mike10004.vhs.EntryParser;
+import io.github.mike10004.vhs.HarBridgeEntryParser;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.harbridge.DeduplicationStats;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import io.github.mike10004.vhs.testsupport.VhsTests;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HarIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        testRoundTrip(false);
+    }
+
+    @Test
+    public void roundTrip_compressed() throws Exception {
+        testRoundTrip(true);
+    }
+
+    private void testRoundTrip(boolean compressBodies) throws Exception {
+        File harFile = VhsTests.getReplayTest1HarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> entries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        EntryParser<HarEntry> parser = HarBridgeEntryParser.withPlainEncoder(new SstoehrHarBridge());
+        File indexFile = new File(temporaryFolder.getRoot(), "replay-test-1.idx");
+        HarIndexWriter.builder().compressBodies(compressBodies).build().write(harFile, entries, parser, indexFile);
+        assertTrue("is index file", HarIndex.isIndexFile(indexFile));
+        assertFalse("har is not index file", HarIndex.isIndexFile(harFile));
+        HarIndex index = HarIndex.open(indexFile);
+        assertEquals("num entries", entries.size(), index.getEntries().size());
+        assertEquals("checksum", HarIndex.checksum(harFile), index.getSourceChecksum());
+        IndexedEntryParser indexedParser = new IndexedEntryParser();
+        for (int i = 0; i < entries.size(); i++) {
+            ParsedRequest expectedRequest = parser.parseRequest(entries.get(i));
+            ParsedRequest actualRequest = indexedParser.parseRequest(index.getEntries().get(i));
+            assertEquals("method", expectedRequest.method, actualRequest.method);
+            assertEquals("url", expectedRequest.url, actualRequest.url);
+            assertEquals("query", expectedRequest.query, actualRequest.query);
+            assertEquals("headers", expectedRequest.indexedHeaders, actualRequest.indexedHeaders);
+            assertArrayEquals("request body", readBody(expectedRequest), readBody(actualRequest));
+            HttpRespondable expectedResponse = parser.parseResponse(expectedRequest, entries.get(i));
+            HttpRespondable actualResponse = indexedParser.parseResponse(actualRequest, index.getEntries().get(i));
+            assertEquals("status", expectedResponse.getStatus(), actualResponse.getStatus());
+            assertEquals("response headers", expectedResponse.streamHeaders().collect(Collectors.toList()), actualResponse.streamHeaders().collect(Collectors.toList()));
+            assertEquals("content type", expectedResponse.previewContentType(), actualResponse.previewContentType());
+            assertArrayEquals("response body", writeBody(expectedResponse), writeBody(actualResponse));
+            assertEquals("body size", writeBody(expectedResponse).length, actualResponse.getBodySource().sizeIfKnown().get().intValue());
+        }
+    }
+
+    private static byte[] readBody(ParsedRequest request) throws IOException {
+        if (!request.isBodyPresent()) {
+            return null;
+        }
+        try (InputStream in = request.openBodyStream()) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private static byte[] writeBody(HttpRespondable response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.writeBody(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void write_storesIdenticalBodiesOnce() throws Exception {
+        String entry = "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/%s\", \"headers\": []},\n" +
+                "\"response\": {\"status\": 200, \"headers\": [], \"content\": {\"size\": 5, \"text\": \"%s\", \"mimeType\": \"text/plain\"}}}";
+        String json = "{\"log\": {\"version\": \"1.2\", \"creator\": {\"name\": \"test\", \"version\": \"1\"}, \"entries\": ["
+                + String.format(entry, "a", "hello") + ", "
+                + String.format(entry, "b", "world") + ", "
+                + String.format(entry, "c", "hello") + "]}}";
+        File harFile = temporaryFolder.newFile("dup.har");
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(json);
+        List<HarEntry> entries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        File indexFile = new File(temporaryFolder.getRoot(), "dup.idx");
+        HarIndexWriter.builder().build().write(harFile, entries, HarBridgeEntryParser.withPlainEncoder(new SstoehrHarBridge()), indexFile);
+        HarIndex index = HarIndex.open(indexFile);
+        List<IndexedEntry> indexed = index.getEntries();
+        IndexedEntryParser parser = new IndexedEntryParser();
+        List<String> bodies = new ArrayList<>();
+        for (IndexedEntry indexedEntry : indexed) {
+            bodies.add(new String(writeBody(parser.parseResponse(parser.parseRequest(indexedEntry), indexedEntry)), StandardCharsets.UTF_8));
+        }
+        assertEquals(Arrays.asList("hello", "world", "hello"), bodies);
+        DeduplicationStats stats = index.getDeduplicationStats();
+        assertEquals("bodies", 3, stats.getBodyCount());
+        assertEquals("unique", 2, stats.getUniqueBodyCount());
+        assertEquals("bytes saved", 5, stats.getBytesSaved());
+    }
+
+    @Test
+    public void isCompiledFrom() throws Exception {
+        File harFile = VhsTests.getHttpsExampleHarFile(temporaryFolder.getRoot().toPath());
+        File otherHarFile = VhsTests.getReplayTest1HarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> entries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        File indexFile = new File(temporaryFolder.getRoot(), "https-example.idx");
+        HarIndexWriter.builder().build().write(harFile, entries, HarBridgeEntryParser.withPlainEncoder(new SstoehrHarBridge()), indexFile);
+        HarIndex index = HarIndex.open(indexFile);
+        assertTrue("compiled from source", index.isCompiledFrom(harFile));
+        assertFalse("compiled from other", index.isCompiledFrom(otherHarFile));
+        Files.asCharSink(harFile, StandardCharsets.UTF_8, FileWriteMode.APPEND).write(" ");
+        assertFalse("compiled from modified source", index.isCompiledFrom(harFile));
+    }
+
+    @Test
+    public void source_comparesModificationTimeUnlessChecksumVerified() throws Exception {
+        File harFile = VhsTests.getHttpsExampleHarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> entries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        File indexFile = new File(temporaryFolder.getRoot(), "https-example.idx");
+        HarIndexWriter.builder().build().write(harFile, entries, HarBridgeEntryParser.withPlainEncoder(new SstoehrHarBridge()), indexFile);
+        HarIndexSource source = HarIndexSource.read(indexFile);
+        assertEquals("checksum", HarIndex.checksum(harFile), source.getChecksum());
+        assertEquals("source read from header", HarIndex.open(indexFile).getSource().toString(), source.toString());
+        assertTrue("matches", source.matches(harFile, false));
+        assertTrue("harFile.setLastModified", harFile.setLastModified(harFile.lastModified() - 60000));
+        assertFalse("matches touched file by modification time", source.matches(harFile, false));
+        assertTrue("matches touched file by checksum", source.matches(harFile, true));
+    }
+
+    @Test
+    public void open_unsupportedVersion() throws Exception {
+        File harFile = VhsTests.getHttpsExampleHarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> entries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        File indexFile = new File(temporaryFolder.getRoot(), "https-example.idx");
+        HarIndexWriter.builder().build().write(harFile, entries, HarBridgeEntryParser.withPlainEncoder(new SstoehrHarBridge()), indexFile);
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.seek(4);
+            raf.writeInt(HarIndexFormat.VERSION + 1);
+        }
+        try {
+            HarIndex.open(indexFile);
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unsupported index version"));
+        }
+    }
+
+    @Test
+    public void open_truncated() throws Exception {
+        File harFile = VhsTests.getHttpsExampleHarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> entries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        File indexFile = new File(temporaryFolder.getRoot(), "https-example.idx");
+        HarIndexWriter.builder().build().write(harFile, entries, HarBridgeEntryParser.withPlainEncoder(new SstoehrHarBridge()), indexFile);
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        try {
+            HarIndex.open(indexFile);
+            fail("should have thrown");
+        } catch (IOException ignore) {
+        }
+    }
+}